@@ -0,0 +1,117 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
+import software.amazon.encryption.s3.legacy.internal.AdjustedRangeSubscriber;
+import software.amazon.encryption.s3.materials.EncryptionMaterials;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams 8 MiB through CipherSubscriber and AdjustedRangeSubscriber in 64 KiB buffers.
+ * Run with "-prof gc" to compare the bytes allocated per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CipherSubscriberBenchmark {
+
+    private static final int CONTENT_LENGTH = 8 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Param({"false", "true"})
+    public boolean direct;
+
+    private EncryptionMaterials _materials;
+    private byte[] _iv;
+    private ByteBuffer[] _buffers;
+
+    @Setup
+    public void setup() {
+        SecureRandom secureRandom = new SecureRandom();
+        byte[] dataKey = new byte[32];
+        _iv = new byte[AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF.iVLengthBytes()];
+        secureRandom.nextBytes(dataKey);
+        secureRandom.nextBytes(_iv);
+        _materials = EncryptionMaterials.builder()
+                .s3Request(PutObjectRequest.builder().bucket("bucket").key("key").build())
+                .algorithmSuite(AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF)
+                .plaintextDataKey(dataKey)
+                .build();
+
+        _buffers = new ByteBuffer[CONTENT_LENGTH / BUFFER_SIZE];
+        byte[] content = new byte[BUFFER_SIZE];
+        for (int i = 0; i < _buffers.length; i++) {
+            secureRandom.nextBytes(content);
+            _buffers[i] = direct ? ByteBuffer.allocateDirect(BUFFER_SIZE) : ByteBuffer.allocate(BUFFER_SIZE);
+            _buffers[i].put(content).flip();
+        }
+    }
+
+    @Benchmark
+    public void encrypt(Blackhole blackhole) {
+        CipherSubscriber subscriber = new CipherSubscriber(new BlackholeSubscriber(blackhole),
+                (long) CONTENT_LENGTH, _materials, _iv);
+        for (ByteBuffer buffer : _buffers) {
+            subscriber.onNext(buffer.duplicate());
+        }
+        subscriber.onComplete();
+    }
+
+    @Benchmark
+    public void adjustRange(Blackhole blackhole) throws IOException {
+        AdjustedRangeSubscriber subscriber = new AdjustedRangeSubscriber(new BlackholeSubscriber(blackhole),
+                100L, CONTENT_LENGTH - 100L);
+        for (ByteBuffer buffer : _buffers) {
+            subscriber.onNext(buffer.duplicate());
+        }
+    }
+
+    private static final class BlackholeSubscriber implements Subscriber<ByteBuffer> {
+        private final Blackhole _blackhole;
+
+        private BlackholeSubscriber(Blackhole blackhole) {
+            _blackhole = blackhole;
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+        }
+
+        @Override
+        public void onNext(ByteBuffer byteBuffer) {
+            _blackhole.consume(byteBuffer);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            throw new IllegalStateException(t);
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+}
@@ -0,0 +1,149 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
+import software.amazon.encryption.s3.materials.EncryptionMaterials;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encrypts 8 MiB delivered in buffers of the given chunk size, updating the cipher with each buffer
+ * (a target size of 0) or with buffers gathered up to the target size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CoalescingSubscriberBenchmark {
+
+    private static final int CONTENT_LENGTH = 8 * 1024 * 1024;
+
+    @Param({"1024", "8192", "65536"})
+    public int chunkSize;
+
+    @Param({"0", "65536", "262144"})
+    public int targetSize;
+
+    private EncryptionMaterials _materials;
+    private byte[] _iv;
+    private ByteBuffer[] _chunks;
+
+    @Setup
+    public void setup() {
+        SecureRandom secureRandom = new SecureRandom();
+        byte[] dataKey = new byte[32];
+        _iv = new byte[AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF.iVLengthBytes()];
+        secureRandom.nextBytes(dataKey);
+        secureRandom.nextBytes(_iv);
+        _materials = EncryptionMaterials.builder()
+                .s3Request(PutObjectRequest.builder().bucket("bucket").key("key").build())
+                .algorithmSuite(AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF)
+                .plaintextDataKey(dataKey)
+                .build();
+
+        _chunks = new ByteBuffer[CONTENT_LENGTH / chunkSize];
+        byte[] content = new byte[chunkSize];
+        for (int i = 0; i < _chunks.length; i++) {
+            secureRandom.nextBytes(content);
+            _chunks[i] = ByteBuffer.wrap(content.clone());
+        }
+    }
+
+    @Benchmark
+    public void encrypt(Blackhole blackhole) {
+        Subscriber<? super ByteBuffer> subscriber = CoalescingSubscriber.coalesce(
+                new CipherSubscriber(new BlackholeSubscriber(blackhole), (long) CONTENT_LENGTH, _materials, _iv),
+                targetSize);
+        new ChunkSubscription(subscriber, _chunks).start();
+    }
+
+    /**
+     * Delivers the chunks as they are requested, as the SDK's publishers do.
+     */
+    private static final class ChunkSubscription implements Subscription {
+        private final Subscriber<? super ByteBuffer> _subscriber;
+        private final ByteBuffer[] _chunks;
+        private long _requested;
+        private int _next;
+        private boolean _emitting;
+
+        private ChunkSubscription(Subscriber<? super ByteBuffer> subscriber, ByteBuffer[] chunks) {
+            _subscriber = subscriber;
+            _chunks = chunks;
+        }
+
+        void start() {
+            _subscriber.onSubscribe(this);
+        }
+
+        @Override
+        public void request(long n) {
+            _requested = _requested + n < 0 ? Long.MAX_VALUE : _requested + n;
+            if (_emitting) {
+                return;
+            }
+            _emitting = true;
+            while (_requested > 0 && _next < _chunks.length) {
+                _requested--;
+                _subscriber.onNext(_chunks[_next++].duplicate());
+            }
+            if (_next == _chunks.length) {
+                _next++;
+                _subscriber.onComplete();
+            }
+            _emitting = false;
+        }
+
+        @Override
+        public void cancel() {
+            _next = _chunks.length + 1;
+        }
+    }
+
+    private static final class BlackholeSubscriber implements Subscriber<ByteBuffer> {
+        private final Blackhole _blackhole;
+
+        private BlackholeSubscriber(Blackhole blackhole) {
+            _blackhole = blackhole;
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(ByteBuffer byteBuffer) {
+            _blackhole.consume(byteBuffer);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            throw new IllegalStateException(t);
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+}
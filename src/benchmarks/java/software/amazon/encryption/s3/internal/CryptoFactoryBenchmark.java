@@ -0,0 +1,89 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares unwrapping a data key as AesKeyring does, and generating a data key, with a new
+ * Cipher or KeyGenerator for each operation against the instances pooled by CipherPool and
+ * cached by CryptoFactory.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CryptoFactoryBenchmark {
+
+    private static final String CIPHER_ALGORITHM = "AES/GCM/NoPadding";
+    private static final int TAG_LENGTH_BITS = 128;
+
+    private final CipherPool _cipherPool = new CipherPool();
+    private SecretKey _wrappingKey;
+    private byte[] _iv;
+    private byte[] _encryptedDataKey;
+
+    @Setup
+    public void setup() throws GeneralSecurityException {
+        SecureRandom secureRandom = new SecureRandom();
+        byte[] wrappingKey = new byte[32];
+        byte[] dataKey = new byte[32];
+        _iv = new byte[12];
+        secureRandom.nextBytes(wrappingKey);
+        secureRandom.nextBytes(dataKey);
+        secureRandom.nextBytes(_iv);
+        _wrappingKey = new SecretKeySpec(wrappingKey, "AES");
+
+        Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
+        cipher.init(Cipher.ENCRYPT_MODE, _wrappingKey, new GCMParameterSpec(TAG_LENGTH_BITS, _iv));
+        _encryptedDataKey = cipher.doFinal(dataKey);
+    }
+
+    @Benchmark
+    public byte[] unwrapWithNewCipher() throws GeneralSecurityException {
+        Cipher cipher = CryptoFactory.createCipher(CIPHER_ALGORITHM, null);
+        cipher.init(Cipher.DECRYPT_MODE, _wrappingKey, new GCMParameterSpec(TAG_LENGTH_BITS, _iv));
+        return cipher.doFinal(_encryptedDataKey);
+    }
+
+    @Benchmark
+    public byte[] unwrapWithPooledCipher() throws GeneralSecurityException {
+        return _cipherPool.withCipher(CIPHER_ALGORITHM, null, Cipher.DECRYPT_MODE,
+                _wrappingKey, new GCMParameterSpec(TAG_LENGTH_BITS, _iv), null,
+                cipher -> cipher.doFinal(_encryptedDataKey));
+    }
+
+    @Benchmark
+    public SecretKey generateWithNewKeyGenerator() throws GeneralSecurityException {
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(256);
+        return generator.generateKey();
+    }
+
+    @Benchmark
+    public SecretKey generateWithCachedKeyGenerator() {
+        KeyGenerator generator = CryptoFactory.generateKey("AES", null);
+        generator.init(256);
+        return generator.generateKey();
+    }
+}
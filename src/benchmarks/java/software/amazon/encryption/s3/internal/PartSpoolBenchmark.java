@@ -0,0 +1,170 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes 64 MiB of ciphertext through a MultiFileOutputStream into 8 MiB parts, as the
+ * synchronous multipart PutObject does, while two threads read each part back as its upload
+ * would, and release it. At most four parts are held by the spool at once.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PartSpoolBenchmark {
+
+    private static final int CONTENT_LENGTH = 64 * 1024 * 1024;
+    private static final int PART_SIZE = 8 * 1024 * 1024;
+    private static final int WRITE_SIZE = 64 * 1024;
+
+    @Param({"disk", "heap", "direct", "mapped"})
+    public String spool;
+
+    private PartSpool _spool;
+    private ExecutorService _uploaders;
+    private byte[] _chunk;
+
+    @Setup
+    public void setup() {
+        switch (spool) {
+            case "disk":
+                _spool = new DiskPartSpool();
+                break;
+            case "heap":
+                _spool = new HeapPartSpool();
+                break;
+            case "direct":
+                _spool = new DirectPartSpool();
+                break;
+            case "mapped":
+                _spool = new MappedPartSpool();
+                break;
+            default:
+                throw new IllegalArgumentException(spool);
+        }
+        _uploaders = Executors.newFixedThreadPool(2);
+        _chunk = new byte[WRITE_SIZE];
+        new SecureRandom().nextBytes(_chunk);
+    }
+
+    @TearDown
+    public void tearDown() {
+        _uploaders.shutdownNow();
+    }
+
+    @Benchmark
+    public void spoolParts(Blackhole blackhole) throws Exception {
+        final int parts = CONTENT_LENGTH / PART_SIZE;
+        final CountDownLatch uploaded = new CountDownLatch(parts);
+        final MultiFileOutputStream outputStream = new MultiFileOutputStream(_spool)
+                .init(new DrainingObserver(_uploaders, blackhole, uploaded), PART_SIZE, 4L * PART_SIZE);
+        for (int written = 0; written < CONTENT_LENGTH; written += WRITE_SIZE) {
+            outputStream.write(_chunk, 0, WRITE_SIZE);
+        }
+        outputStream.close();
+        uploaded.await();
+        outputStream.cleanup();
+    }
+
+    /**
+     * Reads each part on one of the uploaders as its upload would, then releases it.
+     */
+    private static final class DrainingObserver extends UploadObjectObserver {
+        private final ExecutorService _uploaders;
+        private final Blackhole _blackhole;
+        private final CountDownLatch _uploaded;
+
+        private DrainingObserver(ExecutorService uploaders, Blackhole blackhole, CountDownLatch uploaded) {
+            _uploaders = uploaders;
+            _blackhole = blackhole;
+            _uploaded = uploaded;
+        }
+
+        @Override
+        public void onPartCreate(PartCreationEvent event) {
+            _uploaders.execute(() -> {
+                final SpooledPart part = event.getSpooledPart();
+                final DrainingSubscriber subscriber = new DrainingSubscriber(_blackhole);
+                part.requestBody().subscribe(subscriber);
+                try {
+                    subscriber.await();
+                } catch (IOException | InterruptedException e) {
+                    throw new IllegalStateException(e);
+                } finally {
+                    part.release();
+                    event.getFileDeleteObserver().onFileDelete(null);
+                    _uploaded.countDown();
+                }
+            });
+        }
+    }
+
+    private static final class DrainingSubscriber implements Subscriber<ByteBuffer> {
+        private final Blackhole _blackhole;
+        private final CountDownLatch _done = new CountDownLatch(1);
+        private volatile Throwable _error;
+
+        private DrainingSubscriber(Blackhole blackhole) {
+            _blackhole = blackhole;
+        }
+
+        void await() throws IOException, InterruptedException {
+            _done.await();
+            if (_error != null) {
+                throw new IOException(_error);
+            }
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(ByteBuffer byteBuffer) {
+            // Read the part as a network write would
+            long sum = 0;
+            while (byteBuffer.remaining() >= Long.BYTES) {
+                sum += byteBuffer.getLong();
+            }
+            _blackhole.consume(sum);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            _error = t;
+            _done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            _done.countDown();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
+import software.amazon.encryption.s3.materials.DecryptionMaterials;
+import software.amazon.encryption.s3.materials.EncryptionMaterials;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decrypts a 256 KiB GCM object through BufferedCipherSubscriber, and in one allocation through
+ * SmallObjectCipherSubscriber, given in 8 KiB buffers, as the SDK's HTTP clients typically deliver.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SmallObjectCipherSubscriberBenchmark {
+
+    private static final AlgorithmSuite SUITE = AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF;
+    private static final int PLAINTEXT_LENGTH = 256 * 1024;
+    private static final int BUFFER_SIZE = 8192;
+
+    @Param({"buffered", "small"})
+    public String subscriber;
+
+    private DecryptionMaterials _materials;
+    private byte[] _iv;
+    private byte[] _ciphertext;
+
+    @Setup
+    public void setup() throws GeneralSecurityException {
+        SecureRandom secureRandom = new SecureRandom();
+        byte[] dataKey = new byte[32];
+        _iv = new byte[SUITE.iVLengthBytes()];
+        secureRandom.nextBytes(dataKey);
+        secureRandom.nextBytes(_iv);
+        byte[] plaintext = new byte[PLAINTEXT_LENGTH];
+        secureRandom.nextBytes(plaintext);
+        _ciphertext = EncryptionMaterials.builder()
+                .s3Request(PutObjectRequest.builder().bucket("bucket").key("key").build())
+                .algorithmSuite(SUITE)
+                .plaintextDataKey(dataKey)
+                .build()
+                .getCipher(_iv)
+                .doFinal(plaintext);
+        _materials = DecryptionMaterials.builder()
+                .s3Request(GetObjectRequest.builder().bucket("bucket").key("key").build())
+                .algorithmSuite(SUITE)
+                .plaintextDataKey(dataKey)
+                .build();
+    }
+
+    @Benchmark
+    public void decrypt(Blackhole blackhole) {
+        BlackholeSubscriber downstream = new BlackholeSubscriber(blackhole);
+        AbstractBufferedCipherSubscriber cipherSubscriber = subscriber.equals("small")
+                ? new SmallObjectCipherSubscriber(downstream, _ciphertext.length, _materials, _iv, null)
+                : BufferedCipherSubscriber.builder()
+                        .wrappedSubscriber(downstream)
+                        .contentLength((long) _ciphertext.length)
+                        .materials(_materials)
+                        .iv(_iv)
+                        .build();
+        cipherSubscriber.onSubscribe(downstream);
+        for (int offset = 0; offset < _ciphertext.length; offset += BUFFER_SIZE) {
+            cipherSubscriber.onNext(ByteBuffer.wrap(_ciphertext, offset, Math.min(BUFFER_SIZE, _ciphertext.length - offset)));
+        }
+        cipherSubscriber.onComplete();
+        if (!downstream._complete) {
+            throw new IllegalStateException("Not complete");
+        }
+    }
+
+    /**
+     * Requests one buffer at a time, and also stands in for the upstream subscription.
+     */
+    private static final class BlackholeSubscriber implements Subscriber<ByteBuffer>, Subscription {
+        private final Blackhole _blackhole;
+        private Subscription _subscription;
+        private boolean _complete;
+
+        private BlackholeSubscriber(Blackhole blackhole) {
+            _blackhole = blackhole;
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            _subscription = subscription;
+            if (subscription != this) {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onNext(ByteBuffer byteBuffer) {
+            _blackhole.consume(byteBuffer);
+            if (_subscription != this) {
+                _subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            throw new IllegalStateException(t);
+        }
+
+        @Override
+        public void onComplete() {
+            _complete = true;
+        }
+
+        @Override
+        public void request(long n) {
+        }
+
+        @Override
+        public void cancel() {
+        }
+    }
+}
@@ -0,0 +1,225 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the blocking reads which bridge the InputStream of a synchronous request body to the asynchronous
+ * client which uploads it. Each upload holds a task for as long as its content is being read.
+ * <p>
+ * Threads are created as they are needed, up to {@link #maxThreads()}, and exit once idle for the keep
+ * alive time; further tasks wait in a queue. On Java 21 or later, virtual threads may be used instead, in
+ * which case each task gets its own thread and none wait.
+ */
+public final class BridgingExecutor extends AbstractExecutorService {
+
+    private static final String THREAD_NAME_PREFIX = "s3-encryption-client-bridge-";
+    private static final int DEFAULT_MAX_THREADS = 64;
+    private static final Duration DEFAULT_KEEP_ALIVE = Duration.ofSeconds(60);
+
+    private final ExecutorService _delegate;
+    // Null when virtual threads are used
+    private final ThreadPoolExecutor _pool;
+    private final int _maxThreads;
+    private final boolean _virtualThreads;
+
+    private final AtomicInteger _queuedTasks = new AtomicInteger();
+    private final AtomicInteger _runningTasks = new AtomicInteger();
+    private final AtomicLong _completedTasks = new AtomicLong();
+
+    private BridgingExecutor(Builder builder) {
+        _maxThreads = builder._maxThreads;
+        _virtualThreads = builder._virtualThreads;
+        if (_virtualThreads) {
+            _pool = null;
+            _delegate = newVirtualThreadExecutor();
+        } else {
+            final AtomicInteger threadCount = new AtomicInteger();
+            _pool = new ThreadPoolExecutor(_maxThreads, _maxThreads, builder._keepAlive.toNanos(), TimeUnit.NANOSECONDS,
+                    new LinkedBlockingQueue<>(), runnable -> {
+                        Thread thread = new Thread(runnable, THREAD_NAME_PREFIX + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            _pool.allowCoreThreadTimeOut(true);
+            _delegate = _pool;
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return whether this JVM supports virtual threads, i.e. is Java 21 or later
+     */
+    public static boolean virtualThreadsSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return true;
+        } catch (final NoSuchMethodException exception) {
+            return false;
+        }
+    }
+
+    // Looked up reflectively, as the client is built for Java 8
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object threadBuilder = Thread.class.getMethod("ofVirtual").invoke(null);
+            threadBuilder = builderClass.getMethod("name", String.class, long.class)
+                    .invoke(threadBuilder, THREAD_NAME_PREFIX, 1L);
+            final ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(threadBuilder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, threadFactory);
+        } catch (final ReflectiveOperationException exception) {
+            throw new S3EncryptionClientException("Virtual threads require Java 21 or later", exception);
+        }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        _queuedTasks.incrementAndGet();
+        try {
+            _delegate.execute(() -> {
+                _queuedTasks.decrementAndGet();
+                _runningTasks.incrementAndGet();
+                try {
+                    task.run();
+                } finally {
+                    _runningTasks.decrementAndGet();
+                    _completedTasks.incrementAndGet();
+                }
+            });
+        } catch (final RejectedExecutionException exception) {
+            _queuedTasks.decrementAndGet();
+            throw exception;
+        }
+    }
+
+    /**
+     * @return the number of threads which currently exist, whether running a task or idle
+     */
+    public int threads() {
+        return _pool != null ? _pool.getPoolSize() : _runningTasks.get();
+    }
+
+    /**
+     * @return the number of tasks waiting for a thread
+     */
+    public int queuedTasks() {
+        return _queuedTasks.get();
+    }
+
+    /**
+     * @return the number of tasks currently running
+     */
+    public int runningTasks() {
+        return _runningTasks.get();
+    }
+
+    /**
+     * @return the number of tasks which have finished
+     */
+    public long completedTasks() {
+        return _completedTasks.get();
+    }
+
+    /**
+     * @return the most platform threads which are used at once; not a bound when virtual threads are used
+     */
+    public int maxThreads() {
+        return _maxThreads;
+    }
+
+    /**
+     * @return whether each task runs on its own virtual thread
+     */
+    public boolean virtualThreads() {
+        return _virtualThreads;
+    }
+
+    @Override
+    public void shutdown() {
+        _delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        final List<Runnable> neverRun = _delegate.shutdownNow();
+        _queuedTasks.addAndGet(-neverRun.size());
+        return neverRun;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return _delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return _delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return _delegate.awaitTermination(timeout, unit);
+    }
+
+    public static class Builder {
+        private int _maxThreads = DEFAULT_MAX_THREADS;
+        private Duration _keepAlive = DEFAULT_KEEP_ALIVE;
+        private boolean _virtualThreads = false;
+
+        private Builder() {
+        }
+
+        /**
+         * The most platform threads used at once; further tasks wait for one to be free. Defaults to 64.
+         */
+        public Builder maxThreads(int maxThreads) {
+            _maxThreads = maxThreads;
+            return this;
+        }
+
+        /**
+         * How long an idle platform thread is kept before it exits. Defaults to 60 seconds.
+         */
+        public Builder keepAlive(Duration keepAlive) {
+            _keepAlive = keepAlive;
+            return this;
+        }
+
+        /**
+         * Whether to run each task on its own virtual thread rather than on a bounded set of platform
+         * threads. Requires Java 21 or later. Disabled by default.
+         */
+        public Builder virtualThreads(boolean virtualThreads) {
+            _virtualThreads = virtualThreads;
+            return this;
+        }
+
+        public BridgingExecutor build() {
+            if (_maxThreads < 1) {
+                throw new S3EncryptionClientException("Maximum threads must be at least 1");
+            }
+            if (_keepAlive == null || _keepAlive.isNegative() || _keepAlive.isZero()) {
+                throw new S3EncryptionClientException("Keep alive must be positive");
+            }
+            return new BridgingExecutor(this);
+        }
+    }
+}
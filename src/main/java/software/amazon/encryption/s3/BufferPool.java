@@ -0,0 +1,232 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of buffers, shared by the requests of an encryption client, which the client uses for the
+ * buffers it holds for the lifetime of a request, e.g. to collect an object's ciphertext before it is
+ * authenticated. Buffers are grouped into power-of-two size classes, and are zeroed when they are released,
+ * so that no plaintext outlives the request which used it.
+ * <p>
+ * Buffers passed on to the subscriber or transformer given by the caller are not taken from the pool, as
+ * there is no signal for when the caller is done with them.
+ */
+public final class BufferPool {
+
+    private static final int DEFAULT_MIN_BUFFER_SIZE = 4 * 1024;
+    private static final int DEFAULT_MAX_BUFFER_SIZE = 64 * 1024 * 1024;
+    private static final long DEFAULT_MAX_POOLED_BYTES = 256L * 1024 * 1024;
+    private static final byte[] ZEROS = new byte[8 * 1024];
+
+    private final int _minBufferSize;
+    private final int _maxBufferSize;
+    private final long _maxPooledBytes;
+    private final boolean _direct;
+
+    // Free buffers of each size class, smallest first
+    private final ArrayDeque<ByteBuffer>[] _freeBuffers;
+    private long _pooledBytes;
+
+    private final AtomicLong _outstandingBytes = new AtomicLong();
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    private BufferPool(Builder builder) {
+        _minBufferSize = builder._minBufferSize;
+        _maxBufferSize = builder._maxBufferSize;
+        _maxPooledBytes = builder._maxPooledBytes;
+        _direct = builder._direct;
+
+        final int sizeClasses = Integer.numberOfTrailingZeros(_maxBufferSize)
+                - Integer.numberOfTrailingZeros(_minBufferSize) + 1;
+        _freeBuffers = new ArrayDeque[sizeClasses];
+        for (int i = 0; i < sizeClasses; i++) {
+            _freeBuffers[i] = new ArrayDeque<>();
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns a buffer with a limit of the given size, and at least that capacity. The buffer must be
+     * passed to {@link #release(ByteBuffer)} once no longer needed.
+     */
+    public ByteBuffer acquire(int size) {
+        if (size < 0) {
+            throw new S3EncryptionClientException("Buffer size cannot be negative");
+        }
+        ByteBuffer buffer = null;
+        final int sizeClass = sizeClass(size);
+        if (sizeClass >= 0) {
+            synchronized (_freeBuffers) {
+                buffer = _freeBuffers[sizeClass].poll();
+                if (buffer != null) {
+                    _pooledBytes -= buffer.capacity();
+                }
+            }
+        }
+
+        if (buffer != null) {
+            _hits.incrementAndGet();
+        } else {
+            _misses.incrementAndGet();
+            final int capacity = sizeClass >= 0 ? _minBufferSize << sizeClass : size;
+            buffer = _direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        }
+        _outstandingBytes.addAndGet(buffer.capacity());
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Zeroes the buffer and returns it to the pool, if there is room for it. The buffer must have been
+     * acquired from this pool, and must not be used once released.
+     */
+    public void release(ByteBuffer buffer) {
+        _outstandingBytes.addAndGet(-buffer.capacity());
+        zero(buffer);
+
+        final int sizeClass = sizeClass(buffer.capacity());
+        if (sizeClass < 0 || _minBufferSize << sizeClass != buffer.capacity() || buffer.isDirect() != _direct) {
+            // Not one of the pool's buffers, e.g. larger than the largest size class
+            return;
+        }
+        synchronized (_freeBuffers) {
+            if (_pooledBytes + buffer.capacity() <= _maxPooledBytes) {
+                _freeBuffers[sizeClass].push(buffer);
+                _pooledBytes += buffer.capacity();
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes in buffers which are held by the pool, ready for reuse
+     */
+    public long pooledBytes() {
+        synchronized (_freeBuffers) {
+            return _pooledBytes;
+        }
+    }
+
+    /**
+     * @return the number of bytes in buffers which have been acquired and not yet released
+     */
+    public long outstandingBytes() {
+        return _outstandingBytes.get();
+    }
+
+    /**
+     * @return the number of buffers acquired which were reused from the pool
+     */
+    public long hits() {
+        return _hits.get();
+    }
+
+    /**
+     * @return the number of buffers acquired which had to be allocated
+     */
+    public long misses() {
+        return _misses.get();
+    }
+
+    public long maxPooledBytes() {
+        return _maxPooledBytes;
+    }
+
+    public boolean isDirect() {
+        return _direct;
+    }
+
+    /**
+     * @return the index of the smallest size class which fits the size, or -1 if it is too large to be pooled
+     */
+    private int sizeClass(int size) {
+        if (size > _maxBufferSize) {
+            return -1;
+        }
+        final int capacity = Math.max(size, _minBufferSize);
+        final int roundedUp = Integer.highestOneBit(capacity) == capacity
+                ? capacity
+                : Integer.highestOneBit(capacity) << 1;
+        return Integer.numberOfTrailingZeros(roundedUp) - Integer.numberOfTrailingZeros(_minBufferSize);
+    }
+
+    private static void zero(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            Arrays.fill(buffer.array(), buffer.arrayOffset(), buffer.arrayOffset() + buffer.capacity(), (byte) 0);
+            return;
+        }
+        final ByteBuffer zeroing = buffer.duplicate();
+        zeroing.clear();
+        while (zeroing.hasRemaining()) {
+            zeroing.put(ZEROS, 0, Math.min(ZEROS.length, zeroing.remaining()));
+        }
+    }
+
+    public static class Builder {
+        private int _minBufferSize = DEFAULT_MIN_BUFFER_SIZE;
+        private int _maxBufferSize = DEFAULT_MAX_BUFFER_SIZE;
+        private long _maxPooledBytes = DEFAULT_MAX_POOLED_BYTES;
+        private boolean _direct = false;
+
+        private Builder() {
+        }
+
+        /**
+         * The size of the smallest size class, which must be a power of two. Defaults to 4KiB.
+         */
+        public Builder minBufferSize(int minBufferSize) {
+            _minBufferSize = minBufferSize;
+            return this;
+        }
+
+        /**
+         * The size of the largest size class, which must be a power of two. Larger buffers are allocated
+         * for each use. Defaults to 64MiB, the largest object which is decrypted in memory.
+         */
+        public Builder maxBufferSize(int maxBufferSize) {
+            _maxBufferSize = maxBufferSize;
+            return this;
+        }
+
+        /**
+         * The most bytes the pool holds in free buffers. Buffers released beyond this are left to
+         * the garbage collector. Defaults to 256MiB.
+         */
+        public Builder maxPooledBytes(long maxPooledBytes) {
+            _maxPooledBytes = maxPooledBytes;
+            return this;
+        }
+
+        /**
+         * Whether the pool allocates direct (off-heap) buffers, rather than heap buffers. Defaults to false.
+         */
+        public Builder direct(boolean direct) {
+            _direct = direct;
+            return this;
+        }
+
+        public BufferPool build() {
+            if (_minBufferSize <= 0 || Integer.bitCount(_minBufferSize) != 1) {
+                throw new S3EncryptionClientException("Minimum buffer size must be a positive power of two");
+            }
+            if (_maxBufferSize < _minBufferSize || Integer.bitCount(_maxBufferSize) != 1) {
+                throw new S3EncryptionClientException("Maximum buffer size must be a power of two "
+                        + "no smaller than the minimum buffer size");
+            }
+            if (_maxPooledBytes < 0) {
+                throw new S3EncryptionClientException("Maximum pooled bytes cannot be negative");
+            }
+            return new BufferPool(this);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the encryption and decryption of object content on a bounded set of threads, rather than on the
+ * SDK's I/O threads which deliver the content, so that cipher work on large objects does not delay
+ * other requests sharing those threads.
+ * <p>
+ * Each object's content is processed in order, one chunk at a time, with at most
+ * {@link #maxInFlightChunks()} chunks received ahead of the cipher. Objects being processed take turns,
+ * a chunk at a time, so that small objects are not stuck behind large ones.
+ * <p>
+ * Unless given an executor, it creates threads as they are needed, which exit once idle for a minute, and
+ * are stopped by {@link #close()}. As it may be shared, it is not closed by the clients which use it.
+ */
+public final class CryptoExecutor implements AutoCloseable {
+
+    private static final int DEFAULT_MAX_IN_FLIGHT_CHUNKS = 16;
+    private static final Duration KEEP_ALIVE = Duration.ofSeconds(60);
+
+    private final Executor _executor;
+    // Null when given an executor, which is left for its owner to shut down
+    private final ThreadPoolExecutor _pool;
+    private final int _parallelism;
+    private final int _maxInFlightChunks;
+
+    // Guarded by itself: the streams with work to do, in the order they take turns
+    private final ArrayDeque<Stream> _ready = new ArrayDeque<>();
+    // Guarded by _ready: the number of tasks running on the executor
+    private int _workers;
+
+    private CryptoExecutor(Builder builder) {
+        _parallelism = builder._parallelism;
+        _maxInFlightChunks = builder._maxInFlightChunks;
+        if (builder._executor != null) {
+            _pool = null;
+            _executor = builder._executor;
+        } else {
+            _pool = newDefaultExecutor(_parallelism);
+            _executor = _pool;
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private static ThreadPoolExecutor newDefaultExecutor(int parallelism) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(parallelism, parallelism, KEEP_ALIVE.toNanos(),
+                TimeUnit.NANOSECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "s3-encryption-client-crypto-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Returns an executor for the work of one object, which runs the tasks given to it in order, one at a time,
+     * taking turns with the other objects' executors. Tasks should be small, e.g. processing one chunk, and
+     * should not throw.
+     */
+    public Executor newStream() {
+        return new Stream();
+    }
+
+    private void schedule(Stream stream) {
+        final boolean startWorker;
+        synchronized (_ready) {
+            _ready.add(stream);
+            startWorker = _workers < _parallelism;
+            if (startWorker) {
+                _workers++;
+            }
+        }
+        if (startWorker) {
+            try {
+                _executor.execute(this::work);
+            } catch (final RejectedExecutionException exception) {
+                synchronized (_ready) {
+                    _workers--;
+                }
+                throw exception;
+            }
+        }
+    }
+
+    /**
+     * Runs one task of each ready stream in turn, until none are ready.
+     */
+    private void work() {
+        while (true) {
+            final Stream stream;
+            synchronized (_ready) {
+                stream = _ready.poll();
+                if (stream == null) {
+                    _workers--;
+                    return;
+                }
+            }
+            stream.runNext();
+        }
+    }
+
+    /**
+     * Stops the threads this created, once the work already given to them is done. Afterwards, new work
+     * is rejected. An executor given to the builder is not shut down.
+     */
+    @Override
+    public void close() {
+        if (_pool != null) {
+            _pool.shutdown();
+        }
+    }
+
+    /**
+     * @return the number of threads work is run on at once
+     */
+    public int parallelism() {
+        return _parallelism;
+    }
+
+    /**
+     * @return the most chunks of each object received ahead of the cipher
+     */
+    public int maxInFlightChunks() {
+        return _maxInFlightChunks;
+    }
+
+    private final class Stream implements Executor {
+        // Guarded by this
+        private final ArrayDeque<Runnable> _tasks = new ArrayDeque<>();
+        private boolean _scheduled;
+
+        @Override
+        public void execute(Runnable task) {
+            final boolean schedule;
+            synchronized (this) {
+                _tasks.add(task);
+                schedule = !_scheduled;
+                _scheduled = true;
+            }
+            if (schedule) {
+                CryptoExecutor.this.schedule(this);
+            }
+        }
+
+        private void runNext() {
+            final Runnable task;
+            synchronized (this) {
+                task = _tasks.poll();
+            }
+            try {
+                task.run();
+            } catch (final RuntimeException ignored) {
+                // Tasks pass on their own failures, and one which does not must not stop the others
+            }
+            final boolean more;
+            synchronized (this) {
+                more = !_tasks.isEmpty();
+                _scheduled = more;
+            }
+            if (more) {
+                // To the back of the line
+                CryptoExecutor.this.schedule(this);
+            }
+        }
+    }
+
+    public static class Builder {
+        private Executor _executor;
+        private int _parallelism = Runtime.getRuntime().availableProcessors();
+        private int _maxInFlightChunks = DEFAULT_MAX_IN_FLIGHT_CHUNKS;
+
+        private Builder() {
+        }
+
+        /**
+         * The executor to run work on, of which at most {@link #parallelism(int)} threads are used at once.
+         * By default, a pool of up to that many daemon threads is created, which is shut down by
+         * {@link CryptoExecutor#close()}.
+         */
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "The executor is shared by design")
+        public Builder executor(Executor executor) {
+            _executor = executor;
+            return this;
+        }
+
+        /**
+         * The number of threads work is run on at once. Defaults to the number of available processors.
+         */
+        public Builder parallelism(int parallelism) {
+            _parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * The most chunks of each object received ahead of the cipher, which bounds the memory each
+         * object holds while waiting for its turn. Defaults to 16.
+         */
+        public Builder maxInFlightChunks(int maxInFlightChunks) {
+            _maxInFlightChunks = maxInFlightChunks;
+            return this;
+        }
+
+        public CryptoExecutor build() {
+            if (_parallelism < 1) {
+                throw new S3EncryptionClientException("Parallelism must be at least 1");
+            }
+            if (_maxInFlightChunks < 1) {
+                throw new S3EncryptionClientException("Maximum in-flight chunks must be at least 1");
+            }
+            return new CryptoExecutor(this);
+        }
+    }
+}
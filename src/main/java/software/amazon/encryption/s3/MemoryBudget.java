@@ -0,0 +1,325 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bound on the memory held by the requests of one or more encryption clients, e.g. by objects which are
+ * buffered in memory so that they can be authenticated before any plaintext is released. Requests reserve
+ * memory before holding it, and wait, in the order they arrive, for up to the configured time while there is
+ * not enough; those which cannot be admitted in time fail, rather than risk running out of memory.
+ * <p>
+ * Reservations are made asynchronously, so no SDK thread is blocked while waiting. The budget counts the
+ * bytes reserved, admissions, rejections, and time spent waiting, for monitoring.
+ * <p>
+ * A budget which allows reservations to wait runs a thread to time them out, which is stopped by
+ * {@link #close()}. As a budget may be shared, it is not closed by the clients which use it.
+ */
+public final class MemoryBudget implements AutoCloseable {
+
+    private static final Duration DEFAULT_MAX_WAIT = Duration.ZERO;
+
+    private final long _maxBytes;
+    private final Duration _maxWait;
+    // Times out waiting reservations, and completes those admitted, only when they may wait
+    private final ScheduledThreadPoolExecutor _timer;
+
+    // Guarded by this
+    private long _reservedBytes;
+    private final ArrayDeque<Waiter> _waiters = new ArrayDeque<>();
+    private boolean _closed;
+
+    private final AtomicLong _admissions = new AtomicLong();
+    private final AtomicLong _rejections = new AtomicLong();
+    private final AtomicLong _waitNanos = new AtomicLong();
+
+    private MemoryBudget(Builder builder) {
+        _maxBytes = builder._maxBytes;
+        _maxWait = builder._maxWait;
+        if (_maxWait.isZero()) {
+            _timer = null;
+        } else {
+            _timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "s3-encryption-client-memory-budget");
+                thread.setDaemon(true);
+                return thread;
+            });
+            _timer.setRemoveOnCancelPolicy(true);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Reserves the given number of bytes, once there are enough, in the order reservations are made. The
+     * bytes must be passed to {@link #release(long)} once no longer held.
+     * @return a future which completes once the bytes are reserved, or completes exceptionally with an
+     * {@link S3EncryptionClientException} if they are not reserved within the maximum wait, or never could be
+     */
+    public CompletableFuture<Void> reserve(long bytes) {
+        if (bytes < 0) {
+            throw new S3EncryptionClientException("Reserved bytes cannot be negative");
+        }
+        if (bytes > _maxBytes) {
+            return reject(bytes, 0);
+        }
+        final Waiter waiter;
+        synchronized (this) {
+            if (_waiters.isEmpty() && _reservedBytes + bytes <= _maxBytes) {
+                _reservedBytes += bytes;
+                _admissions.incrementAndGet();
+                return CompletableFuture.completedFuture(null);
+            }
+            if (_timer == null || _closed) {
+                waiter = null;
+            } else {
+                waiter = new Waiter(bytes);
+                _waiters.add(waiter);
+            }
+        }
+        if (waiter == null) {
+            return reject(bytes, 0);
+        }
+        try {
+            waiter._timeout = _timer.schedule(() -> timeOut(waiter), _maxWait.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // Closed in the meantime, which failed the waiter
+        }
+        return waiter._future;
+    }
+
+    /**
+     * Reserves the given number of bytes only if there are enough now, and no earlier reservations are waiting.
+     * A reservation which is not made is not counted as a rejection.
+     * @return whether the bytes were reserved, in which case they must be passed to {@link #release(long)}
+     */
+    public boolean tryReserve(long bytes) {
+        if (bytes < 0) {
+            throw new S3EncryptionClientException("Reserved bytes cannot be negative");
+        }
+        synchronized (this) {
+            if (!_waiters.isEmpty() || _reservedBytes + bytes > _maxBytes) {
+                return false;
+            }
+            _reservedBytes += bytes;
+        }
+        _admissions.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Returns reserved bytes to the budget, admitting any waiting reservations which now fit.
+     */
+    public void release(long bytes) {
+        final List<Waiter> admitted;
+        synchronized (this) {
+            _reservedBytes -= bytes;
+            admitted = pollAdmitted();
+        }
+        admitAll(admitted);
+    }
+
+    /**
+     * Removes the waiting reservations which now fit, in order, reserving their bytes. Must hold this.
+     */
+    private List<Waiter> pollAdmitted() {
+        final List<Waiter> admitted = new ArrayList<>();
+        while (!_waiters.isEmpty() && _reservedBytes + _waiters.peek()._bytes <= _maxBytes) {
+            final Waiter waiter = _waiters.poll();
+            _reservedBytes += waiter._bytes;
+            admitted.add(waiter);
+        }
+        return admitted;
+    }
+
+    private void admitAll(List<Waiter> admitted) {
+        for (Waiter waiter : admitted) {
+            waiter.stopWaiting();
+            _admissions.incrementAndGet();
+            admit(waiter);
+        }
+    }
+
+    /**
+     * Completes an admitted reservation on the timer thread, as completion runs the waiting request, which
+     * must not run on the releasing thread, e.g. while it holds a lock.
+     */
+    private void admit(Waiter waiter) {
+        try {
+            _timer.execute(() -> waiter._future.complete(null));
+        } catch (RejectedExecutionException e) {
+            // Closed in the meantime
+            waiter._future.complete(null);
+        }
+    }
+
+    /**
+     * Stops the thread which times out waiting reservations, failing any which are still waiting. Afterwards,
+     * reservations fail at once when there are not enough bytes. Reserved bytes may still be released.
+     */
+    @Override
+    public void close() {
+        final List<Waiter> waiting;
+        synchronized (this) {
+            _closed = true;
+            waiting = new ArrayList<>(_waiters);
+            _waiters.clear();
+        }
+        for (Waiter waiter : waiting) {
+            waiter.stopWaiting();
+            _rejections.incrementAndGet();
+            waiter._future.completeExceptionally(new S3EncryptionClientException(String.format(
+                    "Unable to reserve %d bytes of the memory budget, as it is closed", waiter._bytes)));
+        }
+        if (_timer != null) {
+            _timer.shutdownNow();
+        }
+    }
+
+    private void timeOut(Waiter waiter) {
+        final List<Waiter> admitted;
+        synchronized (this) {
+            final Iterator<Waiter> waiters = _waiters.iterator();
+            boolean removed = false;
+            while (waiters.hasNext()) {
+                if (waiters.next() == waiter) {
+                    waiters.remove();
+                    removed = true;
+                    break;
+                }
+            }
+            if (!removed) {
+                // Admitted in the meantime
+                return;
+            }
+            // Those behind a larger reservation may fit now that it is gone
+            admitted = pollAdmitted();
+        }
+        admitAll(admitted);
+        final long waited = System.nanoTime() - waiter._enqueuedNanos;
+        _waitNanos.addAndGet(waited);
+        _rejections.incrementAndGet();
+        waiter._future.completeExceptionally(new S3EncryptionClientException(String.format(
+                "Unable to reserve %d bytes of the memory budget within %s", waiter._bytes, _maxWait)));
+    }
+
+    private CompletableFuture<Void> reject(long bytes, long waitedNanos) {
+        _waitNanos.addAndGet(waitedNanos);
+        _rejections.incrementAndGet();
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        future.completeExceptionally(new S3EncryptionClientException(String.format(
+                "Unable to reserve %d bytes of the memory budget, of which %d bytes are reserved of %d",
+                bytes, reservedBytes(), _maxBytes)));
+        return future;
+    }
+
+    /**
+     * @return the number of bytes reserved and not yet released
+     */
+    public synchronized long reservedBytes() {
+        return _reservedBytes;
+    }
+
+    /**
+     * @return the number of reservations waiting for bytes to be released
+     */
+    public synchronized int waitingReservations() {
+        return _waiters.size();
+    }
+
+    /**
+     * @return the number of reservations made, whether immediately or after waiting
+     */
+    public long admissions() {
+        return _admissions.get();
+    }
+
+    /**
+     * @return the number of reservations which failed, as there were not enough bytes in time
+     */
+    public long rejections() {
+        return _rejections.get();
+    }
+
+    /**
+     * @return the total time reservations have spent waiting, whether or not they were then made
+     */
+    public Duration totalWaitTime() {
+        return Duration.ofNanos(_waitNanos.get());
+    }
+
+    public long maxBytes() {
+        return _maxBytes;
+    }
+
+    public Duration maxWait() {
+        return _maxWait;
+    }
+
+    private final class Waiter {
+        private final long _bytes;
+        private final long _enqueuedNanos = System.nanoTime();
+        private final CompletableFuture<Void> _future = new CompletableFuture<>();
+        private volatile ScheduledFuture<?> _timeout;
+
+        private Waiter(long bytes) {
+            _bytes = bytes;
+        }
+
+        private void stopWaiting() {
+            _waitNanos.addAndGet(System.nanoTime() - _enqueuedNanos);
+            final ScheduledFuture<?> timeout = _timeout;
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+        }
+    }
+
+    public static class Builder {
+        private long _maxBytes = -1;
+        private Duration _maxWait = DEFAULT_MAX_WAIT;
+
+        private Builder() {
+        }
+
+        /**
+         * The most bytes which may be reserved at once. Required.
+         */
+        public Builder maxBytes(long maxBytes) {
+            _maxBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * How long a reservation may wait for bytes to be released before it fails. Defaults to zero,
+         * i.e. reservations fail at once when there are not enough bytes.
+         */
+        public Builder maxWait(Duration maxWait) {
+            _maxWait = maxWait;
+            return this;
+        }
+
+        public MemoryBudget build() {
+            if (_maxBytes < 0) {
+                throw new S3EncryptionClientException("Maximum bytes must be set, and cannot be negative");
+            }
+            if (_maxWait == null || _maxWait.isNegative()) {
+                throw new S3EncryptionClientException("Maximum wait cannot be null or negative");
+            }
+            return new MemoryBudget(this);
+        }
+    }
+}
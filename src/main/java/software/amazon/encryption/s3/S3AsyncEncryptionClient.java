@@ -10,7 +10,12 @@ import software.amazon.awssdk.core.async.AsyncResponseTransformer;
 import software.amazon.awssdk.core.exception.SdkClientException;
 import software.amazon.awssdk.services.s3.DelegatingS3AsyncClient;
 import software.amazon.awssdk.services.s3.S3AsyncClient;
-import software.amazon.awssdk.services.s3.internal.crt.S3CrtAsyncClient;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
 import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
 import software.amazon.awssdk.services.s3.model.DeleteObjectResponse;
 import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
@@ -21,24 +26,34 @@ import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 import software.amazon.awssdk.services.s3.model.PutObjectResponse;
 import software.amazon.awssdk.services.s3.model.S3Request;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+import software.amazon.encryption.s3.internal.BufferedCipherPublisher;
+import software.amazon.encryption.s3.internal.CryptoMaterialsManagerAdapter;
 import software.amazon.encryption.s3.internal.GetEncryptedObjectPipeline;
-import software.amazon.encryption.s3.internal.NoRetriesAsyncRequestBody;
+import software.amazon.encryption.s3.internal.MultipartPutEncryptedObjectPipeline;
+import software.amazon.encryption.s3.internal.MultipartUploadObjectPipeline;
 import software.amazon.encryption.s3.internal.PutEncryptedObjectPipeline;
 import software.amazon.encryption.s3.materials.AesKeyring;
+import software.amazon.encryption.s3.materials.AsyncCryptographicMaterialsManager;
+import software.amazon.encryption.s3.materials.AsyncKeyring;
 import software.amazon.encryption.s3.materials.CryptographicMaterialsManager;
+import software.amazon.encryption.s3.materials.DefaultAsyncCryptoMaterialsManager;
 import software.amazon.encryption.s3.materials.DefaultCryptoMaterialsManager;
 import software.amazon.encryption.s3.materials.Keyring;
-import software.amazon.encryption.s3.materials.KmsKeyring;
+import software.amazon.encryption.s3.materials.KmsAsyncKeyring;
 import software.amazon.encryption.s3.materials.PartialRsaKeyPair;
 import software.amazon.encryption.s3.materials.RsaKeyring;
 
 import javax.crypto.SecretKey;
+import java.nio.file.Path;
 import java.security.KeyPair;
 import java.security.Provider;
 import java.security.SecureRandom;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
@@ -51,20 +66,42 @@ import static software.amazon.encryption.s3.internal.ApiNameVersion.API_NAME_INT
 public class S3AsyncEncryptionClient extends DelegatingS3AsyncClient {
 
     private final S3AsyncClient _wrappedClient;
-    private final CryptographicMaterialsManager _cryptoMaterialsManager;
+    private final AsyncCryptographicMaterialsManager _cryptoMaterialsManager;
     private final SecureRandom _secureRandom;
     private final boolean _enableLegacyUnauthenticatedModes;
     private final boolean _enableDelayedAuthenticationMode;
     private final boolean _enableMultipartPutObject;
+    private final BufferPool _bufferPool;
+    private final int _cipherChunkSize;
+    private final ForkJoinPool _parallelCryptoPool;
+    private final long _bufferedSpillThreshold;
+    private final Path _bufferedSpillDirectory;
+    private final MemoryBudget _bufferedMemoryBudget;
+    private final CryptoExecutor _cryptoExecutor;
+    private final long _smallObjectThreshold;
+    private final long _multipartPartSize;
+    private final int _multipartMaxInFlightParts;
+    private final MultipartUploadObjectPipeline _multipartPipeline;
 
     private S3AsyncEncryptionClient(Builder builder) {
         super(builder._wrappedClient);
         _wrappedClient = builder._wrappedClient;
-        _cryptoMaterialsManager = builder._cryptoMaterialsManager;
+        _cryptoMaterialsManager = builder._asyncCryptoMaterialsManager;
         _secureRandom = builder._secureRandom;
         _enableLegacyUnauthenticatedModes = builder._enableLegacyUnauthenticatedModes;
         _enableDelayedAuthenticationMode = builder._enableDelayedAuthenticationMode;
         _enableMultipartPutObject = builder._enableMultipartPutObject;
+        _bufferPool = builder._bufferPool;
+        _cipherChunkSize = builder._cipherChunkSize;
+        _parallelCryptoPool = builder._parallelCryptoPool;
+        _bufferedSpillThreshold = builder._bufferedSpillThreshold;
+        _bufferedSpillDirectory = builder._bufferedSpillDirectory;
+        _bufferedMemoryBudget = builder._bufferedMemoryBudget;
+        _cryptoExecutor = builder._cryptoExecutor;
+        _smallObjectThreshold = builder._smallObjectThreshold;
+        _multipartPartSize = builder._multipartPartSize;
+        _multipartMaxInFlightParts = builder._multipartMaxInFlightParts;
+        _multipartPipeline = builder._multipartPipeline;
     }
 
     /**
@@ -123,30 +160,88 @@ public class S3AsyncEncryptionClient extends DelegatingS3AsyncClient {
 
         PutEncryptedObjectPipeline pipeline = PutEncryptedObjectPipeline.builder()
                 .s3AsyncClient(_wrappedClient)
-                .cryptoMaterialsManager(_cryptoMaterialsManager)
+                .asyncCryptoMaterialsManager(_cryptoMaterialsManager)
                 .secureRandom(_secureRandom)
+                .cipherChunkSize(_cipherChunkSize)
+                .parallelCryptoPool(_parallelCryptoPool)
+                .cryptoExecutor(_cryptoExecutor)
                 .build();
 
         return pipeline.putObject(putObjectRequest, requestBody);
     }
 
     private CompletableFuture<PutObjectResponse> multipartPutObject(PutObjectRequest putObjectRequest, AsyncRequestBody requestBody) {
-        S3AsyncClient crtClient;
-        if (_wrappedClient instanceof S3CrtAsyncClient) {
-            // if the wrappedClient is a CRT, use it
-            crtClient = _wrappedClient;
-        } else {
-            // else create a default one
-            crtClient = S3AsyncClient.crtCreate();
-        }
-        PutEncryptedObjectPipeline pipeline = PutEncryptedObjectPipeline.builder()
-                .s3AsyncClient(crtClient)
-                .cryptoMaterialsManager(_cryptoMaterialsManager)
+        MultipartPutEncryptedObjectPipeline pipeline = MultipartPutEncryptedObjectPipeline.builder()
+                .s3AsyncClient(_wrappedClient)
+                .asyncCryptoMaterialsManager(_cryptoMaterialsManager)
                 .secureRandom(_secureRandom)
+                .partSize(_multipartPartSize)
+                .maxInFlightParts(_multipartMaxInFlightParts)
+                .parallelCryptoPool(_parallelCryptoPool)
+                .cryptoExecutor(_cryptoExecutor)
                 .build();
-        // Ensures parts are not retried to avoid corrupting ciphertext
-        AsyncRequestBody noRetryBody = new NoRetriesAsyncRequestBody(requestBody);
-        return pipeline.putObject(putObjectRequest, noRetryBody);
+        return pipeline.putObject(putObjectRequest, requestBody);
+    }
+
+    /**
+     * See {@link S3AsyncClient#createMultipartUpload(CreateMultipartUploadRequest)}
+     * <p>
+     * In the S3AsyncEncryptionClient, createMultipartUpload creates an encrypted
+     * multipart upload. Parts MUST be uploaded sequentially.
+     * See {@link S3AsyncEncryptionClient#uploadPart(UploadPartRequest, AsyncRequestBody)} for details.
+     * </p>
+     * @param request the request instance
+     * @return A Java Future containing the result of the CreateMultipartUpload operation returned by the service.
+     */
+    @Override
+    public CompletableFuture<CreateMultipartUploadResponse> createMultipartUpload(CreateMultipartUploadRequest request) {
+        return _multipartPipeline.createMultipartUpload(request);
+    }
+
+    /**
+     * See {@link S3AsyncClient#uploadPart(UploadPartRequest, AsyncRequestBody)}
+     *
+     * <b>NOTE:</b> Because the encryption process requires context from block
+     * N-1 in order to encrypt block N, parts uploaded with the
+     * S3AsyncEncryptionClient (as opposed to the normal S3AsyncClient) must
+     * be uploaded serially, and in order: each part may only be uploaded once the
+     * future of the previous one has completed. Otherwise, the previous encryption
+     * context isn't available to use when encrypting the current part.
+     * With {@link Builder#multipartMaxStagedParts(int)} set, each part is instead
+     * encrypted into memory as soon as the parts before it are encrypted, so the
+     * next part may be submitted, in order, before the previous one has uploaded.
+     * The contentLength of each part must be known, and the last part must be
+     * marked as such with {@link software.amazon.awssdk.services.s3.model.SdkPartType#LAST}.
+     * @param request the request instance
+     * @param requestBody the plaintext of the part
+     * @return A Java Future containing the result of the UploadPart operation returned by the service.
+     */
+    @Override
+    public CompletableFuture<UploadPartResponse> uploadPart(UploadPartRequest request, AsyncRequestBody requestBody)
+            throws AwsServiceException, SdkClientException {
+        return _multipartPipeline.uploadPart(request, requestBody);
+    }
+
+    /**
+     * See {@link S3AsyncClient#completeMultipartUpload(CompleteMultipartUploadRequest)}
+     * @param request the request instance
+     * @return A Java Future containing the result of the CompleteMultipartUpload operation returned by the service.
+     */
+    @Override
+    public CompletableFuture<CompleteMultipartUploadResponse> completeMultipartUpload(CompleteMultipartUploadRequest request)
+            throws AwsServiceException, SdkClientException {
+        return _multipartPipeline.completeMultipartUpload(request);
+    }
+
+    /**
+     * See {@link S3AsyncClient#abortMultipartUpload(AbortMultipartUploadRequest)}
+     * @param request the request instance
+     * @return A Java Future containing the result of the AbortMultipartUpload operation returned by the service.
+     */
+    @Override
+    public CompletableFuture<AbortMultipartUploadResponse> abortMultipartUpload(AbortMultipartUploadRequest request)
+            throws AwsServiceException, SdkClientException {
+        return _multipartPipeline.abortMultipartUpload(request);
     }
 
     /**
@@ -178,9 +273,17 @@ public class S3AsyncEncryptionClient extends DelegatingS3AsyncClient {
                                                            AsyncResponseTransformer<GetObjectResponse, T> asyncResponseTransformer) {
         GetEncryptedObjectPipeline pipeline = GetEncryptedObjectPipeline.builder()
                 .s3AsyncClient(_wrappedClient)
-                .cryptoMaterialsManager(_cryptoMaterialsManager)
+                .asyncCryptoMaterialsManager(_cryptoMaterialsManager)
                 .enableLegacyUnauthenticatedModes(_enableLegacyUnauthenticatedModes)
                 .enableDelayedAuthentication(_enableDelayedAuthenticationMode)
+                .bufferPool(_bufferPool)
+                .cipherChunkSize(_cipherChunkSize)
+                .parallelCryptoPool(_parallelCryptoPool)
+                .cryptoExecutor(_cryptoExecutor)
+                .bufferedSpillThreshold(_bufferedSpillThreshold)
+                .bufferedSpillDirectory(_bufferedSpillDirectory)
+                .bufferedMemoryBudget(_bufferedMemoryBudget)
+                .smallObjectThreshold(_smallObjectThreshold)
                 .build();
 
         return pipeline.getObject(getObjectRequest, asyncResponseTransformer);
@@ -247,7 +350,9 @@ public class S3AsyncEncryptionClient extends DelegatingS3AsyncClient {
     public static class Builder {
         private S3AsyncClient _wrappedClient = S3AsyncClient.builder().build();
         private CryptographicMaterialsManager _cryptoMaterialsManager;
+        private AsyncCryptographicMaterialsManager _asyncCryptoMaterialsManager;
         private Keyring _keyring;
+        private AsyncKeyring _asyncKeyring;
         private SecretKey _aesKey;
         private PartialRsaKeyPair _rsaKeyPair;
         private String _kmsKeyId;
@@ -257,6 +362,18 @@ public class S3AsyncEncryptionClient extends DelegatingS3AsyncClient {
         private boolean _enableMultipartPutObject = false;
         private Provider _cryptoProvider = null;
         private SecureRandom _secureRandom = new SecureRandom();
+        private BufferPool _bufferPool = null;
+        private int _cipherChunkSize = 0;
+        private ForkJoinPool _parallelCryptoPool = null;
+        private long _bufferedSpillThreshold = -1;
+        private Path _bufferedSpillDirectory = null;
+        private MemoryBudget _bufferedMemoryBudget = null;
+        private CryptoExecutor _cryptoExecutor = null;
+        private long _smallObjectThreshold = BufferedCipherPublisher.DEFAULT_SMALL_OBJECT_THRESHOLD;
+        private long _multipartPartSize = MultipartPutEncryptedObjectPipeline.DEFAULT_PART_SIZE;
+        private int _multipartMaxInFlightParts = MultipartPutEncryptedObjectPipeline.DEFAULT_MAX_IN_FLIGHT_PARTS;
+        private int _multipartMaxStagedParts = 0;
+        private MultipartUploadObjectPipeline _multipartPipeline;
 
         private Builder() {
         }
@@ -295,6 +412,20 @@ public class S3AsyncEncryptionClient extends DelegatingS3AsyncClient {
             return this;
         }
 
+        /**
+         * Specifies the {@link AsyncCryptographicMaterialsManager} to use for managing key wrapping keys.
+         * Unlike a {@link CryptographicMaterialsManager}, it does not block the calling thread
+         * while retrieving materials.
+         * @param asyncCryptoMaterialsManager the async CMM to use
+         * @return Returns a reference to this object so that method calls can be chained together.
+         */
+        public Builder asyncCryptoMaterialsManager(AsyncCryptographicMaterialsManager asyncCryptoMaterialsManager) {
+            this._asyncCryptoMaterialsManager = asyncCryptoMaterialsManager;
+            checkKeyOptions();
+
+            return this;
+        }
+
         /**
          * Specifies the {@link Keyring} to use for key wrapping and unwrapping.
          * @param keyring the Keyring instance to use
@@ -307,6 +438,19 @@ public class S3AsyncEncryptionClient extends DelegatingS3AsyncClient {
             return this;
         }
 
+        /**
+         * Specifies the {@link AsyncKeyring} to use for key wrapping and unwrapping,
+         * e.g. a {@link KmsAsyncKeyring}.
+         * @param asyncKeyring the AsyncKeyring instance to use
+         * @return Returns a reference to this object so that method calls can be chained together.
+         */
+        public Builder asyncKeyring(AsyncKeyring asyncKeyring) {
+            this._asyncKeyring = asyncKeyring;
+            checkKeyOptions();
+
+            return this;
+        }
+
         /**
          * Specifies a "raw" AES key to use for key wrapping/unwrapping.
          * @param aesKey the AES key as a {@link SecretKey} instance
@@ -350,7 +494,7 @@ public class S3AsyncEncryptionClient extends DelegatingS3AsyncClient {
          * Specifies a KMS key to use for key wrapping/unwrapping. Any valid KMS key
          * identifier (including the full ARN or an alias ARN) is permitted. When
          * decrypting objects, the key referred to by this KMS key identifier is
-         * always used.
+         * always used. Calls to AWS KMS are made with a {@link KmsAsyncKeyring}.
          * @param kmsKeyId the KMS key identifier as a {@link String} instance
          * @return Returns a reference to this object so that method calls can be chained together.
          */
@@ -363,11 +507,11 @@ public class S3AsyncEncryptionClient extends DelegatingS3AsyncClient {
 
         // We only want one way to use a key, if more than one is set, throw an error
         private void checkKeyOptions() {
-            if (onlyOneNonNull(_cryptoMaterialsManager, _keyring, _aesKey, _rsaKeyPair, _kmsKeyId)) {
+            if (onlyOneNonNull(_cryptoMaterialsManager, _asyncCryptoMaterialsManager, _keyring, _asyncKeyring, _aesKey, _rsaKeyPair, _kmsKeyId)) {
                 return;
             }
 
-            throw new S3EncryptionClientException("Only one may be set of: crypto materials manager, keyring, AES key, RSA key pair, KMS key id");
+            throw new S3EncryptionClientException("Only one may be set of: crypto materials manager, async crypto materials manager, keyring, async keyring, AES key, RSA key pair, KMS key id");
         }
 
         private boolean onlyOneNonNull(Object... values) {
@@ -425,7 +569,9 @@ public class S3AsyncEncryptionClient extends DelegatingS3AsyncClient {
 
         /**
          * When set to true, the putObject method will use multipart upload to perform
-         * the upload. Disabled by default.
+         * the upload on the wrapped client, whatever its implementation. The request body is
+         * encrypted in order, one part at a time, and parts are uploaded concurrently. Objects
+         * of unknown length may be uploaded this way. Disabled by default.
          * @param _enableMultipartPutObject true enables the multipart upload implementation of putObject
          * @return Returns a reference to this object so that method calls can be chained together.
          */
@@ -466,14 +612,201 @@ public class S3AsyncEncryptionClient extends DelegatingS3AsyncClient {
             return this;
         }
 
+        /**
+         * Allows the user to pass a {@link BufferPool} from which the client takes the buffers it holds
+         * while decrypting or encrypting an object, e.g. the ciphertext of an object which is authenticated
+         * before any plaintext is released. The pool may be shared between clients.
+         * By default, such buffers are allocated for each request.
+         * @param bufferPool the {@link BufferPool} to use
+         * @return Returns a reference to this object so that method calls can be chained together.
+         */
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "The buffer pool is shared by design")
+        public Builder bufferPool(BufferPool bufferPool) {
+            _bufferPool = bufferPool;
+            return this;
+        }
+
+        /**
+         * Sets the number of bytes the client gathers from the SDK's (often much smaller) buffers before
+         * each update of the content cipher, as each update has a fixed cost. Zero updates the cipher with
+         * each buffer as it is received. Defaults to zero, as gathering costs a copy of the content which
+         * outweighs the saving with JCE providers which use the CPU's AES-GCM instructions. Objects put with
+         * {@link #enableMultipartPutObject(boolean)} update the cipher with whole parts, so this does not
+         * apply to them.
+         * @param cipherChunkSize the number of bytes to gather
+         * @return Returns a reference to this object so that method calls can be chained together.
+         */
+        public Builder cipherChunkSize(int cipherChunkSize) {
+            if (cipherChunkSize < 0) {
+                throw new S3EncryptionClientException("Cipher chunk size provided to S3AsyncEncryptionClient cannot be negative");
+            }
+            _cipherChunkSize = cipherChunkSize;
+            return this;
+        }
+
+        /**
+         * Allows the user to pass a {@link ForkJoinPool} on which the client encrypts objects, and decrypts
+         * objects held in memory or decrypted with delayed authentication, in parallel segments. The
+         * ciphertext is the same as when encrypting on one thread. As this computes GHASH in Java, in
+         * constant time, rather than with the CPU's carry-less multiply instructions as JCE providers may,
+         * it is only faster with several threads.
+         * Parts uploaded with {@link S3AsyncEncryptionClient#uploadPart(UploadPartRequest, AsyncRequestBody)} are always encrypted
+         * on one thread. Objects held in memory to be authenticated before they are released are always
+         * decrypted in parallel, as are the parts of objects put with {@link #enableMultipartPutObject(boolean)},
+         * whatever the {@link #cipherChunkSize(int)}. Other content is only processed in parallel with a
+         * non-zero {@link #cipherChunkSize(int)}, which is raised to at least the size the pool can process
+         * at once.
+         * By default, content is encrypted and decrypted on one thread.
+         * @param parallelCryptoPool the {@link ForkJoinPool} to use
+         * @return Returns a reference to this object so that method calls can be chained together.
+         */
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "The pool is shared by design")
+        public Builder parallelCryptoPool(ForkJoinPool parallelCryptoPool) {
+            _parallelCryptoPool = parallelCryptoPool;
+            return this;
+        }
+
+        /**
+         * Sets the size above which objects decrypted without delayed authentication are buffered in a
+         * temporary file rather than in memory, so that they can be authenticated before any plaintext is
+         * released in bounded memory, however large they are. Only the ciphertext is written to the file,
+         * which is deleted once the object is decrypted.
+         * By default, such objects are buffered in memory, and objects larger than 64MiB cannot be decrypted
+         * without delayed authentication.
+         * @param bufferedSpillThreshold the size in bytes, at most 64MiB
+         * @return Returns a reference to this object so that method calls can be chained together.
+         */
+        public Builder bufferedSpillThreshold(long bufferedSpillThreshold) {
+            if (bufferedSpillThreshold < 0 || bufferedSpillThreshold > 64L * 1024 * 1024) {
+                throw new S3EncryptionClientException("Buffered spill threshold provided to S3AsyncEncryptionClient must be between 0 and 64MiB");
+            }
+            _bufferedSpillThreshold = bufferedSpillThreshold;
+            return this;
+        }
+
+        /**
+         * Sets the directory in which objects larger than the {@link #bufferedSpillThreshold(long)} are
+         * buffered. By default, the system's temporary directory is used.
+         * @param bufferedSpillDirectory the directory to use
+         * @return Returns a reference to this object so that method calls can be chained together.
+         */
+        public Builder bufferedSpillDirectory(Path bufferedSpillDirectory) {
+            _bufferedSpillDirectory = bufferedSpillDirectory;
+            return this;
+        }
+
+        /**
+         * Allows the user to pass a {@link MemoryBudget}, which may be shared by several clients, bounding the
+         * memory held by objects decrypted without delayed authentication, as each is buffered in memory
+         * until it is authenticated. Decrypting an object reserves twice its size, for its ciphertext and
+         * plaintext, until the plaintext has been passed on. Objects wait for the budget's maximum wait,
+         * and fail if it cannot be reserved in time; if a {@link #bufferedSpillThreshold(long)} is set,
+         * objects which do not fit at once are buffered in a temporary file instead. The budget is not
+         * closed with the client.
+         * By default, memory is not bounded.
+         * @param bufferedMemoryBudget the {@link MemoryBudget} to use
+         * @return Returns a reference to this object so that method calls can be chained together.
+         */
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "The memory budget is shared by design")
+        public Builder bufferedMemoryBudget(MemoryBudget bufferedMemoryBudget) {
+            _bufferedMemoryBudget = bufferedMemoryBudget;
+            return this;
+        }
+
+        /**
+         * Allows the user to pass a {@link CryptoExecutor}, which may be shared by several clients, on which
+         * object content is encrypted and decrypted, rather than on the threads which deliver it, e.g. the
+         * HTTP client's event loop threads. This keeps cipher work on large objects from delaying other
+         * requests on those threads. Each object is processed in order, and objects take turns a chunk at a
+         * time, so small objects are not stuck behind large ones. Objects put with
+         * {@link #enableMultipartPutObject(boolean)} are gathered into parts and encrypted on it too. Parts
+         * uploaded with {@link S3AsyncEncryptionClient#uploadPart(UploadPartRequest, AsyncRequestBody)} are not affected.
+         * By default, content is encrypted and decrypted on the threads which deliver it. The client does not
+         * close the executor.
+         * @param cryptoExecutor the {@link CryptoExecutor} to use
+         * @return Returns a reference to this object so that method calls can be chained together.
+         */
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "The executor is shared by design")
+        public Builder cryptoExecutor(CryptoExecutor cryptoExecutor) {
+            _cryptoExecutor = cryptoExecutor;
+            return this;
+        }
+
+        /**
+         * Sets the size up to which objects decrypted without delayed authentication are decrypted with a
+         * single allocation, of exactly their size, in one call to the cipher. The response of such objects
+         * reports the length of their plaintext, rather than their ciphertext, so that it can be used to size
+         * buffers for them. Objects are only decrypted this way when no {@link #bufferPool(BufferPool)} is set,
+         * but the response reports the length of their plaintext either way.
+         * Defaults to 4MiB. Zero disables this.
+         * @param smallObjectThreshold the size in bytes, at most 64MiB
+         * @return Returns a reference to this object so that method calls can be chained together.
+         */
+        public Builder smallObjectThreshold(long smallObjectThreshold) {
+            if (smallObjectThreshold < 0 || smallObjectThreshold > 64L * 1024 * 1024) {
+                throw new S3EncryptionClientException("Small object threshold provided to S3AsyncEncryptionClient must be between 0 and 64MiB");
+            }
+            _smallObjectThreshold = smallObjectThreshold;
+            return this;
+        }
+
+        /**
+         * Sets the number of bytes of plaintext in each part of objects put with
+         * {@link #enableMultipartPutObject(boolean)}, but the last. Each part is held in memory until it
+         * has been uploaded. The part size is raised for objects whose length is known and which would
+         * otherwise have more than 10,000 parts. Defaults to 8MiB.
+         * @param multipartPartSize the size in bytes, between 5MiB and 1GiB
+         * @return Returns a reference to this object so that method calls can be chained together.
+         */
+        public Builder multipartPartSize(long multipartPartSize) {
+            if (multipartPartSize < MultipartPutEncryptedObjectPipeline.MIN_PART_SIZE
+                    || multipartPartSize > MultipartPutEncryptedObjectPipeline.MAX_PART_SIZE) {
+                throw new S3EncryptionClientException("Multipart part size provided to S3AsyncEncryptionClient must be between 5MiB and 1GiB");
+            }
+            _multipartPartSize = multipartPartSize;
+            return this;
+        }
+
+        /**
+         * Sets the number of parts of each object put with {@link #enableMultipartPutObject(boolean)}
+         * which may be uploaded at once. Encryption waits while this many parts are uploading and
+         * another is ready. Defaults to 4.
+         * @param multipartMaxInFlightParts the number of parts, at least 1
+         * @return Returns a reference to this object so that method calls can be chained together.
+         */
+        public Builder multipartMaxInFlightParts(int multipartMaxInFlightParts) {
+            if (multipartMaxInFlightParts < 1) {
+                throw new S3EncryptionClientException("Multipart max in-flight parts provided to S3AsyncEncryptionClient must be at least 1");
+            }
+            _multipartMaxInFlightParts = multipartMaxInFlightParts;
+            return this;
+        }
+
+        /**
+         * Sets the number of parts of each upload made with {@link #uploadPart(UploadPartRequest, AsyncRequestBody)}
+         * which may be encrypted into memory ahead of being uploaded, and so uploaded at once. Parts must
+         * still be submitted in order, but need not wait for the previous part's upload to complete, and
+         * are retried if their upload fails. Each staged part is held in memory until it is uploaded.
+         * Defaults to 0, which encrypts each part as it is uploaded, one part at a time.
+         * @param multipartMaxStagedParts the number of parts, at least 0
+         * @return Returns a reference to this object so that method calls can be chained together.
+         */
+        public Builder multipartMaxStagedParts(int multipartMaxStagedParts) {
+            if (multipartMaxStagedParts < 0) {
+                throw new S3EncryptionClientException("Multipart max staged parts provided to S3AsyncEncryptionClient cannot be negative");
+            }
+            _multipartMaxStagedParts = multipartMaxStagedParts;
+            return this;
+        }
+
         /**
          * Validates and builds the S3AsyncEncryptionClient according
          * to the configuration options passed to the Builder object.
          * @return an instance of the S3AsyncEncryptionClient
          */
         public S3AsyncEncryptionClient build() {
-            if (!onlyOneNonNull(_cryptoMaterialsManager, _keyring, _aesKey, _rsaKeyPair, _kmsKeyId)) {
-                throw new S3EncryptionClientException("Exactly one must be set of: crypto materials manager, keyring, AES key, RSA key pair, KMS key id");
+            if (!onlyOneNonNull(_cryptoMaterialsManager, _asyncCryptoMaterialsManager, _keyring, _asyncKeyring, _aesKey, _rsaKeyPair, _kmsKeyId)) {
+                throw new S3EncryptionClientException("Exactly one must be set of: crypto materials manager, async crypto materials manager, keyring, async keyring, AES key, RSA key pair, KMS key id");
             }
 
             if (_keyring == null) {
@@ -490,21 +823,39 @@ public class S3AsyncEncryptionClient extends DelegatingS3AsyncClient {
                             .secureRandom(_secureRandom)
                             .build();
                 } else if (_kmsKeyId != null) {
-                    _keyring = KmsKeyring.builder()
+                    _asyncKeyring = KmsAsyncKeyring.builder()
                             .wrappingKeyId(_kmsKeyId)
                             .enableLegacyWrappingAlgorithms(_enableLegacyWrappingAlgorithms)
-                            .secureRandom(_secureRandom)
                             .build();
                 }
             }
 
-            if (_cryptoMaterialsManager == null) {
-                _cryptoMaterialsManager = DefaultCryptoMaterialsManager.builder()
-                        .keyring(_keyring)
-                        .cryptoProvider(_cryptoProvider)
-                        .build();
+            if (_asyncCryptoMaterialsManager == null) {
+                if (_asyncKeyring != null) {
+                    _asyncCryptoMaterialsManager = DefaultAsyncCryptoMaterialsManager.builder()
+                            .keyring(_asyncKeyring)
+                            .cryptoProvider(_cryptoProvider)
+                            .build();
+                } else {
+                    if (_cryptoMaterialsManager == null) {
+                        _cryptoMaterialsManager = DefaultCryptoMaterialsManager.builder()
+                                .keyring(_keyring)
+                                .cryptoProvider(_cryptoProvider)
+                                .build();
+                    }
+                    _asyncCryptoMaterialsManager = new CryptoMaterialsManagerAdapter(_cryptoMaterialsManager);
+                }
             }
 
+            _multipartPipeline = MultipartUploadObjectPipeline.builder()
+                    .s3AsyncClient(_wrappedClient)
+                    .asyncCryptoMaterialsManager(_asyncCryptoMaterialsManager)
+                    .secureRandom(_secureRandom)
+                    .bufferPool(_bufferPool)
+                    .cipherChunkSize(_cipherChunkSize)
+                    .maxStagedParts(_multipartMaxStagedParts)
+                    .build();
+
             return new S3AsyncEncryptionClient(this);
         }
     }
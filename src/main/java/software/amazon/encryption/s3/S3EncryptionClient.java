@@ -36,6 +36,7 @@ import software.amazon.awssdk.services.s3.model.S3Request;
 import software.amazon.awssdk.services.s3.model.UploadPartRequest;
 import software.amazon.awssdk.services.s3.model.UploadPartResponse;
 import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
+import software.amazon.encryption.s3.internal.BufferedCipherPublisher;
 import software.amazon.encryption.s3.internal.GetEncryptedObjectPipeline;
 import software.amazon.encryption.s3.internal.MultiFileOutputStream;
 import software.amazon.encryption.s3.internal.MultipartUploadObjectPipeline;
@@ -52,6 +53,7 @@ import software.amazon.encryption.s3.materials.RsaKeyring;
 
 import javax.crypto.SecretKey;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.security.KeyPair;
 import java.security.Provider;
 import java.security.SecureRandom;
@@ -62,7 +64,7 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
 import java.util.function.Consumer;
 
@@ -88,6 +90,16 @@ public class S3EncryptionClient extends DelegatingS3Client {
     private final boolean _enableDelayedAuthenticationMode;
     private final boolean _enableMultipartPutObject;
     private final MultipartUploadObjectPipeline _multipartPipeline;
+    private final BufferPool _bufferPool;
+    private final int _cipherChunkSize;
+    private final ForkJoinPool _parallelCryptoPool;
+    private final long _bufferedSpillThreshold;
+    private final Path _bufferedSpillDirectory;
+    private final MemoryBudget _bufferedMemoryBudget;
+    private final CryptoExecutor _cryptoExecutor;
+    private final long _smallObjectThreshold;
+    private final BridgingExecutor _bridgingExecutor;
+    private final boolean _ownsBridgingExecutor;
 
     private S3EncryptionClient(Builder builder) {
         super(builder._wrappedClient);
@@ -98,7 +110,17 @@ public class S3EncryptionClient extends DelegatingS3Client {
         _enableLegacyUnauthenticatedModes = builder._enableLegacyUnauthenticatedModes;
         _enableDelayedAuthenticationMode = builder._enableDelayedAuthenticationMode;
         _enableMultipartPutObject = builder._enableMultipartPutObject;
+        _bufferPool = builder._bufferPool;
+        _cipherChunkSize = builder._cipherChunkSize;
+        _parallelCryptoPool = builder._parallelCryptoPool;
+        _bufferedSpillThreshold = builder._bufferedSpillThreshold;
+        _bufferedSpillDirectory = builder._bufferedSpillDirectory;
+        _bufferedMemoryBudget = builder._bufferedMemoryBudget;
+        _cryptoExecutor = builder._cryptoExecutor;
+        _smallObjectThreshold = builder._smallObjectThreshold;
         _multipartPipeline = builder._multipartPipeline;
+        _bridgingExecutor = builder._bridgingExecutor;
+        _ownsBridgingExecutor = builder._ownsBridgingExecutor;
     }
 
     /**
@@ -185,10 +207,13 @@ public class S3EncryptionClient extends DelegatingS3Client {
                 .s3AsyncClient(_wrappedAsyncClient)
                 .cryptoMaterialsManager(_cryptoMaterialsManager)
                 .secureRandom(_secureRandom)
+                .cipherChunkSize(_cipherChunkSize)
+                .parallelCryptoPool(_parallelCryptoPool)
+                .cryptoExecutor(_cryptoExecutor)
                 .build();
 
         try {
-            CompletableFuture<PutObjectResponse> futurePut = pipeline.putObject(putObjectRequest, AsyncRequestBody.fromInputStream(requestBody.contentStreamProvider().newStream(), requestBody.optionalContentLength().orElse(-1L), Executors.newSingleThreadExecutor()));
+            CompletableFuture<PutObjectResponse> futurePut = pipeline.putObject(putObjectRequest, AsyncRequestBody.fromInputStream(requestBody.contentStreamProvider().newStream(), requestBody.optionalContentLength().orElse(-1L), _bridgingExecutor));
             return futurePut.join();
         } catch (CompletionException completionException) {
             throw new S3EncryptionClientException(completionException.getMessage(), completionException.getCause());
@@ -224,6 +249,14 @@ public class S3EncryptionClient extends DelegatingS3Client {
                 .cryptoMaterialsManager(_cryptoMaterialsManager)
                 .enableLegacyUnauthenticatedModes(_enableLegacyUnauthenticatedModes)
                 .enableDelayedAuthentication(_enableDelayedAuthenticationMode)
+                .bufferPool(_bufferPool)
+                .cipherChunkSize(_cipherChunkSize)
+                .parallelCryptoPool(_parallelCryptoPool)
+                .cryptoExecutor(_cryptoExecutor)
+                .bufferedSpillThreshold(_bufferedSpillThreshold)
+                .bufferedSpillDirectory(_bufferedSpillDirectory)
+                .bufferedMemoryBudget(_bufferedMemoryBudget)
+                .smallObjectThreshold(_smallObjectThreshold)
                 .build();
 
         try {
@@ -405,7 +438,7 @@ public class S3EncryptionClient extends DelegatingS3Client {
     @Override
     public CreateMultipartUploadResponse createMultipartUpload(CreateMultipartUploadRequest request) {
         try {
-            return _multipartPipeline.createMultipartUpload(request);
+            return _multipartPipeline.createMultipartUpload(request).join();
         } catch (CompletionException e) {
             throw new S3EncryptionClientException(e.getCause().getMessage(), e.getCause());
         } catch (Exception e) {
@@ -421,6 +454,9 @@ public class S3EncryptionClient extends DelegatingS3Client {
      * S3EncryptionClient (as opposed to the normal S3Client) must
      * be uploaded serially, and in order. Otherwise, the previous encryption
      * context isn't available to use when encrypting the current part.
+     * With {@link Builder#multipartMaxStagedParts(int)} set, each part is instead
+     * encrypted into memory as soon as the parts before it are encrypted, so
+     * another thread may submit the next part, in order, while this one uploads.
      * @param request the request instance
      * @return Result of the UploadPart operation returned by the service.
      */
@@ -428,7 +464,7 @@ public class S3EncryptionClient extends DelegatingS3Client {
     public UploadPartResponse uploadPart(UploadPartRequest request, RequestBody requestBody)
             throws AwsServiceException, SdkClientException {
         try {
-            return _multipartPipeline.uploadPart(request, requestBody);
+            return _multipartPipeline.uploadPart(request, requestBody).join();
         } catch (CompletionException e) {
             throw new S3EncryptionClientException(e.getCause().getMessage(), e.getCause());
         } catch (Exception e) {
@@ -445,7 +481,7 @@ public class S3EncryptionClient extends DelegatingS3Client {
     public CompleteMultipartUploadResponse completeMultipartUpload(CompleteMultipartUploadRequest request)
             throws AwsServiceException, SdkClientException {
         try {
-            return _multipartPipeline.completeMultipartUpload(request);
+            return _multipartPipeline.completeMultipartUpload(request).join();
         } catch (CompletionException e) {
             throw new S3EncryptionClientException(e.getCause().getMessage(), e.getCause());
         } catch (Exception e) {
@@ -462,7 +498,7 @@ public class S3EncryptionClient extends DelegatingS3Client {
     public AbortMultipartUploadResponse abortMultipartUpload(AbortMultipartUploadRequest request)
             throws AwsServiceException, SdkClientException {
         try {
-            return _multipartPipeline.abortMultipartUpload(request);
+            return _multipartPipeline.abortMultipartUpload(request).join();
         } catch (CompletionException e) {
             throw new S3EncryptionClientException(e.getCause().getMessage(), e.getCause());
         } catch (Exception e) {
@@ -471,12 +507,15 @@ public class S3EncryptionClient extends DelegatingS3Client {
     }
 
     /**
-     * Closes the wrapped clients.
+     * Closes the wrapped clients, and shuts down the bridging executor if the client created it.
      */
     @Override
     public void close() {
         _wrappedClient.close();
         _wrappedAsyncClient.close();
+        if (_ownsBridgingExecutor) {
+            _bridgingExecutor.shutdown();
+        }
     }
 
     // This is very similar to the S3EncryptionClient builder
@@ -497,6 +536,17 @@ public class S3EncryptionClient extends DelegatingS3Client {
         private boolean _enableMultipartPutObject = false;
         private Provider _cryptoProvider = null;
         private SecureRandom _secureRandom = new SecureRandom();
+        private BufferPool _bufferPool = null;
+        private int _cipherChunkSize = 0;
+        private ForkJoinPool _parallelCryptoPool = null;
+        private long _bufferedSpillThreshold = -1;
+        private Path _bufferedSpillDirectory = null;
+        private MemoryBudget _bufferedMemoryBudget = null;
+        private CryptoExecutor _cryptoExecutor = null;
+        private long _smallObjectThreshold = BufferedCipherPublisher.DEFAULT_SMALL_OBJECT_THRESHOLD;
+        private BridgingExecutor _bridgingExecutor = null;
+        private int _multipartMaxStagedParts = 0;
+        private boolean _ownsBridgingExecutor = false;
         private boolean _enableLegacyUnauthenticatedModes = false;
 
         private Builder() {
@@ -718,6 +768,170 @@ public class S3EncryptionClient extends DelegatingS3Client {
             return this;
         }
 
+        /**
+         * Allows the user to pass a {@link BufferPool} from which the client takes the buffers it holds
+         * while decrypting or encrypting an object, e.g. the ciphertext of an object which is authenticated
+         * before any plaintext is released. The pool may be shared between clients.
+         * By default, such buffers are allocated for each request.
+         * @param bufferPool the {@link BufferPool} to use
+         * @return Returns a reference to this object so that method calls can be chained together.
+         */
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "The buffer pool is shared by design")
+        public Builder bufferPool(BufferPool bufferPool) {
+            _bufferPool = bufferPool;
+            return this;
+        }
+
+        /**
+         * Sets the number of bytes the client gathers from the SDK's (often much smaller) buffers before
+         * each update of the content cipher, as each update has a fixed cost. Zero updates the cipher with
+         * each buffer as it is received. Defaults to zero, as gathering costs a copy of the content which
+         * outweighs the saving with JCE providers which use the CPU's AES-GCM instructions.
+         * @param cipherChunkSize the number of bytes to gather
+         * @return Returns a reference to this object so that method calls can be chained together.
+         */
+        public Builder cipherChunkSize(int cipherChunkSize) {
+            if (cipherChunkSize < 0) {
+                throw new S3EncryptionClientException("Cipher chunk size provided to S3EncryptionClient cannot be negative");
+            }
+            _cipherChunkSize = cipherChunkSize;
+            return this;
+        }
+
+        /**
+         * Allows the user to pass a {@link ForkJoinPool} on which the client encrypts objects, and decrypts
+         * objects held in memory or decrypted with delayed authentication, in parallel segments. The
+         * ciphertext is the same as when encrypting on one thread. As this computes GHASH in Java, in
+         * constant time, rather than with the CPU's carry-less multiply instructions as JCE providers may,
+         * it is only faster with several threads.
+         * Multipart uploads are always encrypted on one thread. Objects held in memory to be authenticated
+         * before they are released are always decrypted in parallel, whatever the {@link #cipherChunkSize(int)}.
+         * Other content is only processed in parallel with a non-zero {@link #cipherChunkSize(int)}, which is
+         * raised to at least the size the pool can process at once.
+         * By default, content is encrypted and decrypted on one thread.
+         * @param parallelCryptoPool the {@link ForkJoinPool} to use
+         * @return Returns a reference to this object so that method calls can be chained together.
+         */
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "The pool is shared by design")
+        public Builder parallelCryptoPool(ForkJoinPool parallelCryptoPool) {
+            _parallelCryptoPool = parallelCryptoPool;
+            return this;
+        }
+
+        /**
+         * Sets the size above which objects decrypted without delayed authentication are buffered in a
+         * temporary file rather than in memory, so that they can be authenticated before any plaintext is
+         * released in bounded memory, however large they are. Only the ciphertext is written to the file,
+         * which is deleted once the object is decrypted.
+         * By default, such objects are buffered in memory, and objects larger than 64MiB cannot be decrypted
+         * without delayed authentication.
+         * @param bufferedSpillThreshold the size in bytes, at most 64MiB
+         * @return Returns a reference to this object so that method calls can be chained together.
+         */
+        public Builder bufferedSpillThreshold(long bufferedSpillThreshold) {
+            if (bufferedSpillThreshold < 0 || bufferedSpillThreshold > 64L * 1024 * 1024) {
+                throw new S3EncryptionClientException("Buffered spill threshold provided to S3EncryptionClient must be between 0 and 64MiB");
+            }
+            _bufferedSpillThreshold = bufferedSpillThreshold;
+            return this;
+        }
+
+        /**
+         * Sets the directory in which objects larger than the {@link #bufferedSpillThreshold(long)} are
+         * buffered. By default, the system's temporary directory is used.
+         * @param bufferedSpillDirectory the directory to use
+         * @return Returns a reference to this object so that method calls can be chained together.
+         */
+        public Builder bufferedSpillDirectory(Path bufferedSpillDirectory) {
+            _bufferedSpillDirectory = bufferedSpillDirectory;
+            return this;
+        }
+
+        /**
+         * Allows the user to pass a {@link MemoryBudget}, which may be shared by several clients, bounding the
+         * memory held by objects decrypted without delayed authentication, as each is buffered in memory
+         * until it is authenticated. Decrypting an object reserves twice its size, for its ciphertext and
+         * plaintext, until the plaintext has been passed on. Objects wait for the budget's maximum wait,
+         * and fail if it cannot be reserved in time; if a {@link #bufferedSpillThreshold(long)} is set,
+         * objects which do not fit at once are buffered in a temporary file instead. The budget is not
+         * closed with the client.
+         * By default, memory is not bounded.
+         * @param bufferedMemoryBudget the {@link MemoryBudget} to use
+         * @return Returns a reference to this object so that method calls can be chained together.
+         */
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "The memory budget is shared by design")
+        public Builder bufferedMemoryBudget(MemoryBudget bufferedMemoryBudget) {
+            _bufferedMemoryBudget = bufferedMemoryBudget;
+            return this;
+        }
+
+        /**
+         * Allows the user to pass a {@link CryptoExecutor}, which may be shared by several clients, on which
+         * object content is encrypted and decrypted, rather than on the threads which deliver it, e.g. the
+         * HTTP client's event loop threads. This keeps cipher work on large objects from delaying other
+         * requests on those threads. Each object is processed in order, and objects take turns a chunk at a
+         * time, so small objects are not stuck behind large ones. Multipart uploads are not affected.
+         * By default, content is encrypted and decrypted on the threads which deliver it. The client does not
+         * close the executor.
+         * @param cryptoExecutor the {@link CryptoExecutor} to use
+         * @return Returns a reference to this object so that method calls can be chained together.
+         */
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "The executor is shared by design")
+        public Builder cryptoExecutor(CryptoExecutor cryptoExecutor) {
+            _cryptoExecutor = cryptoExecutor;
+            return this;
+        }
+
+        /**
+         * Allows the user to pass a {@link BridgingExecutor}, which may be shared by several clients, on which
+         * the content of each {@link RequestBody} is read and passed to the wrapped async client as it is
+         * encrypted. Each upload holds one of its threads while its content is read. On Java 21 or later, it
+         * may use virtual threads. A given executor is not shut down when the client is closed.
+         * By default, the client creates one of up to 64 threads, which it shuts down when it is closed.
+         * @param bridgingExecutor the {@link BridgingExecutor} to use
+         * @return Returns a reference to this object so that method calls can be chained together.
+         */
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "The executor is shared by design")
+        public Builder bridgingExecutor(BridgingExecutor bridgingExecutor) {
+            _bridgingExecutor = bridgingExecutor;
+            return this;
+        }
+
+        /**
+         * Sets the number of parts of each upload made with {@link #uploadPart(UploadPartRequest, RequestBody)}
+         * which may be encrypted into memory ahead of being uploaded, and so uploaded at once. Parts must
+         * still be submitted in order, but a thread may submit the next part while the previous one is
+         * uploading, and parts are retried if their upload fails. Each staged part is held in memory until
+         * it is uploaded. Defaults to 0, which encrypts each part as it is uploaded, one part at a time.
+         * @param multipartMaxStagedParts the number of parts, at least 0
+         * @return Returns a reference to this object so that method calls can be chained together.
+         */
+        public Builder multipartMaxStagedParts(int multipartMaxStagedParts) {
+            if (multipartMaxStagedParts < 0) {
+                throw new S3EncryptionClientException("Multipart max staged parts provided to S3EncryptionClient cannot be negative");
+            }
+            _multipartMaxStagedParts = multipartMaxStagedParts;
+            return this;
+        }
+
+        /**
+         * Sets the size up to which objects decrypted without delayed authentication are decrypted with a
+         * single allocation, of exactly their size, in one call to the cipher. The response of such objects
+         * reports the length of their plaintext, rather than their ciphertext, so that it can be used to size
+         * buffers for them. Objects are only decrypted this way when no {@link #bufferPool(BufferPool)} is set,
+         * but the response reports the length of their plaintext either way.
+         * Defaults to 4MiB. Zero disables this.
+         * @param smallObjectThreshold the size in bytes, at most 64MiB
+         * @return Returns a reference to this object so that method calls can be chained together.
+         */
+        public Builder smallObjectThreshold(long smallObjectThreshold) {
+            if (smallObjectThreshold < 0 || smallObjectThreshold > 64L * 1024 * 1024) {
+                throw new S3EncryptionClientException("Small object threshold provided to S3EncryptionClient must be between 0 and 64MiB");
+            }
+            _smallObjectThreshold = smallObjectThreshold;
+            return this;
+        }
+
         /**
          * Validates and builds the S3EncryptionClient according
          * to the configuration options passed to the Builder object.
@@ -765,10 +979,19 @@ public class S3EncryptionClient extends DelegatingS3Client {
                         .build();
             }
 
+            _ownsBridgingExecutor = _bridgingExecutor == null;
+            if (_ownsBridgingExecutor) {
+                _bridgingExecutor = BridgingExecutor.builder().build();
+            }
+
             _multipartPipeline = MultipartUploadObjectPipeline.builder()
                     .s3AsyncClient(_wrappedAsyncClient)
+                    .bridgingExecutor(_bridgingExecutor)
                     .cryptoMaterialsManager(_cryptoMaterialsManager)
                     .secureRandom(_secureRandom)
+                    .bufferPool(_bufferPool)
+                    .cipherChunkSize(_cipherChunkSize)
+                    .maxStagedParts(_multipartMaxStagedParts)
                     .build();
 
             return new S3EncryptionClient(this);
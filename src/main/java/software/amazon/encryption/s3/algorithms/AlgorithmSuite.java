@@ -29,7 +29,23 @@ public enum AlgorithmSuite {
             128,
             128,
             0,
-            AlgorithmConstants.CBC_MAX_CONTENT_LENGTH_BYTES);
+            AlgorithmConstants.CBC_MAX_CONTENT_LENGTH_BYTES),
+    /**
+     * AES-GCM with a content key derived from the data key using HKDF-SHA512 and a random
+     * per-object salt, so that one data key can safely encrypt many objects.
+     */
+    ALG_AES_256_GCM_HKDF_SHA512(0x0074,
+            false,
+            "AES",
+            256,
+            "AES/GCM/NoPadding",
+            128,
+            96,
+            128,
+            AlgorithmConstants.GCM_MAX_CONTENT_LENGTH_BITS,
+            "AES/GCM/NoPadding/HKDF-SHA512",
+            "HmacSHA512",
+            256);
 
     private final int _id;
     private final boolean _isLegacy;
@@ -40,6 +56,9 @@ public enum AlgorithmSuite {
     private final int _cipherIvLengthBits;
     private final int _cipherTagLengthBits;
     private final long _cipherMaxContentLengthBits;
+    private final String _contentCipherMetadataName;
+    private final String _kdfHmacAlgorithm;
+    private final int _kdfSaltLengthBits;
 
     AlgorithmSuite(int id,
                    boolean isLegacy,
@@ -50,6 +69,23 @@ public enum AlgorithmSuite {
                    int cipherIvLengthBits,
                    int cipherTagLengthBits,
                    long cipherMaxContentLengthBits
+    ) {
+        this(id, isLegacy, dataKeyAlgorithm, dataKeyLengthBits, cipherName, cipherBlockSizeBits, cipherIvLengthBits,
+                cipherTagLengthBits, cipherMaxContentLengthBits, cipherName, null, 0);
+    }
+
+    AlgorithmSuite(int id,
+                   boolean isLegacy,
+                   String dataKeyAlgorithm,
+                   int dataKeyLengthBits,
+                   String cipherName,
+                   int cipherBlockSizeBits,
+                   int cipherIvLengthBits,
+                   int cipherTagLengthBits,
+                   long cipherMaxContentLengthBits,
+                   String contentCipherMetadataName,
+                   String kdfHmacAlgorithm,
+                   int kdfSaltLengthBits
     ) {
         this._id = id;
         this._isLegacy = isLegacy;
@@ -60,6 +96,9 @@ public enum AlgorithmSuite {
         this._cipherIvLengthBits = cipherIvLengthBits;
         this._cipherTagLengthBits = cipherTagLengthBits;
         this._cipherMaxContentLengthBits = cipherMaxContentLengthBits;
+        this._contentCipherMetadataName = contentCipherMetadataName;
+        this._kdfHmacAlgorithm = kdfHmacAlgorithm;
+        this._kdfSaltLengthBits = kdfSaltLengthBits;
     }
 
     public int id() {
@@ -105,4 +144,24 @@ public enum AlgorithmSuite {
     public long cipherMaxContentLengthBytes() {
         return _cipherMaxContentLengthBits / 8;
     }
+
+    /**
+     * @return the value stored in the content cipher object metadata for this suite.
+     * This is the cipher name, except for suites which derive the content key.
+     */
+    public String contentCipherMetadataName() {
+        return _contentCipherMetadataName;
+    }
+
+    public boolean isKdfSupported() {
+        return _kdfHmacAlgorithm != null;
+    }
+
+    public String kdfHmacAlgorithm() {
+        return _kdfHmacAlgorithm;
+    }
+
+    public int kdfSaltLengthBytes() {
+        return _kdfSaltLengthBits / 8;
+    }
 }
@@ -0,0 +1,85 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.algorithms;
+
+import software.amazon.encryption.s3.S3EncryptionClientException;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.util.Arrays;
+
+/**
+ * HMAC-based Extract-and-Expand Key Derivation Function (HKDF), as specified in
+ * <a href="https://tools.ietf.org/html/rfc5869">RFC 5869</a>, used to derive
+ * per-object content keys for algorithm suites which support key derivation.
+ */
+public final class HkdfKeyDerivation {
+
+    private HkdfKeyDerivation() {
+    }
+
+    /**
+     * Derives the content key for an object from its data key and salt.
+     * The algorithm suite id is used as the HKDF info, binding the derived key to the suite.
+     */
+    public static SecretKey deriveContentKey(AlgorithmSuite algorithmSuite, byte[] dataKey, byte[] salt, Provider provider) {
+        if (!algorithmSuite.isKdfSupported()) {
+            throw new S3EncryptionClientException("Algorithm suite does not support key derivation: " + algorithmSuite);
+        }
+        if (salt == null || salt.length != algorithmSuite.kdfSaltLengthBytes()) {
+            throw new S3EncryptionClientException("Key derivation salt must be "
+                    + algorithmSuite.kdfSaltLengthBytes() + " bytes");
+        }
+        final byte[] info = ByteBuffer.allocate(2).putShort((short) algorithmSuite.id()).array();
+        final byte[] contentKey = hkdf(algorithmSuite.kdfHmacAlgorithm(), dataKey, salt, info,
+                algorithmSuite.dataKeyLengthBits() / 8, provider);
+        try {
+            return new SecretKeySpec(contentKey, algorithmSuite.dataKeyAlgorithm());
+        } finally {
+            Arrays.fill(contentKey, (byte) 0);
+        }
+    }
+
+    static byte[] hkdf(String hmacAlgorithm, byte[] inputKeyMaterial, byte[] salt, byte[] info, int length,
+                       Provider provider) {
+        byte[] pseudoRandomKey = null;
+        byte[] block = new byte[0];
+        try {
+            final Mac mac = provider == null ? Mac.getInstance(hmacAlgorithm) : Mac.getInstance(hmacAlgorithm, provider);
+            if (length > 255 * mac.getMacLength()) {
+                throw new S3EncryptionClientException("Requested key derivation output is too long");
+            }
+
+            // Extract
+            mac.init(new SecretKeySpec(salt, hmacAlgorithm));
+            pseudoRandomKey = mac.doFinal(inputKeyMaterial);
+
+            // Expand
+            mac.init(new SecretKeySpec(pseudoRandomKey, hmacAlgorithm));
+            final byte[] output = new byte[length];
+            int offset = 0;
+            for (int i = 1; offset < length; i++) {
+                mac.update(block);
+                mac.update(info);
+                mac.update((byte) i);
+                Arrays.fill(block, (byte) 0);
+                block = mac.doFinal();
+                final int toCopy = Math.min(block.length, length - offset);
+                System.arraycopy(block, 0, output, offset, toCopy);
+                offset += toCopy;
+            }
+            return output;
+        } catch (GeneralSecurityException e) {
+            throw new S3EncryptionClientException("Unable to derive content key using " + hmacAlgorithm, e);
+        } finally {
+            if (pseudoRandomKey != null) {
+                Arrays.fill(pseudoRandomKey, (byte) 0);
+            }
+            Arrays.fill(block, (byte) 0);
+        }
+    }
+}
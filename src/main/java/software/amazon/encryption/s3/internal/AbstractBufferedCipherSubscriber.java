@@ -0,0 +1,225 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.encryption.s3.S3EncryptionClientException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The Reactive Streams plumbing of subscribers which hold back all plaintext
+ * until the whole object is authenticated. Upstream demand is managed here,
+ * independently of the wrapped subscriber's: the ciphertext is requested in
+ * batches and given to {@link #collect(ByteBuffer)}, and nothing is sent to
+ * the wrapped subscriber until it has all been received and authenticated.
+ * The plaintext is then passed on as the wrapped subscriber requests it.
+ * <p>
+ * Failures are passed on to the wrapped subscriber with onError, rather than
+ * thrown, and {@link #release()} is called once the subscription ends, however
+ * it ends.
+ */
+abstract class AbstractBufferedCipherSubscriber implements Subscriber<ByteBuffer> {
+
+    // The number of buffers requested from upstream at a time
+    static final int UPSTREAM_BATCH_SIZE = 16;
+
+    private final Subscriber<? super ByteBuffer> wrappedSubscriber;
+    private final long contentLength;
+
+    private Subscription upstream;
+    // Only accessed from upstream signals, which are serialized
+    private long contentRead;
+    private int upstreamOutstanding;
+
+    private final AtomicBoolean received = new AtomicBoolean(false);
+    private final AtomicBoolean terminated = new AtomicBoolean(false);
+    private final AtomicLong demand = new AtomicLong(0);
+    private final AtomicInteger wip = new AtomicInteger(0);
+    private volatile boolean authenticated;
+    private volatile boolean cancelled;
+
+    AbstractBufferedCipherSubscriber(Subscriber<? super ByteBuffer> wrappedSubscriber, long contentLength) {
+        this.wrappedSubscriber = wrappedSubscriber;
+        this.contentLength = contentLength;
+    }
+
+    /**
+     * Takes the next piece of ciphertext, which must be copied if it is kept.
+     * It does not include any bytes beyond the content length.
+     */
+    abstract void collect(ByteBuffer ciphertext) throws GeneralSecurityException, IOException;
+
+    /**
+     * Called once all of the ciphertext has been collected.
+     * @throws GeneralSecurityException if it is not authentic
+     */
+    abstract void authenticate() throws GeneralSecurityException, IOException;
+
+    /**
+     * @return whether there is more plaintext, once authenticated
+     */
+    abstract boolean hasMorePlaintext();
+
+    /**
+     * Called once authenticated, for each buffer the wrapped subscriber requests, while there is more.
+     * @return the next buffer of plaintext
+     */
+    abstract ByteBuffer nextPlaintext() throws GeneralSecurityException, IOException;
+
+    /**
+     * Releases any resources held. Called once, possibly concurrently with the other methods
+     * if the subscription is cancelled, in which case they should do no more work.
+     */
+    abstract void release();
+
+    @Override
+    public void onSubscribe(Subscription s) {
+        if (upstream != null) {
+            s.cancel();
+            return;
+        }
+        upstream = s;
+        wrappedSubscriber.onSubscribe(new Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    cancelled = true;
+                    s.cancel();
+                    terminate(new IllegalArgumentException("Demand must be positive, but was " + n));
+                    return;
+                }
+                addDemand(n);
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                cancelled = true;
+                s.cancel();
+                if (!terminated.getAndSet(true)) {
+                    release();
+                }
+            }
+        });
+        requestUpstream();
+    }
+
+    @Override
+    public void onNext(ByteBuffer byteBuffer) {
+        if (received.get() || cancelled || terminated.get()) {
+            // Data beyond the content length, or in flight when cancelled, is dropped
+            return;
+        }
+        upstreamOutstanding--;
+        final int amountToRead = (int) Math.min(byteBuffer.remaining(), contentLength - contentRead);
+        if (amountToRead > 0) {
+            final ByteBuffer ciphertext = byteBuffer.duplicate();
+            ciphertext.limit(ciphertext.position() + amountToRead);
+            try {
+                collect(ciphertext);
+            } catch (final GeneralSecurityException | IOException | RuntimeException exception) {
+                upstream.cancel();
+                terminate(exception);
+                return;
+            }
+            contentRead += amountToRead;
+        }
+
+        if (contentRead >= contentLength) {
+            // All of the content has been read, so there is no need to wait for upstream to complete
+            onComplete();
+        } else if (upstreamOutstanding <= UPSTREAM_BATCH_SIZE / 2) {
+            requestUpstream();
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        if (received.getAndSet(true)) {
+            return;
+        }
+        terminate(t);
+    }
+
+    @Override
+    public void onComplete() {
+        if (received.getAndSet(true) || cancelled) {
+            return;
+        }
+        try {
+            authenticate();
+        } catch (final GeneralSecurityException | IOException | RuntimeException exception) {
+            terminate(exception);
+            return;
+        }
+        authenticated = true;
+        drain();
+    }
+
+    private void requestUpstream() {
+        upstreamOutstanding += UPSTREAM_BATCH_SIZE;
+        upstream.request(UPSTREAM_BATCH_SIZE);
+    }
+
+    private void addDemand(long n) {
+        long current;
+        long updated;
+        do {
+            current = demand.get();
+            updated = current + n < 0 ? Long.MAX_VALUE : current + n;
+        } while (!demand.compareAndSet(current, updated));
+    }
+
+    /**
+     * Passes on plaintext while there is demand for it, from whichever thread authenticated the
+     * content or requested more, but only one at a time.
+     */
+    private void drain() {
+        if (!authenticated || wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            while (!cancelled && !terminated.get()) {
+                if (!hasMorePlaintext()) {
+                    // Completion needs no demand
+                    if (!terminated.getAndSet(true)) {
+                        release();
+                        wrappedSubscriber.onComplete();
+                    }
+                    return;
+                }
+                if (demand.get() == 0) {
+                    break;
+                }
+                final ByteBuffer plaintext;
+                try {
+                    plaintext = nextPlaintext();
+                } catch (final GeneralSecurityException | IOException | RuntimeException exception) {
+                    terminate(exception);
+                    return;
+                }
+                demand.decrementAndGet();
+                wrappedSubscriber.onNext(plaintext);
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void terminate(Throwable t) {
+        if (terminated.getAndSet(true)) {
+            return;
+        }
+        release();
+        wrappedSubscriber.onError(t instanceof IOException
+                ? new S3EncryptionClientException("Unable to buffer ciphertext: " + t.getMessage(), t)
+                : t);
+    }
+}
@@ -2,6 +2,7 @@
 // SPDX-License-Identifier: Apache-2.0
 package software.amazon.encryption.s3.internal;
 
+import software.amazon.encryption.s3.BufferPool;
 import software.amazon.encryption.s3.S3EncryptionClientSecurityException;
 
 import javax.crypto.Cipher;
@@ -32,7 +33,12 @@ public class AuthenticatedCipherInputStream extends CipherInputStream {
 
     public AuthenticatedCipherInputStream(InputStream inputStream, Cipher cipher,
                                           boolean multipart, boolean lastMultipart) {
-        super(inputStream, cipher);
+        this(inputStream, cipher, multipart, lastMultipart, null);
+    }
+
+    public AuthenticatedCipherInputStream(InputStream inputStream, Cipher cipher,
+                                          boolean multipart, boolean lastMultipart, BufferPool bufferPool) {
+        super(inputStream, cipher, bufferPool);
         this.multipart = multipart;
         this.lastMultipart = lastMultipart;
     }
@@ -46,6 +52,7 @@ public class AuthenticatedCipherInputStream extends CipherInputStream {
     public void close() throws IOException {
         in.close();
         currentPosition = maxPosition = 0;
+        releaseBuffers();
         abortIfNeeded();
     }
 
@@ -0,0 +1,136 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Spools parts in a ring of buffers of the part size. Buffers are allocated as
+ * they are first needed, up to {@code limit / partSize} of them, and each is
+ * reused once the part it holds has been uploaded, including by later uploads
+ * which use this spool.
+ */
+public abstract class BufferRingPartSpool implements PartSpool {
+    private final boolean requiresLimit;
+    // Released buffers, the most recently released first
+    private final Deque<ByteBuffer> free = new ArrayDeque<>();
+    private int partSize;
+    private int capacity;
+    private int allocated;
+    // Parts of an earlier upload are not returned to the ring once it has been cleaned up
+    private int generation;
+
+    /**
+     * @param requiresLimit whether the spool must be given a limit, as its buffers are held in memory
+     */
+    protected BufferRingPartSpool(boolean requiresLimit) {
+        this.requiresLimit = requiresLimit;
+    }
+
+    /**
+     * Allocates a buffer of the given capacity, positioned at zero.
+     */
+    protected abstract ByteBuffer allocate(int capacity) throws IOException;
+
+    @Override
+    public synchronized void init(long partSize, long limit) {
+        if (partSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                    "Parts spooled in buffers must be at most 2GiB: partSize=" + partSize);
+        }
+        if (requiresLimit && limit == Long.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                    "A limit must be set when parts are spooled in memory");
+        }
+        if (partSize != this.partSize) {
+            free.clear();
+            allocated = 0;
+            this.partSize = (int) partSize;
+        }
+        capacity = limit == Long.MAX_VALUE
+                ? Integer.MAX_VALUE
+                : (int) Math.min(Integer.MAX_VALUE, limit / partSize);
+    }
+
+    @Override
+    public synchronized SpooledPart newPart(int partNumber) throws IOException {
+        ByteBuffer buffer = free.pollFirst();
+        if (buffer == null) {
+            if (allocated >= capacity) {
+                throw new IllegalStateException("All " + capacity + " buffers of the part spool are in use");
+            }
+            buffer = allocate(partSize);
+            allocated++;
+        }
+        buffer.clear();
+        return new BufferPart(buffer, generation);
+    }
+
+    @Override
+    public synchronized void cleanup() {
+        generation++;
+        allocated = free.size();
+    }
+
+    /**
+     * @return the number of buffers allocated and not yet discarded
+     */
+    public synchronized int allocatedBuffers() {
+        return allocated;
+    }
+
+    private synchronized void recycle(ByteBuffer buffer, int partGeneration) {
+        if (partGeneration == generation) {
+            free.addFirst(buffer);
+        }
+    }
+
+    private final class BufferPart extends SpooledPart {
+        private final ByteBuffer buffer;
+        private final int partGeneration;
+        private boolean released;
+
+        private BufferPart(ByteBuffer buffer, int partGeneration) {
+            this.buffer = buffer;
+            this.partGeneration = partGeneration;
+        }
+
+        @Override
+        public void write(int b) {
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            buffer.put(b, off, len);
+        }
+
+        @Override
+        public long length() {
+            return buffer.position();
+        }
+
+        @Override
+        public AsyncRequestBody requestBody() {
+            final ByteBuffer content = buffer.duplicate();
+            content.flip();
+            return new MultipartPutEncryptedObjectPipeline.CiphertextPartRequestBody(content);
+        }
+
+        @Override
+        public void release() {
+            synchronized (this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+            }
+            recycle(buffer, partGeneration);
+        }
+    }
+}
@@ -5,6 +5,7 @@ package software.amazon.encryption.s3.internal;
 import software.amazon.awssdk.utils.IoUtils;
 import software.amazon.encryption.s3.S3EncryptionClientException;
 import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
+import software.amazon.encryption.s3.algorithms.HkdfKeyDerivation;
 import software.amazon.encryption.s3.materials.DecryptionMaterials;
 
 import javax.crypto.Cipher;
@@ -55,7 +56,10 @@ public class BufferedAesGcmContentStrategy implements ContentDecryptionStrategy
         }
 
         AlgorithmSuite algorithmSuite = contentMetadata.algorithmSuite();
-        SecretKey contentKey = new SecretKeySpec(materials.plaintextDataKey(), algorithmSuite.dataKeyAlgorithm());
+        SecretKey contentKey = algorithmSuite.isKdfSupported()
+                ? HkdfKeyDerivation.deriveContentKey(algorithmSuite, materials.plaintextDataKey(),
+                        contentMetadata.contentKdfSalt(), materials.cryptoProvider())
+                : new SecretKeySpec(materials.plaintextDataKey(), algorithmSuite.dataKeyAlgorithm());
         final int tagLength = algorithmSuite.cipherTagLengthBits();
         byte[] iv = contentMetadata.contentIv();
         final Cipher cipher;
@@ -2,15 +2,28 @@
 // SPDX-License-Identifier: Apache-2.0
 package software.amazon.encryption.s3.internal;
 
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
 import software.amazon.awssdk.core.async.SdkPublisher;
+import software.amazon.encryption.s3.BufferPool;
+import software.amazon.encryption.s3.CryptoExecutor;
+import software.amazon.encryption.s3.MemoryBudget;
 import software.amazon.encryption.s3.legacy.internal.RangedGetUtils;
 import software.amazon.encryption.s3.materials.CryptographicMaterials;
 
 import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
 
 public class BufferedCipherPublisher implements SdkPublisher<ByteBuffer> {
 
+    /**
+     * The default content length up to which objects are decrypted in memory with a single allocation.
+     */
+    public static final long DEFAULT_SMALL_OBJECT_THRESHOLD = 4 * 1024 * 1024;
+
     private final SdkPublisher<ByteBuffer> wrappedPublisher;
     private final Long contentLength;
     private final long[] range;
@@ -18,17 +31,41 @@ public class BufferedCipherPublisher implements SdkPublisher<ByteBuffer> {
     private final int cipherTagLengthBits;
     private final CryptographicMaterials materials;
     private final byte[] iv;
+    private final BufferPool bufferPool;
+    private final ForkJoinPool parallelCryptoPool;
+    private final long spillThreshold;
+    private final Path spillDirectory;
+    private final MemoryBudget memoryBudget;
+    private final CryptoExecutor cryptoExecutor;
+    private final long smallObjectThreshold;
+
+    private BufferedCipherPublisher(Builder builder) {
+        this.wrappedPublisher = builder._wrappedPublisher;
+        this.contentLength = builder._contentLength;
+        this.range = builder._range;
+        this.contentRange = builder._contentRange;
+        this.cipherTagLengthBits = builder._cipherTagLengthBits;
+        this.materials = builder._materials;
+        this.iv = builder._iv;
+        this.bufferPool = builder._bufferPool;
+        this.parallelCryptoPool = builder._parallelCryptoPool;
+        this.spillThreshold = builder._spillThreshold;
+        this.spillDirectory = builder._spillDirectory;
+        this.memoryBudget = builder._memoryBudget;
+        this.cryptoExecutor = builder._cryptoExecutor;
+        this.smallObjectThreshold = builder._smallObjectThreshold;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
 
-    public BufferedCipherPublisher(final SdkPublisher<ByteBuffer> wrappedPublisher, final Long contentLength,
-                                   long[] range, String contentRange, int cipherTagLengthBits,
-                                   final CryptographicMaterials materials, final byte[] iv) {
-        this.wrappedPublisher = wrappedPublisher;
-        this.contentLength = contentLength;
-        this.range = range;
-        this.contentRange = contentRange;
-        this.cipherTagLengthBits = cipherTagLengthBits;
-        this.materials = materials;
-        this.iv = iv;
+    /**
+     * @return whether an object is small enough to be decrypted in memory in one call, given the thresholds
+     */
+    static boolean isSmallObject(Long contentLength, long smallObjectThreshold, long spillThreshold) {
+        return contentLength != null && contentLength <= smallObjectThreshold
+                && (spillThreshold < 0 || contentLength <= spillThreshold);
     }
 
     @Override
@@ -37,6 +74,226 @@ public class BufferedCipherPublisher implements SdkPublisher<ByteBuffer> {
         // to the wrapped (ciphertext) publisher
         Subscriber<? super ByteBuffer> wrappedSubscriber = RangedGetUtils.adjustToDesiredRange(subscriber, range,
                 contentRange, cipherTagLengthBits);
-        wrappedPublisher.subscribe(new BufferedCipherSubscriber(wrappedSubscriber, contentLength, materials, iv));
+        final boolean spillEnabled = spillThreshold >= 0 && contentLength != null;
+        if (spillEnabled && contentLength > spillThreshold) {
+            wrappedPublisher.subscribe(offload(newSpillingSubscriber(wrappedSubscriber)));
+            return;
+        }
+        // With a pool, the ciphertext is collected in a pooled buffer, which leaves one allocation already
+        final boolean smallObject = bufferPool == null && isSmallObject(contentLength, smallObjectThreshold, spillThreshold);
+        if (memoryBudget == null || contentLength == null) {
+            wrappedPublisher.subscribe(offload(smallObject
+                    ? new SmallObjectCipherSubscriber(wrappedSubscriber, contentLength, materials, iv, null)
+                    : newBufferedSubscriber(wrappedSubscriber).build()));
+            return;
+        }
+
+        // Created first, so that objects which cannot be buffered are rejected before reserving memory for them.
+        // Neither allocates its buffer until ciphertext arrives, so one which is not used holds nothing.
+        final AbstractBufferedCipherSubscriber bufferedSubscriber;
+        final long memoryRequired;
+        if (smallObject) {
+            bufferedSubscriber = new SmallObjectCipherSubscriber(wrappedSubscriber, contentLength, materials, iv,
+                    memoryBudget);
+            memoryRequired = SmallObjectCipherSubscriber.memoryRequired(contentLength);
+        } else {
+            bufferedSubscriber = newBufferedSubscriber(wrappedSubscriber).memoryBudget(memoryBudget).build();
+            memoryRequired = BufferedCipherSubscriber.memoryRequired(contentLength);
+        }
+        if (spillEnabled) {
+            if (memoryBudget.tryReserve(memoryRequired)) {
+                wrappedPublisher.subscribe(offload(bufferedSubscriber));
+            } else {
+                wrappedPublisher.subscribe(offload(newSpillingSubscriber(wrappedSubscriber)));
+            }
+            return;
+        }
+        // Subscribing waits for the memory to be reserved, on whichever thread releases it
+        memoryBudget.reserve(memoryRequired).whenComplete((ignored, throwable) -> {
+            if (throwable == null) {
+                wrappedPublisher.subscribe(offload(bufferedSubscriber));
+            } else {
+                reject(wrappedSubscriber, throwable instanceof CompletionException && throwable.getCause() != null
+                        ? throwable.getCause()
+                        : throwable);
+            }
+        });
+    }
+
+    private Subscriber<? super ByteBuffer> offload(Subscriber<? super ByteBuffer> subscriber) {
+        return OffloadingSubscriber.offload(subscriber, cryptoExecutor);
+    }
+
+    private BufferedCipherSubscriber.Builder newBufferedSubscriber(Subscriber<? super ByteBuffer> wrappedSubscriber) {
+        return BufferedCipherSubscriber.builder()
+                .wrappedSubscriber(wrappedSubscriber)
+                .contentLength(contentLength)
+                .materials(materials)
+                .iv(iv)
+                .bufferPool(bufferPool)
+                .parallelCryptoPool(parallelCryptoPool);
+    }
+
+    private SpillingCipherSubscriber newSpillingSubscriber(Subscriber<? super ByteBuffer> wrappedSubscriber) {
+        return new SpillingCipherSubscriber(wrappedSubscriber, contentLength, materials, iv, spillDirectory);
+    }
+
+    /**
+     * Releases the ciphertext stream, and passes the failure on to the subscriber.
+     */
+    private void reject(Subscriber<? super ByteBuffer> wrappedSubscriber, Throwable throwable) {
+        wrappedPublisher.subscribe(new Subscriber<ByteBuffer>() {
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                subscription.cancel();
+            }
+
+            @Override
+            public void onNext(ByteBuffer byteBuffer) {
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+        wrappedSubscriber.onSubscribe(new Subscription() {
+            @Override
+            public void request(long n) {
+            }
+
+            @Override
+            public void cancel() {
+            }
+        });
+        wrappedSubscriber.onError(throwable);
+    }
+
+    public static class Builder {
+        private SdkPublisher<ByteBuffer> _wrappedPublisher;
+        private Long _contentLength;
+        private long[] _range;
+        private String _contentRange;
+        private int _cipherTagLengthBits;
+        private CryptographicMaterials _materials;
+        private byte[] _iv;
+        private BufferPool _bufferPool;
+        private ForkJoinPool _parallelCryptoPool;
+        private long _spillThreshold = -1;
+        private Path _spillDirectory;
+        private MemoryBudget _memoryBudget;
+        private CryptoExecutor _cryptoExecutor;
+        private long _smallObjectThreshold = -1;
+
+        private Builder() {
+        }
+
+        public Builder wrappedPublisher(SdkPublisher<ByteBuffer> wrappedPublisher) {
+            this._wrappedPublisher = wrappedPublisher;
+            return this;
+        }
+
+        public Builder contentLength(Long contentLength) {
+            this._contentLength = contentLength;
+            return this;
+        }
+
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "The range is only read")
+        public Builder range(long[] range) {
+            this._range = range;
+            return this;
+        }
+
+        public Builder contentRange(String contentRange) {
+            this._contentRange = contentRange;
+            return this;
+        }
+
+        public Builder cipherTagLengthBits(int cipherTagLengthBits) {
+            this._cipherTagLengthBits = cipherTagLengthBits;
+            return this;
+        }
+
+        public Builder materials(CryptographicMaterials materials) {
+            this._materials = materials;
+            return this;
+        }
+
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "The IV is only read")
+        public Builder iv(byte[] iv) {
+            this._iv = iv;
+            return this;
+        }
+
+        /**
+         * The pool to collect the ciphertext in, or null to allocate a buffer for each object.
+         */
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "The pool is shared by design")
+        public Builder bufferPool(BufferPool bufferPool) {
+            this._bufferPool = bufferPool;
+            return this;
+        }
+
+        /**
+         * The pool to decrypt GCM on in parallel, or null.
+         */
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "The pool is shared by design")
+        public Builder parallelCryptoPool(ForkJoinPool parallelCryptoPool) {
+            this._parallelCryptoPool = parallelCryptoPool;
+            return this;
+        }
+
+        /**
+         * The content length above which the ciphertext is buffered in a temporary file rather than in
+         * memory, or -1, the default, to always buffer it in memory.
+         */
+        public Builder spillThreshold(long spillThreshold) {
+            this._spillThreshold = spillThreshold;
+            return this;
+        }
+
+        /**
+         * The directory to create the file in, or null for the default temporary directory.
+         */
+        public Builder spillDirectory(Path spillDirectory) {
+            this._spillDirectory = spillDirectory;
+            return this;
+        }
+
+        /**
+         * The budget to reserve memory from before buffering the ciphertext in memory, or null. When
+         * spilling is enabled, ciphertext which does not fit in the budget at once is buffered in a
+         * temporary file instead of waiting.
+         */
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "The budget is shared by design")
+        public Builder memoryBudget(MemoryBudget memoryBudget) {
+            this._memoryBudget = memoryBudget;
+            return this;
+        }
+
+        /**
+         * The executor to decrypt on, or null to do so on the thread which delivers the ciphertext.
+         */
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "The executor is shared by design")
+        public Builder cryptoExecutor(CryptoExecutor cryptoExecutor) {
+            this._cryptoExecutor = cryptoExecutor;
+            return this;
+        }
+
+        /**
+         * The content length up to which objects held in memory are decrypted with a single allocation,
+         * unless a buffer pool is given, or -1, the default, to never do so.
+         */
+        public Builder smallObjectThreshold(long smallObjectThreshold) {
+            this._smallObjectThreshold = smallObjectThreshold;
+            return this;
+        }
+
+        public BufferedCipherPublisher build() {
+            return new BufferedCipherPublisher(this);
+        }
     }
 }
@@ -3,45 +3,75 @@
 package software.amazon.encryption.s3.internal;
 
 import org.reactivestreams.Subscriber;
-import org.reactivestreams.Subscription;
-import software.amazon.awssdk.utils.BinaryUtils;
+import software.amazon.encryption.s3.BufferPool;
+import software.amazon.encryption.s3.MemoryBudget;
 import software.amazon.encryption.s3.S3EncryptionClientException;
-import software.amazon.encryption.s3.S3EncryptionClientSecurityException;
 import software.amazon.encryption.s3.materials.CryptographicMaterials;
 
+import javax.crypto.AEADBadTagException;
 import javax.crypto.Cipher;
 import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * A subscriber which decrypts data by buffering the object's contents
  * so that authentication can be done before any plaintext is released.
  * This prevents "release of unauthenticated plaintext" at the cost of
  * allocating a large buffer.
+ * <p>
+ * The ciphertext is collected in a buffer, from the {@link BufferPool} if
+ * one is given, and decrypted at once when complete. When given a
+ * ForkJoinPool, GCM ciphertext is decrypted and authenticated in parallel.
+ * When given a {@link MemoryBudget}, the bytes it has reserved for the object
+ * are released once the subscription ends.
  */
-public class BufferedCipherSubscriber implements Subscriber<ByteBuffer> {
+public class BufferedCipherSubscriber extends AbstractBufferedCipherSubscriber {
 
     // 64MiB ought to be enough for most usecases
     private static final long BUFFERED_MAX_CONTENT_LENGTH_MiB = 64;
     private static final long BUFFERED_MAX_CONTENT_LENGTH_BYTES = 1024 * 1024 * BUFFERED_MAX_CONTENT_LENGTH_MiB;
+    // The plaintext is passed on in views of at most this size, so it can be requested a piece at a time
+    private static final int PLAINTEXT_BUFFER_SIZE = 1024 * 1024;
 
-    private final AtomicInteger contentRead = new AtomicInteger(0);
-    private final AtomicBoolean doneFinal = new AtomicBoolean(false);
-    private final Subscriber<? super ByteBuffer> wrappedSubscriber;
     private final int contentLength;
-    private Cipher cipher;
+    private final Cipher cipher;
     private final CryptographicMaterials materials;
-    private final byte[] iv;
 
-    private byte[] outputBuffer;
-    private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final BufferPool bufferPool;
+    private final ParallelAesGcm parallelGcm;
+    private final MemoryBudget memoryBudget;
+    // Guarded by this, as the subscription may be cancelled while ciphertext is being collected
+    private ByteBuffer ciphertextBuffer;
+    private boolean ciphertextBufferReleased;
+    private boolean released;
+
+    // Only accessed once authenticated, when plaintext is passed on one buffer at a time
+    private ByteBuffer plaintext;
+
+    private BufferedCipherSubscriber(Builder builder) {
+        super(builder._wrappedSubscriber, checkContentLength(builder._contentLength));
+        this.contentLength = Math.toIntExact(builder._contentLength);
+        this.materials = builder._materials;
+        this.bufferPool = builder._bufferPool;
+        this.memoryBudget = builder._memoryBudget;
+        cipher = materials.getCipher(builder._iv);
+        if (builder._parallelCryptoPool != null && materials.algorithmSuite().cipherName().equals("AES/GCM/NoPadding")) {
+            parallelGcm = new ParallelAesGcm(materials.dataKey(), builder._iv,
+                    materials.algorithmSuite().cipherTagLengthBits(), false, materials.cryptoProvider(),
+                    builder._parallelCryptoPool);
+        } else {
+            parallelGcm = null;
+        }
+    }
 
-    BufferedCipherSubscriber(Subscriber<? super ByteBuffer> wrappedSubscriber, Long contentLength, CryptographicMaterials materials, byte[] iv) {
-        this.wrappedSubscriber = wrappedSubscriber;
+    static Builder builder() {
+        return new Builder();
+    }
+
+    private static long checkContentLength(Long contentLength) {
         if (contentLength == null) {
             throw new S3EncryptionClientException("contentLength cannot be null in buffered mode. To enable unbounded " +
                     "streaming, reconfigure the S3 Encryption Client with Delayed Authentication mode enabled.");
@@ -51,94 +81,174 @@ public class BufferedCipherSubscriber implements Subscriber<ByteBuffer> {
                     "length allowed in default mode. Please enable Delayed Authentication mode to decrypt objects larger" +
                     "than %d", BUFFERED_MAX_CONTENT_LENGTH_MiB));
         }
-        this.contentLength = Math.toIntExact(contentLength);
-        this.materials = materials;
-        this.iv = iv;
-        cipher = materials.getCipher(iv);
+        return contentLength;
+    }
+
+    /**
+     * @return the bytes of memory held while decrypting an object of the given length, as both
+     * the ciphertext and the plaintext are held in memory at once
+     */
+    static long memoryRequired(long contentLength) {
+        return 2 * contentLength;
     }
 
     @Override
-    public void onSubscribe(Subscription s) {
-        wrappedSubscriber.onSubscribe(s);
+    synchronized void collect(ByteBuffer ciphertext) {
+        if (ciphertextBufferReleased) {
+            return;
+        }
+        if (ciphertextBuffer == null) {
+            ciphertextBuffer = bufferPool != null ? bufferPool.acquire(contentLength) : ByteBuffer.allocate(contentLength);
+        }
+        ciphertextBuffer.put(ciphertext);
     }
 
     @Override
-    public void onNext(ByteBuffer byteBuffer) {
-        int amountToReadFromByteBuffer = getAmountToReadFromByteBuffer(byteBuffer);
-
-        if (amountToReadFromByteBuffer > 0) {
-            byte[] buf = BinaryUtils.copyBytesFrom(byteBuffer, amountToReadFromByteBuffer);
-            try {
-                outputBuffer = cipher.update(buf, 0, amountToReadFromByteBuffer);
-            } catch (final IllegalStateException exception) {
-                // This happens when the stream is reset and the cipher is reused with the
-                // same key/IV. It's actually fine here, because the data is the same, but any
-                // sane implementation will throw an exception.
-                // Request a new cipher using the same materials to avoid reinit issues
-                cipher = CipherProvider.createAndInitCipher(materials, iv);
+    void authenticate() throws GeneralSecurityException {
+        final ByteBuffer decrypted;
+        synchronized (this) {
+            if (ciphertextBufferReleased) {
+                // Cancelled, so there is no one to deliver the plaintext to
+                return;
             }
-
-            if (outputBuffer == null && amountToReadFromByteBuffer < cipher.getBlockSize()) {
-                // The underlying data is too short to fill in the block cipher
-                // This is true at the end of the file, so complete to get the final
-                // bytes
-                this.onComplete();
+            ByteBuffer ciphertext = ciphertextBuffer == null ? ByteBuffer.allocate(0) : ciphertextBuffer;
+            ciphertext.flip();
+            // The plaintext is passed on to the wrapped subscriber, so it cannot come from the pool
+            if (parallelGcm != null) {
+                decrypted = decryptInParallel(ciphertext);
+            } else {
+                decrypted = ByteBuffer.allocate(cipher.getOutputSize(ciphertext.remaining()));
+                cipher.doFinal(ciphertext, decrypted);
             }
+            decrypted.flip();
+        }
+        // The ciphertext is no longer needed
+        releaseCiphertext();
+        plaintext = decrypted;
+    }
+
+    /**
+     * Decrypts all of the ciphertext, then verifies the tag which follows it.
+     */
+    private ByteBuffer decryptInParallel(ByteBuffer ciphertext) throws GeneralSecurityException {
+        final int tagLength = materials.algorithmSuite().cipherTagLengthBits() / 8;
+        if (ciphertext.remaining() < tagLength) {
+            throw new AEADBadTagException("Ciphertext is shorter than the tag");
+        }
+        final ByteBuffer content = ciphertext.duplicate();
+        content.limit(content.limit() - tagLength);
+        final byte[] tag = new byte[tagLength];
+        ciphertext.position(content.limit());
+        ciphertext.get(tag);
+
+        final ByteBuffer decrypted = ByteBuffer.allocate(content.remaining());
+        parallelGcm.update(content, decrypted);
+        if (!MessageDigest.isEqual(parallelGcm.tag(), tag)) {
+            // Don't release any of the plaintext
+            Arrays.fill(decrypted.array(), (byte) 0);
+            throw new AEADBadTagException("Tag mismatch!");
+        }
+        return decrypted;
+    }
+
+    @Override
+    boolean hasMorePlaintext() {
+        return plaintext != null && plaintext.hasRemaining();
+    }
 
-            // Enqueue the buffer until all data is read
-            buffers.add(ByteBuffer.wrap(outputBuffer));
+    @Override
+    ByteBuffer nextPlaintext() {
+        final ByteBuffer next = plaintext.duplicate();
+        next.limit(next.position() + Math.min(next.remaining(), PLAINTEXT_BUFFER_SIZE));
+        plaintext.position(next.limit());
+        return next;
+    }
 
-            // Sometimes, onComplete won't be called, so we check if all
-            // data is read to avoid hanging indefinitely
-            if (contentRead.get() == contentLength) {
-                this.onComplete();
+    @Override
+    void release() {
+        synchronized (this) {
+            releaseCiphertext();
+            if (released) {
+                return;
             }
-            // This avoids the subscriber waiting indefinitely for more data
-            // without actually releasing any plaintext before it can be authenticated
-            wrappedSubscriber.onNext(ByteBuffer.allocate(0));
+            released = true;
+        }
+        // Returned outside the lock, as the budget may admit waiting requests
+        if (memoryBudget != null) {
+            memoryBudget.release(memoryRequired(contentLength));
         }
+    }
 
+    private synchronized void releaseCiphertext() {
+        if (ciphertextBufferReleased) {
+            return;
+        }
+        ciphertextBufferReleased = true;
+        if (ciphertextBuffer != null && bufferPool != null) {
+            bufferPool.release(ciphertextBuffer);
+        }
+        ciphertextBuffer = null;
     }
 
-    private int getAmountToReadFromByteBuffer(ByteBuffer byteBuffer) {
+    static class Builder {
+        private Subscriber<? super ByteBuffer> _wrappedSubscriber;
+        private Long _contentLength;
+        private CryptographicMaterials _materials;
+        private byte[] _iv;
+        private BufferPool _bufferPool;
+        private ForkJoinPool _parallelCryptoPool;
+        private MemoryBudget _memoryBudget;
 
-        long amountReadSoFar = contentRead.getAndAdd(byteBuffer.remaining());
-        long amountRemaining = Math.max(0, contentLength - amountReadSoFar);
+        private Builder() {
+        }
 
-        if (amountRemaining > byteBuffer.remaining()) {
-            return byteBuffer.remaining();
-        } else {
-            return Math.toIntExact(amountRemaining);
+        Builder wrappedSubscriber(Subscriber<? super ByteBuffer> wrappedSubscriber) {
+            this._wrappedSubscriber = wrappedSubscriber;
+            return this;
         }
-    }
 
-    @Override
-    public void onError(Throwable t) {
-        wrappedSubscriber.onError(t);
-    }
+        Builder contentLength(Long contentLength) {
+            this._contentLength = contentLength;
+            return this;
+        }
 
-    @Override
-    public void onComplete() {
-        if (doneFinal.get()) {
-            // doFinal has already been called, bail out
-            return;
+        Builder materials(CryptographicMaterials materials) {
+            this._materials = materials;
+            return this;
+        }
+
+        Builder iv(byte[] iv) {
+            this._iv = iv;
+            return this;
+        }
+
+        /**
+         * The pool to collect the ciphertext in, or null to allocate a buffer for the object.
+         */
+        Builder bufferPool(BufferPool bufferPool) {
+            this._bufferPool = bufferPool;
+            return this;
+        }
+
+        /**
+         * The pool to decrypt and authenticate GCM ciphertext on in parallel, or null.
+         */
+        Builder parallelCryptoPool(ForkJoinPool parallelCryptoPool) {
+            this._parallelCryptoPool = parallelCryptoPool;
+            return this;
+        }
+
+        /**
+         * The budget from which {@link #memoryRequired(long)} bytes have been reserved for this object,
+         * to release once the subscription ends, or null.
+         */
+        Builder memoryBudget(MemoryBudget memoryBudget) {
+            this._memoryBudget = memoryBudget;
+            return this;
+        }
+
+        BufferedCipherSubscriber build() {
+            return new BufferedCipherSubscriber(this);
         }
-        try {
-            outputBuffer = cipher.doFinal();
-            doneFinal.set(true);
-            // Once doFinal is called, then we can release the plaintext
-            if (contentRead.get() == contentLength) {
-                while (!buffers.isEmpty()) {
-                    wrappedSubscriber.onNext(buffers.remove());
-                }
-            }
-            // Send the final bytes to the wrapped subscriber
-            wrappedSubscriber.onNext(ByteBuffer.wrap(outputBuffer));
-        } catch (final GeneralSecurityException exception) {
-            // Forward error, else the wrapped subscriber waits indefinitely
-            wrappedSubscriber.onError(exception);
-            throw new S3EncryptionClientSecurityException(exception.getMessage(), exception);
-        }
-        wrappedSubscriber.onComplete();
     }
 }
@@ -4,10 +4,12 @@ package software.amazon.encryption.s3.internal;
 
 import org.reactivestreams.Subscriber;
 import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.encryption.s3.CryptoExecutor;
 import software.amazon.encryption.s3.materials.CryptographicMaterials;
 
 import java.nio.ByteBuffer;
 import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * An AsyncRequestBody which encrypts and decrypts data as it passes through
@@ -19,12 +21,36 @@ public class CipherAsyncRequestBody implements AsyncRequestBody {
     private final Long ciphertextLength;
     private final CryptographicMaterials materials;
     private final byte[] iv;
+    private final boolean isLastPart;
+    private final int cipherChunkSize;
+    private final ForkJoinPool parallelCryptoPool;
+    private final CryptoExecutor cryptoExecutor;
 
-    public CipherAsyncRequestBody(final AsyncRequestBody wrappedAsyncRequestBody, final Long ciphertextLength, final CryptographicMaterials materials, final byte[] iv, final boolean isLastPart) {
+    public CipherAsyncRequestBody(final AsyncRequestBody wrappedAsyncRequestBody, final Long ciphertextLength, final CryptographicMaterials materials, final byte[] iv, final boolean isLastPart, final int cipherChunkSize,
+                                  final ForkJoinPool parallelCryptoPool) {
+        this(wrappedAsyncRequestBody, ciphertextLength, materials, iv, isLastPart, cipherChunkSize, parallelCryptoPool, null);
+    }
+
+    /**
+     * @param cipherChunkSize the number of bytes gathered before each update of the cipher, or zero to update
+     *                        the cipher with each buffer as it is received
+     * @param parallelCryptoPool the pool to encrypt GCM on in parallel, or null
+     * @param cryptoExecutor the executor to encrypt on, or null to do so on the thread which delivers the plaintext
+     */
+    public CipherAsyncRequestBody(final AsyncRequestBody wrappedAsyncRequestBody, final Long ciphertextLength, final CryptographicMaterials materials, final byte[] iv, final boolean isLastPart, final int cipherChunkSize,
+                                  final ForkJoinPool parallelCryptoPool, final CryptoExecutor cryptoExecutor) {
         this.wrappedAsyncRequestBody = wrappedAsyncRequestBody;
         this.ciphertextLength = ciphertextLength;
         this.materials = materials;
         this.iv = iv;
+        this.isLastPart = isLastPart;
+        this.cipherChunkSize = cipherChunkSize;
+        this.parallelCryptoPool = parallelCryptoPool;
+        this.cryptoExecutor = cryptoExecutor;
+    }
+
+    public CipherAsyncRequestBody(final AsyncRequestBody wrappedAsyncRequestBody, final Long ciphertextLength, final CryptographicMaterials materials, final byte[] iv, final boolean isLastPart) {
+        this(wrappedAsyncRequestBody, ciphertextLength, materials, iv, isLastPart, 0, null);
     }
 
     public CipherAsyncRequestBody(final AsyncRequestBody wrappedAsyncRequestBody, final Long ciphertextLength, final CryptographicMaterials materials, final byte[] iv) {
@@ -35,7 +61,10 @@ public class CipherAsyncRequestBody implements AsyncRequestBody {
 
     @Override
     public void subscribe(Subscriber<? super ByteBuffer> subscriber) {
-        wrappedAsyncRequestBody.subscribe(new CipherSubscriber(subscriber, contentLength().orElse(-1L), materials, iv));
+        wrappedAsyncRequestBody.subscribe(OffloadingSubscriber.offload(CoalescingSubscriber.coalesce(
+                new CipherSubscriber(subscriber, contentLength().orElse(-1L), materials, iv, isLastPart, false,
+                        parallelCryptoPool),
+                ParallelAesGcm.chunkSize(cipherChunkSize, parallelCryptoPool)), cryptoExecutor));
     }
 
     @Override
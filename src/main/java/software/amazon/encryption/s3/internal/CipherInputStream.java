@@ -3,12 +3,15 @@
 package software.amazon.encryption.s3.internal;
 
 import software.amazon.awssdk.core.io.SdkFilterInputStream;
+import software.amazon.encryption.s3.BufferPool;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.ShortBufferException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * A cipher stream for encrypting or decrypting data using an unauthenticated block cipher.
@@ -24,10 +27,30 @@ public class CipherInputStream extends SdkFilterInputStream {
     protected int currentPosition;
     protected int maxPosition;
 
+    private final BufferPool bufferPool;
+    private ByteBuffer pooledInputBuffer;
+    private ByteBuffer pooledOutputBuffer;
+
     public CipherInputStream(InputStream inputStream, Cipher cipher) {
+        this(inputStream, cipher, null);
+    }
+
+    /**
+     * Creates a cipher stream which takes its input and output buffers from the pool, if given, until it
+     * reaches the end of the stream or is closed. Direct buffer pools are not used, as the cipher is given arrays.
+     */
+    public CipherInputStream(InputStream inputStream, Cipher cipher, BufferPool bufferPool) {
         super(inputStream);
         this.cipher = cipher;
-        this.inputBuffer = new byte[DEFAULT_IN_BUFFER_SIZE];
+        if (bufferPool != null && !bufferPool.isDirect()) {
+            this.bufferPool = bufferPool;
+            pooledInputBuffer = bufferPool.acquire(DEFAULT_IN_BUFFER_SIZE);
+            pooledOutputBuffer = bufferPool.acquire(cipher.getOutputSize(DEFAULT_IN_BUFFER_SIZE) + cipher.getBlockSize());
+            this.inputBuffer = pooledInputBuffer.array();
+        } else {
+            this.bufferPool = null;
+            this.inputBuffer = new byte[DEFAULT_IN_BUFFER_SIZE];
+        }
     }
 
     @Override
@@ -66,6 +89,7 @@ public class CipherInputStream extends SdkFilterInputStream {
         if (currentPosition >= maxPosition) {
             // All buffered data has been read, let's get some more
             if (eofReached) {
+                releaseBuffers();
                 return false;
             }
             int retryCount = 0;
@@ -82,12 +106,33 @@ public class CipherInputStream extends SdkFilterInputStream {
             } while (length == 0);
 
             if (length == -1) {
+                releaseBuffers();
                 return false;
             }
         }
         return true;
     }
 
+    /**
+     * Returns the pooled buffers, if any, to the pool. They must not be used once all
+     * their data has been read.
+     */
+    protected void releaseBuffers() {
+        if (bufferPool == null || pooledInputBuffer == null) {
+            return;
+        }
+        eofReached = true;
+        if (outputBuffer == pooledOutputBuffer.array()) {
+            outputBuffer = null;
+            currentPosition = maxPosition = 0;
+        }
+        inputBuffer = null;
+        bufferPool.release(pooledInputBuffer);
+        bufferPool.release(pooledOutputBuffer);
+        pooledInputBuffer = null;
+        pooledOutputBuffer = null;
+    }
+
     /**
      * {@inheritDoc}
      * <p>
@@ -124,6 +169,7 @@ public class CipherInputStream extends SdkFilterInputStream {
             // Swallow the exception
         }
         currentPosition = maxPosition = 0;
+        releaseBuffers();
         abortIfNeeded();
     }
 
@@ -159,8 +205,16 @@ public class CipherInputStream extends SdkFilterInputStream {
         if (length == -1) {
             return endOfFileReached();
         }
-        outputBuffer = cipher.update(inputBuffer, 0, length);
         currentPosition = 0;
+        if (pooledOutputBuffer != null) {
+            try {
+                outputBuffer = pooledOutputBuffer.array();
+                return maxPosition = cipher.update(inputBuffer, 0, length, outputBuffer, 0);
+            } catch (ShortBufferException e) {
+                // The input is not consumed, so fall back to letting the cipher allocate the output
+            }
+        }
+        outputBuffer = cipher.update(inputBuffer, 0, length);
         return maxPosition = (outputBuffer == null ? 0 : outputBuffer.length);
     }
 
@@ -0,0 +1,159 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import javax.crypto.Cipher;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.Provider;
+import java.security.ProviderException;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * A bounded pool of Cipher instances used to wrap and unwrap data keys. Looking a Cipher up by algorithm
+ * and provider is a significant part of the cost of wrapping or unwrapping a data key, so instances are
+ * kept for reuse once an operation completes.
+ * <p>
+ * An idle Cipher still holds the key it was last initialized with. Each keyring therefore owns its own
+ * pool, which only ever holds the keyring's own wrapping key, and is released with the keyring or emptied
+ * by {@link #clear()}.
+ */
+public final class CipherPool {
+
+    /**
+     * The default number of idle instances kept for each algorithm and provider.
+     */
+    public static final int DEFAULT_MAX_IDLE = 16;
+
+    private final int _maxIdle;
+    private final Map<InstanceKey, Deque<Cipher>> _idle = new ConcurrentHashMap<>();
+    // Algorithm and provider pairs whose ciphers could not be re-initialized
+    private final Set<InstanceKey> _uncacheable = ConcurrentHashMap.newKeySet();
+
+    public CipherPool() {
+        this(DEFAULT_MAX_IDLE);
+    }
+
+    public CipherPool(int maxIdle) {
+        if (maxIdle < 0) {
+            throw new IllegalArgumentException("maxIdle must not be negative");
+        }
+        _maxIdle = maxIdle;
+    }
+
+    /**
+     * An operation on an initialized Cipher. The Cipher MUST NOT be used once the operation returns.
+     */
+    @FunctionalInterface
+    public interface CipherOperation<T> {
+        T apply(Cipher cipher) throws GeneralSecurityException;
+    }
+
+    /**
+     * Applies the operation to a Cipher for the algorithm and provider, initialized with the given key,
+     * parameters and randomness. The Cipher is returned to the pool once the operation completes normally,
+     * and discarded if it throws.
+     * <p>
+     * If the provider fails to re-initialize a pooled Cipher, a new instance is used instead, and ciphers
+     * for the algorithm and provider are no longer pooled.
+     * @param params the algorithm parameters, or null if the algorithm has none
+     * @param secureRandom the source of randomness, or null to use the provider's default
+     */
+    public <T> T withCipher(String algorithm, Provider provider, int opMode, Key key,
+                            AlgorithmParameterSpec params, SecureRandom secureRandom,
+                            CipherOperation<T> operation) throws GeneralSecurityException {
+        final InstanceKey instanceKey = new InstanceKey(algorithm, provider);
+        if (_uncacheable.contains(instanceKey)) {
+            return operation.apply(initCipher(CryptoFactory.createCipher(algorithm, provider),
+                    opMode, key, params, secureRandom));
+        }
+
+        final Deque<Cipher> idle = _idle.computeIfAbsent(instanceKey, k -> new ConcurrentLinkedDeque<>());
+        Cipher cipher = idle.pollFirst();
+        if (cipher == null) {
+            cipher = initCipher(CryptoFactory.createCipher(algorithm, provider), opMode, key, params, secureRandom);
+        } else {
+            try {
+                initCipher(cipher, opMode, key, params, secureRandom);
+            } catch (IllegalStateException | ProviderException e) {
+                // The provider does not support re-initializing this Cipher. Invalid keys or
+                // parameters are still reported to the caller, e.g. reuse of a GCM IV.
+                _uncacheable.add(instanceKey);
+                idle.clear();
+                return operation.apply(initCipher(CryptoFactory.createCipher(algorithm, provider),
+                        opMode, key, params, secureRandom));
+            }
+        }
+
+        final T result = operation.apply(cipher);
+        // The bound is approximate under contention, which is harmless
+        if (idle.size() < _maxIdle) {
+            idle.offerFirst(cipher);
+        }
+        return result;
+    }
+
+    /**
+     * The number of idle instances held for the algorithm and provider.
+     */
+    int idleCount(String algorithm, Provider provider) {
+        final Deque<Cipher> idle = _idle.get(new InstanceKey(algorithm, provider));
+        return idle == null ? 0 : idle.size();
+    }
+
+    /**
+     * Discards every idle instance, along with the keys they were last initialized with.
+     */
+    public void clear() {
+        _idle.clear();
+    }
+
+    private static Cipher initCipher(Cipher cipher, int opMode, Key key, AlgorithmParameterSpec params,
+                                     SecureRandom secureRandom) throws GeneralSecurityException {
+        if (params == null && secureRandom == null) {
+            cipher.init(opMode, key);
+        } else if (params == null) {
+            cipher.init(opMode, key, secureRandom);
+        } else if (secureRandom == null) {
+            cipher.init(opMode, key, params);
+        } else {
+            cipher.init(opMode, key, params, secureRandom);
+        }
+        return cipher;
+    }
+
+    private static final class InstanceKey {
+        private final String _algorithm;
+        private final Provider _provider;
+
+        private InstanceKey(String algorithm, Provider provider) {
+            _algorithm = algorithm;
+            _provider = provider;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            InstanceKey other = (InstanceKey) o;
+            // Providers are compared by identity, as two instances may be configured differently
+            return _algorithm.equals(other._algorithm) && _provider == other._provider;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(_algorithm, System.identityHashCode(_provider));
+        }
+    }
+}
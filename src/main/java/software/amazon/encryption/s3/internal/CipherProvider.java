@@ -41,6 +41,7 @@ public class CipherProvider {
             Cipher cipher = CryptoFactory.createCipher(materials.algorithmSuite().cipherName(), materials.cryptoProvider());
             switch (materials.algorithmSuite()) {
                 case ALG_AES_256_GCM_IV12_TAG16_NO_KDF:
+                case ALG_AES_256_GCM_HKDF_SHA512:
                     cipher.init(materials.cipherMode().opMode(), materials.dataKey(), new GCMParameterSpec(materials.algorithmSuite().cipherTagLengthBits(), iv));
                     break;
                 case ALG_AES_256_CTR_IV16_TAG16_NO_KDF:
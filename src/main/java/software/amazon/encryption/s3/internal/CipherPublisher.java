@@ -2,12 +2,15 @@
 // SPDX-License-Identifier: Apache-2.0
 package software.amazon.encryption.s3.internal;
 
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.reactivestreams.Subscriber;
 import software.amazon.awssdk.core.async.SdkPublisher;
+import software.amazon.encryption.s3.CryptoExecutor;
 import software.amazon.encryption.s3.legacy.internal.RangedGetUtils;
 import software.amazon.encryption.s3.materials.CryptographicMaterials;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * A Publisher which encrypts and decrypts data as it passes through
@@ -22,16 +25,27 @@ public class CipherPublisher implements SdkPublisher<ByteBuffer> {
     private final String contentRange;
     private final int cipherTagLengthBits;
     private final byte[] iv;
+    private final int cipherChunkSize;
+    private final boolean delayedAuthentication;
+    private final ForkJoinPool parallelCryptoPool;
+    private final CryptoExecutor cryptoExecutor;
 
-    public CipherPublisher(final SdkPublisher<ByteBuffer> wrappedPublisher, final Long contentLength, long[] range,
-                           String contentRange, int cipherTagLengthBits, final CryptographicMaterials materials, final byte[] iv) {
-        this.wrappedPublisher = wrappedPublisher;
-        this.materials = materials;
-        this.contentLength = contentLength;
-        this.range = range;
-        this.contentRange = contentRange;
-        this.cipherTagLengthBits = cipherTagLengthBits;
-        this.iv = iv;
+    private CipherPublisher(Builder builder) {
+        this.wrappedPublisher = builder._wrappedPublisher;
+        this.materials = builder._materials;
+        this.contentLength = builder._contentLength;
+        this.range = builder._range;
+        this.contentRange = builder._contentRange;
+        this.cipherTagLengthBits = builder._cipherTagLengthBits;
+        this.iv = builder._iv;
+        this.cipherChunkSize = builder._cipherChunkSize;
+        this.delayedAuthentication = builder._delayedAuthentication;
+        this.parallelCryptoPool = builder._parallelCryptoPool;
+        this.cryptoExecutor = builder._cryptoExecutor;
+    }
+
+    public static Builder builder() {
+        return new Builder();
     }
 
     @Override
@@ -39,6 +53,102 @@ public class CipherPublisher implements SdkPublisher<ByteBuffer> {
         // Wrap the (customer) subscriber in a CipherSubscriber, then subscribe it
         // to the wrapped (ciphertext) publisher
         Subscriber<? super ByteBuffer> wrappedSubscriber = RangedGetUtils.adjustToDesiredRange(subscriber, range, contentRange, cipherTagLengthBits);
-        wrappedPublisher.subscribe(new CipherSubscriber(wrappedSubscriber, contentLength, materials, iv));
+        wrappedPublisher.subscribe(OffloadingSubscriber.offload(CoalescingSubscriber.coalesce(
+                new CipherSubscriber(wrappedSubscriber, contentLength, materials, iv, true, delayedAuthentication,
+                        parallelCryptoPool),
+                ParallelAesGcm.chunkSize(cipherChunkSize, parallelCryptoPool)), cryptoExecutor));
+    }
+
+    public static class Builder {
+        private SdkPublisher<ByteBuffer> _wrappedPublisher;
+        private Long _contentLength;
+        private long[] _range;
+        private String _contentRange;
+        private int _cipherTagLengthBits;
+        private CryptographicMaterials _materials;
+        private byte[] _iv;
+        private int _cipherChunkSize = 0;
+        private boolean _delayedAuthentication = false;
+        private ForkJoinPool _parallelCryptoPool;
+        private CryptoExecutor _cryptoExecutor;
+
+        private Builder() {
+        }
+
+        public Builder wrappedPublisher(SdkPublisher<ByteBuffer> wrappedPublisher) {
+            this._wrappedPublisher = wrappedPublisher;
+            return this;
+        }
+
+        public Builder contentLength(Long contentLength) {
+            this._contentLength = contentLength;
+            return this;
+        }
+
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "The range is only read")
+        public Builder range(long[] range) {
+            this._range = range;
+            return this;
+        }
+
+        public Builder contentRange(String contentRange) {
+            this._contentRange = contentRange;
+            return this;
+        }
+
+        public Builder cipherTagLengthBits(int cipherTagLengthBits) {
+            this._cipherTagLengthBits = cipherTagLengthBits;
+            return this;
+        }
+
+        public Builder materials(CryptographicMaterials materials) {
+            this._materials = materials;
+            return this;
+        }
+
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "The IV is only read")
+        public Builder iv(byte[] iv) {
+            this._iv = iv;
+            return this;
+        }
+
+        /**
+         * The number of bytes gathered before each update of the cipher. Zero updates the cipher with each
+         * buffer as it is received.
+         */
+        public Builder cipherChunkSize(int cipherChunkSize) {
+            this._cipherChunkSize = cipherChunkSize;
+            return this;
+        }
+
+        /**
+         * Whether plaintext may be released before it is authenticated.
+         */
+        public Builder delayedAuthentication(boolean delayedAuthentication) {
+            this._delayedAuthentication = delayedAuthentication;
+            return this;
+        }
+
+        /**
+         * The pool to decrypt GCM on in parallel, or null.
+         */
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "The pool is shared by design")
+        public Builder parallelCryptoPool(ForkJoinPool parallelCryptoPool) {
+            this._parallelCryptoPool = parallelCryptoPool;
+            return this;
+        }
+
+        /**
+         * The executor to decrypt on, or null to do so on the thread which delivers the ciphertext.
+         */
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "The executor is shared by design")
+        public Builder cryptoExecutor(CryptoExecutor cryptoExecutor) {
+            this._cryptoExecutor = cryptoExecutor;
+            return this;
+        }
+
+        public CipherPublisher build() {
+            return new CipherPublisher(this);
+        }
     }
 }
@@ -4,32 +4,61 @@ package software.amazon.encryption.s3.internal;
 
 import org.reactivestreams.Subscriber;
 import org.reactivestreams.Subscription;
-import software.amazon.awssdk.utils.BinaryUtils;
 import software.amazon.encryption.s3.S3EncryptionClientSecurityException;
 import software.amazon.encryption.s3.materials.CryptographicMaterials;
 
 import javax.crypto.Cipher;
+import javax.crypto.ShortBufferException;
 import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class CipherSubscriber implements Subscriber<ByteBuffer> {
+    private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+    private static final String GCM_CIPHER_NAME = "AES/GCM/NoPadding";
+    private static final int GCM_BLOCK_SIZE = 16;
+
     private final AtomicLong contentRead = new AtomicLong(0);
     private final Subscriber<? super ByteBuffer> wrappedSubscriber;
     private Cipher cipher;
+    // Used instead of the cipher to decrypt GCM in delayed authentication mode
+    private StreamingAesGcmDecryptor gcmDecryptor;
+    // Used instead of the cipher to encrypt GCM in parallel
+    private ParallelAesGcm gcmEncryptor;
     private final Long contentLength;
     private final CryptographicMaterials materials;
     private byte[] iv;
     private boolean isLastPart;
-
-    private byte[] outputBuffer;
+    private boolean isComplete;
 
     CipherSubscriber(Subscriber<? super ByteBuffer> wrappedSubscriber, Long contentLength, CryptographicMaterials materials, byte[] iv, boolean isLastPart) {
+        this(wrappedSubscriber, contentLength, materials, iv, isLastPart, false, null);
+    }
+
+    /**
+     * @param delayedAuthentication whether plaintext may be released before it is authenticated, in which
+     *                              case GCM is decrypted as it is streamed, in constant memory
+     * @param parallelCryptoPool    the pool to encrypt or decrypt GCM on in parallel, or null
+     */
+    CipherSubscriber(Subscriber<? super ByteBuffer> wrappedSubscriber, Long contentLength, CryptographicMaterials materials, byte[] iv, boolean isLastPart,
+                     boolean delayedAuthentication, ForkJoinPool parallelCryptoPool) {
         this.wrappedSubscriber = wrappedSubscriber;
         this.contentLength = contentLength;
         this.materials = materials;
         this.iv = iv;
-        cipher = materials.getCipher(iv);
+        final boolean isGcm = materials.algorithmSuite().cipherName().equals(GCM_CIPHER_NAME);
+        if (delayedAuthentication && materials.cipherMode() == CipherMode.DECRYPT && isGcm) {
+            // JCE providers typically hold back all of the plaintext until the tag is verified
+            gcmDecryptor = new StreamingAesGcmDecryptor(materials.dataKey(), iv,
+                    materials.algorithmSuite().cipherTagLengthBits(), materials.cryptoProvider(), parallelCryptoPool);
+        } else if (parallelCryptoPool != null && materials.cipherMode() == CipherMode.ENCRYPT && isGcm) {
+            // Multipart uploads share one cipher between parts, so are not encrypted in parallel
+            gcmEncryptor = new ParallelAesGcm(materials.dataKey(), iv, materials.algorithmSuite().cipherTagLengthBits(),
+                    true, materials.cryptoProvider(), parallelCryptoPool);
+        } else {
+            cipher = materials.getCipher(iv);
+        }
         this.isLastPart = isLastPart;
     }
 
@@ -48,21 +77,62 @@ public class CipherSubscriber implements Subscriber<ByteBuffer> {
         int amountToReadFromByteBuffer = getAmountToReadFromByteBuffer(byteBuffer);
 
         if (amountToReadFromByteBuffer > 0) {
-            byte[] buf = BinaryUtils.copyBytesFrom(byteBuffer, amountToReadFromByteBuffer);
-            outputBuffer = cipher.update(buf, 0, amountToReadFromByteBuffer);
-            if (outputBuffer == null && amountToReadFromByteBuffer < cipher.getBlockSize()) {
+            // Read the content in place, rather than copying it out of the (possibly direct) buffer
+            ByteBuffer input = byteBuffer.duplicate();
+            input.limit(input.position() + amountToReadFromByteBuffer);
+            ByteBuffer outputBuffer = update(input);
+            if (!outputBuffer.hasRemaining() && amountToReadFromByteBuffer < blockSize()
+                    && contentLength != null && contentRead.get() >= contentLength) {
                 // The underlying data is too short to fill in the block cipher
                 // This is true at the end of the file, so complete to get the final
                 // bytes
                 this.onComplete();
+                return;
             }
-            wrappedSubscriber.onNext(ByteBuffer.wrap(outputBuffer));
+            wrappedSubscriber.onNext(outputBuffer);
         } else {
-            // Do nothing
-            wrappedSubscriber.onNext(byteBuffer);
+            // Do nothing, but pass on a copy, as the buffer may be reused once onNext returns (see CoalescingSubscriber)
+            ByteBuffer copy = ByteBuffer.allocate(byteBuffer.remaining());
+            copy.put(byteBuffer.duplicate()).flip();
+            wrappedSubscriber.onNext(copy);
         }
     }
 
+    private int blockSize() {
+        return cipher == null ? GCM_BLOCK_SIZE : cipher.getBlockSize();
+    }
+
+    private ByteBuffer update(ByteBuffer input) {
+        if (gcmDecryptor != null) {
+            ByteBuffer output = gcmDecryptor.update(input);
+            return output.hasRemaining() ? output : EMPTY_BUFFER.duplicate();
+        }
+        if (gcmEncryptor != null) {
+            ByteBuffer output = ByteBuffer.allocate(input.remaining());
+            gcmEncryptor.update(input, output);
+            output.flip();
+            return output;
+        }
+        // The output of an update is at most the input plus a partial block held back from earlier updates,
+        // except for ciphers which hold back the whole input, e.g. GCM decryption in the JDK, which output nothing
+        final int inputLength = input.remaining();
+        ByteBuffer output = ByteBuffer.allocate(Math.min(cipher.getOutputSize(inputLength),
+                inputLength + cipher.getBlockSize()));
+        try {
+            cipher.update(input, output);
+        } catch (ShortBufferException e) {
+            // The input is not consumed, so retry with the size the cipher asks for
+            output = ByteBuffer.allocate(cipher.getOutputSize(inputLength));
+            try {
+                cipher.update(input, output);
+            } catch (ShortBufferException retryException) {
+                throw new S3EncryptionClientSecurityException(retryException.getMessage(), retryException);
+            }
+        }
+        output.flip();
+        return output.hasRemaining() ? output : EMPTY_BUFFER.duplicate();
+    }
+
     private int getAmountToReadFromByteBuffer(ByteBuffer byteBuffer) {
         // If content length is null, we should include everything in the cipher because the stream is essentially
         // unbounded.
@@ -87,13 +157,25 @@ public class CipherSubscriber implements Subscriber<ByteBuffer> {
 
     @Override
     public void onComplete() {
+        if (isComplete) {
+            // Already completed from onNext, once all the content was read
+            return;
+        }
+        isComplete = true;
         if (!isLastPart) {
             // If this isn't the last part, skip doFinal, we aren't done
             wrappedSubscriber.onComplete();
             return;
         }
         try {
-            outputBuffer = cipher.doFinal();
+            final byte[] outputBuffer;
+            if (gcmDecryptor != null) {
+                outputBuffer = gcmDecryptor.doFinal();
+            } else if (gcmEncryptor != null) {
+                outputBuffer = gcmEncryptor.tag();
+            } else {
+                outputBuffer = cipher.doFinal();
+            }
             // Send the final bytes to the wrapped subscriber
             wrappedSubscriber.onNext(ByteBuffer.wrap(outputBuffer));
         } catch (final GeneralSecurityException exception) {
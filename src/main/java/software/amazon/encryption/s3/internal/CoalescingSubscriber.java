@@ -0,0 +1,203 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A subscriber which gathers the buffers it receives into buffers of (at least) a target size before
+ * passing them on, so that e.g. a cipher is updated once per target size rather than once per buffer
+ * the SDK delivers. Buffers at least as large as the target size are passed on without copying.
+ * <p>
+ * The wrapped subscriber must be done with each buffer by the time its onNext returns, as CipherSubscriber
+ * is, so that the buffers the bytes are gathered into can be reused.
+ * <p>
+ * Each buffer passed on counts against the wrapped subscriber's demand. While there is demand, buffers are
+ * requested from upstream in batches, topped up once half of a batch has been received, so that upstream is
+ * not stalled waiting on a request for each buffer. At most a batch of buffers is received ahead of demand.
+ * Any remaining bytes are passed on when upstream completes.
+ */
+public class CoalescingSubscriber implements Subscriber<ByteBuffer> {
+
+    private final Subscriber<? super ByteBuffer> wrappedSubscriber;
+    private final int targetSize;
+
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final Queue<Pending> ready = new ConcurrentLinkedQueue<>();
+    // A gathering buffer which has been passed on, and can be gathered into again
+    private final AtomicReference<ByteBuffer> spare = new AtomicReference<>();
+
+    private Subscription subscription;
+    // Only accessed from upstream signals, which are serialized
+    private ByteBuffer accumulator;
+    private final AtomicInteger upstreamOutstanding = new AtomicInteger();
+    private volatile boolean upstreamDone;
+    private volatile Throwable upstreamError;
+    private volatile boolean cancelled;
+    private boolean done;
+
+    CoalescingSubscriber(Subscriber<? super ByteBuffer> wrappedSubscriber, int targetSize) {
+        this.wrappedSubscriber = wrappedSubscriber;
+        this.targetSize = targetSize;
+    }
+
+    /**
+     * Wraps the subscriber in a coalescing subscriber, unless the target size is zero or less.
+     */
+    static Subscriber<? super ByteBuffer> coalesce(Subscriber<? super ByteBuffer> subscriber, int targetSize) {
+        return targetSize > 0 ? new CoalescingSubscriber(subscriber, targetSize) : subscriber;
+    }
+
+    @Override
+    public void onSubscribe(Subscription s) {
+        this.subscription = s;
+        wrappedSubscriber.onSubscribe(new Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    s.cancel();
+                    upstreamError = new IllegalArgumentException("Demand must be positive, got " + n);
+                    upstreamDone = true;
+                    drain();
+                    return;
+                }
+                addRequested(n);
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                cancelled = true;
+                s.cancel();
+                ready.clear();
+            }
+        });
+    }
+
+    @Override
+    public void onNext(ByteBuffer byteBuffer) {
+        upstreamOutstanding.decrementAndGet();
+        if (accumulator == null && byteBuffer.remaining() >= targetSize) {
+            ready.add(new Pending(byteBuffer, false));
+        } else {
+            if (accumulator == null) {
+                accumulator = newAccumulator();
+            }
+            ByteBuffer input = byteBuffer.duplicate();
+            int toCopy = Math.min(input.remaining(), accumulator.remaining());
+            input.limit(input.position() + toCopy);
+            accumulator.put(input);
+            input.limit(byteBuffer.limit());
+
+            if (!accumulator.hasRemaining()) {
+                accumulator.flip();
+                ready.add(new Pending(accumulator, true));
+                accumulator = null;
+                if (input.remaining() >= targetSize) {
+                    ready.add(new Pending(input, false));
+                } else if (input.hasRemaining()) {
+                    accumulator = newAccumulator();
+                    accumulator.put(input);
+                }
+            }
+        }
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        upstreamError = t;
+        upstreamDone = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        if (accumulator != null && accumulator.position() > 0) {
+            accumulator.flip();
+            ready.add(new Pending(accumulator, true));
+        }
+        accumulator = null;
+        upstreamDone = true;
+        drain();
+    }
+
+    private ByteBuffer newAccumulator() {
+        ByteBuffer buffer = spare.getAndSet(null);
+        if (buffer == null) {
+            return ByteBuffer.allocate(targetSize);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    private void addRequested(long n) {
+        long current;
+        long next;
+        do {
+            current = requested.get();
+            next = current + n < 0 ? Long.MAX_VALUE : current + n;
+        } while (!requested.compareAndSet(current, next));
+    }
+
+    /**
+     * Passes on ready buffers while there is demand, and requests another batch from upstream when there are
+     * none and half of the last batch has been received. Only one thread drains at a time, and a drain triggered while draining (e.g. by a request
+     * from within the wrapped subscriber's onNext) is picked up by the draining thread, avoiding recursion.
+     */
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            if (cancelled || done) {
+                ready.clear();
+            } else if (upstreamError != null) {
+                done = true;
+                ready.clear();
+                wrappedSubscriber.onError(upstreamError);
+            } else {
+                Pending pending;
+                while (requested.get() > 0 && (pending = ready.poll()) != null) {
+                    if (requested.get() != Long.MAX_VALUE) {
+                        requested.decrementAndGet();
+                    }
+                    wrappedSubscriber.onNext(pending.buffer);
+                    if (pending.gathered) {
+                        spare.set(pending.buffer);
+                    }
+                }
+                if (upstreamDone && ready.isEmpty()) {
+                    done = true;
+                    wrappedSubscriber.onComplete();
+                } else if (!upstreamDone && ready.isEmpty() && requested.get() > 0
+                        && upstreamOutstanding.get() <= AbstractBufferedCipherSubscriber.UPSTREAM_BATCH_SIZE / 2) {
+                    upstreamOutstanding.addAndGet(AbstractBufferedCipherSubscriber.UPSTREAM_BATCH_SIZE);
+                    subscription.request(AbstractBufferedCipherSubscriber.UPSTREAM_BATCH_SIZE);
+                }
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private static final class Pending {
+        private final ByteBuffer buffer;
+        // Whether the buffer is one bytes were gathered into, rather than one received from upstream
+        private final boolean gathered;
+
+        private Pending(ByteBuffer buffer, boolean gathered) {
+            this.buffer = buffer;
+            this.gathered = gathered;
+        }
+    }
+}
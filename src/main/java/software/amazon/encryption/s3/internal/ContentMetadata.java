@@ -6,18 +6,21 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
 import software.amazon.encryption.s3.materials.EncryptedDataKey;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 public class ContentMetadata {
 
     private final AlgorithmSuite _algorithmSuite;
 
-    private final EncryptedDataKey _encryptedDataKey;
+    private final List<EncryptedDataKey> _encryptedDataKeys;
     private final String _encryptedDataKeyAlgorithm;
     private final Map<String, String> _encryptedDataKeyContext;
 
     private final byte[] _contentIv;
+    private final byte[] _contentKdfSalt;
     private final String _contentCipher;
     private final String _contentCipherTagLength;
     private final String _contentRange;
@@ -25,11 +28,12 @@ public class ContentMetadata {
     private ContentMetadata(Builder builder) {
         _algorithmSuite = builder._algorithmSuite;
 
-        _encryptedDataKey = builder._encryptedDataKey;
+        _encryptedDataKeys = builder._encryptedDataKeys;
         _encryptedDataKeyAlgorithm = builder._encryptedDataKeyAlgorithm;
         _encryptedDataKeyContext = builder._encryptedDataKeyContext;
 
         _contentIv = builder._contentIv;
+        _contentKdfSalt = builder._contentKdfSalt;
         _contentCipher = builder._contentCipher;
         _contentCipherTagLength = builder._contentCipherTagLength;
         _contentRange = builder._contentRange;
@@ -43,8 +47,22 @@ public class ContentMetadata {
         return _algorithmSuite;
     }
 
+    /**
+     * @return the primary encrypted data key, which is stored in the legacy metadata location
+     */
     public EncryptedDataKey encryptedDataKey() {
-        return _encryptedDataKey;
+        return _encryptedDataKeys.isEmpty() ? null : _encryptedDataKeys.get(0);
+    }
+
+    /**
+     * @return all the encrypted data keys of the object, primary first.
+     * Note that the underlying implementation uses a Collections.unmodifiableList which is
+     * immutable.
+     */
+    @SuppressFBWarnings(value = "EI_EXPOSE_REP", justification = "False positive; underlying"
+        + " implementation is immutable")
+    public List<EncryptedDataKey> encryptedDataKeys() {
+        return _encryptedDataKeys;
     }
 
     public String encryptedDataKeyAlgorithm() {
@@ -68,6 +86,13 @@ public class ContentMetadata {
         return _contentIv.clone();
     }
 
+    public byte[] contentKdfSalt() {
+        if (_contentKdfSalt == null) {
+            return null;
+        }
+        return _contentKdfSalt.clone();
+    }
+
     public String contentCipher() {
         return _contentCipher;
     }
@@ -83,11 +108,12 @@ public class ContentMetadata {
     public static class Builder {
         private AlgorithmSuite _algorithmSuite;
 
-        private EncryptedDataKey _encryptedDataKey;
+        private List<EncryptedDataKey> _encryptedDataKeys = Collections.emptyList();
         private String _encryptedDataKeyAlgorithm;
         private Map<String, String> _encryptedDataKeyContext;
 
         private byte[] _contentIv;
+        private byte[] _contentKdfSalt;
         private String _contentCipher;
         private String _contentCipherTagLength;
         public String _contentRange;
@@ -102,7 +128,12 @@ public class ContentMetadata {
         }
 
         public Builder encryptedDataKey(EncryptedDataKey encryptedDataKey) {
-            _encryptedDataKey = encryptedDataKey;
+            _encryptedDataKeys = Collections.singletonList(encryptedDataKey);
+            return this;
+        }
+
+        public Builder encryptedDataKeys(List<EncryptedDataKey> encryptedDataKeys) {
+            _encryptedDataKeys = Collections.unmodifiableList(new ArrayList<>(encryptedDataKeys));
             return this;
         }
 
@@ -121,6 +152,11 @@ public class ContentMetadata {
             return this;
         }
 
+        public Builder contentKdfSalt(byte[] contentKdfSalt) {
+            _contentKdfSalt = contentKdfSalt.clone();
+            return this;
+        }
+
         public Builder contentRange(String contentRange) {
             _contentRange = contentRange;
             return this;
@@ -18,8 +18,10 @@ import software.amazon.encryption.s3.materials.EncryptionMaterials;
 import software.amazon.encryption.s3.materials.S3Keyring;
 
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Base64;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -29,6 +31,8 @@ public abstract class ContentMetadataStrategy implements ContentMetadataEncoding
 
     private static final Base64.Encoder ENCODER = Base64.getEncoder();
     private static final Base64.Decoder DECODER = Base64.getDecoder();
+    // S3 limits the user-defined metadata of an object, measured as the UTF-8 bytes of its keys and values
+    static final int MAX_USER_METADATA_BYTES = 2 * 1024;
 
     public static final ContentMetadataDecodingStrategy INSTRUCTION_FILE = new ContentMetadataDecodingStrategy() {
 
@@ -68,9 +72,16 @@ public abstract class ContentMetadataStrategy implements ContentMetadataEncoding
             EncryptedDataKey edk = materials.encryptedDataKeys().get(0);
             metadata.put(MetadataKeyConstants.ENCRYPTED_DATA_KEY_V2, ENCODER.encodeToString(edk.encryptedDatakey()));
             metadata.put(MetadataKeyConstants.CONTENT_IV, ENCODER.encodeToString(iv));
-            metadata.put(MetadataKeyConstants.CONTENT_CIPHER, materials.algorithmSuite().cipherName());
+            metadata.put(MetadataKeyConstants.CONTENT_CIPHER, materials.algorithmSuite().contentCipherMetadataName());
+            if (materials.algorithmSuite().isKdfSupported()) {
+                metadata.put(MetadataKeyConstants.CONTENT_KDF_SALT, ENCODER.encodeToString(materials.kdfSalt()));
+            }
             metadata.put(MetadataKeyConstants.CONTENT_CIPHER_TAG_LENGTH, Integer.toString(materials.algorithmSuite().cipherTagLengthBits()));
             metadata.put(MetadataKeyConstants.ENCRYPTED_DATA_KEY_ALGORITHM, new String(edk.keyProviderInfo(), StandardCharsets.UTF_8));
+            if (materials.encryptedDataKeys().size() > 1) {
+                metadata.put(MetadataKeyConstants.ENCRYPTED_DATA_KEYS_ADDITIONAL,
+                        encodeAdditionalDataKeys(materials.encryptedDataKeys()));
+            }
 
             try (JsonWriter jsonWriter = JsonWriter.create()) {
                 jsonWriter.writeStartObject();
@@ -84,6 +95,7 @@ public abstract class ContentMetadataStrategy implements ContentMetadataEncoding
             } catch (JsonGenerationException e) {
                 throw new S3EncryptionClientException("Cannot serialize encryption context to JSON.", e);
             }
+            validateMetadataSize(metadata);
             return metadata;
         }
 
@@ -93,6 +105,66 @@ public abstract class ContentMetadataStrategy implements ContentMetadataEncoding
         }
     };
 
+    /**
+     * Fails before the object is put if its metadata would exceed S3's limit, e.g. because the data key is
+     * wrapped by too many keyrings.
+     */
+    static void validateMetadataSize(Map<String, String> metadata) {
+        long size = 0;
+        for (Entry<String, String> entry : metadata.entrySet()) {
+            size += entry.getKey().getBytes(StandardCharsets.UTF_8).length;
+            size += entry.getValue() == null ? 0 : entry.getValue().getBytes(StandardCharsets.UTF_8).length;
+        }
+        if (size > MAX_USER_METADATA_BYTES) {
+            throw new S3EncryptionClientException(String.format("The object metadata, including the encryption"
+                    + " metadata, is %d bytes, more than the %d bytes S3 allows. Wrap the data key with fewer"
+                    + " keyrings, or put less metadata with the object.", size, MAX_USER_METADATA_BYTES));
+        }
+    }
+
+    private static String encodeAdditionalDataKeys(List<EncryptedDataKey> encryptedDataKeys) {
+        try (JsonWriter jsonWriter = JsonWriter.create()) {
+            jsonWriter.writeStartArray();
+            for (EncryptedDataKey edk : encryptedDataKeys.subList(1, encryptedDataKeys.size())) {
+                jsonWriter.writeStartObject();
+                jsonWriter.writeFieldName(MetadataKeyConstants.ENCRYPTED_DATA_KEY_V2)
+                        .writeValue(ENCODER.encodeToString(edk.encryptedDatakey()));
+                jsonWriter.writeFieldName(MetadataKeyConstants.ENCRYPTED_DATA_KEY_ALGORITHM)
+                        .writeValue(new String(edk.keyProviderInfo(), StandardCharsets.UTF_8));
+                if (edk.wrappingKeyId() != null) {
+                    jsonWriter.writeFieldName(MetadataKeyConstants.ENCRYPTED_DATA_KEY_WRAPPING_KEY_ID)
+                            .writeValue(edk.wrappingKeyId());
+                }
+                jsonWriter.writeEndObject();
+            }
+            jsonWriter.writeEndArray();
+            return new String(jsonWriter.getBytes(), StandardCharsets.UTF_8);
+        } catch (JsonGenerationException e) {
+            throw new S3EncryptionClientException("Cannot serialize encrypted data keys to JSON.", e);
+        }
+    }
+
+    private static List<EncryptedDataKey> decodeAdditionalDataKeys(String jsonEncryptedDataKeys) {
+        final List<EncryptedDataKey> encryptedDataKeys = new ArrayList<>();
+        try {
+            JsonNode arrayNode = JsonNodeParser.create().parse(jsonEncryptedDataKeys);
+            for (JsonNode node : arrayNode.asArray()) {
+                Map<String, JsonNode> fields = node.asObject();
+                JsonNode wrappingKeyId = fields.get(MetadataKeyConstants.ENCRYPTED_DATA_KEY_WRAPPING_KEY_ID);
+                encryptedDataKeys.add(EncryptedDataKey.builder()
+                        .encryptedDataKey(DECODER.decode(fields.get(MetadataKeyConstants.ENCRYPTED_DATA_KEY_V2).asString()))
+                        .keyProviderId(S3Keyring.KEY_PROVIDER_ID)
+                        .keyProviderInfo(fields.get(MetadataKeyConstants.ENCRYPTED_DATA_KEY_ALGORITHM).asString()
+                                .getBytes(StandardCharsets.UTF_8))
+                        .wrappingKeyId(wrappingKeyId == null ? null : wrappingKeyId.asString())
+                        .build());
+            }
+        } catch (RuntimeException e) {
+            throw new S3EncryptionClientException("Malformed object metadata! Could not parse the additional encrypted data keys.", e);
+        }
+        return encryptedDataKeys;
+    }
+
     private static ContentMetadata readFromMap(Map<String, String> metadata, GetObjectResponse response) {
         // Get algorithm suite
         final String contentEncryptionAlgorithm = metadata.get(MetadataKeyConstants.CONTENT_CIPHER);
@@ -103,6 +175,12 @@ public abstract class ContentMetadataStrategy implements ContentMetadataEncoding
             algorithmSuite = AlgorithmSuite.ALG_AES_256_CBC_IV16_NO_KDF;
         } else if (contentEncryptionAlgorithm.equals(AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF.cipherName())) {
             algorithmSuite = (contentRange == null ) ? AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF : AlgorithmSuite.ALG_AES_256_CTR_IV16_TAG16_NO_KDF;
+        } else if (contentEncryptionAlgorithm.equals(AlgorithmSuite.ALG_AES_256_GCM_HKDF_SHA512.contentCipherMetadataName())) {
+            if (contentRange != null) {
+                throw new S3EncryptionClientException("Ranged gets are not supported for objects encrypted with "
+                        + contentEncryptionAlgorithm);
+            }
+            algorithmSuite = AlgorithmSuite.ALG_AES_256_GCM_HKDF_SHA512;
         } else {
             throw new S3EncryptionClientException(
                     "Unknown content encryption algorithm: " + contentEncryptionAlgorithm);
@@ -110,6 +188,7 @@ public abstract class ContentMetadataStrategy implements ContentMetadataEncoding
 
         // Do algorithm suite dependent decoding
         byte[] edkCiphertext;
+        String additionalDataKeys = null;
 
         // Currently, this is not stored within the metadata,
         // signal to keyring(s) intended for S3EC
@@ -159,6 +238,7 @@ public abstract class ContentMetadataStrategy implements ContentMetadataEncoding
                 }
                 break;
             case ALG_AES_256_GCM_IV12_TAG16_NO_KDF:
+            case ALG_AES_256_GCM_HKDF_SHA512:
             case ALG_AES_256_CTR_IV16_TAG16_NO_KDF:
                 // Check tag length
                 final int tagLength = Integer.parseInt(metadata.get(MetadataKeyConstants.CONTENT_CIPHER_TAG_LENGTH));
@@ -171,6 +251,7 @@ public abstract class ContentMetadataStrategy implements ContentMetadataEncoding
                 // Extract encrypted data key ciphertext and provider id
                 edkCiphertext = DECODER.decode(metadata.get(MetadataKeyConstants.ENCRYPTED_DATA_KEY_V2));
                 keyProviderInfo = metadata.get(MetadataKeyConstants.ENCRYPTED_DATA_KEY_ALGORITHM);
+                additionalDataKeys = metadata.get(MetadataKeyConstants.ENCRYPTED_DATA_KEYS_ADDITIONAL);
 
                 break;
             default:
@@ -184,6 +265,11 @@ public abstract class ContentMetadataStrategy implements ContentMetadataEncoding
                 .keyProviderId(keyProviderId)
                 .keyProviderInfo(keyProviderInfo.getBytes(StandardCharsets.UTF_8))
                 .build();
+        final List<EncryptedDataKey> encryptedDataKeys = new ArrayList<>();
+        encryptedDataKeys.add(edk);
+        if (additionalDataKeys != null) {
+            encryptedDataKeys.addAll(decodeAdditionalDataKeys(additionalDataKeys));
+        }
 
         // Get encrypted data key encryption context
         final Map<String, String> encryptionContext = new HashMap<>();
@@ -202,13 +288,22 @@ public abstract class ContentMetadataStrategy implements ContentMetadataEncoding
         // Get content iv
         byte[] iv = DECODER.decode(metadata.get(MetadataKeyConstants.CONTENT_IV));
 
-        return ContentMetadata.builder()
+        ContentMetadata.Builder contentMetadata = ContentMetadata.builder()
                 .algorithmSuite(algorithmSuite)
-                .encryptedDataKey(edk)
+                .encryptedDataKeys(encryptedDataKeys)
                 .encryptedDataKeyContext(encryptionContext)
                 .contentIv(iv)
-                .contentRange(contentRange)
-                .build();
+                .contentRange(contentRange);
+
+        // Get content key derivation salt
+        if (algorithmSuite.isKdfSupported()) {
+            final String kdfSalt = metadata.get(MetadataKeyConstants.CONTENT_KDF_SALT);
+            if (kdfSalt == null) {
+                throw new S3EncryptionClientException("Malformed object metadata! Could not find the key derivation salt.");
+            }
+            contentMetadata.contentKdfSalt(DECODER.decode(kdfSalt));
+        }
+        return contentMetadata.build();
     }
 
     public static ContentMetadata decode(GetObjectRequest request, GetObjectResponse response) {
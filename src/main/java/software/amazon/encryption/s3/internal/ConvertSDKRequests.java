@@ -0,0 +1,51 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import software.amazon.awssdk.core.SdkField;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Converts between the requests of the S3 operations which put an object.
+ */
+final class ConvertSDKRequests {
+
+    // Checksums are computed over the plaintext by the caller, so they do not describe the parts of the ciphertext
+    private static final String CHECKSUM_ALGORITHM = "ChecksumAlgorithm";
+
+    private static final Map<String, SdkField<?>> CREATE_MULTIPART_UPLOAD_FIELDS = new HashMap<>();
+
+    static {
+        for (SdkField<?> field : CreateMultipartUploadRequest.builder().sdkFields()) {
+            CREATE_MULTIPART_UPLOAD_FIELDS.put(field.memberName(), field);
+        }
+    }
+
+    private ConvertSDKRequests() {
+    }
+
+    /**
+     * @return a request to create a multipart upload of the object which the PutObject request would put,
+     * with every field the two requests share, except the checksum algorithm, and the same override
+     * configuration
+     */
+    static CreateMultipartUploadRequest convertRequest(PutObjectRequest request) {
+        final CreateMultipartUploadRequest.Builder builder = CreateMultipartUploadRequest.builder()
+                .overrideConfiguration(request.overrideConfiguration().orElse(null));
+        for (SdkField<?> field : request.sdkFields()) {
+            final SdkField<?> target = CREATE_MULTIPART_UPLOAD_FIELDS.get(field.memberName());
+            if (target == null || CHECKSUM_ALGORITHM.equals(field.memberName())) {
+                continue;
+            }
+            final Object value = field.getValueOrDefault(request);
+            if (value != null) {
+                target.set(builder, value);
+            }
+        }
+        return builder.build();
+    }
+}
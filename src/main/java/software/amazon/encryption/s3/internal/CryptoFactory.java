@@ -9,8 +9,18 @@ import javax.crypto.KeyGenerator;
 import javax.crypto.NoSuchPaddingException;
 import java.security.NoSuchAlgorithmException;
 import java.security.Provider;
+import java.util.HashMap;
+import java.util.Map;
 
 public class CryptoFactory {
+
+    // KeyGenerator instances are not thread-safe, so each thread keeps its own. Looking them
+    // up by algorithm is a significant part of the cost of generating a data key. Unlike a
+    // Cipher, a KeyGenerator holds no key material. Ciphers are pooled by the keyrings which
+    // use them; see CipherPool.
+    private static final ThreadLocal<Map<String, KeyGenerator>> CACHED_KEY_GENERATORS =
+            ThreadLocal.withInitial(HashMap::new);
+
     public static Cipher createCipher(String algorithm, Provider provider)
             throws NoSuchPaddingException, NoSuchAlgorithmException {
         // if the user has specified a provider, go with that.
@@ -22,17 +32,26 @@ public class CryptoFactory {
         return Cipher.getInstance(algorithm);
     }
 
-    public  static KeyGenerator generateKey(String algorithm, Provider provider) {
-        KeyGenerator generator;
+    /**
+     * Returns a KeyGenerator for the algorithm and provider. A KeyGenerator from the default provider is
+     * reused by later calls on the same thread, so callers MUST (re-)initialize it before use and MUST NOT
+     * share it with other threads. One from a given provider is not cached, so that threads do not keep the
+     * provider, and the class loader which loaded it, reachable.
+     */
+    public static KeyGenerator generateKey(String algorithm, Provider provider) {
         try {
-            if (provider == null) {
+            if (provider != null) {
+                return KeyGenerator.getInstance(algorithm, provider);
+            }
+            final Map<String, KeyGenerator> generators = CACHED_KEY_GENERATORS.get();
+            KeyGenerator generator = generators.get(algorithm);
+            if (generator == null) {
                 generator = KeyGenerator.getInstance(algorithm);
-            } else {
-                generator = KeyGenerator.getInstance(algorithm, provider);
+                generators.put(algorithm, generator);
             }
+            return generator;
         }  catch (NoSuchAlgorithmException e) {
             throw new S3EncryptionClientException("Unable to generate a(n) " + algorithm + " data key", e);
         }
-        return generator;
     }
 }
@@ -0,0 +1,35 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import software.amazon.encryption.s3.materials.AsyncCryptographicMaterialsManager;
+import software.amazon.encryption.s3.materials.CryptographicMaterialsManager;
+import software.amazon.encryption.s3.materials.DecryptMaterialsRequest;
+import software.amazon.encryption.s3.materials.DecryptionMaterials;
+import software.amazon.encryption.s3.materials.EncryptionMaterials;
+import software.amazon.encryption.s3.materials.EncryptionMaterialsRequest;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Presents a {@link CryptographicMaterialsManager} as an {@link AsyncCryptographicMaterialsManager}.
+ * Materials are retrieved on the calling thread and any exception is thrown directly to the caller,
+ * exactly as if the synchronous CMM had been called.
+ */
+public class CryptoMaterialsManagerAdapter implements AsyncCryptographicMaterialsManager {
+    private final CryptographicMaterialsManager _cryptoMaterialsManager;
+
+    public CryptoMaterialsManagerAdapter(CryptographicMaterialsManager cryptoMaterialsManager) {
+        _cryptoMaterialsManager = cryptoMaterialsManager;
+    }
+
+    @Override
+    public CompletableFuture<EncryptionMaterials> getEncryptionMaterials(EncryptionMaterialsRequest request) {
+        return CompletableFuture.completedFuture(_cryptoMaterialsManager.getEncryptionMaterials(request));
+    }
+
+    @Override
+    public CompletableFuture<DecryptionMaterials> decryptMaterials(DecryptMaterialsRequest request) {
+        return CompletableFuture.completedFuture(_cryptoMaterialsManager.decryptMaterials(request));
+    }
+}
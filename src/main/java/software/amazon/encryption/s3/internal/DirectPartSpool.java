@@ -0,0 +1,23 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Spools parts in a bounded ring of direct buffers, outside the heap, so that
+ * no part is written to disk and large parts do not add to garbage collection.
+ * The limit of the upload must be set, and is the most direct memory used;
+ * the JVM's own limit on direct memory must allow for it.
+ */
+public class DirectPartSpool extends BufferRingPartSpool {
+
+    public DirectPartSpool() {
+        super(true);
+    }
+
+    @Override
+    protected ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocateDirect(capacity);
+    }
+}
@@ -0,0 +1,143 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import org.apache.commons.logging.LogFactory;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * Spools each part to its own temporary file, named with the given prefix and
+ * the part number as the file extension, which is deleted once the part has
+ * been uploaded. This is the default.
+ */
+public class DiskPartSpool implements PartSpool {
+    private final File root;
+    private final String namePrefix;
+    private int partsCreated;
+
+    /**
+     * Construct an instance to use the default temporary directory and temp
+     * file naming convention.
+     */
+    public DiskPartSpool() {
+        this(new File(System.getProperty("java.io.tmpdir")),
+                MultiFileOutputStream.yyMMdd_hhmmss() + "." + UUID.randomUUID(), false);
+    }
+
+    /**
+     * Construct an instance to use the specified directory for temp file
+     * creations, and the specified prefix for temp file naming.
+     */
+    public DiskPartSpool(File root, String namePrefix) {
+        this(root, namePrefix, true);
+    }
+
+    private DiskPartSpool(File root, String namePrefix, boolean validate) {
+        if (validate) {
+            if (root == null || !root.isDirectory() || !root.canWrite()) {
+                throw new IllegalArgumentException(root
+                        + " must be a writable directory");
+            }
+            if (namePrefix == null || namePrefix.trim().length() == 0) {
+                throw new IllegalArgumentException(
+                        "Please specify a non-empty name prefix");
+            }
+        }
+        this.root = root;
+        this.namePrefix = namePrefix;
+    }
+
+    @Override
+    public void init(long partSize, long limit) {
+    }
+
+    @Override
+    public SpooledPart newPart(int partNumber) throws IOException {
+        partsCreated = Math.max(partsCreated, partNumber);
+        return new FilePart(getFile(partNumber));
+    }
+
+    @Override
+    public void cleanup() {
+        for (int i = 1; i <= partsCreated; i++) {
+            deleteQuietly(getFile(i));
+        }
+    }
+
+    public File getFile(int partNumber) {
+        return new File(root, namePrefix + "." + partNumber);
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    public String getNamePrefix() {
+        return namePrefix;
+    }
+
+    private static void deleteQuietly(File file) {
+        if (file.exists() && !file.delete()) {
+            LogFactory.getLog(DiskPartSpool.class).debug(
+                    "Ignoring failure to delete file " + file);
+        }
+    }
+
+    private static final class FilePart extends SpooledPart {
+        private final File file;
+        private final FileOutputStream os;
+        private long length;
+
+        private FilePart(File file) throws IOException {
+            this.file = file;
+            this.os = new FileOutputStream(file);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            os.write(b);
+            length++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            os.write(b, off, len);
+            length += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            os.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            os.close();
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public AsyncRequestBody requestBody() {
+            return AsyncRequestBody.fromFile(file);
+        }
+
+        @Override
+        public File file() {
+            return file;
+        }
+
+        @Override
+        public void release() {
+            deleteQuietly(file);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An incremental GHASH, as defined by NIST SP 800-38D.
+ * Input may be given in pieces of any length; it is hashed as one stream, which is zero-padded
+ * to a whole block only when {@link #padToBlock()} is called.
+ * <p>
+ * The hash of a long input may be computed in segments, each hashed by its own instance from
+ * {@link #newSegment()}, which are then combined in order with {@link #append(GHash, long[])}.
+ * <p>
+ * Every multiplication, including that of each block by H, is done bit by bit with masks rather than
+ * table lookups or branches, so that its time and memory accesses do not depend on the hash or on H.
+ */
+class GHash {
+
+    private static final int BLOCK_SIZE = 16;
+
+    // The hash subkey, high and low halves
+    private final long _hh;
+    private final long _hl;
+
+    private long _yh;
+    private long _yl;
+    private final byte[] _block = new byte[BLOCK_SIZE];
+    private int _blockLength;
+    private final byte[] _scratch = new byte[1024];
+    private final long[] _product = new long[2];
+
+    /**
+     * @param h the hash subkey, the block cipher applied to the zero block
+     */
+    GHash(byte[] h) {
+        _hh = getLong(h, 0);
+        _hl = getLong(h, 8);
+    }
+
+    private GHash(GHash other) {
+        _hh = other._hh;
+        _hl = other._hl;
+    }
+
+    /**
+     * @return a hash with the same subkey, and no input
+     */
+    GHash newSegment() {
+        return new GHash(this);
+    }
+
+    /**
+     * Appends the input of a segment hashed separately, as if it had been given to this hash.
+     * Both this and the segment must have been given whole blocks of input.
+     * @param segment the hash of the segment
+     * @param hPower H raised to the number of blocks in the segment, from {@link #power(long)}
+     */
+    void append(GHash segment, long[] hPower) {
+        if (_blockLength != 0 || segment._blockLength != 0) {
+            throw new IllegalStateException("Only whole blocks can be combined");
+        }
+        // Each block of this input is multiplied by H once more for each block of the segment
+        multiply(_yh, _yl, hPower[0], hPower[1], _product);
+        _yh = _product[0] ^ segment._yh;
+        _yl = _product[1] ^ segment._yl;
+    }
+
+    /**
+     * @return H raised to the given power, as high and low halves
+     */
+    long[] power(long exponent) {
+        if (exponent == 0) {
+            // The multiplicative identity
+            return new long[]{Long.MIN_VALUE, 0};
+        }
+        long[] result = {_hh, _hl};
+        long[] base = {_hh, _hl};
+        exponent--;
+        while (exponent > 0) {
+            if ((exponent & 1) == 1) {
+                multiply(result[0], result[1], base[0], base[1], result);
+            }
+            multiply(base[0], base[1], base[0], base[1], base);
+            exponent >>>= 1;
+        }
+        return result;
+    }
+
+    void update(byte[] input, int offset, int length) {
+        if (_blockLength > 0) {
+            int toCopy = Math.min(length, BLOCK_SIZE - _blockLength);
+            System.arraycopy(input, offset, _block, _blockLength, toCopy);
+            _blockLength += toCopy;
+            offset += toCopy;
+            length -= toCopy;
+            if (_blockLength < BLOCK_SIZE) {
+                return;
+            }
+            processBlock(_block, 0);
+            _blockLength = 0;
+        }
+        while (length >= BLOCK_SIZE) {
+            processBlock(input, offset);
+            offset += BLOCK_SIZE;
+            length -= BLOCK_SIZE;
+        }
+        System.arraycopy(input, offset, _block, 0, length);
+        _blockLength = length;
+    }
+
+    /**
+     * Hashes the remaining bytes of the buffer, consuming them.
+     */
+    void update(ByteBuffer input) {
+        if (input.hasArray()) {
+            update(input.array(), input.arrayOffset() + input.position(), input.remaining());
+            input.position(input.limit());
+            return;
+        }
+        while (input.hasRemaining()) {
+            int length = Math.min(input.remaining(), _scratch.length);
+            input.get(_scratch, 0, length);
+            update(_scratch, 0, length);
+        }
+    }
+
+    /**
+     * Zero-pads the input hashed so far to a whole block.
+     */
+    void padToBlock() {
+        if (_blockLength > 0) {
+            for (int i = _blockLength; i < BLOCK_SIZE; i++) {
+                _block[i] = 0;
+            }
+            processBlock(_block, 0);
+            _blockLength = 0;
+        }
+    }
+
+    /**
+     * Pads the input, then hashes the lengths block, and returns the hash.
+     */
+    byte[] doFinal(long aadLengthBits, long inputLengthBits) {
+        padToBlock();
+        byte[] lengths = new byte[BLOCK_SIZE];
+        putLong(lengths, 0, aadLengthBits);
+        putLong(lengths, 8, inputLengthBits);
+        processBlock(lengths, 0);
+
+        byte[] hash = new byte[BLOCK_SIZE];
+        putLong(hash, 0, _yh);
+        putLong(hash, 8, _yl);
+        return hash;
+    }
+
+    private void processBlock(byte[] input, int offset) {
+        _yh ^= getLong(input, offset);
+        _yl ^= getLong(input, offset + 8);
+        multiplyByH();
+    }
+
+    private void multiplyByH() {
+        multiply(_yh, _yl, _hh, _hl, _product);
+        _yh = _product[0];
+        _yl = _product[1];
+    }
+
+    /**
+     * Multiplies two elements of GF(2^128), bit by bit, into the given array, which may be one of the
+     * operands' own. The bits of the operands select what is added through masks rather than branches,
+     * so that the time taken does not depend on them.
+     */
+    private static void multiply(long xh, long xl, long yh, long yl, long[] product) {
+        long zh = 0;
+        long zl = 0;
+        long vh = yh;
+        long vl = yl;
+        for (int i = 0; i < 128; i++) {
+            long x = i < 64 ? xh : xl;
+            // All ones if the bit is set, otherwise zero
+            long bit = -((x >>> (63 - (i & 63))) & 1);
+            zh ^= vh & bit;
+            zl ^= vl & bit;
+            long carry = -(vl & 1);
+            vl = (vl >>> 1) | (vh << 63);
+            vh = (vh >>> 1) ^ (0xe100000000000000L & carry);
+        }
+        product[0] = zh;
+        product[1] = zl;
+    }
+
+    private static long getLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xff);
+        }
+        return value;
+    }
+
+    private static void putLong(byte[] bytes, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            bytes[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+}
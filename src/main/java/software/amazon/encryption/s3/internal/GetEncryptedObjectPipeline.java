@@ -3,29 +3,32 @@
 package software.amazon.encryption.s3.internal;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
 import software.amazon.awssdk.core.async.AsyncResponseTransformer;
 import software.amazon.awssdk.core.async.SdkPublisher;
 import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.encryption.s3.BufferPool;
+import software.amazon.encryption.s3.CryptoExecutor;
+import software.amazon.encryption.s3.MemoryBudget;
 import software.amazon.encryption.s3.S3EncryptionClientException;
 import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
 import software.amazon.encryption.s3.legacy.internal.AesCtrUtils;
 import software.amazon.encryption.s3.legacy.internal.RangedGetUtils;
+import software.amazon.encryption.s3.materials.AsyncCryptographicMaterialsManager;
 import software.amazon.encryption.s3.materials.CryptographicMaterialsManager;
 import software.amazon.encryption.s3.materials.DecryptMaterialsRequest;
 import software.amazon.encryption.s3.materials.DecryptionMaterials;
 import software.amazon.encryption.s3.materials.EncryptedDataKey;
 
-import javax.crypto.Cipher;
-import javax.crypto.SecretKey;
-import javax.crypto.spec.GCMParameterSpec;
-import javax.crypto.spec.IvParameterSpec;
 import java.nio.ByteBuffer;
-import java.security.GeneralSecurityException;
-import java.util.Collections;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
 
 import static software.amazon.encryption.s3.internal.ApiNameVersion.API_NAME_INTERCEPTOR;
 
@@ -37,9 +40,17 @@ import static software.amazon.encryption.s3.internal.ApiNameVersion.API_NAME_INT
  */
 public class GetEncryptedObjectPipeline {
     private final S3AsyncClient _s3AsyncClient;
-    private final CryptographicMaterialsManager _cryptoMaterialsManager;
+    private final AsyncCryptographicMaterialsManager _cryptoMaterialsManager;
     private final boolean _enableLegacyUnauthenticatedModes;
     private final boolean _enableDelayedAuthentication;
+    private final BufferPool _bufferPool;
+    private final int _cipherChunkSize;
+    private final ForkJoinPool _parallelCryptoPool;
+    private final long _bufferedSpillThreshold;
+    private final Path _bufferedSpillDirectory;
+    private final MemoryBudget _bufferedMemoryBudget;
+    private final CryptoExecutor _cryptoExecutor;
+    private final long _smallObjectThreshold;
 
     public static Builder builder() {
         return new Builder();
@@ -50,6 +61,14 @@ public class GetEncryptedObjectPipeline {
         this._cryptoMaterialsManager = builder._cryptoMaterialsManager;
         this._enableLegacyUnauthenticatedModes = builder._enableLegacyUnauthenticatedModes;
         this._enableDelayedAuthentication = builder._enableDelayedAuthentication;
+        this._bufferPool = builder._bufferPool;
+        this._cipherChunkSize = builder._cipherChunkSize;
+        this._parallelCryptoPool = builder._parallelCryptoPool;
+        this._bufferedSpillThreshold = builder._bufferedSpillThreshold;
+        this._bufferedSpillDirectory = builder._bufferedSpillDirectory;
+        this._bufferedMemoryBudget = builder._bufferedMemoryBudget;
+        this._cryptoExecutor = builder._cryptoExecutor;
+        this._smallObjectThreshold = builder._smallObjectThreshold;
     }
 
     public <T> CompletableFuture<T> getObject(GetObjectRequest getObjectRequest, AsyncResponseTransformer<GetObjectResponse, T> asyncResponseTransformer) {
@@ -66,14 +85,14 @@ public class GetEncryptedObjectPipeline {
                 getObjectRequest));
     }
 
-    private DecryptionMaterials prepareMaterialsFromRequest(final GetObjectRequest getObjectRequest, final GetObjectResponse getObjectResponse,
+    private CompletableFuture<DecryptionMaterials> prepareMaterialsFromRequest(final GetObjectRequest getObjectRequest, final GetObjectResponse getObjectResponse,
                                                             final ContentMetadata contentMetadata) {
         AlgorithmSuite algorithmSuite = contentMetadata.algorithmSuite();
         if (!_enableLegacyUnauthenticatedModes && algorithmSuite.isLegacy()) {
             throw new S3EncryptionClientException("Enable legacy unauthenticated modes to use legacy content decryption: " + algorithmSuite.cipherName());
         }
 
-        List<EncryptedDataKey> encryptedDataKeys = Collections.singletonList(contentMetadata.encryptedDataKey());
+        List<EncryptedDataKey> encryptedDataKeys = contentMetadata.encryptedDataKeys();
 
         DecryptMaterialsRequest materialsRequest = DecryptMaterialsRequest.builder()
                 .s3Request(getObjectRequest)
@@ -83,7 +102,15 @@ public class GetEncryptedObjectPipeline {
                 .ciphertextLength(getObjectResponse.contentLength())
                 .build();
 
-        return _cryptoMaterialsManager.decryptMaterials(materialsRequest);
+        CompletableFuture<DecryptionMaterials> materials = _cryptoMaterialsManager.decryptMaterials(materialsRequest);
+        if (algorithmSuite.isKdfSupported()) {
+            // The content key is derived from the data key using the object's own salt,
+            // which is not part of the materials request so that objects can share one unwrapped data key
+            return materials.thenApply(decryptionMaterials -> decryptionMaterials.toBuilder()
+                    .kdfSalt(contentMetadata.contentKdfSalt())
+                    .build());
+        }
+        return materials;
     }
 
     private class DecryptingResponseTransformer<T> implements AsyncResponseTransformer<GetObjectResponse, T> {
@@ -96,7 +123,7 @@ public class GetEncryptedObjectPipeline {
         final GetObjectRequest getObjectRequest;
         ContentMetadata contentMetadata;
         GetObjectResponse getObjectResponse;
-        DecryptionMaterials materials;
+        CompletableFuture<DecryptionMaterials> materialsFuture;
 
         CompletableFuture<T> resultFuture;
 
@@ -116,10 +143,31 @@ public class GetEncryptedObjectPipeline {
         public void onResponse(GetObjectResponse response) {
             getObjectResponse = response;
             contentMetadata = ContentMetadataStrategy.decode(getObjectRequest, response);
-            materials = prepareMaterialsFromRequest(getObjectRequest, response, contentMetadata);
+            materialsFuture = prepareMaterialsFromRequest(getObjectRequest, response, contentMetadata);
+            AlgorithmSuite algorithmSuite = contentMetadata.algorithmSuite();
+            final int tagLength = algorithmSuite.cipherTagLengthBits() / 8;
+            if (isBuffered(algorithmSuite) && getObjectRequest.range() == null
+                    && response.contentLength() != null && response.contentLength() >= tagLength) {
+                // The whole object is authenticated before any of it is released, so report the length
+                // of the plaintext, which callers can size their buffers by. Ciphertext shorter than the
+                // tag fails authentication, so its length is left as it is.
+                wrappedAsyncResponseTransformer.onResponse(response.toBuilder()
+                        .contentLength(response.contentLength() - tagLength)
+                        .build());
+                return;
+            }
             wrappedAsyncResponseTransformer.onResponse(response);
         }
 
+        /**
+         * @return whether objects encrypted with the given suite are authenticated before any plaintext is released
+         */
+        private boolean isBuffered(AlgorithmSuite algorithmSuite) {
+            return !algorithmSuite.equals(AlgorithmSuite.ALG_AES_256_CBC_IV16_NO_KDF)
+                    && !algorithmSuite.equals(AlgorithmSuite.ALG_AES_256_CTR_IV16_TAG16_NO_KDF)
+                    && !_enableDelayedAuthentication;
+        }
+
         @Override
         public void exceptionOccurred(Throwable error) {
             wrappedAsyncResponseTransformer.exceptionOccurred(error);
@@ -127,55 +175,118 @@ public class GetEncryptedObjectPipeline {
 
         @Override
         public void onStream(SdkPublisher<ByteBuffer> ciphertextPublisher) {
+            if (materialsFuture.isDone() && !materialsFuture.isCompletedExceptionally()) {
+                onStream(ciphertextPublisher, materialsFuture.join());
+                return;
+            }
+
+            // Materials are still being retrieved, e.g. from AWS KMS, so decryption continues
+            // on whichever thread completes them rather than blocking this one
+            materialsFuture.whenComplete((materials, throwable) -> {
+                if (throwable != null) {
+                    failStream(ciphertextPublisher, throwable);
+                    return;
+                }
+                try {
+                    onStream(ciphertextPublisher, materials);
+                } catch (RuntimeException e) {
+                    failStream(ciphertextPublisher, e);
+                }
+            });
+        }
+
+        private void onStream(SdkPublisher<ByteBuffer> ciphertextPublisher, DecryptionMaterials materials) {
             long[] desiredRange = RangedGetUtils.getRange(materials.s3Request().range());
             long[] cryptoRange = RangedGetUtils.getCryptoRange(materials.s3Request().range());
             AlgorithmSuite algorithmSuite = materials.algorithmSuite();
-            SecretKey contentKey = materials.dataKey();
-            final int tagLength = algorithmSuite.cipherTagLengthBits();
             byte[] iv = contentMetadata.contentIv();
             if (algorithmSuite == AlgorithmSuite.ALG_AES_256_CTR_IV16_TAG16_NO_KDF) {
                 iv = AesCtrUtils.adjustIV(iv, cryptoRange[0]);
             }
-            try {
-                final Cipher cipher = CryptoFactory.createCipher(algorithmSuite.cipherName(), materials.cryptoProvider());
-                switch (algorithmSuite) {
-                    case ALG_AES_256_GCM_IV12_TAG16_NO_KDF:
-                        cipher.init(Cipher.DECRYPT_MODE, contentKey, new GCMParameterSpec(tagLength, iv));
-                        break;
-                    case ALG_AES_256_CTR_IV16_TAG16_NO_KDF:
-                    case ALG_AES_256_CBC_IV16_NO_KDF:
-                        cipher.init(Cipher.DECRYPT_MODE, contentKey, new IvParameterSpec(iv));
-                        break;
-                    default:
-                        throw new S3EncryptionClientException("Unknown algorithm: " + algorithmSuite.cipherName());
+
+            // The publishers create and initialize the content cipher when subscribed to
+            if (!isBuffered(algorithmSuite)) {
+                // CBC and GCM with delayed auth enabled use a standard publisher,
+                // which decrypts GCM as it is streamed rather than as the JCE provider does
+                CipherPublisher plaintextPublisher = CipherPublisher.builder()
+                        .wrappedPublisher(ciphertextPublisher)
+                        .contentLength(getObjectResponse.contentLength())
+                        .range(desiredRange)
+                        .contentRange(contentMetadata.contentRange())
+                        .cipherTagLengthBits(algorithmSuite.cipherTagLengthBits())
+                        .materials(materials)
+                        .iv(iv)
+                        .cipherChunkSize(_cipherChunkSize)
+                        .delayedAuthentication(_enableDelayedAuthentication)
+                        .parallelCryptoPool(_parallelCryptoPool)
+                        .cryptoExecutor(_cryptoExecutor)
+                        .build();
+                wrappedAsyncResponseTransformer.onStream(plaintextPublisher);
+            } else {
+                // Use buffered publisher for GCM when delayed auth is not enabled
+                BufferedCipherPublisher plaintextPublisher = BufferedCipherPublisher.builder()
+                        .wrappedPublisher(ciphertextPublisher)
+                        .contentLength(getObjectResponse.contentLength())
+                        .range(desiredRange)
+                        .contentRange(contentMetadata.contentRange())
+                        .cipherTagLengthBits(algorithmSuite.cipherTagLengthBits())
+                        .materials(materials)
+                        .iv(iv)
+                        .bufferPool(_bufferPool)
+                        .parallelCryptoPool(_parallelCryptoPool)
+                        .spillThreshold(_bufferedSpillThreshold)
+                        .spillDirectory(_bufferedSpillDirectory)
+                        .memoryBudget(_bufferedMemoryBudget)
+                        .cryptoExecutor(_cryptoExecutor)
+                        .smallObjectThreshold(_smallObjectThreshold)
+                        .build();
+                wrappedAsyncResponseTransformer.onStream(plaintextPublisher);
+            }
+        }
+
+        /**
+         * Releases the ciphertext stream and reports the failure to the wrapped transformer,
+         * which completes the future returned to the caller.
+         */
+        private void failStream(SdkPublisher<ByteBuffer> ciphertextPublisher, Throwable throwable) {
+            ciphertextPublisher.subscribe(new Subscriber<ByteBuffer>() {
+                @Override
+                public void onSubscribe(Subscription subscription) {
+                    subscription.cancel();
                 }
 
-                if (algorithmSuite.equals(AlgorithmSuite.ALG_AES_256_CBC_IV16_NO_KDF)
-                        || algorithmSuite.equals(AlgorithmSuite.ALG_AES_256_CTR_IV16_TAG16_NO_KDF)
-                        || _enableDelayedAuthentication) {
-                    // CBC and GCM with delayed auth enabled use a standard publisher
-                    CipherPublisher plaintextPublisher = new CipherPublisher(ciphertextPublisher,
-                            getObjectResponse.contentLength(), desiredRange, contentMetadata.contentRange(), algorithmSuite.cipherTagLengthBits(), materials, iv);
-                    wrappedAsyncResponseTransformer.onStream(plaintextPublisher);
-                } else {
-                    // Use buffered publisher for GCM when delayed auth is not enabled
-                    BufferedCipherPublisher plaintextPublisher = new BufferedCipherPublisher(ciphertextPublisher,
-                            getObjectResponse.contentLength(), desiredRange, contentMetadata.contentRange(), algorithmSuite.cipherTagLengthBits(),
-                            materials, iv);
-                    wrappedAsyncResponseTransformer.onStream(plaintextPublisher);
+                @Override
+                public void onNext(ByteBuffer byteBuffer) {
                 }
 
-            } catch (GeneralSecurityException e) {
-                throw new S3EncryptionClientException("Unable to " + algorithmSuite.cipherName() + " content decrypt.", e);
-            }
+                @Override
+                public void onError(Throwable t) {
+                }
+
+                @Override
+                public void onComplete() {
+                }
+            });
+            Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                    ? throwable.getCause()
+                    : throwable;
+            wrappedAsyncResponseTransformer.exceptionOccurred(cause);
         }
     }
 
     public static class Builder {
         private S3AsyncClient _s3AsyncClient;
-        private CryptographicMaterialsManager _cryptoMaterialsManager;
+        private AsyncCryptographicMaterialsManager _cryptoMaterialsManager;
         private boolean _enableLegacyUnauthenticatedModes;
         private boolean _enableDelayedAuthentication;
+        private BufferPool _bufferPool;
+        private int _cipherChunkSize = 0;
+        private ForkJoinPool _parallelCryptoPool;
+        private long _bufferedSpillThreshold = -1;
+        private Path _bufferedSpillDirectory;
+        private MemoryBudget _bufferedMemoryBudget;
+        private CryptoExecutor _cryptoExecutor;
+        private long _smallObjectThreshold = BufferedCipherPublisher.DEFAULT_SMALL_OBJECT_THRESHOLD;
 
         private Builder() {
         }
@@ -191,6 +302,11 @@ public class GetEncryptedObjectPipeline {
         }
 
         public Builder cryptoMaterialsManager(CryptographicMaterialsManager cryptoMaterialsManager) {
+            this._cryptoMaterialsManager = new CryptoMaterialsManagerAdapter(cryptoMaterialsManager);
+            return this;
+        }
+
+        public Builder asyncCryptoMaterialsManager(AsyncCryptographicMaterialsManager cryptoMaterialsManager) {
             this._cryptoMaterialsManager = cryptoMaterialsManager;
             return this;
         }
@@ -205,6 +321,75 @@ public class GetEncryptedObjectPipeline {
             return this;
         }
 
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "The buffer pool is shared by design")
+        public Builder bufferPool(BufferPool bufferPool) {
+            this._bufferPool = bufferPool;
+            return this;
+        }
+
+        /**
+         * The number of bytes gathered before each update of the content cipher. Zero updates the
+         * cipher with each buffer as it is received.
+         */
+        public Builder cipherChunkSize(int cipherChunkSize) {
+            this._cipherChunkSize = cipherChunkSize;
+            return this;
+        }
+
+        /**
+         * The pool to encrypt or decrypt GCM content on in parallel, or null to do so on the calling thread.
+         */
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "The pool is shared by design")
+        public Builder parallelCryptoPool(ForkJoinPool parallelCryptoPool) {
+            this._parallelCryptoPool = parallelCryptoPool;
+            return this;
+        }
+
+        /**
+         * The content length above which ciphertext which is authenticated before any plaintext is
+         * released is buffered in a temporary file rather than in memory, or -1 to always buffer it in memory.
+         */
+        public Builder bufferedSpillThreshold(long bufferedSpillThreshold) {
+            this._bufferedSpillThreshold = bufferedSpillThreshold;
+            return this;
+        }
+
+        /**
+         * The directory to create temporary files in, or null for the default temporary directory.
+         */
+        public Builder bufferedSpillDirectory(Path bufferedSpillDirectory) {
+            this._bufferedSpillDirectory = bufferedSpillDirectory;
+            return this;
+        }
+
+        /**
+         * The budget to reserve memory from before buffering ciphertext in memory, or null for no bound.
+         */
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "The memory budget is shared by design")
+        public Builder bufferedMemoryBudget(MemoryBudget bufferedMemoryBudget) {
+            this._bufferedMemoryBudget = bufferedMemoryBudget;
+            return this;
+        }
+
+        /**
+         * The executor to encrypt or decrypt content on, or null to do so on the thread which delivers it.
+         */
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "The executor is shared by design")
+        public Builder cryptoExecutor(CryptoExecutor cryptoExecutor) {
+            this._cryptoExecutor = cryptoExecutor;
+            return this;
+        }
+
+        /**
+         * The content length up to which objects authenticated before any plaintext is released are decrypted
+         * in memory with a single allocation, or -1 to never do so. Whatever the threshold, the response of
+         * every such object fetched whole reports the length of its plaintext.
+         */
+        public Builder smallObjectThreshold(long smallObjectThreshold) {
+            this._smallObjectThreshold = smallObjectThreshold;
+            return this;
+        }
+
         public GetEncryptedObjectPipeline build() {
             return new GetEncryptedObjectPipeline(this);
         }
@@ -0,0 +1,21 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Spools parts in a bounded ring of heap buffers, so that no part is written
+ * to disk. The limit of the upload must be set, and is the most heap used.
+ */
+public class HeapPartSpool extends BufferRingPartSpool {
+
+    public HeapPartSpool() {
+        super(true);
+    }
+
+    @Override
+    protected ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocate(capacity);
+    }
+}
@@ -0,0 +1,53 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Spools parts in a ring of memory-mapped temporary files. Parts are written to
+ * and uploaded from the page cache, which the operating system writes back to
+ * disk only under memory pressure, rather than through a stream of each file.
+ * Each file is deleted as soon as it is mapped, and its space is freed once the
+ * mapping is garbage collected.
+ */
+public class MappedPartSpool extends BufferRingPartSpool {
+    private final File root;
+
+    /**
+     * Construct an instance to use the default temporary directory.
+     */
+    public MappedPartSpool() {
+        this(new File(System.getProperty("java.io.tmpdir")));
+    }
+
+    /**
+     * Construct an instance to use the specified directory for temp file
+     * creations.
+     */
+    public MappedPartSpool(File root) {
+        super(false);
+        if (root == null || !root.isDirectory() || !root.canWrite()) {
+            throw new IllegalArgumentException(root
+                    + " must be a writable directory");
+        }
+        this.root = root;
+    }
+
+    @Override
+    protected ByteBuffer allocate(int capacity) throws IOException {
+        final File file = File.createTempFile("s3-encryption-part-", ".mapped", root);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // The mapping remains valid once the file is closed and deleted
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        } finally {
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+}
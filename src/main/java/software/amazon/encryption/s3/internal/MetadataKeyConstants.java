@@ -8,9 +8,15 @@ public class MetadataKeyConstants {
     // This is the name of the keyring/algorithm e.g. AES/GCM or kms+context
     public static final String ENCRYPTED_DATA_KEY_ALGORITHM = "x-amz-wrap-alg";
     public static final String ENCRYPTED_DATA_KEY_CONTEXT = "x-amz-matdesc";
+    // JSON array of any encrypted data keys after the first, each with its key, algorithm and wrapping key id
+    public static final String ENCRYPTED_DATA_KEYS_ADDITIONAL = "x-amz-keys-additional";
+    // Within x-amz-keys-additional, the key which wrapped each data key e.g. a KMS key ARN, or the type of keyring
+    public static final String ENCRYPTED_DATA_KEY_WRAPPING_KEY_ID = "x-amz-wrap-key-id";
 
     public static final String CONTENT_IV = "x-amz-iv";
     // This is usually an actual Java cipher e.g. AES/GCM/NoPadding
     public static final String CONTENT_CIPHER = "x-amz-cek-alg";
     public static final String CONTENT_CIPHER_TAG_LENGTH = "x-amz-tag-len";
+    // Salt used to derive the content key, for algorithm suites which support key derivation
+    public static final String CONTENT_KDF_SALT = "x-amz-kdf-salt";
 }
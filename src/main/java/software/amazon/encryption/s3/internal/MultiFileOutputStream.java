@@ -2,22 +2,18 @@
 // SPDX-License-Identifier: Apache-2.0
 package software.amazon.encryption.s3.internal;
 
-import org.apache.commons.logging.LogFactory;
 import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormat;
 import software.amazon.encryption.s3.S3EncryptionClientException;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.UUID;
 import java.util.concurrent.Semaphore;
 
 public class MultiFileOutputStream extends OutputStream implements OnFileDelete {
     static final int DEFAULT_PART_SIZE = 5 << 20; // 5MB
-    private final File root;
-    private final String namePrefix;
+    private final PartSpool spool;
     private int filesCreated;
     private long partSize = DEFAULT_PART_SIZE;
     private long diskLimit = Long.MAX_VALUE;
@@ -30,7 +26,7 @@ public class MultiFileOutputStream extends OutputStream implements OnFileDelete
      * Total number of bytes written to all files so far.
      */
     private long totalBytesWritten;
-    private FileOutputStream os;
+    private SpooledPart os;
     private boolean closed;
 
     /**
@@ -45,8 +41,7 @@ public class MultiFileOutputStream extends OutputStream implements OnFileDelete
      * this stream is considered fully initialized.
      */
     public MultiFileOutputStream() {
-        root = new File(System.getProperty("java.io.tmpdir"));
-        namePrefix = yyMMdd_hhmmss() + "." + UUID.randomUUID();
+        this(new DiskPartSpool());
     }
 
     /**
@@ -56,16 +51,19 @@ public class MultiFileOutputStream extends OutputStream implements OnFileDelete
      * this stream is considered fully initialized.
      */
     public MultiFileOutputStream(File root, String namePrefix) {
-        if (root == null || !root.isDirectory() || !root.canWrite()) {
-            throw new IllegalArgumentException(root
-                    + " must be a writable directory");
-        }
-        if (namePrefix == null || namePrefix.trim().length() == 0) {
-            throw new IllegalArgumentException(
-                    "Please specify a non-empty name prefix");
+        this(new DiskPartSpool(root, namePrefix));
+    }
+
+    /**
+     * Construct an instance to hold each part in the given spool until it is
+     * uploaded. The {@link #init(UploadObjectObserver, long, long)} must be
+     * called before this stream is considered fully initialized.
+     */
+    public MultiFileOutputStream(PartSpool spool) {
+        if (spool == null) {
+            throw new IllegalArgumentException("Part spool must be specified");
         }
-        this.root = root;
-        this.namePrefix = namePrefix;
+        this.spool = spool;
     }
 
     static String yyMMdd_hhmmss() {
@@ -80,7 +78,7 @@ public class MultiFileOutputStream extends OutputStream implements OnFileDelete
      *
      * @param observer  the upload object observer
      * @param partSize  part size for multipart upload
-     * @param diskLimit the maximum disk space to be used for this multipart upload
+     * @param diskLimit the maximum disk space, or memory, to be used by the part spool for this multipart upload
      * @return this object
      */
     public MultiFileOutputStream init(UploadObjectObserver observer,
@@ -94,6 +92,7 @@ public class MultiFileOutputStream extends OutputStream implements OnFileDelete
                     "Maximum temporary disk space must be at least twice as large as the part size: partSize="
                             + partSize + ", diskSize=" + diskLimit);
         }
+        spool.init(partSize, diskLimit);
         this.partSize = partSize;
         this.diskLimit = diskLimit;
         final int max = (int) (diskLimit / partSize);
@@ -116,12 +115,7 @@ public class MultiFileOutputStream extends OutputStream implements OnFileDelete
      */
     @Override
     public void write(byte[] b) throws IOException {
-        if (b.length == 0) {
-            return;
-        }
-        fos().write(b);
-        currFileBytesWritten += b.length;
-        totalBytesWritten += b.length;
+        write(b, 0, b.length);
     }
 
     /**
@@ -129,21 +123,25 @@ public class MultiFileOutputStream extends OutputStream implements OnFileDelete
      */
     @Override
     public void write(byte[] b, int off, int len) throws IOException {
-        if (b.length == 0) {
-            return;
+        // Parts are filled to exactly the part size, as spools may hold each in a buffer of that size
+        while (len > 0) {
+            final SpooledPart part = fos();
+            final int n = (int) Math.min(len, partSize - currFileBytesWritten);
+            part.write(b, off, n);
+            currFileBytesWritten += n;
+            totalBytesWritten += n;
+            off += n;
+            len -= n;
         }
-        fos().write(b, off, len);
-        currFileBytesWritten += len;
-        totalBytesWritten += len;
     }
 
     /**
-     * Returns the file output stream to be used for writing, blocking as
+     * Returns the spooled part to be used for writing, blocking as
      * necessary if running out of disk space.
      *
      * @throws InterruptedException if the running thread was interrupted
      */
-    private FileOutputStream fos() throws IOException {
+    private SpooledPart fos() throws IOException {
         if (closed) {
             throw new IOException("Output stream is already closed");
         }
@@ -152,13 +150,12 @@ public class MultiFileOutputStream extends OutputStream implements OnFileDelete
                 os.close();
                 // notify about the new file ready for processing
                 observer.onPartCreate(new PartCreationEvent(
-                        getFile(filesCreated), filesCreated, false, this));
+                        os, filesCreated, false, this));
             }
             currFileBytesWritten = 0;
             filesCreated++;
             blockIfNecessary();
-            final File file = getFile(filesCreated);
-            os = new FileOutputStream(file);
+            os = spool.newPart(filesCreated);
         }
         return os;
     }
@@ -204,30 +201,19 @@ public class MultiFileOutputStream extends OutputStream implements OnFileDelete
         closed = true;
         if (os != null) {
             os.close();
-            File lastPart = getFile(filesCreated);
-            if (lastPart.length() == 0) {
-                if (!lastPart.delete()) {
-                    LogFactory.getLog(getClass()).debug(
-                            "Ignoring failure to delete empty file " + lastPart);
-                }
+            if (os.length() == 0) {
+                os.release();
+                onFileDelete(null);
             } else {
                 // notify about the new file ready for processing
                 observer.onPartCreate(new PartCreationEvent(
-                        getFile(filesCreated), filesCreated, true, this));
+                        os, filesCreated, true, this));
             }
         }
     }
 
     public void cleanup() {
-        for (int i = 0; i < getNumFilesWritten(); i++) {
-            File f = getFile(i);
-            if (f.exists()) {
-                if (!f.delete()) {
-                    LogFactory.getLog(getClass()).debug(
-                            "Ignoring failure to delete file " + f);
-                }
-            }
-        }
+        spool.cleanup();
     }
 
     /**
@@ -238,20 +224,33 @@ public class MultiFileOutputStream extends OutputStream implements OnFileDelete
         return filesCreated;
     }
 
+    /**
+     * Returns the file of the given part; or null if the parts are not spooled to disk files.
+     */
     public File getFile(int partNumber) {
-        return new File(root, namePrefix + "." + partNumber);
+        return spool instanceof DiskPartSpool ? ((DiskPartSpool) spool).getFile(partNumber) : null;
     }
 
     public long getPartSize() {
         return partSize;
     }
 
+    /**
+     * Returns the directory of the part files; or null if the parts are not spooled to disk files.
+     */
     public File getRoot() {
-        return root;
+        return spool instanceof DiskPartSpool ? ((DiskPartSpool) spool).getRoot() : null;
     }
 
+    /**
+     * Returns the name prefix of the part files; or null if the parts are not spooled to disk files.
+     */
     public String getNamePrefix() {
-        return namePrefix;
+        return spool instanceof DiskPartSpool ? ((DiskPartSpool) spool).getNamePrefix() : null;
+    }
+
+    public PartSpool getPartSpool() {
+        return spool;
     }
 
     public long getTotalBytesWritten() {
@@ -0,0 +1,613 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import org.apache.commons.logging.LogFactory;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.encryption.s3.CryptoExecutor;
+import software.amazon.encryption.s3.S3EncryptionClientException;
+import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
+import software.amazon.encryption.s3.materials.AsyncCryptographicMaterialsManager;
+import software.amazon.encryption.s3.materials.EncryptionMaterials;
+import software.amazon.encryption.s3.materials.EncryptionMaterialsRequest;
+
+import javax.crypto.Cipher;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+import static software.amazon.encryption.s3.internal.ApiNameVersion.API_NAME_INTERCEPTOR;
+
+/**
+ * Puts an object as an encrypted multipart upload on any S3AsyncClient. The request body is
+ * sliced into parts, which are encrypted in order through one GCM stream, so the object is the
+ * same as one put in a single request, and uploaded concurrently, up to a bound on the parts in
+ * flight. The upload is aborted if any part fails.
+ */
+public class MultipartPutEncryptedObjectPipeline {
+
+    public static final long DEFAULT_PART_SIZE = 8L * 1024 * 1024;
+    public static final int DEFAULT_MAX_IN_FLIGHT_PARTS = 4;
+    public static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+    public static final long MAX_PART_SIZE = 1024L * 1024 * 1024;
+    static final int MAX_PARTS = 10_000;
+
+    private static final String GCM_CIPHER_NAME = "AES/GCM/NoPadding";
+
+    final private S3AsyncClient _s3AsyncClient;
+    final private AsyncCryptographicMaterialsManager _cryptoMaterialsManager;
+    final private MultipartContentEncryptionStrategy _contentEncryptionStrategy;
+    final private ContentMetadataEncodingStrategy _contentMetadataEncodingStrategy;
+    final private SecureRandom _secureRandom;
+    final private long _partSize;
+    final private int _maxInFlightParts;
+    final private ForkJoinPool _parallelCryptoPool;
+    final private CryptoExecutor _cryptoExecutor;
+
+    private MultipartPutEncryptedObjectPipeline(Builder builder) {
+        this._s3AsyncClient = builder._s3AsyncClient;
+        this._cryptoMaterialsManager = builder._cryptoMaterialsManager;
+        this._contentEncryptionStrategy = builder._contentEncryptionStrategy;
+        this._contentMetadataEncodingStrategy = builder._contentMetadataEncodingStrategy;
+        this._secureRandom = builder._secureRandom;
+        this._partSize = builder._partSize;
+        this._maxInFlightParts = builder._maxInFlightParts;
+        this._parallelCryptoPool = builder._parallelCryptoPool;
+        this._cryptoExecutor = builder._cryptoExecutor;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public CompletableFuture<PutObjectResponse> putObject(PutObjectRequest request, AsyncRequestBody requestBody) {
+        final long contentLength;
+        if (request.contentLength() != null) {
+            if (requestBody.contentLength().isPresent() && !request.contentLength().equals(requestBody.contentLength().get())) {
+                // if the contentLength values do not match, throw an exception, since we don't know which is correct
+                throw new S3EncryptionClientException("The contentLength provided in the request object MUST match the " +
+                        "contentLength in the request body");
+            }
+            contentLength = request.contentLength();
+        } else {
+            contentLength = requestBody.contentLength().orElse(-1L);
+        }
+
+        if (contentLength > AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF.cipherMaxContentLengthBytes()) {
+            throw new S3EncryptionClientException("The contentLength of the object you are attempting to encrypt exceeds" +
+                    "the maximum length allowed for GCM encryption.");
+        }
+
+        EncryptionMaterialsRequest encryptionMaterialsRequest = EncryptionMaterialsRequest.builder()
+                .s3Request(request)
+                .plaintextLength(contentLength)
+                .build();
+
+        return _cryptoMaterialsManager.getEncryptionMaterials(encryptionMaterialsRequest)
+                .thenCompose(materials -> createAndUploadParts(request, requestBody, contentLength, materials));
+    }
+
+    /**
+     * @return the size of the parts of an object of the given length, or of unknown length if negative,
+     * which is the configured part size unless the object would have too many parts
+     */
+    long partSize(long contentLength) {
+        if (contentLength < 0) {
+            return _partSize;
+        }
+        return Math.max(_partSize, (contentLength + MAX_PARTS - 1) / MAX_PARTS);
+    }
+
+    private CompletableFuture<PutObjectResponse> createAndUploadParts(PutObjectRequest request, AsyncRequestBody requestBody,
+                                                                      long contentLength, EncryptionMaterials materials) {
+        materials = materials.withNewKdfSalt(_secureRandom);
+        MultipartEncryptedContent encryptedContent = _contentEncryptionStrategy.initMultipartEncryption(materials);
+
+        Map<String, String> metadata = new HashMap<>(request.metadata());
+        metadata = _contentMetadataEncodingStrategy.encodeMetadata(materials, encryptedContent.getIv(), metadata);
+        CreateMultipartUploadRequest createRequest = ConvertSDKRequests.convertRequest(request).toBuilder()
+                .overrideConfiguration(API_NAME_INTERCEPTOR)
+                .metadata(metadata)
+                .build();
+
+        // Each part is encrypted whole, so with a pool its segments are encrypted in parallel, continuing
+        // the same GCM stream as the cipher would
+        final ParallelAesGcm parallelGcm = _parallelCryptoPool != null
+                && materials.algorithmSuite().cipherName().equals(GCM_CIPHER_NAME)
+                ? new ParallelAesGcm(materials.dataKey(), encryptedContent.getIv(),
+                        materials.algorithmSuite().cipherTagLengthBits(), true, materials.cryptoProvider(),
+                        _parallelCryptoPool)
+                : null;
+        final int tagLength = materials.algorithmSuite().cipherTagLengthBits() / 8;
+        return _s3AsyncClient.createMultipartUpload(createRequest).thenCompose(response -> {
+            PartUploader uploader = new PartUploader(request, response.uploadId(), encryptedContent.getCipher(),
+                    parallelGcm, tagLength, contentLength);
+            requestBody.subscribe(OffloadingSubscriber.offload(uploader, _cryptoExecutor));
+            return uploader._result;
+        });
+    }
+
+    /**
+     * A part of the ciphertext, which is uploaded from memory, so it may be retried.
+     */
+    private static final class EncryptedPart {
+        private final int _partNumber;
+        private final byte[] _ciphertext;
+
+        private EncryptedPart(int partNumber, byte[] ciphertext) {
+            _partNumber = partNumber;
+            _ciphertext = ciphertext;
+        }
+    }
+
+    /**
+     * Gathers the plaintext of each part, encrypts it once the part is full and more plaintext follows,
+     * or the request body is complete, and uploads it. More plaintext is only requested while no
+     * encrypted part is waiting for an upload to finish, which bounds the memory held to the parts in
+     * flight, one waiting part, and the part being gathered, as well as, with a crypto executor, the
+     * buffers of the request body it requests ahead.
+     */
+    private final class PartUploader implements Subscriber<ByteBuffer> {
+        private final PutObjectRequest _request;
+        private final String _uploadId;
+        private final Cipher _cipher;
+        private final ParallelAesGcm _parallelGcm;
+        private final int _tagLength;
+        private final long _contentLength;
+        private final CompletableFuture<PutObjectResponse> _result = new CompletableFuture<>();
+
+        // Only accessed from upstream signals
+        private final byte[] _plaintext;
+        private int _gathered;
+        private long _received;
+        private int _nextPartNumber = 1;
+
+        // Guarded by this
+        private final Deque<EncryptedPart> _pendingParts = new ArrayDeque<>();
+        private final List<CompletedPart> _completedParts = new ArrayList<>();
+        private Subscription _subscription;
+        private boolean _requested;
+        private int _inFlightParts;
+        private boolean _upstreamDone;
+        private Throwable _failure;
+        private boolean _finished;
+
+        /**
+         * @param parallelGcm the GCM stream to encrypt the parts with in parallel, or null to encrypt them
+         *                    with the cipher
+         */
+        private PartUploader(PutObjectRequest request, String uploadId, Cipher cipher, ParallelAesGcm parallelGcm,
+                             int tagLength, long contentLength) {
+            _request = request;
+            _uploadId = uploadId;
+            _cipher = cipher;
+            _parallelGcm = parallelGcm;
+            _tagLength = tagLength;
+            _contentLength = contentLength;
+            final long partSize = partSize(contentLength);
+            _plaintext = new byte[Math.toIntExact(contentLength < 0 ? partSize : Math.min(partSize, contentLength))];
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            synchronized (this) {
+                if (_subscription != null) {
+                    subscription.cancel();
+                    return;
+                }
+                _subscription = subscription;
+            }
+            dispatch();
+        }
+
+        @Override
+        public void onNext(ByteBuffer byteBuffer) {
+            synchronized (this) {
+                _requested = false;
+                if (_failure != null) {
+                    return;
+                }
+            }
+            try {
+                _received += byteBuffer.remaining();
+                if (_contentLength >= 0 && _received > _contentLength) {
+                    throw new S3EncryptionClientException("The request body is longer than its contentLength of "
+                            + _contentLength + " bytes");
+                }
+                while (byteBuffer.hasRemaining()) {
+                    if (_gathered == _plaintext.length) {
+                        // More plaintext follows, so this is not the last part
+                        encryptPart(false);
+                    }
+                    final int length = Math.min(byteBuffer.remaining(), _plaintext.length - _gathered);
+                    byteBuffer.get(_plaintext, _gathered, length);
+                    _gathered += length;
+                }
+            } catch (final RuntimeException exception) {
+                fail(exception);
+                return;
+            }
+            dispatch();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            synchronized (this) {
+                _upstreamDone = true;
+            }
+            fail(t);
+        }
+
+        @Override
+        public void onComplete() {
+            try {
+                if (_contentLength >= 0 && _received != _contentLength) {
+                    throw new S3EncryptionClientException("The request body is shorter than its contentLength of "
+                            + _contentLength + " bytes");
+                }
+                encryptPart(true);
+            } catch (final RuntimeException exception) {
+                synchronized (this) {
+                    _upstreamDone = true;
+                }
+                fail(exception);
+                return;
+            }
+            dispatch();
+        }
+
+        private void encryptPart(boolean isLastPart) {
+            if (_nextPartNumber > MAX_PARTS) {
+                throw new S3EncryptionClientException("The request body has more than " + MAX_PARTS
+                        + " parts of " + _plaintext.length + " bytes; set a larger part size or its contentLength");
+            }
+            byte[] ciphertext;
+            if (_parallelGcm != null) {
+                ciphertext = encryptInParallel(isLastPart);
+            } else {
+                try {
+                    ciphertext = isLastPart
+                            ? _cipher.doFinal(_plaintext, 0, _gathered)
+                            : _cipher.update(_plaintext, 0, _gathered);
+                } catch (final GeneralSecurityException exception) {
+                    throw new S3EncryptionClientException("Unable to encrypt part " + _nextPartNumber, exception);
+                }
+            }
+            _gathered = 0;
+            if (ciphertext == null) {
+                ciphertext = new byte[0];
+            }
+            final EncryptedPart part = new EncryptedPart(_nextPartNumber++, ciphertext);
+            synchronized (this) {
+                _pendingParts.add(part);
+                if (isLastPart) {
+                    _upstreamDone = true;
+                }
+            }
+        }
+
+        private byte[] encryptInParallel(boolean isLastPart) {
+            final byte[] ciphertext = new byte[_gathered + (isLastPart ? _tagLength : 0)];
+            _parallelGcm.update(ByteBuffer.wrap(_plaintext, 0, _gathered), ByteBuffer.wrap(ciphertext));
+            if (isLastPart) {
+                final byte[] tag = _parallelGcm.tag();
+                System.arraycopy(tag, 0, ciphertext, _gathered, tag.length);
+            }
+            return ciphertext;
+        }
+
+        /**
+         * Uploads waiting parts while there is room, and requests more plaintext while none are waiting.
+         */
+        private void dispatch() {
+            final List<EncryptedPart> toUpload = new ArrayList<>();
+            Subscription toRequest = null;
+            synchronized (this) {
+                if (_failure == null) {
+                    while (_inFlightParts < _maxInFlightParts && !_pendingParts.isEmpty()) {
+                        toUpload.add(_pendingParts.poll());
+                        _inFlightParts++;
+                    }
+                    if (!_upstreamDone && !_requested && _pendingParts.isEmpty()) {
+                        _requested = true;
+                        toRequest = _subscription;
+                    }
+                }
+            }
+            for (EncryptedPart part : toUpload) {
+                uploadPart(part);
+            }
+            if (toRequest != null) {
+                toRequest.request(1);
+            }
+            maybeFinish();
+        }
+
+        private void uploadPart(EncryptedPart part) {
+            final UploadPartRequest partRequest = UploadPartRequest.builder()
+                    .overrideConfiguration(API_NAME_INTERCEPTOR)
+                    .bucket(_request.bucket())
+                    .key(_request.key())
+                    .uploadId(_uploadId)
+                    .partNumber(part._partNumber)
+                    .contentLength((long) part._ciphertext.length)
+                    .sseCustomerAlgorithm(_request.sseCustomerAlgorithm())
+                    .sseCustomerKey(_request.sseCustomerKey())
+                    .sseCustomerKeyMD5(_request.sseCustomerKeyMD5())
+                    .requestPayer(_request.requestPayer())
+                    .expectedBucketOwner(_request.expectedBucketOwner())
+                    .build();
+            try {
+                _s3AsyncClient.uploadPart(partRequest, new CiphertextPartRequestBody(part._ciphertext))
+                        .whenComplete((response, t) -> {
+                            synchronized (this) {
+                                _inFlightParts--;
+                                if (t == null) {
+                                    _completedParts.add(CompletedPart.builder()
+                                            .partNumber(part._partNumber)
+                                            .eTag(response.eTag())
+                                            .build());
+                                }
+                            }
+                            if (t != null) {
+                                fail(t);
+                            } else {
+                                dispatch();
+                            }
+                        });
+            } catch (final RuntimeException exception) {
+                synchronized (this) {
+                    _inFlightParts--;
+                }
+                fail(exception);
+            }
+        }
+
+        private void fail(Throwable t) {
+            final Subscription toCancel;
+            synchronized (this) {
+                if (_failure != null) {
+                    return;
+                }
+                _failure = t;
+                _pendingParts.clear();
+                toCancel = _upstreamDone ? null : _subscription;
+            }
+            if (toCancel != null) {
+                toCancel.cancel();
+            }
+            maybeFinish();
+        }
+
+        /**
+         * Completes the upload once every part has been uploaded, or aborts it once a part or the
+         * request body has failed and no parts are still in flight.
+         */
+        private void maybeFinish() {
+            final Throwable failure;
+            final List<CompletedPart> parts;
+            synchronized (this) {
+                if (_finished || _inFlightParts > 0) {
+                    return;
+                }
+                if (_failure == null && !(_upstreamDone && _pendingParts.isEmpty())) {
+                    return;
+                }
+                _finished = true;
+                failure = _failure;
+                parts = new ArrayList<>(_completedParts);
+            }
+            if (failure != null) {
+                abort(failure);
+                return;
+            }
+            parts.sort(Comparator.comparing(CompletedPart::partNumber));
+            _s3AsyncClient.completeMultipartUpload(builder -> builder
+                            .overrideConfiguration(API_NAME_INTERCEPTOR)
+                            .bucket(_request.bucket())
+                            .key(_request.key())
+                            .uploadId(_uploadId)
+                            .requestPayer(_request.requestPayer())
+                            .expectedBucketOwner(_request.expectedBucketOwner())
+                            .multipartUpload(partBuilder -> partBuilder.parts(parts)))
+                    .whenComplete((response, t) -> {
+                        if (t != null) {
+                            abort(t);
+                        } else {
+                            _result.complete(toPutObjectResponse(response));
+                        }
+                    });
+        }
+
+        private void abort(Throwable failure) {
+            _s3AsyncClient.abortMultipartUpload(builder -> builder
+                            .overrideConfiguration(API_NAME_INTERCEPTOR)
+                            .bucket(_request.bucket())
+                            .key(_request.key())
+                            .uploadId(_uploadId)
+                            .requestPayer(_request.requestPayer())
+                            .expectedBucketOwner(_request.expectedBucketOwner()))
+                    .whenComplete((response, t) -> {
+                        if (t != null) {
+                            LogFactory.getLog(getClass()).debug("Failed to abort multi-part upload: " + _uploadId, t);
+                        }
+                        _result.completeExceptionally(failure);
+                    });
+        }
+    }
+
+    private static PutObjectResponse toPutObjectResponse(CompleteMultipartUploadResponse response) {
+        return PutObjectResponse.builder()
+                .eTag(response.eTag())
+                .versionId(response.versionId())
+                .expiration(response.expiration())
+                .serverSideEncryption(response.serverSideEncryption())
+                .ssekmsKeyId(response.ssekmsKeyId())
+                .bucketKeyEnabled(response.bucketKeyEnabled())
+                .requestCharged(response.requestCharged())
+                .build();
+    }
+
+    /**
+     * An AsyncRequestBody of a part of the ciphertext held in memory, which, unlike
+     * {@link AsyncRequestBody#fromBytes(byte[])}, does not copy it, and may be subscribed to again
+     * when the upload of the part is retried.
+     */
+    static final class CiphertextPartRequestBody implements AsyncRequestBody {
+        private final ByteBuffer _ciphertext;
+
+        CiphertextPartRequestBody(byte[] ciphertext) {
+            this(ByteBuffer.wrap(ciphertext));
+        }
+
+        /**
+         * The remaining bytes of the buffer are the part; its position and limit are not changed.
+         */
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "The part is not copied by design")
+        CiphertextPartRequestBody(ByteBuffer ciphertext) {
+            _ciphertext = ciphertext;
+        }
+
+        @Override
+        public Optional<Long> contentLength() {
+            return Optional.of((long) _ciphertext.remaining());
+        }
+
+        @Override
+        public void subscribe(Subscriber<? super ByteBuffer> subscriber) {
+            subscriber.onSubscribe(new Subscription() {
+                private boolean _done;
+
+                @Override
+                public void request(long n) {
+                    synchronized (this) {
+                        if (_done) {
+                            return;
+                        }
+                        _done = true;
+                    }
+                    if (n <= 0) {
+                        subscriber.onError(new IllegalArgumentException("Demand must be positive"));
+                        return;
+                    }
+                    subscriber.onNext(_ciphertext.duplicate());
+                    subscriber.onComplete();
+                }
+
+                @Override
+                public synchronized void cancel() {
+                    _done = true;
+                }
+            });
+        }
+    }
+
+    public static class Builder {
+        private S3AsyncClient _s3AsyncClient;
+        private AsyncCryptographicMaterialsManager _cryptoMaterialsManager;
+        private SecureRandom _secureRandom;
+        private MultipartContentEncryptionStrategy _contentEncryptionStrategy;
+        private final ContentMetadataEncodingStrategy _contentMetadataEncodingStrategy = ContentMetadataStrategy.OBJECT_METADATA;
+        private long _partSize = DEFAULT_PART_SIZE;
+        private int _maxInFlightParts = DEFAULT_MAX_IN_FLIGHT_PARTS;
+        private ForkJoinPool _parallelCryptoPool;
+        private CryptoExecutor _cryptoExecutor;
+
+        private Builder() {
+        }
+
+        /**
+         * Note that this does NOT create a defensive clone of S3Client. Any modifications made to the wrapped
+         * S3Client will be reflected in this Builder.
+         */
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "Pass mutability into wrapping client")
+        public Builder s3AsyncClient(S3AsyncClient s3AsyncClient) {
+            this._s3AsyncClient = s3AsyncClient;
+            return this;
+        }
+
+        public Builder asyncCryptoMaterialsManager(AsyncCryptographicMaterialsManager cryptoMaterialsManager) {
+            this._cryptoMaterialsManager = cryptoMaterialsManager;
+            return this;
+        }
+
+        public Builder secureRandom(SecureRandom secureRandom) {
+            this._secureRandom = secureRandom;
+            return this;
+        }
+
+        /**
+         * The number of bytes of plaintext in each part but the last, which is raised for objects of known
+         * length which would otherwise have more than 10,000 parts.
+         */
+        public Builder partSize(long partSize) {
+            this._partSize = partSize;
+            return this;
+        }
+
+        /**
+         * The number of parts which may be uploaded at once.
+         */
+        public Builder maxInFlightParts(int maxInFlightParts) {
+            this._maxInFlightParts = maxInFlightParts;
+            return this;
+        }
+
+        /**
+         * The pool to encrypt each part on in parallel segments, or null to encrypt it on one thread.
+         * There is no cipher chunk size, as the cipher is always updated with whole parts.
+         */
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "The pool is shared by design")
+        public Builder parallelCryptoPool(ForkJoinPool parallelCryptoPool) {
+            this._parallelCryptoPool = parallelCryptoPool;
+            return this;
+        }
+
+        /**
+         * The executor to gather and encrypt the parts on, or null to do so on the thread which delivers
+         * the request body.
+         */
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "The executor is shared by design")
+        public Builder cryptoExecutor(CryptoExecutor cryptoExecutor) {
+            this._cryptoExecutor = cryptoExecutor;
+            return this;
+        }
+
+        public MultipartPutEncryptedObjectPipeline build() {
+            if (_partSize < MIN_PART_SIZE || _partSize > MAX_PART_SIZE) {
+                throw new S3EncryptionClientException("Part size must be between 5MiB and 1GiB");
+            }
+            if (_maxInFlightParts < 1) {
+                throw new S3EncryptionClientException("Max in-flight parts must be at least 1");
+            }
+            // Default to AesGcm since it is the only active (non-legacy) content encryption strategy
+            if (_contentEncryptionStrategy == null) {
+                _contentEncryptionStrategy = StreamingAesGcmContentStrategy
+                        .builder()
+                        .secureRandom(_secureRandom)
+                        .build();
+            }
+            return new MultipartPutEncryptedObjectPipeline(this);
+        }
+    }
+}
@@ -116,6 +116,28 @@ public class MultipartUploadMaterials implements CryptographicMaterials {
         }
     }
 
+    /**
+     * Checks the next part number increments by exactly 1, for parts which are
+     * encrypted in series but whose uploads may overlap. Unlike
+     * {@link #beginPartUpload(int, long)}, a part number may not be repeated,
+     * since the cipher has already moved past that part, and no part upload is
+     * marked as in progress.
+     *
+     * @throws S3EncryptionClientException if the part is out of order
+     */
+    protected synchronized void beginStagedPartUpload(final int nextPartNumber, final long partContentLength) {
+        if (nextPartNumber < 1)
+            throw new IllegalArgumentException("part number must be at least 1");
+        if (nextPartNumber != partNumber + 1) {
+            throw new S3EncryptionClientException(
+                    "Parts are required to be submitted in order (partNumber="
+                            + partNumber + ", nextPartNumber="
+                            + nextPartNumber + ")");
+        }
+        incrementPlaintextSize(partContentLength);
+        partNumber = nextPartNumber;
+    }
+
     /**
      * Increments the plaintextSize as parts come in, checking to
      * ensure that the max GCM size limit is not exceeded.
@@ -226,7 +248,9 @@ public class MultipartUploadMaterials implements CryptographicMaterials {
             _s3Request = materials.s3Request();
             _algorithmSuite = materials.algorithmSuite();
             _encryptionContext = materials.encryptionContext();
-            _plaintextDataKey = materials.plaintextDataKey();
+            // Hold the content key; for suites which derive it from the data key,
+            // it is derived once here and used for every part
+            _plaintextDataKey = materials.dataKey().getEncoded();
             _cryptoProvider = materials.cryptoProvider();
             return this;
         }
@@ -18,8 +18,10 @@ import software.amazon.awssdk.services.s3.model.SdkPartType;
 import software.amazon.awssdk.services.s3.model.UploadPartRequest;
 import software.amazon.awssdk.services.s3.model.UploadPartResponse;
 import software.amazon.awssdk.utils.IoUtils;
+import software.amazon.encryption.s3.BufferPool;
 import software.amazon.encryption.s3.S3EncryptionClientException;
 import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
+import software.amazon.encryption.s3.materials.AsyncCryptographicMaterialsManager;
 import software.amazon.encryption.s3.materials.CryptographicMaterialsManager;
 import software.amazon.encryption.s3.materials.EncryptionMaterials;
 import software.amazon.encryption.s3.materials.EncryptionMaterialsRequest;
@@ -32,82 +34,120 @@ import java.security.SecureRandom;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.Executors;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 
 import static software.amazon.encryption.s3.internal.ApiNameVersion.API_NAME_INTERCEPTOR;
 
 public class MultipartUploadObjectPipeline {
     final private S3AsyncClient _s3AsyncClient;
-    final private CryptographicMaterialsManager _cryptoMaterialsManager;
+    final private AsyncCryptographicMaterialsManager _cryptoMaterialsManager;
     final private MultipartContentEncryptionStrategy _contentEncryptionStrategy;
     final private ContentMetadataEncodingStrategy _contentMetadataEncodingStrategy;
+    final private SecureRandom _secureRandom;
+    final private BufferPool _bufferPool;
+    final private ExecutorService _bridgingExecutor;
+    final private int _cipherChunkSize;
+    final private int _maxStagedParts;
     /**
      * Map of data about in progress encrypted multipart uploads.
      */
     private final Map<String, MultipartUploadMaterials> _multipartUploadMaterials;
+    /**
+     * Map of the schedulers of in progress uploads whose parts are staged, when maxStagedParts is set.
+     */
+    private final Map<String, PartUploadScheduler> _partUploadSchedulers;
 
     private MultipartUploadObjectPipeline(Builder builder) {
         this._s3AsyncClient = builder._s3AsyncClient;
         this._cryptoMaterialsManager = builder._cryptoMaterialsManager;
         this._contentEncryptionStrategy = builder._contentEncryptionStrategy;
         this._contentMetadataEncodingStrategy = builder._contentMetadataEncodingStrategy;
+        this._secureRandom = builder._secureRandom;
+        this._bufferPool = builder._bufferPool;
+        this._bridgingExecutor = builder._bridgingExecutor;
+        this._cipherChunkSize = builder._cipherChunkSize;
+        this._maxStagedParts = builder._maxStagedParts;
         this._multipartUploadMaterials = builder._multipartUploadMaterials;
+        this._partUploadSchedulers = builder._partUploadSchedulers;
     }
 
     public static Builder builder() {
         return new Builder();
     }
 
-    public CreateMultipartUploadResponse createMultipartUpload(CreateMultipartUploadRequest request) {
+    public CompletableFuture<CreateMultipartUploadResponse> createMultipartUpload(CreateMultipartUploadRequest request) {
         EncryptionMaterialsRequest.Builder requestBuilder = EncryptionMaterialsRequest.builder()
                 .s3Request(request);
 
-        EncryptionMaterials materials = _cryptoMaterialsManager.getEncryptionMaterials(requestBuilder.build());
+        return _cryptoMaterialsManager.getEncryptionMaterials(requestBuilder.build())
+                .thenCompose(materials -> createEncryptedMultipartUpload(request, materials));
+    }
+
+    private CompletableFuture<CreateMultipartUploadResponse> createEncryptedMultipartUpload(CreateMultipartUploadRequest request,
+                                                                                          EncryptionMaterials materials) {
+        materials = materials.withNewKdfSalt(_secureRandom);
         MultipartEncryptedContent encryptedContent = _contentEncryptionStrategy.initMultipartEncryption(materials);
 
         Map<String, String> metadata = new HashMap<>(request.metadata());
         metadata = _contentMetadataEncodingStrategy.encodeMetadata(materials, encryptedContent.getIv(), metadata);
-        request = request.toBuilder()
+        CreateMultipartUploadRequest actualRequest = request.toBuilder()
                 .overrideConfiguration(API_NAME_INTERCEPTOR)
                 .metadata(metadata).build();
 
-        CreateMultipartUploadResponse response = _s3AsyncClient.createMultipartUpload(request).join();
-
         MultipartUploadMaterials mpuMaterials = MultipartUploadMaterials.builder()
                 .fromEncryptionMaterials(materials)
                 .cipher(encryptedContent.getCipher())
                 .build();
 
-        _multipartUploadMaterials.put(response.uploadId(), mpuMaterials);
+        return _s3AsyncClient.createMultipartUpload(actualRequest).thenApply(response -> {
+            _multipartUploadMaterials.put(response.uploadId(), mpuMaterials);
+            return response;
+        });
+    }
 
-        return response;
+    public CompletableFuture<UploadPartResponse> uploadPart(UploadPartRequest request, RequestBody requestBody)
+            throws AwsServiceException, SdkClientException {
+        final long partContentLength = partContentLength(request, requestBody.optionalContentLength());
+        final AsyncRequestBody asyncRequestBody = AsyncRequestBody.fromInputStream(requestBody.contentStreamProvider().newStream(),
+                partContentLength, // this MUST be the original contentLength; it refers to the plaintext stream
+                _bridgingExecutor);
+        return uploadPart(request, asyncRequestBody, partContentLength);
     }
 
-    public UploadPartResponse uploadPart(UploadPartRequest request, RequestBody requestBody)
+    public CompletableFuture<UploadPartResponse> uploadPart(UploadPartRequest request, AsyncRequestBody requestBody)
             throws AwsServiceException, SdkClientException {
+        return uploadPart(request, requestBody, partContentLength(request, requestBody.contentLength()));
+    }
 
-        final AlgorithmSuite algorithmSuite = AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF;
-        final int blockSize = algorithmSuite.cipherBlockSizeBytes();
-        // Validate the partSize / contentLength in the request and requestBody
-        // There is similar logic in PutEncryptedObjectPipeline,
-        // but this uses non-async requestBody, so the code is not shared
+    /**
+     * Validates the partSize / contentLength in the request and requestBody.
+     * There is similar logic in PutEncryptedObjectPipeline.
+     */
+    private static long partContentLength(UploadPartRequest request, Optional<Long> requestBodyContentLength) {
         final long partContentLength;
         if (request.contentLength() != null) {
-            if (requestBody.optionalContentLength().isPresent() && !request.contentLength().equals(requestBody.optionalContentLength().get())) {
+            if (requestBodyContentLength.isPresent() && !request.contentLength().equals(requestBodyContentLength.get())) {
                 // if the contentLength values do not match, throw an exception, since we don't know which is correct
                 throw new S3EncryptionClientException("The contentLength provided in the request object MUST match the " +
                         "contentLength in the request body");
-            } else if (!requestBody.optionalContentLength().isPresent()) {
-                // no contentLength in request body, use the one in request
-                partContentLength = request.contentLength();
             } else {
-                // only remaining case is when the values match, so either works here
+                // either there is no contentLength in request body, or the values match, so use the one in request
                 partContentLength = request.contentLength();
             }
         } else {
-            partContentLength = requestBody.optionalContentLength().orElse(-1L);
+            partContentLength = requestBodyContentLength.orElseThrow(() -> new S3EncryptionClientException(
+                    "The contentLength of each part of an encrypted multipart upload must be provided in the request " +
+                            "object or the request body"));
         }
+        return partContentLength;
+    }
 
+    private CompletableFuture<UploadPartResponse> uploadPart(UploadPartRequest request, AsyncRequestBody requestBody,
+                                                             long partContentLength) {
+        final AlgorithmSuite algorithmSuite = AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF;
+        final int blockSize = algorithmSuite.cipherBlockSizeBytes();
         final boolean isLastPart = request.sdkPartType() != null && request.sdkPartType().equals(SdkPartType.LAST);
         final int cipherTagLength = isLastPart ? algorithmSuite.cipherTagLengthBytes() : 0;
         final long ciphertextLength = partContentLength + cipherTagLength;
@@ -129,36 +169,76 @@ public class MultipartUploadObjectPipeline {
         if (materials == null) {
             throw new S3EncryptionClientException("No client-side information available on upload ID " + uploadId);
         }
-        final UploadPartResponse response;
+        if (_maxStagedParts > 0) {
+            return uploadStagedPart(actualRequest, requestBody, materials, partContentLength, ciphertextLength, isLastPart);
+        }
+        final CompletableFuture<UploadPartResponse> response;
         // Checks the parts are uploaded in series
         materials.beginPartUpload(actualRequest.partNumber(), partContentLength);
-        Cipher cipher = materials.getCipher(materials.getIv());
         try {
-            final AsyncRequestBody cipherAsyncRequestBody = new CipherAsyncRequestBody(AsyncRequestBody.fromInputStream(requestBody.contentStreamProvider().newStream(),
-                    partContentLength, // this MUST be the original contentLength; it refers to the plaintext stream
-                    Executors.newSingleThreadExecutor()), ciphertextLength, materials, cipher.getIV(), isLastPart);
+            Cipher cipher = materials.getCipher(materials.getIv());
+            final AsyncRequestBody cipherAsyncRequestBody = new CipherAsyncRequestBody(requestBody, ciphertextLength,
+                    materials, cipher.getIV(), isLastPart, _cipherChunkSize, null);
 
             // Ensure we haven't already seen the last part
             if (isLastPart) {
-                if (materials.hasFinalPartBeenSeen()) {
-                    throw new S3EncryptionClientException("This part was specified as the last part in a multipart " +
-                            "upload, but a previous part was already marked as the last part. Only the last part of the " +
-                            "upload should be marked as the last part.");
-                }
+                checkFinalPartNotSeen(materials);
             }
             // Ensures parts are not retried to avoid corrupting ciphertext
             AsyncRequestBody noRetryBody = new NoRetriesAsyncRequestBody(cipherAsyncRequestBody);
-            response =  _s3AsyncClient.uploadPart(actualRequest, noRetryBody).join();
-        } finally {
+            response = _s3AsyncClient.uploadPart(actualRequest, noRetryBody);
+        } catch (RuntimeException e) {
+            materials.endPartUpload();
+            throw e;
+        }
+        // The next part may only begin once this one has ended, so end it before the response is passed on
+        return response.whenComplete((r, t) -> {
             materials.endPartUpload();
+            if (t == null && isLastPart) {
+                materials.setHasFinalPartBeenSeen(true);
+            }
+        });
+    }
+
+    /**
+     * Encrypts the part into a staging buffer once the parts before it have been encrypted, then uploads it
+     * while later parts are encrypted. The staged part may be retried, unlike one which is streamed.
+     */
+    private CompletableFuture<UploadPartResponse> uploadStagedPart(UploadPartRequest request, AsyncRequestBody requestBody,
+                                                                   MultipartUploadMaterials materials, long partContentLength,
+                                                                   long ciphertextLength, boolean isLastPart) {
+        if (ciphertextLength > Integer.MAX_VALUE) {
+            throw new S3EncryptionClientException("Parts of more than 2GiB cannot be staged for concurrent upload");
         }
         if (isLastPart) {
-            materials.setHasFinalPartBeenSeen(true);
+            checkFinalPartNotSeen(materials);
         }
-        return response;
+        // Checks the parts are submitted in order; their uploads may overlap
+        materials.beginStagedPartUpload(request.partNumber(), partContentLength);
+        final PartUploadScheduler scheduler = _partUploadSchedulers.computeIfAbsent(request.uploadId(),
+                uploadId -> new PartUploadScheduler(_maxStagedParts));
+
+        return scheduler.schedule(
+                () -> PartUploadScheduler.stage(new CipherAsyncRequestBody(requestBody, ciphertextLength, materials,
+                        materials.getIv(), isLastPart, _cipherChunkSize, null), (int) ciphertextLength),
+                ciphertext -> _s3AsyncClient.uploadPart(request,
+                        new MultipartPutEncryptedObjectPipeline.CiphertextPartRequestBody(ciphertext))
+        ).whenComplete((r, t) -> {
+            if (t == null && isLastPart) {
+                materials.setHasFinalPartBeenSeen(true);
+            }
+        });
     }
 
-    public CompleteMultipartUploadResponse completeMultipartUpload(CompleteMultipartUploadRequest request)
+    private static void checkFinalPartNotSeen(MultipartUploadMaterials materials) {
+        if (materials.hasFinalPartBeenSeen()) {
+            throw new S3EncryptionClientException("This part was specified as the last part in a multipart " +
+                    "upload, but a previous part was already marked as the last part. Only the last part of the " +
+                    "upload should be marked as the last part.");
+        }
+    }
+
+    public CompletableFuture<CompleteMultipartUploadResponse> completeMultipartUpload(CompleteMultipartUploadRequest request)
             throws AwsServiceException, SdkClientException {
         String uploadId = request.uploadId();
         final MultipartUploadMaterials uploadContext = _multipartUploadMaterials.get(uploadId);
@@ -173,24 +253,27 @@ public class MultipartUploadObjectPipeline {
                 .overrideConfiguration(API_NAME_INTERCEPTOR)
                 .build();
 
-        CompleteMultipartUploadResponse response = _s3AsyncClient.completeMultipartUpload(actualRequest).join();
-
-        _multipartUploadMaterials.remove(uploadId);
-        return response;
+        return _s3AsyncClient.completeMultipartUpload(actualRequest).thenApply(response -> {
+            _multipartUploadMaterials.remove(uploadId);
+            _partUploadSchedulers.remove(uploadId);
+            return response;
+        });
     }
 
-    public AbortMultipartUploadResponse abortMultipartUpload(AbortMultipartUploadRequest request) {
+    public CompletableFuture<AbortMultipartUploadResponse> abortMultipartUpload(AbortMultipartUploadRequest request) {
         _multipartUploadMaterials.remove(request.uploadId());
+        _partUploadSchedulers.remove(request.uploadId());
         AbortMultipartUploadRequest actualRequest = request.toBuilder()
                 .overrideConfiguration(API_NAME_INTERCEPTOR)
                 .build();
-        return _s3AsyncClient.abortMultipartUpload(actualRequest).join();
+        return _s3AsyncClient.abortMultipartUpload(actualRequest);
     }
 
     public void putLocalObject(RequestBody requestBody, String uploadId, OutputStream os) throws IOException {
         final MultipartUploadMaterials materials = _multipartUploadMaterials.get(uploadId);
         Cipher cipher = materials.getCipher(materials.getIv());
-        final InputStream cipherInputStream = new AuthenticatedCipherInputStream(requestBody.contentStreamProvider().newStream(), cipher);
+        final InputStream cipherInputStream = new AuthenticatedCipherInputStream(requestBody.contentStreamProvider().newStream(), cipher,
+                false, false, _bufferPool);
 
         try {
             IoUtils.copy(cipherInputStream, os);
@@ -204,10 +287,16 @@ public class MultipartUploadObjectPipeline {
     public static class Builder {
         private final Map<String, MultipartUploadMaterials> _multipartUploadMaterials =
                 Collections.synchronizedMap(new HashMap<>());
+        private final Map<String, PartUploadScheduler> _partUploadSchedulers =
+                Collections.synchronizedMap(new HashMap<>());
         private final ContentMetadataEncodingStrategy _contentMetadataEncodingStrategy = ContentMetadataStrategy.OBJECT_METADATA;
         private S3AsyncClient _s3AsyncClient;
-        private CryptographicMaterialsManager _cryptoMaterialsManager;
+        private AsyncCryptographicMaterialsManager _cryptoMaterialsManager;
         private SecureRandom _secureRandom;
+        private BufferPool _bufferPool;
+        private ExecutorService _bridgingExecutor;
+        private int _cipherChunkSize = 0;
+        private int _maxStagedParts = 0;
         // To Create Cipher which is used in during uploadPart requests.
         private MultipartContentEncryptionStrategy _contentEncryptionStrategy;
 
@@ -225,6 +314,11 @@ public class MultipartUploadObjectPipeline {
         }
 
         public Builder cryptoMaterialsManager(CryptographicMaterialsManager cryptoMaterialsManager) {
+            this._cryptoMaterialsManager = new CryptoMaterialsManagerAdapter(cryptoMaterialsManager);
+            return this;
+        }
+
+        public Builder asyncCryptoMaterialsManager(AsyncCryptographicMaterialsManager cryptoMaterialsManager) {
             this._cryptoMaterialsManager = cryptoMaterialsManager;
             return this;
         }
@@ -234,12 +328,51 @@ public class MultipartUploadObjectPipeline {
             return this;
         }
 
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "The buffer pool is shared by design")
+        public Builder bufferPool(BufferPool bufferPool) {
+            this._bufferPool = bufferPool;
+            return this;
+        }
+
+        /**
+         * The executor on which the InputStream of each synchronous part is read.
+         */
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "The executor is shared by design")
+        public Builder bridgingExecutor(ExecutorService bridgingExecutor) {
+            this._bridgingExecutor = bridgingExecutor;
+            return this;
+        }
+
+        /**
+         * The number of bytes gathered before each update of the content cipher. Zero updates the
+         * cipher with each buffer as it is received.
+         */
+        public Builder cipherChunkSize(int cipherChunkSize) {
+            this._cipherChunkSize = cipherChunkSize;
+            return this;
+        }
+
+        /**
+         * The number of parts of each upload which may be encrypted into staging buffers ahead of being
+         * uploaded, and so uploaded at once. Parts must still be submitted in order, but each is only
+         * held back until the parts before it are encrypted rather than uploaded. Zero, the default,
+         * streams each part through the cipher as it is uploaded, one part at a time.
+         */
+        public Builder maxStagedParts(int maxStagedParts) {
+            this._maxStagedParts = maxStagedParts;
+            return this;
+        }
+
         public MultipartUploadObjectPipeline build() {
+            if (_maxStagedParts < 0) {
+                throw new S3EncryptionClientException("Max staged parts must not be negative");
+            }
             // Default to AesGcm since it is the only active (non-legacy) content encryption strategy
             if (_contentEncryptionStrategy == null) {
                 _contentEncryptionStrategy = StreamingAesGcmContentStrategy
                         .builder()
                         .secureRandom(_secureRandom)
+                        .cipherChunkSize(_cipherChunkSize)
                         .build();
             }
             return new MultipartUploadObjectPipeline(this);
@@ -0,0 +1,185 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.encryption.s3.CryptoExecutor;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A subscriber which passes the buffers it receives on to the wrapped subscriber on a {@link CryptoExecutor},
+ * so that the wrapped subscriber's work, e.g. encryption or decryption, is done off the thread which delivers
+ * them. Up to the executor's maximum in-flight chunks are requested from upstream ahead of the wrapped
+ * subscriber's demand, so that the next buffers arrive while the cipher is busy.
+ * <p>
+ * Each turn on the executor passes on one buffer, then gives way to other objects. The wrapped subscriber must
+ * pass on its own failures, as CipherSubscriber does, as anything it throws is not. The buffers are passed on
+ * as received, so upstream must not reuse them once onNext returns, as the SDK does not.
+ */
+class OffloadingSubscriber implements Subscriber<ByteBuffer> {
+
+    private final Subscriber<? super ByteBuffer> wrappedSubscriber;
+    private final Executor executor;
+    private final int prefetch;
+    private final int replenishAt;
+
+    private final Queue<ByteBuffer> received = new ConcurrentLinkedQueue<>();
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private Subscription subscription;
+    // Only accessed on the executor
+    private int consumed;
+    private volatile boolean upstreamDone;
+    private volatile Throwable upstreamError;
+    private volatile boolean done;
+
+    OffloadingSubscriber(Subscriber<? super ByteBuffer> wrappedSubscriber, CryptoExecutor cryptoExecutor) {
+        this.wrappedSubscriber = wrappedSubscriber;
+        this.executor = cryptoExecutor.newStream();
+        this.prefetch = cryptoExecutor.maxInFlightChunks();
+        this.replenishAt = Math.max(1, prefetch / 2);
+    }
+
+    /**
+     * Wraps the subscriber in an offloading subscriber, unless the executor is null.
+     */
+    static Subscriber<? super ByteBuffer> offload(Subscriber<? super ByteBuffer> subscriber, CryptoExecutor cryptoExecutor) {
+        return cryptoExecutor != null ? new OffloadingSubscriber(subscriber, cryptoExecutor) : subscriber;
+    }
+
+    @Override
+    public void onSubscribe(Subscription s) {
+        if (subscription != null) {
+            s.cancel();
+            return;
+        }
+        subscription = s;
+        wrappedSubscriber.onSubscribe(new Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    s.cancel();
+                    upstreamError = new IllegalArgumentException("Demand must be positive, got " + n);
+                    upstreamDone = true;
+                } else {
+                    addRequested(n);
+                }
+                schedule();
+            }
+
+            @Override
+            public void cancel() {
+                done = true;
+                s.cancel();
+                received.clear();
+            }
+        });
+        s.request(prefetch);
+    }
+
+    @Override
+    public void onNext(ByteBuffer byteBuffer) {
+        received.add(byteBuffer);
+        schedule();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        upstreamError = t;
+        upstreamDone = true;
+        schedule();
+    }
+
+    @Override
+    public void onComplete() {
+        upstreamDone = true;
+        schedule();
+    }
+
+    private void addRequested(long n) {
+        long current;
+        long next;
+        do {
+            current = requested.get();
+            next = current + n < 0 ? Long.MAX_VALUE : current + n;
+        } while (!requested.compareAndSet(current, next));
+    }
+
+    /**
+     * Takes a turn on the executor, unless one is already taken.
+     */
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(this::step);
+        }
+    }
+
+    private void step() {
+        passOnOne();
+        scheduled.set(false);
+        // Work which arrived during this turn, including requests made from the wrapped subscriber, takes another
+        if (hasWork()) {
+            schedule();
+        }
+    }
+
+    private boolean hasWork() {
+        if (done) {
+            return false;
+        }
+        if (upstreamDone && (upstreamError != null || received.isEmpty())) {
+            return true;
+        }
+        return requested.get() > 0 && !received.isEmpty();
+    }
+
+    private void passOnOne() {
+        if (done) {
+            received.clear();
+            return;
+        }
+        if (upstreamError != null) {
+            // Errors are passed on at once, as the buffers before them cannot be completed
+            done = true;
+            received.clear();
+            wrappedSubscriber.onError(upstreamError);
+            return;
+        }
+        if (requested.get() > 0) {
+            final ByteBuffer byteBuffer = received.poll();
+            if (byteBuffer != null) {
+                if (requested.get() != Long.MAX_VALUE) {
+                    requested.decrementAndGet();
+                }
+                try {
+                    wrappedSubscriber.onNext(byteBuffer);
+                } catch (final RuntimeException exception) {
+                    // As CipherSubscriber passes on its failures before throwing them, there is nothing more to
+                    // pass on, but nothing more should be received
+                    done = true;
+                    subscription.cancel();
+                    received.clear();
+                    return;
+                }
+                if (++consumed == replenishAt) {
+                    consumed = 0;
+                    subscription.request(replenishAt);
+                }
+                return;
+            }
+        }
+        if (upstreamDone && received.isEmpty()) {
+            done = true;
+            // Any failure to complete, e.g. to authenticate, is passed on by the wrapped subscriber itself
+            wrappedSubscriber.onComplete();
+        }
+    }
+}
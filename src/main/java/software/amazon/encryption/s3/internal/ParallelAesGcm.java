@@ -0,0 +1,257 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import software.amazon.encryption.s3.S3EncryptionClientException;
+import software.amazon.encryption.s3.S3EncryptionClientSecurityException;
+import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * The keystream and GHASH of AES-GCM, without AAD, computed over segments of each large update in parallel on
+ * a ForkJoinPool. The segments' hashes are combined with powers of H, so the tag is the standard GCM tag, and
+ * the output is the same as that of any other GCM implementation. Small updates, or all updates when no pool is
+ * given, are processed on the calling thread.
+ * <p>
+ * This does not hold back the tag from the ciphertext when decrypting; callers pass only the ciphertext to
+ * {@link #update(ByteBuffer, ByteBuffer)}, and compare the tag themselves.
+ */
+public class ParallelAesGcm {
+
+    // Each segment is 1MiB, which amortizes the cost of a keystream cipher per segment
+    static final int SEGMENT_SIZE = 1024 * 1024;
+    // Updates are gathered to at most this many segments, bounding the memory held per request
+    private static final int MAX_SEGMENTS_PER_UPDATE = 16;
+
+    private static final int BLOCK_SIZE = 16;
+    private static final String CTR_CIPHER_NAME = "AES/CTR/NoPadding";
+
+    private final SecretKey _key;
+    private final Provider _provider;
+    private final boolean _encrypt;
+    private final ForkJoinPool _pool;
+    private final byte[] _counter0;
+    private final byte[] _tagMask;
+    private final int _tagLength;
+    private final GHash _ghash;
+    private final long[] _segmentHPower;
+    private final long _maxContentLength;
+
+    // The keystream cipher for updates on the calling thread, positioned at _ctrPosition
+    private Cipher _ctrCipher;
+    private long _ctrPosition = -1;
+    private long _processed;
+
+    /**
+     * @param pool the pool to process segments on, or null to process all updates on the calling thread
+     */
+    public ParallelAesGcm(SecretKey key, byte[] iv, int tagLengthBits, boolean encrypt, Provider provider,
+                          ForkJoinPool pool) {
+        this(key, iv, tagLengthBits, encrypt, provider, pool,
+                AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF.cipherMaxContentLengthBytes());
+    }
+
+    /**
+     * @param maxContentLength the most content to encrypt or decrypt, beyond which the keystream would repeat
+     */
+    ParallelAesGcm(SecretKey key, byte[] iv, int tagLengthBits, boolean encrypt, Provider provider,
+                   ForkJoinPool pool, long maxContentLength) {
+        // Only with a 96-bit IV does the counter start low enough that incrementing the whole counter block,
+        // as AES-CTR does, matches GCM's 32-bit increment for any content within GCM's length limit
+        if (iv.length != 12) {
+            throw new S3EncryptionClientException("Streaming AES-GCM requires a 96-bit IV");
+        }
+        _key = key;
+        _provider = provider;
+        _encrypt = encrypt;
+        _pool = pool;
+        _tagLength = tagLengthBits / 8;
+        _maxContentLength = maxContentLength;
+        try {
+            Cipher blockCipher = CryptoFactory.createCipher("AES/ECB/NoPadding", provider);
+            blockCipher.init(Cipher.ENCRYPT_MODE, key);
+            _ghash = new GHash(blockCipher.doFinal(new byte[BLOCK_SIZE]));
+
+            // The pre-counter block, from which the tag mask and the keystream are derived
+            final byte[] j0 = new byte[BLOCK_SIZE];
+            System.arraycopy(iv, 0, j0, 0, iv.length);
+            j0[BLOCK_SIZE - 1] = 1;
+            _tagMask = blockCipher.doFinal(j0);
+            _counter0 = counterBlock(j0, 1);
+        } catch (GeneralSecurityException exception) {
+            throw new S3EncryptionClientException("Unable to initialize AES-GCM: " + exception.getMessage(), exception);
+        }
+        _segmentHPower = _ghash.power(SEGMENT_SIZE / BLOCK_SIZE);
+    }
+
+    /**
+     * @return the size to gather updates to, so that each can be processed in parallel on the pool, if any
+     */
+    static int chunkSize(int cipherChunkSize, ForkJoinPool pool) {
+        if (pool == null || cipherChunkSize <= 0) {
+            return cipherChunkSize;
+        }
+        return Math.max(cipherChunkSize, SEGMENT_SIZE * Math.min(pool.getParallelism(), MAX_SEGMENTS_PER_UPDATE));
+    }
+
+    /**
+     * Encrypts or decrypts the remaining bytes of the input into the output, which must have room for them.
+     * The input is read in place, not consumed.
+     */
+    public void update(ByteBuffer input, ByteBuffer output) {
+        final ByteBuffer remaining = input.duplicate();
+        checkContentLength(remaining.remaining());
+        if (_pool == null || remaining.remaining() < 2 * SEGMENT_SIZE) {
+            updateInline(remaining, remaining.remaining(), output);
+            return;
+        }
+        // Up to the next block boundary, then the whole segments, then the rest
+        updateInline(remaining, (int) ((BLOCK_SIZE - _processed % BLOCK_SIZE) % BLOCK_SIZE), output);
+        final int segments = remaining.remaining() / SEGMENT_SIZE;
+        updateSegments(remaining, segments, output);
+        updateInline(remaining, remaining.remaining(), output);
+    }
+
+    /**
+     * Hashes the remaining bytes of the ciphertext without decrypting them, for callers which decrypt it
+     * later with {@link #keystreamAt(long)}. The input is read in place, not consumed.
+     */
+    void authenticate(ByteBuffer ciphertext) {
+        if (_encrypt) {
+            throw new IllegalStateException("Only ciphertext can be authenticated");
+        }
+        final int length = ciphertext.remaining();
+        checkContentLength(length);
+        _ghash.update(ciphertext.duplicate());
+        _processed += length;
+    }
+
+    /**
+     * @return the tag of the content given so far, which should not be given any more
+     */
+    public byte[] tag() {
+        final byte[] hash = _ghash.doFinal(0, _processed * 8);
+        final byte[] tag = new byte[_tagLength];
+        for (int i = 0; i < _tagLength; i++) {
+            tag[i] = (byte) (hash[i] ^ _tagMask[i]);
+        }
+        return tag;
+    }
+
+    private void checkContentLength(int length) {
+        if (_processed + length > _maxContentLength) {
+            throw new S3EncryptionClientException("The content you are attempting to encrypt or decrypt exceeds" +
+                    " the maximum length allowed for GCM encryption.");
+        }
+    }
+
+    private void updateInline(ByteBuffer input, int length, ByteBuffer output) {
+        if (length == 0) {
+            return;
+        }
+        if (_ctrPosition != _processed) {
+            _ctrCipher = ctrCipherAt(_processed);
+            _ctrPosition = _processed;
+        }
+        final ByteBuffer region = input.duplicate();
+        region.limit(region.position() + length);
+        input.position(input.position() + length);
+        process(_ctrCipher, _ghash, region, output);
+        _processed += length;
+        _ctrPosition += length;
+    }
+
+    private void updateSegments(ByteBuffer input, int segments, ByteBuffer output) {
+        final List<ForkJoinTask<GHash>> tasks = new ArrayList<>(segments);
+        for (int i = 0; i < segments; i++) {
+            final long position = _processed + (long) i * SEGMENT_SIZE;
+            final ByteBuffer segmentInput = input.duplicate();
+            segmentInput.position(input.position() + i * SEGMENT_SIZE);
+            segmentInput.limit(segmentInput.position() + SEGMENT_SIZE);
+            final ByteBuffer segmentOutput = output.duplicate();
+            segmentOutput.position(output.position() + i * SEGMENT_SIZE);
+            segmentOutput.limit(segmentOutput.position() + SEGMENT_SIZE);
+            tasks.add(_pool.submit(() -> {
+                GHash segmentHash = _ghash.newSegment();
+                process(ctrCipherAt(position), segmentHash, segmentInput, segmentOutput);
+                return segmentHash;
+            }));
+        }
+        for (ForkJoinTask<GHash> task : tasks) {
+            _ghash.append(task.join(), _segmentHPower);
+        }
+        input.position(input.position() + segments * SEGMENT_SIZE);
+        output.position(output.position() + segments * SEGMENT_SIZE);
+        _processed += (long) segments * SEGMENT_SIZE;
+    }
+
+    /**
+     * Applies the keystream to the input, hashing the ciphertext, i.e. the output when encrypting.
+     */
+    private void process(Cipher ctrCipher, GHash ghash, ByteBuffer input, ByteBuffer output) {
+        final int outputStart = output.position();
+        if (!_encrypt) {
+            ghash.update(input.duplicate());
+        }
+        try {
+            ctrCipher.update(input, output);
+        } catch (ShortBufferException exception) {
+            throw new S3EncryptionClientSecurityException(exception.getMessage(), exception);
+        }
+        if (_encrypt) {
+            final ByteBuffer ciphertext = output.duplicate();
+            ciphertext.flip();
+            ciphertext.position(outputStart);
+            ghash.update(ciphertext);
+        }
+    }
+
+    /**
+     * @return an AES-CTR cipher which encrypts or decrypts the content from the given byte, without hashing it
+     */
+    Cipher keystreamAt(long position) {
+        return ctrCipherAt(position);
+    }
+
+    /**
+     * @return a keystream cipher positioned at the given byte of the content
+     */
+    private Cipher ctrCipherAt(long position) {
+        try {
+            final Cipher cipher = CryptoFactory.createCipher(CTR_CIPHER_NAME, _provider);
+            cipher.init(Cipher.ENCRYPT_MODE, _key, new IvParameterSpec(counterBlock(_counter0, position / BLOCK_SIZE)));
+            final int skip = (int) (position % BLOCK_SIZE);
+            if (skip > 0) {
+                cipher.update(new byte[skip]);
+            }
+            return cipher;
+        } catch (GeneralSecurityException exception) {
+            throw new S3EncryptionClientException("Unable to initialize AES-CTR: " + exception.getMessage(), exception);
+        }
+    }
+
+    /**
+     * @return the counter block the given number of blocks after the given one, incrementing the last 32 bits
+     */
+    private static byte[] counterBlock(byte[] counter, long blocks) {
+        final byte[] result = counter.clone();
+        long carry = blocks;
+        for (int i = BLOCK_SIZE - 1; i >= BLOCK_SIZE - 4 && carry != 0; i--) {
+            long sum = (result[i] & 0xff) + (carry & 0xff);
+            result[i] = (byte) sum;
+            carry = (carry >>> 8) + (sum >>> 8);
+        }
+        return result;
+    }
+}
@@ -5,12 +5,12 @@ package software.amazon.encryption.s3.internal;
 import java.io.File;
 
 public class PartCreationEvent {
-    private final File part;
+    private final SpooledPart part;
     private final int partNumber;
     private final boolean isLastPart;
     private final OnFileDelete fileDeleteObserver;
 
-    PartCreationEvent(File part, int partNumber, boolean isLastPart,
+    PartCreationEvent(SpooledPart part, int partNumber, boolean isLastPart,
                       OnFileDelete fileDeleteObserver) {
         if (part == null) {
             throw new IllegalArgumentException("part must not be specified");
@@ -22,9 +22,18 @@ public class PartCreationEvent {
     }
 
     /**
-     * Returns a non-null part (in the form of a file) for multipart upload.
+     * Returns the part in the form of a file for multipart upload; or null if
+     * it is not spooled to a file.
      */
     public File getPart() {
+        return part.file();
+    }
+
+    /**
+     * Returns a non-null part for multipart upload, which must be released once
+     * it has been uploaded.
+     */
+    public SpooledPart getSpooledPart() {
         return part;
     }
 
@@ -0,0 +1,41 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import java.io.IOException;
+
+/**
+ * A service provider interface (SPI) for the storage which holds each
+ * encrypted part written by {@link MultiFileOutputStream} until it has been
+ * uploaded.
+ * <p>
+ * The stream does not create a new part while the spool already holds as
+ * many parts as its limit allows; it waits until the upload of an earlier
+ * part releases it. A spool therefore never needs to hold more than
+ * {@code limit / partSize} parts at once.
+ */
+public interface PartSpool {
+    /**
+     * Called before each upload which uses this spool.
+     * <p>
+     * Implementation of this method should never block.
+     *
+     * @param partSize the size of each part, except possibly the last
+     * @param limit    the most bytes of parts held at once; Long.MAX_VALUE if there is no limit
+     */
+    void init(long partSize, long limit);
+
+    /**
+     * Creates storage for the given part, which is written through the
+     * returned part and then uploaded.
+     *
+     * @param partNumber the number of the part, starting at 1
+     */
+    SpooledPart newPart(int partNumber) throws IOException;
+
+    /**
+     * Frees the storage of any parts which have not been released, once the
+     * upload has either completed or failed.
+     */
+    void cleanup();
+}
@@ -0,0 +1,163 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.encryption.s3.S3EncryptionClientException;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Schedules the parts of one encrypted multipart upload so that they are encrypted in series, as the
+ * shared cipher requires, but uploaded concurrently. Each part is encrypted into a staging buffer, and
+ * its upload starts as soon as it is staged, so the next part may be encrypted while it is in flight.
+ * <p>
+ * At most {@code maxStagedParts} parts are held at once; encryption of the next part waits until an
+ * earlier part has finished uploading. Once a part fails to encrypt, every later part fails with it,
+ * as the state of the cipher is no longer known.
+ */
+final class PartUploadScheduler {
+
+    private final int _maxStagedParts;
+
+    // Guarded by this
+    private CompletableFuture<Void> _previousPartStaged = CompletableFuture.completedFuture(null);
+    private int _stagedParts;
+    // Only the next part to be encrypted ever waits for a slot
+    private CompletableFuture<Void> _slotWaiter;
+
+    PartUploadScheduler(int maxStagedParts) {
+        _maxStagedParts = maxStagedParts;
+    }
+
+    /**
+     * Encrypts a part once every part scheduled before it has been encrypted and a staging slot is free,
+     * then uploads it.
+     *
+     * @param encrypt starts encrypting the part, completing with its ciphertext
+     * @param upload starts uploading the staged ciphertext
+     */
+    <T> CompletableFuture<T> schedule(Supplier<CompletableFuture<byte[]>> encrypt,
+                                      Function<byte[], CompletableFuture<T>> upload) {
+        final CompletableFuture<byte[]> staged;
+        synchronized (this) {
+            staged = _previousPartStaged
+                    .thenCompose(v -> acquireSlot())
+                    .thenCompose(v -> {
+                        final CompletableFuture<byte[]> encrypted;
+                        try {
+                            encrypted = encrypt.get();
+                        } catch (RuntimeException e) {
+                            releaseSlot();
+                            throw e;
+                        }
+                        return encrypted.whenComplete((ciphertext, t) -> {
+                            if (t != null) {
+                                releaseSlot();
+                            }
+                        });
+                    });
+            _previousPartStaged = staged.thenApply(ciphertext -> null);
+        }
+        return staged.thenCompose(ciphertext -> {
+            final CompletableFuture<T> uploaded;
+            try {
+                uploaded = upload.apply(ciphertext);
+            } catch (RuntimeException e) {
+                releaseSlot();
+                throw e;
+            }
+            return uploaded.whenComplete((r, t) -> releaseSlot());
+        });
+    }
+
+    synchronized int stagedParts() {
+        return _stagedParts;
+    }
+
+    private synchronized CompletableFuture<Void> acquireSlot() {
+        if (_stagedParts < _maxStagedParts) {
+            _stagedParts++;
+            return CompletableFuture.completedFuture(null);
+        }
+        _slotWaiter = new CompletableFuture<>();
+        return _slotWaiter;
+    }
+
+    private void releaseSlot() {
+        final CompletableFuture<Void> waiter;
+        synchronized (this) {
+            waiter = _slotWaiter;
+            if (waiter == null) {
+                _stagedParts--;
+                return;
+            }
+            // The slot passes straight to the waiting part
+            _slotWaiter = null;
+        }
+        waiter.complete(null);
+    }
+
+    /**
+     * Subscribes to the ciphertext of a part, gathering it into a single array of its exact length.
+     */
+    static CompletableFuture<byte[]> stage(AsyncRequestBody ciphertext, int ciphertextLength) {
+        final StagingSubscriber subscriber = new StagingSubscriber(ciphertextLength);
+        ciphertext.subscribe(subscriber);
+        return subscriber._staged;
+    }
+
+    private static final class StagingSubscriber implements Subscriber<ByteBuffer> {
+        private final CompletableFuture<byte[]> _staged = new CompletableFuture<>();
+        private final byte[] _buffer;
+        private int _position;
+        private Subscription _subscription;
+
+        private StagingSubscriber(int length) {
+            _buffer = new byte[length];
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            _subscription = subscription;
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(ByteBuffer byteBuffer) {
+            if (_staged.isDone()) {
+                return;
+            }
+            final int length = byteBuffer.remaining();
+            if (length > _buffer.length - _position) {
+                _subscription.cancel();
+                _staged.completeExceptionally(new S3EncryptionClientException(
+                        "The ciphertext of the part is longer than its expected length of " + _buffer.length));
+                return;
+            }
+            byteBuffer.get(_buffer, _position, length);
+            _position += length;
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            _staged.completeExceptionally(t);
+        }
+
+        @Override
+        public void onComplete() {
+            if (_position != _buffer.length) {
+                _staged.completeExceptionally(new S3EncryptionClientException(
+                        "The ciphertext of the part is " + _position + " bytes, not its expected length of "
+                                + _buffer.length));
+                return;
+            }
+            _staged.complete(_buffer);
+        }
+    }
+}
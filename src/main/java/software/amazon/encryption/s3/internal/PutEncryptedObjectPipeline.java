@@ -7,8 +7,10 @@ import software.amazon.awssdk.core.async.AsyncRequestBody;
 import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.encryption.s3.CryptoExecutor;
 import software.amazon.encryption.s3.S3EncryptionClientException;
 import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
+import software.amazon.encryption.s3.materials.AsyncCryptographicMaterialsManager;
 import software.amazon.encryption.s3.materials.CryptographicMaterialsManager;
 import software.amazon.encryption.s3.materials.EncryptionMaterials;
 import software.amazon.encryption.s3.materials.EncryptionMaterialsRequest;
@@ -17,15 +19,17 @@ import java.security.SecureRandom;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
 
 import static software.amazon.encryption.s3.internal.ApiNameVersion.API_NAME_INTERCEPTOR;
 
 public class PutEncryptedObjectPipeline {
 
     final private S3AsyncClient _s3AsyncClient;
-    final private CryptographicMaterialsManager _cryptoMaterialsManager;
+    final private AsyncCryptographicMaterialsManager _cryptoMaterialsManager;
     final private AsyncContentEncryptionStrategy _asyncContentEncryptionStrategy;
     final private ContentMetadataEncodingStrategy _contentMetadataEncodingStrategy;
+    final private SecureRandom _secureRandom;
 
     public static Builder builder() {
         return new Builder();
@@ -36,6 +40,7 @@ public class PutEncryptedObjectPipeline {
         this._cryptoMaterialsManager = builder._cryptoMaterialsManager;
         this._asyncContentEncryptionStrategy = builder._asyncContentEncryptionStrategy;
         this._contentMetadataEncodingStrategy = builder._contentMetadataEncodingStrategy;
+        this._secureRandom = builder._secureRandom;
     }
 
     public CompletableFuture<PutObjectResponse> putObject(PutObjectRequest request, AsyncRequestBody requestBody) {
@@ -66,8 +71,13 @@ public class PutEncryptedObjectPipeline {
                 .plaintextLength(contentLength)
                 .build();
 
-        EncryptionMaterials materials = _cryptoMaterialsManager.getEncryptionMaterials(encryptionMaterialsRequest);
+        return _cryptoMaterialsManager.getEncryptionMaterials(encryptionMaterialsRequest)
+                .thenCompose(materials -> encryptAndPutObject(request, requestBody, materials));
+    }
 
+    private CompletableFuture<PutObjectResponse> encryptAndPutObject(PutObjectRequest request, AsyncRequestBody requestBody,
+                                                                     EncryptionMaterials materials) {
+        materials = materials.withNewKdfSalt(_secureRandom);
         EncryptedContent encryptedContent = _asyncContentEncryptionStrategy.encryptContent(materials, requestBody);
 
         Map<String, String> metadata = new HashMap<>(request.metadata());
@@ -82,11 +92,13 @@ public class PutEncryptedObjectPipeline {
 
     public static class Builder {
         private S3AsyncClient _s3AsyncClient;
-        private CryptographicMaterialsManager _cryptoMaterialsManager;
+        private AsyncCryptographicMaterialsManager _cryptoMaterialsManager;
         private SecureRandom _secureRandom;
         private AsyncContentEncryptionStrategy _asyncContentEncryptionStrategy;
         private final ContentMetadataEncodingStrategy _contentMetadataEncodingStrategy = ContentMetadataStrategy.OBJECT_METADATA;
-
+        private int _cipherChunkSize = 0;
+        private ForkJoinPool _parallelCryptoPool;
+        private CryptoExecutor _cryptoExecutor;
 
         private Builder() {
         }
@@ -102,6 +114,11 @@ public class PutEncryptedObjectPipeline {
         }
 
         public Builder cryptoMaterialsManager(CryptographicMaterialsManager cryptoMaterialsManager) {
+            this._cryptoMaterialsManager = new CryptoMaterialsManagerAdapter(cryptoMaterialsManager);
+            return this;
+        }
+
+        public Builder asyncCryptoMaterialsManager(AsyncCryptographicMaterialsManager cryptoMaterialsManager) {
             this._cryptoMaterialsManager = cryptoMaterialsManager;
             return this;
         }
@@ -111,12 +128,42 @@ public class PutEncryptedObjectPipeline {
             return this;
         }
 
+        /**
+         * The number of bytes gathered before each update of the content cipher. Zero updates the
+         * cipher with each buffer as it is received.
+         */
+        public Builder cipherChunkSize(int cipherChunkSize) {
+            this._cipherChunkSize = cipherChunkSize;
+            return this;
+        }
+
+        /**
+         * The pool to encrypt or decrypt GCM content on in parallel, or null to do so on the calling thread.
+         */
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "The pool is shared by design")
+        public Builder parallelCryptoPool(ForkJoinPool parallelCryptoPool) {
+            this._parallelCryptoPool = parallelCryptoPool;
+            return this;
+        }
+
+        /**
+         * The executor to encrypt or decrypt content on, or null to do so on the thread which delivers it.
+         */
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "The executor is shared by design")
+        public Builder cryptoExecutor(CryptoExecutor cryptoExecutor) {
+            this._cryptoExecutor = cryptoExecutor;
+            return this;
+        }
+
         public PutEncryptedObjectPipeline build() {
             // Default to AesGcm since it is the only active (non-legacy) content encryption strategy
             if (_asyncContentEncryptionStrategy == null) {
                 _asyncContentEncryptionStrategy = StreamingAesGcmContentStrategy
                         .builder()
                         .secureRandom(_secureRandom)
+                        .cipherChunkSize(_cipherChunkSize)
+                        .parallelCryptoPool(_parallelCryptoPool)
+                        .cryptoExecutor(_cryptoExecutor)
                         .build();
             }
             return new PutEncryptedObjectPipeline(this);
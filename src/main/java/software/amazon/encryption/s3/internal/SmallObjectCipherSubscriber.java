@@ -0,0 +1,106 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import org.reactivestreams.Subscriber;
+import software.amazon.encryption.s3.MemoryBudget;
+import software.amazon.encryption.s3.materials.CryptographicMaterials;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * A subscriber which decrypts small objects, whose length is known, with a
+ * single allocation: the ciphertext is collected into an array of exactly its
+ * length, decrypted in place with one call to the cipher once it has all been
+ * received and authenticated, and passed on as one buffer of the plaintext.
+ */
+class SmallObjectCipherSubscriber extends AbstractBufferedCipherSubscriber {
+
+    private final int contentLength;
+    private final Cipher cipher;
+    private final int tagLength;
+    private final MemoryBudget memoryBudget;
+
+    // Only accessed from upstream signals, then once authenticated, as plaintext is requested.
+    // Allocated when the first ciphertext arrives, so that none is held before the subscription starts.
+    private byte[] buffer;
+    private int collected;
+    private ByteBuffer plaintext;
+    private boolean released;
+
+    /**
+     * @param memoryBudget the budget from which {@link #memoryRequired(long)} bytes have been reserved
+     *                     for this object, to release once the subscription ends, or null
+     */
+    SmallObjectCipherSubscriber(Subscriber<? super ByteBuffer> wrappedSubscriber, long contentLength,
+                                CryptographicMaterials materials, byte[] iv, MemoryBudget memoryBudget) {
+        super(wrappedSubscriber, contentLength);
+        this.cipher = materials.getCipher(iv);
+        this.tagLength = materials.algorithmSuite().cipherTagLengthBits() / 8;
+        this.memoryBudget = memoryBudget;
+        this.contentLength = Math.toIntExact(contentLength);
+    }
+
+    /**
+     * @return the bytes of memory held while decrypting an object of the given length, which is decrypted in place
+     */
+    static long memoryRequired(long contentLength) {
+        return contentLength;
+    }
+
+    @Override
+    void collect(ByteBuffer ciphertext) {
+        if (buffer == null) {
+            buffer = new byte[contentLength];
+        }
+        final int length = ciphertext.remaining();
+        ciphertext.get(buffer, collected, length);
+        collected += length;
+    }
+
+    @Override
+    void authenticate() throws GeneralSecurityException {
+        if (collected < tagLength) {
+            throw new AEADBadTagException("Ciphertext is shorter than the tag");
+        }
+        final int plaintextLength;
+        try {
+            plaintextLength = cipher.doFinal(buffer, 0, collected, buffer, 0);
+        } catch (final GeneralSecurityException exception) {
+            // Don't release any of the plaintext, which the provider may have written before failing
+            Arrays.fill(buffer, (byte) 0);
+            throw exception;
+        }
+        plaintext = ByteBuffer.wrap(buffer, 0, plaintextLength);
+    }
+
+    @Override
+    boolean hasMorePlaintext() {
+        return plaintext != null && plaintext.hasRemaining();
+    }
+
+    @Override
+    ByteBuffer nextPlaintext() {
+        final ByteBuffer next = plaintext;
+        plaintext = ByteBuffer.allocate(0);
+        return next;
+    }
+
+    @Override
+    void release() {
+        synchronized (this) {
+            if (released) {
+                return;
+            }
+            released = true;
+        }
+        // Returned outside the lock, as the budget may admit waiting requests
+        if (memoryBudget != null) {
+            memoryBudget.release(memoryRequired(contentLength));
+        }
+    }
+}
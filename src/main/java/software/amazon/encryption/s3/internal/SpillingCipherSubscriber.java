@@ -0,0 +1,245 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import org.reactivestreams.Subscriber;
+import software.amazon.encryption.s3.S3EncryptionClientException;
+import software.amazon.encryption.s3.materials.CryptographicMaterials;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A subscriber which decrypts AES-GCM data by writing the object's ciphertext
+ * to a temporary file, so that authentication can be done before any plaintext
+ * is released, in bounded memory. The ciphertext is hashed as it is written,
+ * then, once the tag is verified, read back and decrypted as the plaintext is
+ * requested.
+ * <p>
+ * As the file may be modified once the tag has been verified, each chunk of it
+ * is also authenticated with an HMAC under a key which is generated for the
+ * object and never leaves memory, and checked as it is read back, before it is
+ * decrypted. Only the ciphertext, without the tag, is written to the file,
+ * which is deleted when the plaintext has been released, or decryption fails
+ * or is cancelled.
+ */
+public class SpillingCipherSubscriber extends AbstractBufferedCipherSubscriber {
+
+    // The size of each plaintext buffer released once the tag is verified, and of each chunk of the
+    // file authenticated on its own
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+    private static final String CHUNK_MAC_ALGORITHM = "HmacSHA256";
+    private static final SecureRandom CHUNK_KEY_RANDOM = new SecureRandom();
+
+    private final long ciphertextLength;
+    private final int tagLength;
+    private final ParallelAesGcm gcm;
+    private final Path spillDirectory;
+    private final ByteBuffer tag;
+    private final Mac chunkMac;
+    private final List<byte[]> chunkMacs = new ArrayList<>();
+
+    // Guarded by this, as the subscription may be cancelled while ciphertext is being written or read
+    private FileChannel spillFile;
+    private boolean closed;
+    // Only accessed from upstream signals, then once authenticated, as plaintext is requested
+    private long written;
+    private int chunkFill;
+    private long plaintextPosition;
+    private Cipher keystream;
+
+    SpillingCipherSubscriber(Subscriber<? super ByteBuffer> wrappedSubscriber, Long contentLength,
+                             CryptographicMaterials materials, byte[] iv, Path spillDirectory) {
+        super(wrappedSubscriber, checkContentLength(contentLength));
+        this.tagLength = materials.algorithmSuite().cipherTagLengthBits() / 8;
+        this.ciphertextLength = Math.max(0, contentLength - tagLength);
+        this.gcm = new ParallelAesGcm(materials.dataKey(), iv, materials.algorithmSuite().cipherTagLengthBits(),
+                false, materials.cryptoProvider(), null);
+        this.spillDirectory = spillDirectory;
+        this.tag = ByteBuffer.allocate(tagLength);
+        this.chunkMac = newChunkMac();
+    }
+
+    /**
+     * @return a MAC under a new random key, which is only held by the MAC
+     */
+    private static Mac newChunkMac() {
+        final byte[] key = new byte[32];
+        CHUNK_KEY_RANDOM.nextBytes(key);
+        try {
+            final Mac mac = Mac.getInstance(CHUNK_MAC_ALGORITHM);
+            mac.init(new SecretKeySpec(key, CHUNK_MAC_ALGORITHM));
+            return mac;
+        } catch (final GeneralSecurityException exception) {
+            throw new S3EncryptionClientException("Unable to initialize " + CHUNK_MAC_ALGORITHM, exception);
+        } finally {
+            Arrays.fill(key, (byte) 0);
+        }
+    }
+
+    private static long checkContentLength(Long contentLength) {
+        if (contentLength == null) {
+            throw new S3EncryptionClientException("contentLength cannot be null in buffered mode. To enable unbounded " +
+                    "streaming, reconfigure the S3 Encryption Client with Delayed Authentication mode enabled.");
+        }
+        return contentLength;
+    }
+
+    @Override
+    void collect(ByteBuffer ciphertext) throws IOException {
+        // Everything before the tag is hashed and spilled as it arrives, so the file is read only once
+        final int toSpill = (int) Math.min(ciphertext.remaining(), ciphertextLength - written);
+        if (toSpill > 0) {
+            final ByteBuffer content = ciphertext.duplicate();
+            content.limit(content.position() + toSpill);
+            gcm.authenticate(content);
+            macChunks(content.duplicate());
+            write(content);
+            written += toSpill;
+            ciphertext.position(ciphertext.position() + toSpill);
+        }
+        // The tag is held in memory
+        final ByteBuffer tagBytes = ciphertext.duplicate();
+        tagBytes.limit(tagBytes.position() + Math.min(tagBytes.remaining(), tag.remaining()));
+        tag.put(tagBytes);
+    }
+
+    /**
+     * Adds the ciphertext to the MAC of the chunk it belongs to, finishing each chunk as it fills.
+     */
+    private void macChunks(ByteBuffer content) {
+        while (content.hasRemaining()) {
+            if (chunkFill == 0) {
+                // Each chunk's MAC covers its index, so chunks cannot be reordered
+                chunkMac.update(chunkIndex(chunkMacs.size()));
+            }
+            final int length = Math.min(content.remaining(), READ_BUFFER_SIZE - chunkFill);
+            final ByteBuffer piece = content.duplicate();
+            piece.limit(piece.position() + length);
+            chunkMac.update(piece);
+            content.position(content.position() + length);
+            chunkFill += length;
+            if (chunkFill == READ_BUFFER_SIZE) {
+                chunkMacs.add(chunkMac.doFinal());
+                chunkFill = 0;
+            }
+        }
+    }
+
+    private static byte[] chunkIndex(int index) {
+        return ByteBuffer.allocate(Integer.BYTES).putInt(index).array();
+    }
+
+    @Override
+    void authenticate() throws GeneralSecurityException, IOException {
+        if (tag.hasRemaining()) {
+            throw new AEADBadTagException("Ciphertext is shorter than the tag");
+        }
+        if (!MessageDigest.isEqual(gcm.tag(), tag.array())) {
+            throw new AEADBadTagException("Tag mismatch!");
+        }
+        if (chunkFill > 0) {
+            chunkMacs.add(chunkMac.doFinal());
+            chunkFill = 0;
+        }
+        keystream = gcm.keystreamAt(0);
+    }
+
+    @Override
+    boolean hasMorePlaintext() {
+        return plaintextPosition < ciphertextLength;
+    }
+
+    @Override
+    ByteBuffer nextPlaintext() throws GeneralSecurityException, IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(READ_BUFFER_SIZE, ciphertextLength - plaintextPosition));
+        read(buffer, plaintextPosition);
+        buffer.flip();
+        // The chunk is checked against what was received before any of it is decrypted
+        chunkMac.update(chunkIndex((int) (plaintextPosition / READ_BUFFER_SIZE)));
+        chunkMac.update(buffer.duplicate());
+        if (!MessageDigest.isEqual(chunkMac.doFinal(), chunkMacs.get((int) (plaintextPosition / READ_BUFFER_SIZE)))) {
+            throw new AEADBadTagException("The buffered ciphertext was modified after it was authenticated");
+        }
+        plaintextPosition += buffer.limit();
+        // Decrypted in place, as the buffer is passed on to the wrapped subscriber and not reused
+        keystream.update(buffer.duplicate(), buffer.duplicate());
+        return buffer;
+    }
+
+    /**
+     * Creates the file when the first ciphertext arrives, so that a failure to create it is passed on
+     * like any other.
+     */
+    private void openSpillFile() throws IOException {
+        final Path path = spillDirectory == null
+                ? Files.createTempFile("s3ec-", ".ciphertext")
+                : Files.createTempFile(spillDirectory, "s3ec-", ".ciphertext");
+        try {
+            spillFile = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE);
+        } catch (final IOException exception) {
+            Files.deleteIfExists(path);
+            throw exception;
+        }
+    }
+
+    private synchronized void write(ByteBuffer input) throws IOException {
+        if (closed) {
+            // Cancelled
+            return;
+        }
+        if (spillFile == null) {
+            openSpillFile();
+        }
+        while (input.hasRemaining()) {
+            spillFile.write(input);
+        }
+    }
+
+    /**
+     * Fills the buffer from the given position in the file.
+     */
+    private synchronized void read(ByteBuffer output, long position) throws IOException {
+        if (closed || spillFile == null) {
+            throw new IOException("The buffered ciphertext has been released");
+        }
+        final int start = output.position();
+        while (output.hasRemaining()) {
+            if (spillFile.read(output, position + output.position() - start) < 0) {
+                throw new IOException("Buffered ciphertext ended early");
+            }
+        }
+    }
+
+    @Override
+    synchronized void release() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (spillFile != null) {
+            try {
+                // Closing the file deletes it, where the platform has not already unlinked it
+                spillFile.close();
+            } catch (final IOException ignored) {
+                // Nothing more can be done with the file
+            }
+            spillFile = null;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+
+import java.io.File;
+import java.io.OutputStream;
+
+/**
+ * A part held by a {@link PartSpool}. It is written as an OutputStream, closed,
+ * uploaded using {@link #requestBody()}, and then released.
+ */
+public abstract class SpooledPart extends OutputStream {
+
+    /**
+     * @return the number of bytes written to this part
+     */
+    public abstract long length();
+
+    /**
+     * Returns the content of this part, once it has been closed. The request
+     * body may be subscribed to more than once.
+     */
+    public abstract AsyncRequestBody requestBody();
+
+    /**
+     * Returns the file which holds this part; or null if it is not held in a file.
+     */
+    public File file() {
+        return null;
+    }
+
+    /**
+     * Frees the storage of this part once it has been uploaded.
+     * <p>
+     * Implementation of this method should never block.
+     */
+    public abstract void release();
+}
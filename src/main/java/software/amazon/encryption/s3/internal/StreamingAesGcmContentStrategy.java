@@ -4,19 +4,27 @@ package software.amazon.encryption.s3.internal;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.encryption.s3.CryptoExecutor;
 import software.amazon.encryption.s3.S3EncryptionClientException;
 import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
 import software.amazon.encryption.s3.materials.EncryptionMaterials;
 
 import javax.crypto.Cipher;
 import java.security.SecureRandom;
+import java.util.concurrent.ForkJoinPool;
 
 public class StreamingAesGcmContentStrategy implements AsyncContentEncryptionStrategy, MultipartContentEncryptionStrategy {
 
     final private SecureRandom _secureRandom;
+    final private int _cipherChunkSize;
+    final private ForkJoinPool _parallelCryptoPool;
+    final private CryptoExecutor _cryptoExecutor;
 
     private StreamingAesGcmContentStrategy(Builder builder) {
         this._secureRandom = builder._secureRandom;
+        this._cipherChunkSize = builder._cipherChunkSize;
+        this._parallelCryptoPool = builder._parallelCryptoPool;
+        this._cryptoExecutor = builder._cryptoExecutor;
     }
 
     public static Builder builder() {
@@ -47,12 +55,16 @@ public class StreamingAesGcmContentStrategy implements AsyncContentEncryptionStr
         final byte[] iv = new byte[materials.algorithmSuite().iVLengthBytes()];
         _secureRandom.nextBytes(iv);
 
-        AsyncRequestBody encryptedAsyncRequestBody = new CipherAsyncRequestBody(content, materials.getCiphertextLength(), materials, iv);
+        AsyncRequestBody encryptedAsyncRequestBody = new CipherAsyncRequestBody(content, materials.getCiphertextLength(),
+                materials, iv, true, _cipherChunkSize, _parallelCryptoPool, _cryptoExecutor);
         return new EncryptedContent(iv, encryptedAsyncRequestBody, materials.getCiphertextLength());
     }
 
     public static class Builder {
         private SecureRandom _secureRandom = new SecureRandom();
+        private int _cipherChunkSize = 0;
+        private ForkJoinPool _parallelCryptoPool;
+        private CryptoExecutor _cryptoExecutor;
 
         private Builder() {
         }
@@ -70,6 +82,33 @@ public class StreamingAesGcmContentStrategy implements AsyncContentEncryptionStr
             return this;
         }
 
+        /**
+         * The number of bytes gathered before each update of the content cipher. Zero updates the
+         * cipher with each buffer as it is received.
+         */
+        public Builder cipherChunkSize(int cipherChunkSize) {
+            this._cipherChunkSize = cipherChunkSize;
+            return this;
+        }
+
+        /**
+         * The pool to encrypt or decrypt GCM content on in parallel, or null to do so on the calling thread.
+         */
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "The pool is shared by design")
+        public Builder parallelCryptoPool(ForkJoinPool parallelCryptoPool) {
+            this._parallelCryptoPool = parallelCryptoPool;
+            return this;
+        }
+
+        /**
+         * The executor to encrypt or decrypt content on, or null to do so on the thread which delivers it.
+         */
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "The executor is shared by design")
+        public Builder cryptoExecutor(CryptoExecutor cryptoExecutor) {
+            this._cryptoExecutor = cryptoExecutor;
+            return this;
+        }
+
         public StreamingAesGcmContentStrategy build() {
             return new StreamingAesGcmContentStrategy(this);
         }
@@ -0,0 +1,85 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.Provider;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Decrypts AES-GCM ciphertext in constant memory, from an AES-CTR keystream and an incremental GHASH,
+ * releasing plaintext as the ciphertext is received rather than once the tag is verified, as JCE providers
+ * typically do. The tag is verified by {@link #doFinal()}, so this MUST only be used where plaintext may
+ * be released before it is authenticated, i.e. in delayed authentication mode.
+ */
+public class StreamingAesGcmDecryptor {
+
+    private final ParallelAesGcm _gcm;
+    private final int _tagLength;
+
+    // The last bytes received, which may be the tag, so are held back from the cipher
+    private final byte[] _tail;
+    private int _held;
+
+    public StreamingAesGcmDecryptor(SecretKey key, byte[] iv, int tagLengthBits, Provider provider) {
+        this(key, iv, tagLengthBits, provider, null);
+    }
+
+    /**
+     * @param pool the pool to decrypt large updates on in parallel, or null to decrypt on the calling thread
+     */
+    public StreamingAesGcmDecryptor(SecretKey key, byte[] iv, int tagLengthBits, Provider provider, ForkJoinPool pool) {
+        _gcm = new ParallelAesGcm(key, iv, tagLengthBits, false, provider, pool);
+        _tagLength = tagLengthBits / 8;
+        _tail = new byte[_tagLength];
+    }
+
+    /**
+     * Decrypts the remaining bytes of the buffer, except for those which may be the tag.
+     * @return the plaintext, which is unauthenticated until {@link #doFinal()} returns
+     */
+    public ByteBuffer update(ByteBuffer input) {
+        final ByteBuffer remaining = input.duplicate();
+        final int release = Math.max(0, _held + remaining.remaining() - _tagLength);
+        final ByteBuffer output = ByteBuffer.allocate(release);
+
+        final int fromHeld = Math.min(release, _held);
+        if (fromHeld > 0) {
+            _gcm.update(ByteBuffer.wrap(_tail, 0, fromHeld), output);
+            System.arraycopy(_tail, fromHeld, _tail, 0, _held - fromHeld);
+            _held -= fromHeld;
+        }
+        final int fromInput = release - fromHeld;
+        if (fromInput > 0) {
+            ByteBuffer ciphertext = remaining.duplicate();
+            ciphertext.limit(ciphertext.position() + fromInput);
+            _gcm.update(ciphertext, output);
+            remaining.position(remaining.position() + fromInput);
+        }
+        final int toHold = remaining.remaining();
+        remaining.get(_tail, _held, toHold);
+        _held += toHold;
+
+        output.flip();
+        return output;
+    }
+
+    /**
+     * Verifies the tag, which is the last bytes received.
+     * @return any plaintext held back, of which there is none
+     * @throws AEADBadTagException if the tag does not match the ciphertext
+     */
+    public byte[] doFinal() throws GeneralSecurityException {
+        if (_held < _tagLength) {
+            throw new AEADBadTagException("Ciphertext is shorter than the tag");
+        }
+        if (!MessageDigest.isEqual(_gcm.tag(), _tail)) {
+            throw new AEADBadTagException("Tag mismatch!");
+        }
+        return new byte[0];
+    }
+}
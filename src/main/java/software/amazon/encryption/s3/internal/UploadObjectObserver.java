@@ -16,7 +16,6 @@ import software.amazon.awssdk.services.s3.model.UploadPartResponse;
 import software.amazon.encryption.s3.S3EncryptionClient;
 import software.amazon.encryption.s3.S3EncryptionClientException;
 
-import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -45,12 +44,7 @@ public class UploadObjectObserver {
 
     protected CreateMultipartUploadRequest newCreateMultipartUploadRequest(
             PutObjectRequest request) {
-        return CreateMultipartUploadRequest.builder()
-                .bucket(request.bucket())
-                .key(request.key())
-                .metadata(request.metadata())
-                .overrideConfiguration(request.overrideConfiguration().orElse(null))
-                .build();
+        return ConvertSDKRequests.convertRequest(request);
     }
 
     public String onUploadCreation(PutObjectRequest req) {
@@ -60,7 +54,7 @@ public class UploadObjectObserver {
     }
 
     public void onPartCreate(PartCreationEvent event) {
-        final File part = event.getPart();
+        final SpooledPart part = event.getSpooledPart();
         final UploadPartRequest reqUploadPart =
                 newUploadPartRequest(event);
         final OnFileDelete fileDeleteObserver = event.getFileDeleteObserver();
@@ -70,21 +64,16 @@ public class UploadObjectObserver {
                 // Upload the ciphertext directly via the non-encrypting
                 // s3 client
                 try {
-                    AsyncRequestBody noRetriesBody = new NoRetriesAsyncRequestBody(AsyncRequestBody.fromFile(part));
+                    AsyncRequestBody noRetriesBody = new NoRetriesAsyncRequestBody(part.requestBody());
                     return uploadPart(reqUploadPart, noRetriesBody);
                 } catch (CompletionException e) {
                     // Unwrap completion exception
                     throw new S3EncryptionClientException(e.getCause().getMessage(), e.getCause());
                 } finally {
                     // clean up part already uploaded
-                    if (!part.delete()) {
-                        LogFactory.getLog(getClass()).debug(
-                                "Ignoring failure to delete file " + part
-                                        + " which has already been uploaded");
-                    } else {
-                        if (fileDeleteObserver != null)
-                            fileDeleteObserver.onFileDelete(null);
-                    }
+                    part.release();
+                    if (fileDeleteObserver != null)
+                        fileDeleteObserver.onFileDelete(null);
                 }
             }
         }));
@@ -8,16 +8,15 @@ import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.Arrays;
 
 public class AdjustedRangeSubscriber implements Subscriber<ByteBuffer> {
     private final int SYMMETRIC_CIPHER_BLOCK_SIZE_BYTES = AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF.cipherBlockSizeBytes();
 
     private final Subscriber<? super ByteBuffer> wrappedSubscriber;
 
-    private byte[] outputBuffer;
     private long virtualAvailable;
     private int numBytesToSkip = 0;
+    private boolean isComplete;
 
     public AdjustedRangeSubscriber(Subscriber<? super ByteBuffer> wrappedSubscriber, Long rangeBeginning, Long rangeEnd) throws IOException {
         this.wrappedSubscriber = wrappedSubscriber;
@@ -50,35 +49,34 @@ public class AdjustedRangeSubscriber implements Subscriber<ByteBuffer> {
         // In edge cases where the beginning index exceeds the offset,
         // there is never valid data to read, so signal completion immediately.
         if (virtualAvailable <= 0) {
-            wrappedSubscriber.onComplete();
+            onComplete();
+            return;
         }
 
+        // Slice the desired bytes out of the buffer rather than copying them,
+        // which also works for direct buffers
+        ByteBuffer outputBuffer = byteBuffer.duplicate();
         if (numBytesToSkip != 0) {
-            byte[] buf = byteBuffer.array();
-            if (numBytesToSkip > buf.length) {
-                // If we need to skip past the available data,
-                // we are returning nothing, so signal completion
-                numBytesToSkip -= buf.length;
-                wrappedSubscriber.onComplete();
+            if (numBytesToSkip > outputBuffer.remaining()) {
+                // All of this buffer precedes the range, so pass on an empty buffer
+                numBytesToSkip -= outputBuffer.remaining();
+                outputBuffer.position(outputBuffer.limit());
             } else {
-                outputBuffer = Arrays.copyOfRange(buf, numBytesToSkip, buf.length);
+                outputBuffer.position(outputBuffer.position() + numBytesToSkip);
                 numBytesToSkip = 0;
             }
-        } else {
-            outputBuffer = byteBuffer.array();
         }
 
-        if (virtualAvailable > 0) {
-            long bytesToRead = Math.min(virtualAvailable, outputBuffer.length);
-            virtualAvailable -= bytesToRead;
-            wrappedSubscriber.onNext(ByteBuffer.wrap(outputBuffer, 0, Math.toIntExact(bytesToRead)));
-        }
+        long bytesToRead = Math.min(virtualAvailable, outputBuffer.remaining());
+        virtualAvailable -= bytesToRead;
+        outputBuffer.limit(outputBuffer.position() + Math.toIntExact(bytesToRead));
+        wrappedSubscriber.onNext(outputBuffer);
 
         // Since we are skipping some bytes, we may need to signal onComplete
         // from within onNext to prevent the subscriber from waiting for more
         // data indefinitely
         if (virtualAvailable <= 0) {
-            wrappedSubscriber.onComplete();
+            onComplete();
         }
     }
 
@@ -89,6 +87,10 @@ public class AdjustedRangeSubscriber implements Subscriber<ByteBuffer> {
 
     @Override
     public void onComplete() {
+        if (isComplete) {
+            return;
+        }
+        isComplete = true;
         wrappedSubscriber.onComplete();
     }
 }
\ No newline at end of file
@@ -4,7 +4,7 @@ package software.amazon.encryption.s3.materials;
 
 import software.amazon.encryption.s3.S3EncryptionClientException;
 import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
-import software.amazon.encryption.s3.internal.CryptoFactory;
+import software.amazon.encryption.s3.internal.CipherPool;
 
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
@@ -20,11 +20,13 @@ import java.util.Map;
  * This keyring can wrap keys with the active keywrap algorithm and
  * unwrap with the active and legacy algorithms for AES keys.
  */
-public class AesKeyring extends S3Keyring {
+public class AesKeyring extends S3Keyring implements AutoCloseable {
 
     private static final String KEY_ALGORITHM = "AES";
 
     private final SecretKey _wrappingKey;
+    // Holds ciphers initialized with the wrapping key, so it is scoped to this keyring
+    private final CipherPool _cipherPool = new CipherPool();
 
     private final DecryptDataKeyStrategy _aesStrategy = new DecryptDataKeyStrategy() {
 
@@ -43,10 +45,9 @@ public class AesKeyring extends S3Keyring {
 
         @Override
         public byte[] decryptDataKey(DecryptionMaterials materials, byte[] encryptedDataKey) throws GeneralSecurityException {
-            final Cipher cipher = CryptoFactory.createCipher(CIPHER_ALGORITHM, materials.cryptoProvider());
-            cipher.init(Cipher.DECRYPT_MODE, _wrappingKey);
-
-            return cipher.doFinal(encryptedDataKey);
+            return _cipherPool.withCipher(CIPHER_ALGORITHM, materials.cryptoProvider(),
+                    Cipher.DECRYPT_MODE, _wrappingKey, null, null,
+                    cipher -> cipher.doFinal(encryptedDataKey));
         }
     };
 
@@ -67,10 +68,9 @@ public class AesKeyring extends S3Keyring {
 
         @Override
         public byte[] decryptDataKey(DecryptionMaterials materials, byte[] encryptedDataKey) throws GeneralSecurityException {
-            final Cipher cipher = CryptoFactory.createCipher(CIPHER_ALGORITHM, materials.cryptoProvider());
-            cipher.init(Cipher.UNWRAP_MODE, _wrappingKey);
-
-            Key plaintextKey = cipher.unwrap(encryptedDataKey, CIPHER_ALGORITHM, Cipher.SECRET_KEY);
+            Key plaintextKey = _cipherPool.withCipher(CIPHER_ALGORITHM, materials.cryptoProvider(),
+                    Cipher.UNWRAP_MODE, _wrappingKey, null, null,
+                    cipher -> cipher.unwrap(encryptedDataKey, CIPHER_ALGORITHM, Cipher.SECRET_KEY));
             return plaintextKey.getEncoded();
         }
     };
@@ -113,12 +113,12 @@ public class AesKeyring extends S3Keyring {
             secureRandom.nextBytes(iv);
             GCMParameterSpec gcmParameterSpec = new GCMParameterSpec(TAG_LENGTH_BITS, iv);
 
-            final Cipher cipher = CryptoFactory.createCipher(CIPHER_ALGORITHM, materials.cryptoProvider());
-            cipher.init(Cipher.ENCRYPT_MODE, _wrappingKey, gcmParameterSpec, secureRandom);
-
             final byte[] aADBytes = AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF.cipherName().getBytes(StandardCharsets.UTF_8);
-            cipher.updateAAD(aADBytes);
-            byte[] ciphertext = cipher.doFinal(materials.plaintextDataKey());
+            byte[] ciphertext = _cipherPool.withCipher(CIPHER_ALGORITHM, materials.cryptoProvider(),
+                    Cipher.ENCRYPT_MODE, _wrappingKey, gcmParameterSpec, secureRandom, cipher -> {
+                        cipher.updateAAD(aADBytes);
+                        return cipher.doFinal(materials.plaintextDataKey());
+                    });
 
             // The encrypted data key is the iv prepended to the ciphertext
             byte[] encodedBytes = new byte[iv.length + ciphertext.length];
@@ -137,12 +137,12 @@ public class AesKeyring extends S3Keyring {
             System.arraycopy(encryptedDataKey, iv.length, ciphertext, 0, ciphertext.length);
 
             GCMParameterSpec gcmParameterSpec = new GCMParameterSpec(TAG_LENGTH_BITS, iv);
-            final Cipher cipher = CryptoFactory.createCipher(CIPHER_ALGORITHM, materials.cryptoProvider());
-            cipher.init(Cipher.DECRYPT_MODE, _wrappingKey, gcmParameterSpec);
-
             final byte[] aADBytes = AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF.cipherName().getBytes(StandardCharsets.UTF_8);
-            cipher.updateAAD(aADBytes);
-            return cipher.doFinal(ciphertext);
+            return _cipherPool.withCipher(CIPHER_ALGORITHM, materials.cryptoProvider(),
+                    Cipher.DECRYPT_MODE, _wrappingKey, gcmParameterSpec, null, cipher -> {
+                        cipher.updateAAD(aADBytes);
+                        return cipher.doFinal(ciphertext);
+                    });
         }
     };
 
@@ -177,6 +177,15 @@ public class AesKeyring extends S3Keyring {
         return decryptDataKeyStrategies;
     }
 
+    /**
+     * Discards the ciphers this keyring keeps for reuse, which hold its wrapping key. The keyring may
+     * still be used afterwards.
+     */
+    @Override
+    public void close() {
+        _cipherPool.clear();
+    }
+
     public static class Builder extends S3Keyring.Builder<AesKeyring, Builder> {
         private SecretKey _wrappingKey;
 
@@ -0,0 +1,15 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.materials;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The asynchronous counterpart of {@link CryptographicMaterialsManager}. Used by the
+ * S3AsyncEncryptionClient so that retrieving materials (e.g. a call to AWS KMS) does not
+ * block SDK I/O threads.
+ */
+public interface AsyncCryptographicMaterialsManager {
+    CompletableFuture<EncryptionMaterials> getEncryptionMaterials(EncryptionMaterialsRequest request);
+    CompletableFuture<DecryptionMaterials> decryptMaterials(DecryptMaterialsRequest request);
+}
@@ -0,0 +1,16 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.materials;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * AsyncKeyring defines the interface for wrapping data keys without blocking the calling thread.
+ * An {@link AsyncCryptographicMaterialsManager} will use async keyrings to encrypt and decrypt data keys.
+ * Implementations should report failures by completing the returned future exceptionally.
+ */
+public interface AsyncKeyring {
+    CompletableFuture<EncryptionMaterials> onEncrypt(final EncryptionMaterials materials);
+    CompletableFuture<DecryptionMaterials> onDecrypt(final DecryptionMaterials materials, final List<EncryptedDataKey> encryptedDataKeys);
+}
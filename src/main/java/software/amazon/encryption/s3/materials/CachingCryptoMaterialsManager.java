@@ -0,0 +1,393 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.materials;
+
+import software.amazon.awssdk.services.s3.model.S3Request;
+import software.amazon.encryption.s3.S3EncryptionClient;
+import software.amazon.encryption.s3.S3EncryptionClientException;
+import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
+
+import java.security.Provider;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link CryptographicMaterialsManager} which caches the materials returned by an underlying CMM.
+ * Encryption materials are cached so that a single data key can be reused to encrypt several
+ * objects, and decryption materials are cached so that repeated reads of the same object (or of
+ * objects sharing an encrypted data key) do not each need to decrypt the data key.
+ * <p>
+ * A cached data key is retired as soon as it exceeds its maximum age, the maximum number of
+ * objects encrypted under it, or the maximum number of plaintext bytes encrypted under it.
+ * Cache entries are partitioned by encryption context, including any encryption context
+ * attached to the S3 request, so requests with different encryption contexts never share a
+ * data key.
+ * <p>
+ * Requests with an unknown plaintext length (e.g. multipart uploads) always bypass the cache,
+ * as the number of bytes encrypted under the data key cannot be accounted for.
+ * <p>
+ * Decryption materials are cached by encrypted data key, algorithm suite, the encryption context
+ * stored with the object and any encryption context attached to the GetObject request. Cached
+ * plaintext data keys expire after the maximum age and are zeroed when they leave the cache.
+ * <p>
+ * Reusing data keys trades fewer calls to the underlying keyring (e.g. KMS GenerateDataKey)
+ * for a larger amount of data protected by any single data key. Choose limits accordingly.
+ */
+public class CachingCryptoMaterialsManager implements CryptographicMaterialsManager {
+
+    // AES-GCM with random 96-bit IVs must not exceed 2^32 invocations under a single key
+    private static final long MAX_MESSAGES_ENCRYPTED_LIMIT = 1L << 32;
+    private static final int DEFAULT_MAX_CACHE_ENTRIES = 1000;
+
+    private final CryptographicMaterialsManager _underlyingCmm;
+    private final long _maxAgeNanos;
+    private final long _maxMessagesEncrypted;
+    private final long _maxBytesEncrypted;
+
+    private final Map<Map<String, String>, EncryptionCacheEntry> _encryptionCache;
+    private final AtomicLong _encryptionCacheHits = new AtomicLong(0);
+    private final AtomicLong _encryptionCacheMisses = new AtomicLong(0);
+
+    private final Map<DecryptionMaterialsCacheKey, DecryptionCacheEntry> _decryptionCache;
+    private final AtomicLong _decryptionCacheHits = new AtomicLong(0);
+    private final AtomicLong _decryptionCacheMisses = new AtomicLong(0);
+
+    private CachingCryptoMaterialsManager(Builder builder) {
+        _underlyingCmm = builder._underlyingCmm;
+        _maxAgeNanos = builder._maxAge.toNanos();
+        _maxMessagesEncrypted = builder._maxMessagesEncrypted;
+        _maxBytesEncrypted = builder._maxBytesEncrypted;
+
+        final int maxCacheEntries = builder._maxCacheEntries;
+        _encryptionCache = new LinkedHashMap<Map<String, String>, EncryptionCacheEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Map<String, String>, EncryptionCacheEntry> eldest) {
+                return size() > maxCacheEntries;
+            }
+        };
+        _decryptionCache = new LinkedHashMap<DecryptionMaterialsCacheKey, DecryptionCacheEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<DecryptionMaterialsCacheKey, DecryptionCacheEntry> eldest) {
+                if (size() > maxCacheEntries) {
+                    eldest.getValue().destroy();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public EncryptionMaterials getEncryptionMaterials(EncryptionMaterialsRequest request) {
+        final long plaintextLength = request.plaintextLength();
+        if (plaintextLength < 0 || plaintextLength > _maxBytesEncrypted) {
+            // Usage of the data key cannot be accounted for, do not cache
+            _encryptionCacheMisses.incrementAndGet();
+            return _underlyingCmm.getEncryptionMaterials(request);
+        }
+
+        final Map<String, String> partition = partitionFor(request.encryptionContext(), request.s3Request());
+        synchronized (_encryptionCache) {
+            EncryptionCacheEntry entry = _encryptionCache.get(partition);
+            if (entry != null) {
+                if (entry.tryUse(plaintextLength)) {
+                    _encryptionCacheHits.incrementAndGet();
+                    return entry.materials().toBuilder()
+                            .s3Request(request.s3Request())
+                            .plaintextLength(plaintextLength)
+                            .build();
+                }
+                // The data key has reached one of its limits, retire it
+                _encryptionCache.remove(partition);
+            }
+        }
+
+        _encryptionCacheMisses.incrementAndGet();
+        EncryptionMaterials materials = _underlyingCmm.getEncryptionMaterials(request);
+        EncryptionCacheEntry entry = new EncryptionCacheEntry(materials, plaintextLength);
+        synchronized (_encryptionCache) {
+            _encryptionCache.put(partition, entry);
+        }
+        return materials;
+    }
+
+    @Override
+    public DecryptionMaterials decryptMaterials(DecryptMaterialsRequest request) {
+        final DecryptionMaterialsCacheKey cacheKey = DecryptionMaterialsCacheKey.of(request);
+        synchronized (_decryptionCache) {
+            DecryptionCacheEntry entry = _decryptionCache.get(cacheKey);
+            if (entry != null) {
+                if (!entry.isExpired()) {
+                    _decryptionCacheHits.incrementAndGet();
+                    // Materials are built while holding the lock so the key cannot be zeroed concurrently
+                    return entry.materialsFor(request);
+                }
+                _decryptionCache.remove(cacheKey);
+                entry.destroy();
+            }
+        }
+
+        _decryptionCacheMisses.incrementAndGet();
+        DecryptionMaterials materials = _underlyingCmm.decryptMaterials(request);
+        DecryptionCacheEntry entry = new DecryptionCacheEntry(materials);
+        synchronized (_decryptionCache) {
+            DecryptionCacheEntry previous = _decryptionCache.put(cacheKey, entry);
+            if (previous != null) {
+                previous.destroy();
+            }
+        }
+        return materials;
+    }
+
+    /**
+     * @return the number of encryption materials requests served from the cache
+     */
+    public long encryptionCacheHits() {
+        return _encryptionCacheHits.get();
+    }
+
+    /**
+     * @return the number of encryption materials requests passed to the underlying CMM
+     */
+    public long encryptionCacheMisses() {
+        return _encryptionCacheMisses.get();
+    }
+
+    /**
+     * @return the fraction of encryption materials requests served from the cache
+     */
+    public double encryptionCacheHitRate() {
+        return hitRate(_encryptionCacheHits.get(), _encryptionCacheMisses.get());
+    }
+
+    /**
+     * @return the number of decrypt materials requests served from the cache
+     */
+    public long decryptionCacheHits() {
+        return _decryptionCacheHits.get();
+    }
+
+    /**
+     * @return the number of decrypt materials requests passed to the underlying CMM
+     */
+    public long decryptionCacheMisses() {
+        return _decryptionCacheMisses.get();
+    }
+
+    /**
+     * @return the fraction of decrypt materials requests served from the cache
+     */
+    public double decryptionCacheHitRate() {
+        return hitRate(_decryptionCacheHits.get(), _decryptionCacheMisses.get());
+    }
+
+    /**
+     * Removes all entries from the cache, zeroing any cached plaintext data keys.
+     */
+    public void clearCache() {
+        synchronized (_encryptionCache) {
+            _encryptionCache.clear();
+        }
+        synchronized (_decryptionCache) {
+            for (DecryptionCacheEntry entry : _decryptionCache.values()) {
+                entry.destroy();
+            }
+            _decryptionCache.clear();
+        }
+    }
+
+    private static double hitRate(long hits, long misses) {
+        final long total = hits + misses;
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    /**
+     * The encryption context of the materials request is combined with any encryption context
+     * attached to the S3 request, as keyrings (e.g. KmsKeyring) bind the data key to both.
+     */
+    static Map<String, String> partitionFor(Map<String, String> encryptionContext, S3Request s3Request) {
+        Map<String, String> partition = new HashMap<>(encryptionContext);
+        partition.putAll(requestEncryptionContext(s3Request));
+        return partition;
+    }
+
+    /**
+     * @return the encryption context attached to the S3 request, or an empty map if there is none
+     */
+    static Map<String, String> requestEncryptionContext(S3Request s3Request) {
+        Map<String, String> requestEncryptionContext = new HashMap<>();
+        if (s3Request != null) {
+            s3Request.overrideConfiguration()
+                    .flatMap(overrideConfiguration -> overrideConfiguration.executionAttributes()
+                            .getOptionalAttribute(S3EncryptionClient.ENCRYPTION_CONTEXT))
+                    .ifPresent(requestEncryptionContext::putAll);
+        }
+        return requestEncryptionContext;
+    }
+
+    private final class EncryptionCacheEntry {
+        private final EncryptionMaterials _materials;
+        private final long _createdNanos;
+        private long _messagesEncrypted;
+        private long _bytesEncrypted;
+
+        private EncryptionCacheEntry(EncryptionMaterials materials, long bytesEncrypted) {
+            _materials = materials;
+            _createdNanos = System.nanoTime();
+            _messagesEncrypted = 1;
+            _bytesEncrypted = bytesEncrypted;
+        }
+
+        private EncryptionMaterials materials() {
+            return _materials;
+        }
+
+        /**
+         * Accounts for one more use of this entry, unless doing so would exceed a limit.
+         * Must be called while holding the cache lock.
+         */
+        private boolean tryUse(long plaintextLength) {
+            if (System.nanoTime() - _createdNanos >= _maxAgeNanos) {
+                return false;
+            }
+            if (_messagesEncrypted + 1 > _maxMessagesEncrypted) {
+                return false;
+            }
+            if (_bytesEncrypted + plaintextLength > _maxBytesEncrypted) {
+                return false;
+            }
+            _messagesEncrypted++;
+            _bytesEncrypted += plaintextLength;
+            return true;
+        }
+    }
+
+    /**
+     * Holds a private copy of the plaintext data key so that it can be zeroed once the entry
+     * leaves the cache. Must only be accessed while holding the decryption cache lock.
+     */
+    private final class DecryptionCacheEntry {
+        private final AlgorithmSuite _algorithmSuite;
+        private final Map<String, String> _encryptionContext;
+        private final Provider _cryptoProvider;
+        private final byte[] _plaintextDataKey;
+        private final long _createdNanos;
+
+        private DecryptionCacheEntry(DecryptionMaterials materials) {
+            _algorithmSuite = materials.algorithmSuite();
+            _encryptionContext = materials.encryptionContext();
+            _cryptoProvider = materials.cryptoProvider();
+            _plaintextDataKey = materials.plaintextDataKey();
+            _createdNanos = System.nanoTime();
+        }
+
+        private boolean isExpired() {
+            return System.nanoTime() - _createdNanos >= _maxAgeNanos;
+        }
+
+        private DecryptionMaterials materialsFor(DecryptMaterialsRequest request) {
+            return DecryptionMaterials.builder()
+                    .s3Request(request.s3Request())
+                    .algorithmSuite(_algorithmSuite)
+                    .encryptionContext(_encryptionContext)
+                    .plaintextDataKey(_plaintextDataKey)
+                    .ciphertextLength(request.ciphertextLength())
+                    .cryptoProvider(_cryptoProvider)
+                    .build();
+        }
+
+        private void destroy() {
+            if (_plaintextDataKey != null) {
+                Arrays.fill(_plaintextDataKey, (byte) 0);
+            }
+        }
+    }
+
+    public static class Builder {
+        private CryptographicMaterialsManager _underlyingCmm;
+        private Duration _maxAge;
+        private long _maxMessagesEncrypted = MAX_MESSAGES_ENCRYPTED_LIMIT;
+        private long _maxBytesEncrypted = Long.MAX_VALUE;
+        private int _maxCacheEntries = DEFAULT_MAX_CACHE_ENTRIES;
+
+        private Builder() {}
+
+        /**
+         * Specifies the CMM to retrieve materials from on a cache miss.
+         */
+        public Builder cryptoMaterialsManager(CryptographicMaterialsManager cryptoMaterialsManager) {
+            if (cryptoMaterialsManager == null) {
+                throw new S3EncryptionClientException("Underlying CryptographicMaterialsManager cannot be null!");
+            }
+            _underlyingCmm = cryptoMaterialsManager;
+            return this;
+        }
+
+        /**
+         * Specifies the maximum amount of time a data key may be used for after it was generated,
+         * and the maximum amount of time a decrypted data key is kept in the cache.
+         * This option is required.
+         */
+        public Builder maxAge(Duration maxAge) {
+            if (maxAge == null || maxAge.isNegative() || maxAge.isZero()) {
+                throw new S3EncryptionClientException("Max age must be a positive duration");
+            }
+            _maxAge = maxAge;
+            return this;
+        }
+
+        /**
+         * Specifies the maximum number of objects which may be encrypted under a single data key.
+         * Defaults to, and may not exceed, 2^32.
+         */
+        public Builder maxMessagesEncrypted(long maxMessagesEncrypted) {
+            if (maxMessagesEncrypted < 1 || maxMessagesEncrypted > MAX_MESSAGES_ENCRYPTED_LIMIT) {
+                throw new S3EncryptionClientException("Max messages encrypted must be between 1 and " + MAX_MESSAGES_ENCRYPTED_LIMIT);
+            }
+            _maxMessagesEncrypted = maxMessagesEncrypted;
+            return this;
+        }
+
+        /**
+         * Specifies the maximum number of plaintext bytes which may be encrypted under a single data key.
+         * Defaults to no limit.
+         */
+        public Builder maxBytesEncrypted(long maxBytesEncrypted) {
+            if (maxBytesEncrypted < 0) {
+                throw new S3EncryptionClientException("Max bytes encrypted cannot be negative");
+            }
+            _maxBytesEncrypted = maxBytesEncrypted;
+            return this;
+        }
+
+        /**
+         * Specifies the maximum number of entries held in each of the encryption and decryption
+         * caches. The least recently used entry is evicted once a cache is full. Defaults to 1000.
+         */
+        public Builder maxCacheEntries(int maxCacheEntries) {
+            if (maxCacheEntries < 1) {
+                throw new S3EncryptionClientException("Max cache entries must be at least 1");
+            }
+            _maxCacheEntries = maxCacheEntries;
+            return this;
+        }
+
+        public CachingCryptoMaterialsManager build() {
+            if (_underlyingCmm == null) {
+                throw new S3EncryptionClientException("Underlying CryptographicMaterialsManager must be provided!");
+            }
+            if (_maxAge == null) {
+                throw new S3EncryptionClientException("Max age must be provided!");
+            }
+            return new CachingCryptoMaterialsManager(this);
+        }
+    }
+}
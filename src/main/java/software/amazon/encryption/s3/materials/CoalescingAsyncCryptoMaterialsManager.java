@@ -0,0 +1,100 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.materials;
+
+import software.amazon.encryption.s3.S3EncryptionClientException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The asynchronous counterpart of {@link CoalescingCryptoMaterialsManager}. Concurrent decrypt
+ * materials requests for the same encrypted data keys, encryption context and algorithm suite
+ * share a single request to the underlying {@link AsyncCryptographicMaterialsManager}.
+ */
+public class CoalescingAsyncCryptoMaterialsManager implements AsyncCryptographicMaterialsManager {
+
+    private final AsyncCryptographicMaterialsManager _underlyingCmm;
+    private final ConcurrentMap<DecryptionMaterialsCacheKey, CompletableFuture<DecryptionMaterials>> _inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong _coalescedRequests = new AtomicLong(0);
+
+    private CoalescingAsyncCryptoMaterialsManager(Builder builder) {
+        _underlyingCmm = builder._underlyingCmm;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public CompletableFuture<EncryptionMaterials> getEncryptionMaterials(EncryptionMaterialsRequest request) {
+        return _underlyingCmm.getEncryptionMaterials(request);
+    }
+
+    @Override
+    public CompletableFuture<DecryptionMaterials> decryptMaterials(DecryptMaterialsRequest request) {
+        final DecryptionMaterialsCacheKey key = DecryptionMaterialsCacheKey.of(request);
+        final CompletableFuture<DecryptionMaterials> future = new CompletableFuture<>();
+        final CompletableFuture<DecryptionMaterials> inFlight = _inFlight.putIfAbsent(key, future);
+
+        if (inFlight != null) {
+            _coalescedRequests.incrementAndGet();
+            return inFlight.thenApply(materials -> materials.toBuilder()
+                    .s3Request(request.s3Request())
+                    .ciphertextLength(request.ciphertextLength())
+                    .build());
+        }
+
+        final CompletableFuture<DecryptionMaterials> underlying;
+        try {
+            underlying = _underlyingCmm.decryptMaterials(request);
+        } catch (RuntimeException | Error e) {
+            _inFlight.remove(key, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+        underlying.whenComplete((materials, throwable) -> {
+            // Remove before completing so that requests arriving later start a new call
+            _inFlight.remove(key, future);
+            if (throwable != null) {
+                future.completeExceptionally(throwable);
+            } else {
+                future.complete(materials);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * @return the number of decrypt materials requests which shared another request's result
+     */
+    public long coalescedRequests() {
+        return _coalescedRequests.get();
+    }
+
+    public static class Builder {
+        private AsyncCryptographicMaterialsManager _underlyingCmm;
+
+        private Builder() {}
+
+        /**
+         * Specifies the async CMM to pass deduplicated requests to.
+         */
+        public Builder cryptoMaterialsManager(AsyncCryptographicMaterialsManager cryptoMaterialsManager) {
+            if (cryptoMaterialsManager == null) {
+                throw new S3EncryptionClientException("Underlying AsyncCryptographicMaterialsManager cannot be null!");
+            }
+            _underlyingCmm = cryptoMaterialsManager;
+            return this;
+        }
+
+        public CoalescingAsyncCryptoMaterialsManager build() {
+            if (_underlyingCmm == null) {
+                throw new S3EncryptionClientException("Underlying AsyncCryptographicMaterialsManager must be provided!");
+            }
+            return new CoalescingAsyncCryptoMaterialsManager(this);
+        }
+    }
+}
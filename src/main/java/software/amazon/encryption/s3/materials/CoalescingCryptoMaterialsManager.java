@@ -0,0 +1,117 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.materials;
+
+import software.amazon.encryption.s3.S3EncryptionClientException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link CryptographicMaterialsManager} which deduplicates concurrent decrypt materials requests.
+ * <p>
+ * When several threads request decryption materials for the same encrypted data keys, encryption
+ * context and algorithm suite at the same time (e.g. many concurrent GETs of a popular object),
+ * only the first request is passed to the underlying CMM; the others wait for, and share, its
+ * result or failure. Nothing is retained once the request completes, so this does not extend
+ * the lifetime of plaintext data keys the way a cache does. It can be combined with
+ * {@link CachingCryptoMaterialsManager} to also deduplicate requests which miss the cache.
+ * <p>
+ * Encryption materials requests are passed through unchanged, as each object requires a new data key.
+ */
+public class CoalescingCryptoMaterialsManager implements CryptographicMaterialsManager {
+
+    private final CryptographicMaterialsManager _underlyingCmm;
+    private final ConcurrentMap<DecryptionMaterialsCacheKey, CompletableFuture<DecryptionMaterials>> _inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong _coalescedRequests = new AtomicLong(0);
+
+    private CoalescingCryptoMaterialsManager(Builder builder) {
+        _underlyingCmm = builder._underlyingCmm;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public EncryptionMaterials getEncryptionMaterials(EncryptionMaterialsRequest request) {
+        return _underlyingCmm.getEncryptionMaterials(request);
+    }
+
+    @Override
+    public DecryptionMaterials decryptMaterials(DecryptMaterialsRequest request) {
+        final DecryptionMaterialsCacheKey key = DecryptionMaterialsCacheKey.of(request);
+        final CompletableFuture<DecryptionMaterials> future = new CompletableFuture<>();
+        final CompletableFuture<DecryptionMaterials> inFlight = _inFlight.putIfAbsent(key, future);
+
+        if (inFlight != null) {
+            _coalescedRequests.incrementAndGet();
+            final DecryptionMaterials materials;
+            try {
+                materials = inFlight.join();
+            } catch (CompletionException e) {
+                throw unwrap(e);
+            }
+            return materials.toBuilder()
+                    .s3Request(request.s3Request())
+                    .ciphertextLength(request.ciphertextLength())
+                    .build();
+        }
+
+        try {
+            DecryptionMaterials materials = _underlyingCmm.decryptMaterials(request);
+            future.complete(materials);
+            return materials;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            _inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * @return the number of decrypt materials requests which shared another request's result
+     */
+    public long coalescedRequests() {
+        return _coalescedRequests.get();
+    }
+
+    private static RuntimeException unwrap(CompletionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new S3EncryptionClientException("Unable to decrypt materials", cause);
+    }
+
+    public static class Builder {
+        private CryptographicMaterialsManager _underlyingCmm;
+
+        private Builder() {}
+
+        /**
+         * Specifies the CMM to pass deduplicated requests to.
+         */
+        public Builder cryptoMaterialsManager(CryptographicMaterialsManager cryptoMaterialsManager) {
+            if (cryptoMaterialsManager == null) {
+                throw new S3EncryptionClientException("Underlying CryptographicMaterialsManager cannot be null!");
+            }
+            _underlyingCmm = cryptoMaterialsManager;
+            return this;
+        }
+
+        public CoalescingCryptoMaterialsManager build() {
+            if (_underlyingCmm == null) {
+                throw new S3EncryptionClientException("Underlying CryptographicMaterialsManager must be provided!");
+            }
+            return new CoalescingCryptoMaterialsManager(this);
+        }
+    }
+}
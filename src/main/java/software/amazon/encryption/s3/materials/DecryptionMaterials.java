@@ -5,6 +5,7 @@ package software.amazon.encryption.s3.materials;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
+import software.amazon.encryption.s3.algorithms.HkdfKeyDerivation;
 import software.amazon.encryption.s3.internal.CipherMode;
 import software.amazon.encryption.s3.internal.CipherProvider;
 
@@ -12,6 +13,7 @@ import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 import java.security.Provider;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Map;
 
@@ -28,6 +30,8 @@ final public class DecryptionMaterials implements CryptographicMaterials {
     private final Map<String, String> _encryptionContext;
 
     private final byte[] _plaintextDataKey;
+    // Per-object salt for algorithm suites which derive the content key from the data key
+    private final byte[] _kdfSalt;
 
     private long _ciphertextLength;
     private Provider _cryptoProvider;
@@ -37,6 +41,7 @@ final public class DecryptionMaterials implements CryptographicMaterials {
         this._algorithmSuite = builder._algorithmSuite;
         this._encryptionContext = builder._encryptionContext;
         this._plaintextDataKey = builder._plaintextDataKey;
+        this._kdfSalt = builder._kdfSalt;
         this._ciphertextLength = builder._ciphertextLength;
         this._cryptoProvider = builder._cryptoProvider;
     }
@@ -70,7 +75,30 @@ final public class DecryptionMaterials implements CryptographicMaterials {
         return _plaintextDataKey.clone();
     }
 
+    /**
+     * Zeroes the plaintext data key of materials which will not be used.
+     */
+    void destroy() {
+        if (_plaintextDataKey != null) {
+            Arrays.fill(_plaintextDataKey, (byte) 0);
+        }
+    }
+
+    public byte[] kdfSalt() {
+        if (_kdfSalt == null) {
+            return null;
+        }
+        return _kdfSalt.clone();
+    }
+
+    /**
+     * @return the key used to encrypt content. For algorithm suites which support key derivation
+     * this is derived from the data key and salt, otherwise it is the data key itself.
+     */
     public SecretKey dataKey() {
+        if (_algorithmSuite.isKdfSupported()) {
+            return HkdfKeyDerivation.deriveContentKey(_algorithmSuite, _plaintextDataKey, _kdfSalt, _cryptoProvider);
+        }
         return new SecretKeySpec(_plaintextDataKey, algorithmSuite().dataKeyAlgorithm());
     }
 
@@ -98,6 +126,7 @@ final public class DecryptionMaterials implements CryptographicMaterials {
                 .algorithmSuite(_algorithmSuite)
                 .encryptionContext(_encryptionContext)
                 .plaintextDataKey(_plaintextDataKey)
+                .kdfSalt(_kdfSalt)
                 .ciphertextLength(_ciphertextLength)
                 .cryptoProvider(_cryptoProvider);
     }
@@ -109,6 +138,7 @@ final public class DecryptionMaterials implements CryptographicMaterials {
         private AlgorithmSuite _algorithmSuite = AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF;
         private Map<String, String> _encryptionContext = Collections.emptyMap();
         private byte[] _plaintextDataKey = null;
+        private byte[] _kdfSalt = null;
         private long _ciphertextLength = -1;
 
         private Builder() {
@@ -136,6 +166,11 @@ final public class DecryptionMaterials implements CryptographicMaterials {
             return this;
         }
 
+        public Builder kdfSalt(byte[] kdfSalt) {
+            _kdfSalt = kdfSalt == null ? null : kdfSalt.clone();
+            return this;
+        }
+
         public Builder ciphertextLength(long ciphertextLength) {
             _ciphertextLength = ciphertextLength;
             return this;
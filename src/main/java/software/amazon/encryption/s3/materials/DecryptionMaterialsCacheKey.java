@@ -0,0 +1,100 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.materials;
+
+import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Identifies the inputs of a decrypt materials request which determine its result:
+ * the encrypted data keys (provider id, provider info and ciphertext), the algorithm suite,
+ * the encryption context stored with the object and any encryption context supplied with
+ * the GetObject request. Two requests with equal keys resolve to the same plaintext data key,
+ * or fail in the same way.
+ */
+final class DecryptionMaterialsCacheKey {
+
+    private final List<EncryptedDataKeyIdentity> _encryptedDataKeys;
+    private final AlgorithmSuite _algorithmSuite;
+    private final Map<String, String> _encryptionContext;
+    private final Map<String, String> _requestEncryptionContext;
+    private final int _hashCode;
+
+    private DecryptionMaterialsCacheKey(DecryptMaterialsRequest request) {
+        List<EncryptedDataKeyIdentity> encryptedDataKeys = new ArrayList<>(request.encryptedDataKeys().size());
+        for (EncryptedDataKey encryptedDataKey : request.encryptedDataKeys()) {
+            encryptedDataKeys.add(new EncryptedDataKeyIdentity(encryptedDataKey));
+        }
+        _encryptedDataKeys = Collections.unmodifiableList(encryptedDataKeys);
+        _algorithmSuite = request.algorithmSuite();
+        _encryptionContext = new HashMap<>(request.encryptionContext());
+        _requestEncryptionContext = CachingCryptoMaterialsManager.requestEncryptionContext(request.s3Request());
+        _hashCode = Objects.hash(_encryptedDataKeys, _algorithmSuite, _encryptionContext, _requestEncryptionContext);
+    }
+
+    static DecryptionMaterialsCacheKey of(DecryptMaterialsRequest request) {
+        return new DecryptionMaterialsCacheKey(request);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        DecryptionMaterialsCacheKey other = (DecryptionMaterialsCacheKey) o;
+        return _hashCode == other._hashCode
+                && _algorithmSuite == other._algorithmSuite
+                && _encryptedDataKeys.equals(other._encryptedDataKeys)
+                && _encryptionContext.equals(other._encryptionContext)
+                && _requestEncryptionContext.equals(other._requestEncryptionContext);
+    }
+
+    @Override
+    public int hashCode() {
+        return _hashCode;
+    }
+
+    private static final class EncryptedDataKeyIdentity {
+        private final String _keyProviderId;
+        private final byte[] _keyProviderInfo;
+        private final byte[] _encryptedDataKey;
+
+        private EncryptedDataKeyIdentity(EncryptedDataKey encryptedDataKey) {
+            _keyProviderId = encryptedDataKey.keyProviderId();
+            _keyProviderInfo = encryptedDataKey.keyProviderInfo();
+            _encryptedDataKey = encryptedDataKey.encryptedDatakey();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            EncryptedDataKeyIdentity other = (EncryptedDataKeyIdentity) o;
+            return Objects.equals(_keyProviderId, other._keyProviderId)
+                    && Arrays.equals(_keyProviderInfo, other._keyProviderInfo)
+                    && Arrays.equals(_encryptedDataKey, other._encryptedDataKey);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Objects.hashCode(_keyProviderId);
+            result = 31 * result + Arrays.hashCode(_keyProviderInfo);
+            result = 31 * result + Arrays.hashCode(_encryptedDataKey);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.materials;
+
+import software.amazon.encryption.s3.S3EncryptionClientException;
+import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
+
+import java.security.Provider;
+import java.util.concurrent.CompletableFuture;
+
+public class DefaultAsyncCryptoMaterialsManager implements AsyncCryptographicMaterialsManager {
+    private final AsyncKeyring _keyring;
+    private final Provider _cryptoProvider;
+    private final AlgorithmSuite _algorithmSuite;
+
+    private DefaultAsyncCryptoMaterialsManager(Builder builder) {
+        _keyring = builder._keyring;
+        _cryptoProvider = builder._cryptoProvider;
+        _algorithmSuite = builder._algorithmSuite;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public CompletableFuture<EncryptionMaterials> getEncryptionMaterials(EncryptionMaterialsRequest request) {
+        EncryptionMaterials materials = EncryptionMaterials.builder()
+                .s3Request(request.s3Request())
+                .algorithmSuite(_algorithmSuite)
+                .encryptionContext(request.encryptionContext())
+                .cryptoProvider(_cryptoProvider)
+                .plaintextLength(request.plaintextLength())
+                .build();
+
+        return _keyring.onEncrypt(materials);
+    }
+
+    public CompletableFuture<DecryptionMaterials> decryptMaterials(DecryptMaterialsRequest request) {
+        DecryptionMaterials materials = DecryptionMaterials.builder()
+                .s3Request(request.s3Request())
+                .algorithmSuite(request.algorithmSuite())
+                .encryptionContext(request.encryptionContext())
+                .ciphertextLength(request.ciphertextLength())
+                .cryptoProvider(_cryptoProvider)
+                .build();
+
+        return _keyring.onDecrypt(materials, request.encryptedDataKeys());
+    }
+
+    public static class Builder {
+        private AsyncKeyring _keyring;
+        private Provider _cryptoProvider;
+        private AlgorithmSuite _algorithmSuite = AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF;
+
+        private Builder() {}
+
+        public Builder keyring(AsyncKeyring keyring) {
+            this._keyring = keyring;
+            return this;
+        }
+
+        public Builder cryptoProvider(Provider cryptoProvider) {
+            this._cryptoProvider = cryptoProvider;
+            return this;
+        }
+
+        /**
+         * Specifies the algorithm suite used to encrypt new objects.
+         * Defaults to {@link AlgorithmSuite#ALG_AES_256_GCM_IV12_TAG16_NO_KDF}.
+         * Legacy algorithm suites cannot be used for encryption.
+         */
+        public Builder algorithmSuite(AlgorithmSuite algorithmSuite) {
+            if (algorithmSuite == null || algorithmSuite.isLegacy()) {
+                throw new S3EncryptionClientException("Algorithm suite must be a non-legacy suite");
+            }
+            this._algorithmSuite = algorithmSuite;
+            return this;
+        }
+
+        public DefaultAsyncCryptoMaterialsManager build() {
+            return new DefaultAsyncCryptoMaterialsManager(this);
+        }
+    }
+}
@@ -2,6 +2,7 @@
 // SPDX-License-Identifier: Apache-2.0
 package software.amazon.encryption.s3.materials;
 
+import software.amazon.encryption.s3.S3EncryptionClientException;
 import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
 
 import java.security.Provider;
@@ -9,10 +10,12 @@ import java.security.Provider;
 public class DefaultCryptoMaterialsManager implements CryptographicMaterialsManager {
     private final Keyring _keyring;
     private final Provider _cryptoProvider;
+    private final AlgorithmSuite _algorithmSuite;
 
     private DefaultCryptoMaterialsManager(Builder builder) {
         _keyring = builder._keyring;
         _cryptoProvider = builder._cryptoProvider;
+        _algorithmSuite = builder._algorithmSuite;
     }
 
     public static Builder builder() {
@@ -22,7 +25,7 @@ public class DefaultCryptoMaterialsManager implements CryptographicMaterialsMana
     public EncryptionMaterials getEncryptionMaterials(EncryptionMaterialsRequest request) {
         EncryptionMaterials materials = EncryptionMaterials.builder()
                 .s3Request(request.s3Request())
-                .algorithmSuite(AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF)
+                .algorithmSuite(_algorithmSuite)
                 .encryptionContext(request.encryptionContext())
                 .cryptoProvider(_cryptoProvider)
                 .plaintextLength(request.plaintextLength())
@@ -46,6 +49,7 @@ public class DefaultCryptoMaterialsManager implements CryptographicMaterialsMana
     public static class Builder {
         private Keyring _keyring;
         private Provider _cryptoProvider;
+        private AlgorithmSuite _algorithmSuite = AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF;
 
         private Builder() {}
 
@@ -59,6 +63,19 @@ public class DefaultCryptoMaterialsManager implements CryptographicMaterialsMana
             return this;
         }
 
+        /**
+         * Specifies the algorithm suite used to encrypt new objects.
+         * Defaults to {@link AlgorithmSuite#ALG_AES_256_GCM_IV12_TAG16_NO_KDF}.
+         * Legacy algorithm suites cannot be used for encryption.
+         */
+        public Builder algorithmSuite(AlgorithmSuite algorithmSuite) {
+            if (algorithmSuite == null || algorithmSuite.isLegacy()) {
+                throw new S3EncryptionClientException("Algorithm suite must be a non-legacy suite");
+            }
+            this._algorithmSuite = algorithmSuite;
+            return this;
+        }
+
         public DefaultCryptoMaterialsManager build() {
             return new DefaultCryptoMaterialsManager(this);
         }
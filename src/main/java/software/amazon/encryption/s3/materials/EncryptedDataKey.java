@@ -11,11 +11,14 @@ public class EncryptedDataKey {
     private final byte[] _keyProviderInfo;
     // Encrypted data key ciphertext
     private final byte[] _encryptedDataKey;
+    // the key which wrapped the data key e.g. a KMS key ARN, or the type of keyring when it has no key id
+    private final String _wrappingKeyId;
 
     private EncryptedDataKey(Builder builder) {
         this._keyProviderId = builder._keyProviderId;
         this._keyProviderInfo = builder._keyProviderInfo;
         this._encryptedDataKey = builder._encryptedDataKey;
+        this._wrappingKeyId = builder._wrappingKeyId;
     }
 
     static public Builder builder() {
@@ -41,11 +44,20 @@ public class EncryptedDataKey {
         return _encryptedDataKey.clone();
     }
 
+    /**
+     * @return the key which wrapped the data key, or null if it is not known, e.g. for the first
+     * encrypted data key of an object
+     */
+    public String wrappingKeyId() {
+        return _wrappingKeyId;
+    }
+
     static public class Builder {
 
         private String _keyProviderId = null;
         private byte[] _keyProviderInfo = null;
         private byte[] _encryptedDataKey = null;
+        private String _wrappingKeyId = null;
 
         private Builder() {
         }
@@ -65,6 +77,11 @@ public class EncryptedDataKey {
             return this;
         }
 
+        public Builder wrappingKeyId(String wrappingKeyId) {
+            _wrappingKeyId = wrappingKeyId;
+            return this;
+        }
+
         public EncryptedDataKey build() {
             return new EncryptedDataKey(this);
         }
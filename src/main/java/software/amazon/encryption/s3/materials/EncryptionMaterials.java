@@ -5,6 +5,7 @@ package software.amazon.encryption.s3.materials;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import software.amazon.awssdk.services.s3.model.S3Request;
 import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
+import software.amazon.encryption.s3.algorithms.HkdfKeyDerivation;
 import software.amazon.encryption.s3.internal.CipherMode;
 import software.amazon.encryption.s3.internal.CipherProvider;
 
@@ -12,6 +13,7 @@ import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 import java.security.Provider;
+import java.security.SecureRandom;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -30,6 +32,8 @@ final public class EncryptionMaterials implements CryptographicMaterials {
 
     private final List<EncryptedDataKey> _encryptedDataKeys;
     private final byte[] _plaintextDataKey;
+    // Per-object salt for algorithm suites which derive the content key from the data key
+    private final byte[] _kdfSalt;
     private final Provider _cryptoProvider;
     private final long _plaintextLength;
     private final long _ciphertextLength;
@@ -40,6 +44,7 @@ final public class EncryptionMaterials implements CryptographicMaterials {
         this._encryptionContext = builder._encryptionContext;
         this._encryptedDataKeys = builder._encryptedDataKeys;
         this._plaintextDataKey = builder._plaintextDataKey;
+        this._kdfSalt = builder._kdfSalt;
         this._cryptoProvider = builder._cryptoProvider;
         this._plaintextLength = builder._plaintextLength;
         this._ciphertextLength = _plaintextLength + _algorithmSuite.cipherTagLengthBytes();
@@ -93,7 +98,37 @@ final public class EncryptionMaterials implements CryptographicMaterials {
         return _ciphertextLength;
     }
 
+    public byte[] kdfSalt() {
+        if (_kdfSalt == null) {
+            return null;
+        }
+        return _kdfSalt.clone();
+    }
+
+    /**
+     * Gives each object its own salt, and so its own content key, even when the data key is
+     * shared with other objects, e.g. by a caching CMM.
+     *
+     * @return a copy of these materials with a new random salt, or these materials if the
+     * algorithm suite does not derive the content key
+     */
+    public EncryptionMaterials withNewKdfSalt(SecureRandom secureRandom) {
+        if (!_algorithmSuite.isKdfSupported()) {
+            return this;
+        }
+        final byte[] kdfSalt = new byte[_algorithmSuite.kdfSaltLengthBytes()];
+        secureRandom.nextBytes(kdfSalt);
+        return toBuilder().kdfSalt(kdfSalt).build();
+    }
+
+    /**
+     * @return the key used to encrypt content. For algorithm suites which support key derivation
+     * this is derived from the data key and salt, otherwise it is the data key itself.
+     */
     public SecretKey dataKey() {
+        if (_algorithmSuite.isKdfSupported()) {
+            return HkdfKeyDerivation.deriveContentKey(_algorithmSuite, _plaintextDataKey, _kdfSalt, _cryptoProvider);
+        }
         return new SecretKeySpec(_plaintextDataKey, algorithmSuite().dataKeyAlgorithm());
     }
 
@@ -118,6 +153,7 @@ final public class EncryptionMaterials implements CryptographicMaterials {
                 .encryptionContext(_encryptionContext)
                 .encryptedDataKeys(_encryptedDataKeys)
                 .plaintextDataKey(_plaintextDataKey)
+                .kdfSalt(_kdfSalt)
                 .cryptoProvider(_cryptoProvider)
                 .plaintextLength(_plaintextLength);
     }
@@ -130,6 +166,7 @@ final public class EncryptionMaterials implements CryptographicMaterials {
         private Map<String, String> _encryptionContext = Collections.emptyMap();
         private List<EncryptedDataKey> _encryptedDataKeys = Collections.emptyList();
         private byte[] _plaintextDataKey = null;
+        private byte[] _kdfSalt = null;
         private long _plaintextLength = -1;
         private Provider _cryptoProvider = null;
 
@@ -164,6 +201,11 @@ final public class EncryptionMaterials implements CryptographicMaterials {
             _plaintextDataKey = plaintextDataKey == null ? null : plaintextDataKey.clone();
             return this;
         }
+
+        public Builder kdfSalt(byte[] kdfSalt) {
+            _kdfSalt = kdfSalt == null ? null : kdfSalt.clone();
+            return this;
+        }
         public Builder cryptoProvider(Provider cryptoProvider) {
             _cryptoProvider = cryptoProvider;
             return this;
@@ -0,0 +1,246 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.materials;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import software.amazon.awssdk.core.ApiName;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.kms.KmsAsyncClient;
+import software.amazon.awssdk.services.kms.model.DecryptRequest;
+import software.amazon.awssdk.services.kms.model.EncryptRequest;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyRequest;
+import software.amazon.encryption.s3.S3EncryptionClientException;
+import software.amazon.encryption.s3.internal.ApiNameVersion;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/**
+ * This keyring wraps keys with the active KMS keywrap algorithm and unwraps with
+ * the active and legacy KMS algorithms, like {@link KmsKeyring}, but uses a
+ * {@link KmsAsyncClient} so that no thread is blocked while waiting for AWS KMS.
+ * Objects written by either keyring can be read by the other.
+ */
+public class KmsAsyncKeyring implements AsyncKeyring {
+
+    private static final ApiName API_NAME = ApiNameVersion.apiNameWithVersion();
+
+    private final KmsAsyncClient _kmsClient;
+    private final String _wrappingKeyId;
+    private final boolean _enableLegacyWrappingAlgorithms;
+
+    private KmsAsyncKeyring(Builder builder) {
+        _kmsClient = builder._kmsClient;
+        _wrappingKeyId = builder._wrappingKeyId;
+        _enableLegacyWrappingAlgorithms = builder._enableLegacyWrappingAlgorithms;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public CompletableFuture<EncryptionMaterials> onEncrypt(EncryptionMaterials materials) {
+        final EncryptionMaterials modifiedMaterials;
+        try {
+            modifiedMaterials = materials.toBuilder()
+                    .encryptionContext(KmsKeyring.kmsContextEncryptionContext(materials))
+                    .build();
+        } catch (S3EncryptionClientException e) {
+            return failedFuture(e);
+        }
+
+        if (modifiedMaterials.plaintextDataKey() == null) {
+            return generateDataKey(modifiedMaterials);
+        }
+
+        // Another keyring generated the data key, add an encrypted data key for this one
+        return encryptDataKey(modifiedMaterials);
+    }
+
+    private CompletableFuture<EncryptionMaterials> generateDataKey(EncryptionMaterials materials) {
+        final GenerateDataKeyRequest request;
+        try {
+            request = GenerateDataKeyRequest.builder()
+                    .keyId(_wrappingKeyId)
+                    .keySpec(KmsKeyring.dataKeySpec(materials.algorithmSuite()))
+                    .encryptionContext(materials.encryptionContext())
+                    .overrideConfiguration(builder -> builder.addApiName(API_NAME))
+                    .build();
+        } catch (S3EncryptionClientException e) {
+            return failedFuture(e);
+        }
+
+        return _kmsClient.generateDataKey(request).thenApply(response -> {
+            EncryptedDataKey encryptedDataKey = kmsContextEncryptedDataKey(
+                    Objects.requireNonNull(response.ciphertextBlob().asByteArray()));
+            return materials.toBuilder()
+                    .encryptedDataKeys(appendEncryptedDataKey(materials, encryptedDataKey))
+                    .plaintextDataKey(response.plaintext().asByteArray())
+                    .build();
+        });
+    }
+
+    private CompletableFuture<EncryptionMaterials> encryptDataKey(EncryptionMaterials materials) {
+        EncryptRequest request = EncryptRequest.builder()
+                .keyId(_wrappingKeyId)
+                .encryptionContext(materials.encryptionContext())
+                .plaintext(SdkBytes.fromByteArray(materials.plaintextDataKey()))
+                .overrideConfiguration(builder -> builder.addApiName(API_NAME))
+                .build();
+
+        return _kmsClient.encrypt(request).thenApply(response -> {
+            EncryptedDataKey encryptedDataKey = kmsContextEncryptedDataKey(response.ciphertextBlob().asByteArray());
+            return materials.toBuilder()
+                    .encryptedDataKeys(appendEncryptedDataKey(materials, encryptedDataKey))
+                    .build();
+        });
+    }
+
+    /**
+     * Decrypts the first of the encrypted data keys which this keyring is able to decrypt,
+     * trying them in order, and skipping those wrapped by other keys.
+     */
+    @Override
+    public CompletableFuture<DecryptionMaterials> onDecrypt(DecryptionMaterials materials, List<EncryptedDataKey> allEncryptedDataKeys) {
+        if (materials.plaintextDataKey() != null) {
+            return failedFuture(new S3EncryptionClientException("Decryption materials already contains a plaintext data key."));
+        }
+
+        if (allEncryptedDataKeys.isEmpty()) {
+            return failedFuture(new S3EncryptionClientException("No encrypted data keys found."));
+        }
+
+        final List<EncryptedDataKey> encryptedDataKeys = new ArrayList<>();
+        for (EncryptedDataKey encryptedDataKey : allEncryptedDataKeys) {
+            if (KmsKeyring.mayBeSameKmsKey(encryptedDataKey.wrappingKeyId(), _wrappingKeyId)) {
+                encryptedDataKeys.add(encryptedDataKey);
+            }
+        }
+        if (encryptedDataKeys.isEmpty()) {
+            return failedFuture(new S3EncryptionClientException("None of the " + allEncryptedDataKeys.size()
+                    + " encrypted data keys were wrapped by the keyring's key: " + _wrappingKeyId));
+        }
+
+        if (encryptedDataKeys.size() == 1) {
+            return decryptDataKey(materials, encryptedDataKeys.get(0));
+        }
+
+        return decryptDataKeys(materials, encryptedDataKeys, 0, null);
+    }
+
+    private CompletableFuture<DecryptionMaterials> decryptDataKeys(DecryptionMaterials materials,
+                                                                   List<EncryptedDataKey> encryptedDataKeys,
+                                                                   int index,
+                                                                   S3EncryptionClientException failure) {
+        if (index == encryptedDataKeys.size()) {
+            return failedFuture(failure);
+        }
+        return decryptDataKey(materials, encryptedDataKeys.get(index))
+                .handle((decryptionMaterials, throwable) -> {
+                    if (throwable == null) {
+                        return CompletableFuture.completedFuture(decryptionMaterials);
+                    }
+                    Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                            ? throwable.getCause()
+                            : throwable;
+                    return decryptDataKeys(materials, encryptedDataKeys, index + 1,
+                            S3Keyring.addDecryptFailure(failure, cause, encryptedDataKeys.size()));
+                })
+                .thenCompose(Function.identity());
+    }
+
+    private CompletableFuture<DecryptionMaterials> decryptDataKey(DecryptionMaterials materials, EncryptedDataKey encryptedDataKey) {
+        final String keyProviderId = encryptedDataKey.keyProviderId();
+        if (!S3Keyring.KEY_PROVIDER_ID.equals(keyProviderId)) {
+            return failedFuture(new S3EncryptionClientException("Unknown key provider: " + keyProviderId));
+        }
+
+        String keyProviderInfo = new String(encryptedDataKey.keyProviderInfo(), StandardCharsets.UTF_8);
+        if (KmsKeyring.KMS_KEY_PROVIDER_INFO.equals(keyProviderInfo)) {
+            if (!_enableLegacyWrappingAlgorithms) {
+                return failedFuture(new S3EncryptionClientException("Enable legacy wrapping algorithms to use legacy key wrapping algorithm: " + keyProviderInfo));
+            }
+        } else if (KmsKeyring.KMS_CONTEXT_KEY_PROVIDER_INFO.equals(keyProviderInfo)) {
+            try {
+                KmsKeyring.validateEncryptionContext(materials);
+            } catch (S3EncryptionClientException e) {
+                return failedFuture(e);
+            }
+        } else {
+            return failedFuture(new S3EncryptionClientException("The keyring does not support the object's key wrapping algorithm: " + keyProviderInfo));
+        }
+
+        DecryptRequest request = DecryptRequest.builder()
+                .keyId(_wrappingKeyId)
+                .encryptionContext(materials.encryptionContext())
+                .ciphertextBlob(SdkBytes.fromByteArray(encryptedDataKey.encryptedDatakey()))
+                .overrideConfiguration(builder -> builder.addApiName(API_NAME))
+                .build();
+
+        return _kmsClient.decrypt(request).thenApply(response -> materials.toBuilder()
+                .plaintextDataKey(response.plaintext().asByteArray())
+                .build());
+    }
+
+    private EncryptedDataKey kmsContextEncryptedDataKey(byte[] ciphertext) {
+        return EncryptedDataKey.builder()
+                .keyProviderId(S3Keyring.KEY_PROVIDER_ID)
+                .keyProviderInfo(KmsKeyring.KMS_CONTEXT_KEY_PROVIDER_INFO.getBytes(StandardCharsets.UTF_8))
+                .encryptedDataKey(ciphertext)
+                .wrappingKeyId(_wrappingKeyId)
+                .build();
+    }
+
+    private static List<EncryptedDataKey> appendEncryptedDataKey(EncryptionMaterials materials, EncryptedDataKey encryptedDataKey) {
+        List<EncryptedDataKey> encryptedDataKeys = new ArrayList<>(materials.encryptedDataKeys());
+        encryptedDataKeys.add(encryptedDataKey);
+        return encryptedDataKeys;
+    }
+
+    private static <T> CompletableFuture<T> failedFuture(Throwable cause) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(cause);
+        return future;
+    }
+
+    public static class Builder {
+        private KmsAsyncClient _kmsClient;
+        private String _wrappingKeyId;
+        private boolean _enableLegacyWrappingAlgorithms = false;
+
+        private Builder() {}
+
+        /**
+         * Note that this does NOT create a defensive clone of KmsAsyncClient. Any modifications made to the wrapped
+         * client will be reflected in this Builder.
+         */
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "Pass mutability into wrapping client")
+        public Builder kmsClient(KmsAsyncClient kmsClient) {
+            _kmsClient = kmsClient;
+            return this;
+        }
+
+        public Builder wrappingKeyId(String wrappingKeyId) {
+            _wrappingKeyId = wrappingKeyId;
+            return this;
+        }
+
+        public Builder enableLegacyWrappingAlgorithms(boolean shouldEnableLegacyWrappingAlgorithms) {
+            _enableLegacyWrappingAlgorithms = shouldEnableLegacyWrappingAlgorithms;
+            return this;
+        }
+
+        public KmsAsyncKeyring build() {
+            if (_kmsClient == null) {
+                _kmsClient = KmsAsyncClient.builder().build();
+            }
+            return new KmsAsyncKeyring(this);
+        }
+    }
+}
@@ -0,0 +1,309 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.materials;
+
+import org.apache.commons.logging.LogFactory;
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.DataKeySpec;
+import software.amazon.encryption.s3.S3EncryptionClientException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * A bounded pool of data keys generated ahead of time by AWS KMS, for use with {@link KmsKeyring}.
+ * <p>
+ * Keys are pooled per KMS client, wrapping key, encryption context and data key spec, so a pool
+ * may be shared by keyrings whose clients use different regions or accounts. When the number of
+ * ready keys for a partition drops below the low watermark, a background refill generates keys
+ * until the high watermark is reached, so that bursts of PutObject calls do not each wait on a
+ * GenerateDataKey round trip. When a partition is empty the key is generated on the calling
+ * thread, exactly as without a pool.
+ * <p>
+ * Every pooled key is handed out at most once; data keys are never reused across objects.
+ * Close the pool to stop refilling and zero any keys which were not used.
+ */
+public class KmsDataKeyPool implements AutoCloseable {
+
+    private final int _lowWatermark;
+    private final int _highWatermark;
+    private final int _maxPartitions;
+    private final ExecutorService _executor;
+    private final boolean _ownsExecutor;
+
+    private final Map<List<Object>, Partition> _partitions = new ConcurrentHashMap<>();
+    private final AtomicBoolean _closed = new AtomicBoolean(false);
+
+    private final AtomicLong _pooledKeysTaken = new AtomicLong(0);
+    private final AtomicLong _generatedOnRequestPath = new AtomicLong(0);
+    private final AtomicLong _refillCount = new AtomicLong(0);
+    private final AtomicLong _refillLatencyNanosTotal = new AtomicLong(0);
+    private final AtomicLong _lastRefillLatencyNanos = new AtomicLong(0);
+
+    private KmsDataKeyPool(Builder builder) {
+        _lowWatermark = builder._lowWatermark;
+        _highWatermark = builder._highWatermark;
+        _maxPartitions = builder._maxPartitions;
+        if (builder._executor != null) {
+            _executor = builder._executor;
+            _ownsExecutor = false;
+        } else {
+            _executor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "s3ec-kms-data-key-pool");
+                thread.setDaemon(true);
+                return thread;
+            });
+            _ownsExecutor = true;
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Takes a pre-generated data key for the given partition, or generates one on the calling
+     * thread if none is ready. Schedules a background refill if the partition is running low.
+     */
+    PooledDataKey take(KmsClient kmsClient, String wrappingKeyId, Map<String, String> encryptionContext,
+                       DataKeySpec dataKeySpec, Supplier<PooledDataKey> generator) {
+        if (_closed.get()) {
+            _generatedOnRequestPath.incrementAndGet();
+            return generator.get();
+        }
+
+        Partition partition = partitionFor(kmsClient, wrappingKeyId, encryptionContext, dataKeySpec, generator);
+        if (partition == null) {
+            // Too many distinct partitions to pool, e.g. a unique encryption context per object
+            _generatedOnRequestPath.incrementAndGet();
+            return generator.get();
+        }
+
+        PooledDataKey dataKey = partition._keys.poll();
+        partition.refillIfLow();
+        if (dataKey != null) {
+            _pooledKeysTaken.incrementAndGet();
+            return dataKey;
+        }
+
+        _generatedOnRequestPath.incrementAndGet();
+        return generator.get();
+    }
+
+    private Partition partitionFor(KmsClient kmsClient, String wrappingKeyId, Map<String, String> encryptionContext,
+                                   DataKeySpec dataKeySpec, Supplier<PooledDataKey> generator) {
+        // The client is compared by identity, so that a partition's keys are only ever generated, and
+        // so wrapped, by the client of the keyrings which take them
+        List<Object> partitionKey = Arrays.asList(kmsClient, wrappingKeyId, new HashMap<>(encryptionContext), dataKeySpec);
+        Partition partition = _partitions.get(partitionKey);
+        if (partition == null) {
+            if (_partitions.size() >= _maxPartitions) {
+                return null;
+            }
+            partition = _partitions.computeIfAbsent(partitionKey, key -> new Partition(generator));
+        }
+        return partition;
+    }
+
+    /**
+     * @return the number of data keys currently ready across all partitions
+     */
+    public int queueDepth() {
+        int depth = 0;
+        for (Partition partition : _partitions.values()) {
+            depth += partition._keys.size();
+        }
+        return depth;
+    }
+
+    /**
+     * @return the number of data keys which were served from the pool
+     */
+    public long pooledKeysTaken() {
+        return _pooledKeysTaken.get();
+    }
+
+    /**
+     * @return the number of data keys which had to be generated on the request path
+     */
+    public long keysGeneratedOnRequestPath() {
+        return _generatedOnRequestPath.get();
+    }
+
+    /**
+     * @return the number of data keys generated by background refills
+     */
+    public long refillCount() {
+        return _refillCount.get();
+    }
+
+    /**
+     * @return the mean latency of background GenerateDataKey calls, in nanoseconds
+     */
+    public long averageRefillLatencyNanos() {
+        final long refills = _refillCount.get();
+        return refills == 0 ? 0 : _refillLatencyNanosTotal.get() / refills;
+    }
+
+    /**
+     * @return the latency of the most recent background GenerateDataKey call, in nanoseconds
+     */
+    public long lastRefillLatencyNanos() {
+        return _lastRefillLatencyNanos.get();
+    }
+
+    /**
+     * Stops refilling and zeroes all data keys which were not handed out.
+     * If the pool created its own executor, the executor is shut down.
+     */
+    @Override
+    public void close() {
+        if (!_closed.compareAndSet(false, true)) {
+            return;
+        }
+        if (_ownsExecutor) {
+            _executor.shutdownNow();
+        }
+        for (Partition partition : _partitions.values()) {
+            List<PooledDataKey> remaining = new ArrayList<>();
+            partition._keys.drainTo(remaining);
+            for (PooledDataKey dataKey : remaining) {
+                dataKey.destroy();
+            }
+        }
+        _partitions.clear();
+    }
+
+    private final class Partition {
+        private final BlockingQueue<PooledDataKey> _keys = new ArrayBlockingQueue<>(_highWatermark);
+        private final AtomicBoolean _refilling = new AtomicBoolean(false);
+        private final Supplier<PooledDataKey> _generator;
+
+        private Partition(Supplier<PooledDataKey> generator) {
+            _generator = generator;
+        }
+
+        private void refillIfLow() {
+            if (_keys.size() >= _lowWatermark || !_refilling.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                _executor.execute(this::refill);
+            } catch (RejectedExecutionException e) {
+                _refilling.set(false);
+            }
+        }
+
+        private void refill() {
+            try {
+                while (!_closed.get() && _keys.size() < _highWatermark) {
+                    final long start = System.nanoTime();
+                    PooledDataKey dataKey = _generator.get();
+                    final long latency = System.nanoTime() - start;
+                    _refillCount.incrementAndGet();
+                    _refillLatencyNanosTotal.addAndGet(latency);
+                    _lastRefillLatencyNanos.set(latency);
+                    if (_closed.get() || !_keys.offer(dataKey)) {
+                        dataKey.destroy();
+                        break;
+                    }
+                }
+            } catch (RuntimeException e) {
+                // The request path falls back to generating keys itself, which surfaces the error
+                LogFactory.getLog(KmsDataKeyPool.class).warn("Unable to refill KMS data key pool", e);
+            } finally {
+                _refilling.set(false);
+            }
+        }
+    }
+
+    /**
+     * A data key generated by AWS KMS, in plaintext and encrypted form.
+     */
+    static final class PooledDataKey {
+        private final byte[] _plaintextDataKey;
+        private final byte[] _encryptedDataKey;
+
+        PooledDataKey(byte[] plaintextDataKey, byte[] encryptedDataKey) {
+            _plaintextDataKey = plaintextDataKey;
+            _encryptedDataKey = encryptedDataKey;
+        }
+
+        byte[] plaintextDataKey() {
+            return _plaintextDataKey;
+        }
+
+        byte[] encryptedDataKey() {
+            return _encryptedDataKey;
+        }
+
+        void destroy() {
+            Arrays.fill(_plaintextDataKey, (byte) 0);
+        }
+    }
+
+    public static class Builder {
+        private int _lowWatermark = 4;
+        private int _highWatermark = 16;
+        private int _maxPartitions = 64;
+        private ExecutorService _executor;
+
+        private Builder() {}
+
+        /**
+         * Specifies the number of ready keys below which a partition is refilled. Defaults to 4.
+         */
+        public Builder lowWatermark(int lowWatermark) {
+            _lowWatermark = lowWatermark;
+            return this;
+        }
+
+        /**
+         * Specifies the number of ready keys a refill tops a partition up to. Defaults to 16.
+         */
+        public Builder highWatermark(int highWatermark) {
+            _highWatermark = highWatermark;
+            return this;
+        }
+
+        /**
+         * Specifies the maximum number of (KMS client, wrapping key, encryption context, key spec) partitions.
+         * Requests for further partitions are not pooled. Defaults to 64.
+         */
+        public Builder maxPartitions(int maxPartitions) {
+            _maxPartitions = maxPartitions;
+            return this;
+        }
+
+        /**
+         * Specifies the executor which runs background refills. The pool does not shut down
+         * an executor provided here. Defaults to a single daemon thread owned by the pool.
+         */
+        public Builder executor(ExecutorService executor) {
+            _executor = executor;
+            return this;
+        }
+
+        public KmsDataKeyPool build() {
+            if (_lowWatermark < 0 || _highWatermark < 1 || _lowWatermark > _highWatermark) {
+                throw new S3EncryptionClientException("Watermarks must satisfy 0 <= lowWatermark <= highWatermark and highWatermark >= 1");
+            }
+            if (_maxPartitions < 1) {
+                throw new S3EncryptionClientException("Max partitions must be at least 1");
+            }
+            return new KmsDataKeyPool(this);
+        }
+    }
+}
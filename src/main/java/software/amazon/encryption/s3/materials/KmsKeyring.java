@@ -18,6 +18,7 @@ import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.S3Request;
 import software.amazon.encryption.s3.S3EncryptionClient;
 import software.amazon.encryption.s3.S3EncryptionClientException;
+import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
 import software.amazon.encryption.s3.internal.ApiNameVersion;
 
 import java.nio.charset.StandardCharsets;
@@ -28,6 +29,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Supplier;
 
 /**
  * This keyring can wrap keys with the active keywrap algorithm and
@@ -37,14 +39,17 @@ public class KmsKeyring extends S3Keyring {
 
     private static final ApiName API_NAME = ApiNameVersion.apiNameWithVersion();
     private static final String KEY_ID_CONTEXT_KEY = "kms_cmk_id";
+    private static final String ENCRYPTION_CONTEXT_ALGORITHM_KEY = "aws:x-amz-cek-alg";
+
+    static final String KMS_KEY_PROVIDER_INFO = "kms";
+    static final String KMS_CONTEXT_KEY_PROVIDER_INFO = "kms+context";
 
     private final KmsClient _kmsClient;
     private final String _wrappingKeyId;
+    private final KmsDataKeyPool _dataKeyPool;
 
     private final DecryptDataKeyStrategy _kmsStrategy = new DecryptDataKeyStrategy() {
 
-        private static final String KEY_PROVIDER_INFO = "kms";
-
         @Override
         public boolean isLegacy() {
             return true;
@@ -52,7 +57,7 @@ public class KmsKeyring extends S3Keyring {
 
         @Override
         public String keyProviderInfo() {
-            return KEY_PROVIDER_INFO;
+            return KMS_KEY_PROVIDER_INFO;
         }
 
         @Override
@@ -71,9 +76,6 @@ public class KmsKeyring extends S3Keyring {
 
     private final DataKeyStrategy _kmsContextStrategy = new DataKeyStrategy() {
 
-        private static final String KEY_PROVIDER_INFO = "kms+context";
-        private static final String ENCRYPTION_CONTEXT_ALGORITHM_KEY = "aws:x-amz-cek-alg";
-
         @Override
         public boolean isLegacy() {
             return false;
@@ -81,72 +83,52 @@ public class KmsKeyring extends S3Keyring {
 
         @Override
         public String keyProviderInfo() {
-            return KEY_PROVIDER_INFO;
+            return KMS_CONTEXT_KEY_PROVIDER_INFO;
         }
 
         @Override
         public EncryptionMaterials modifyMaterials(EncryptionMaterials materials) {
-            S3Request s3Request = materials.s3Request();
-
-            Map<String, String> encryptionContext = new HashMap<>(materials.encryptionContext());
-            if (s3Request.overrideConfiguration().isPresent()) {
-                AwsRequestOverrideConfiguration overrideConfig = s3Request.overrideConfiguration().get();
-                Optional<Map<String, String>> optEncryptionContext = overrideConfig
-                        .executionAttributes()
-                        .getOptionalAttribute(S3EncryptionClient.ENCRYPTION_CONTEXT);
-                optEncryptionContext.ifPresent(encryptionContext::putAll);
-            }
-
-            if (encryptionContext.containsKey(ENCRYPTION_CONTEXT_ALGORITHM_KEY)) {
-                throw new S3EncryptionClientException(ENCRYPTION_CONTEXT_ALGORITHM_KEY + " is a reserved key for the S3 encryption client");
-            }
-
-            encryptionContext.put(ENCRYPTION_CONTEXT_ALGORITHM_KEY, materials.algorithmSuite().cipherName());
-
             return materials.toBuilder()
-                    .encryptionContext(encryptionContext)
+                    .encryptionContext(kmsContextEncryptionContext(materials))
                     .build();
         }
 
         @Override
         public EncryptionMaterials generateDataKey(EncryptionMaterials materials) {
-            DataKeySpec dataKeySpec;
-            if (!materials.algorithmSuite().dataKeyAlgorithm().equals("AES")) {
-                throw new S3EncryptionClientException(String.format("The data key algorithm %s is not supported by AWS " + "KMS", materials.algorithmSuite().dataKeyAlgorithm()));
-            }
-            switch (materials.algorithmSuite().dataKeyLengthBits()) {
-                case 128:
-                    dataKeySpec = DataKeySpec.AES_128;
-                    break;
-                case 256:
-                    dataKeySpec = DataKeySpec.AES_256;
-                    break;
-                default:
-                    throw new S3EncryptionClientException(String.format("The data key length %d is not supported by " + "AWS KMS", materials.algorithmSuite().dataKeyLengthBits()));
-            }
-
-            GenerateDataKeyRequest request = GenerateDataKeyRequest.builder()
-                    .keyId(_wrappingKeyId)
-                    .keySpec(dataKeySpec)
-                    .encryptionContext(materials.encryptionContext())
-                    .overrideConfiguration(builder -> builder.addApiName(API_NAME))
-                    .build();
-            GenerateDataKeyResponse response = _kmsClient.generateDataKey(request);
+            final DataKeySpec dataKeySpec = dataKeySpec(materials.algorithmSuite());
+            final Map<String, String> encryptionContext = materials.encryptionContext();
+            final Supplier<KmsDataKeyPool.PooledDataKey> generator = () -> {
+                GenerateDataKeyRequest request = GenerateDataKeyRequest.builder()
+                        .keyId(_wrappingKeyId)
+                        .keySpec(dataKeySpec)
+                        .encryptionContext(encryptionContext)
+                        .overrideConfiguration(builder -> builder.addApiName(API_NAME))
+                        .build();
+                GenerateDataKeyResponse response = _kmsClient.generateDataKey(request);
+                return new KmsDataKeyPool.PooledDataKey(response.plaintext().asByteArray(),
+                        Objects.requireNonNull(response.ciphertextBlob().asByteArray()));
+            };
+            KmsDataKeyPool.PooledDataKey dataKey = _dataKeyPool == null
+                    ? generator.get()
+                    : _dataKeyPool.take(_kmsClient, _wrappingKeyId, encryptionContext, dataKeySpec, generator);
 
-            byte[] encryptedDataKeyCiphertext = response.ciphertextBlob().asByteArray();
             EncryptedDataKey encryptedDataKey = EncryptedDataKey.builder()
                     .keyProviderId(S3Keyring.KEY_PROVIDER_ID)
                     .keyProviderInfo(keyProviderInfo().getBytes(StandardCharsets.UTF_8))
-                    .encryptedDataKey(Objects.requireNonNull(encryptedDataKeyCiphertext))
+                    .encryptedDataKey(dataKey.encryptedDataKey())
+                    .wrappingKeyId(_wrappingKeyId)
                     .build();
 
             List<EncryptedDataKey> encryptedDataKeys = new ArrayList<>(materials.encryptedDataKeys());
             encryptedDataKeys.add(encryptedDataKey);
 
-            return materials.toBuilder()
+            EncryptionMaterials generatedMaterials = materials.toBuilder()
                     .encryptedDataKeys(encryptedDataKeys)
-                    .plaintextDataKey(response.plaintext().asByteArray())
+                    .plaintextDataKey(dataKey.plaintextDataKey())
                     .build();
+            // The materials hold their own copy of the plaintext data key
+            dataKey.destroy();
+            return generatedMaterials;
         }
 
         @Override
@@ -165,25 +147,7 @@ public class KmsKeyring extends S3Keyring {
 
         @Override
         public byte[] decryptDataKey(DecryptionMaterials materials, byte[] encryptedDataKey) {
-            Map<String, String> requestEncryptionContext = new HashMap<>();
-            GetObjectRequest s3Request = materials.s3Request();
-            if (s3Request.overrideConfiguration().isPresent()) {
-                AwsRequestOverrideConfiguration overrideConfig = s3Request.overrideConfiguration().get();
-                Optional<Map<String, String>> optEncryptionContext = overrideConfig
-                        .executionAttributes()
-                        .getOptionalAttribute(S3EncryptionClient.ENCRYPTION_CONTEXT);
-                if (optEncryptionContext.isPresent()) {
-                    requestEncryptionContext = new HashMap<>(optEncryptionContext.get());
-                }
-            }
-
-            // We are validating the encryption context to match S3EC V2 behavior
-            Map<String, String> materialsEncryptionContextCopy = new HashMap<>(materials.encryptionContext());
-            materialsEncryptionContextCopy.remove(KEY_ID_CONTEXT_KEY);
-            materialsEncryptionContextCopy.remove(ENCRYPTION_CONTEXT_ALGORITHM_KEY);
-            if (!materialsEncryptionContextCopy.equals(requestEncryptionContext)) {
-                throw new S3EncryptionClientException("Provided encryption context does not match information retrieved from S3");
-            }
+            validateEncryptionContext(materials);
 
             DecryptRequest request = DecryptRequest.builder()
                     .keyId(_wrappingKeyId)
@@ -200,11 +164,104 @@ public class KmsKeyring extends S3Keyring {
 
     private final Map<String, DecryptDataKeyStrategy> decryptDataKeyStrategies = new HashMap<>();
 
+    /**
+     * Returns the encryption context to bind to a "kms+context" wrapped data key:
+     * the materials' encryption context, merged with any encryption context attached to
+     * the S3 request, plus the content encryption algorithm.
+     */
+    static Map<String, String> kmsContextEncryptionContext(EncryptionMaterials materials) {
+        S3Request s3Request = materials.s3Request();
+
+        Map<String, String> encryptionContext = new HashMap<>(materials.encryptionContext());
+        if (s3Request.overrideConfiguration().isPresent()) {
+            AwsRequestOverrideConfiguration overrideConfig = s3Request.overrideConfiguration().get();
+            Optional<Map<String, String>> optEncryptionContext = overrideConfig
+                    .executionAttributes()
+                    .getOptionalAttribute(S3EncryptionClient.ENCRYPTION_CONTEXT);
+            optEncryptionContext.ifPresent(encryptionContext::putAll);
+        }
+
+        // The reserved key may already have been added by another KMS keyring wrapping the same data key
+        final String algorithm = materials.algorithmSuite().cipherName();
+        if (encryptionContext.containsKey(ENCRYPTION_CONTEXT_ALGORITHM_KEY)
+                && !algorithm.equals(materials.encryptionContext().get(ENCRYPTION_CONTEXT_ALGORITHM_KEY))) {
+            throw new S3EncryptionClientException(ENCRYPTION_CONTEXT_ALGORITHM_KEY + " is a reserved key for the S3 encryption client");
+        }
+
+        encryptionContext.put(ENCRYPTION_CONTEXT_ALGORITHM_KEY, algorithm);
+        return encryptionContext;
+    }
+
+    static DataKeySpec dataKeySpec(AlgorithmSuite algorithmSuite) {
+        if (!algorithmSuite.dataKeyAlgorithm().equals("AES")) {
+            throw new S3EncryptionClientException(String.format("The data key algorithm %s is not supported by AWS " + "KMS", algorithmSuite.dataKeyAlgorithm()));
+        }
+        switch (algorithmSuite.dataKeyLengthBits()) {
+            case 128:
+                return DataKeySpec.AES_128;
+            case 256:
+                return DataKeySpec.AES_256;
+            default:
+                throw new S3EncryptionClientException(String.format("The data key length %d is not supported by " + "AWS KMS", algorithmSuite.dataKeyLengthBits()));
+        }
+    }
+
+    /**
+     * Validates that the encryption context supplied with the GetObject request matches the
+     * encryption context stored with the object, to match S3EC V2 behavior.
+     */
+    static void validateEncryptionContext(DecryptionMaterials materials) {
+        Map<String, String> requestEncryptionContext = new HashMap<>();
+        GetObjectRequest s3Request = materials.s3Request();
+        if (s3Request.overrideConfiguration().isPresent()) {
+            AwsRequestOverrideConfiguration overrideConfig = s3Request.overrideConfiguration().get();
+            Optional<Map<String, String>> optEncryptionContext = overrideConfig
+                    .executionAttributes()
+                    .getOptionalAttribute(S3EncryptionClient.ENCRYPTION_CONTEXT);
+            if (optEncryptionContext.isPresent()) {
+                requestEncryptionContext = new HashMap<>(optEncryptionContext.get());
+            }
+        }
+
+        Map<String, String> materialsEncryptionContextCopy = new HashMap<>(materials.encryptionContext());
+        materialsEncryptionContextCopy.remove(KEY_ID_CONTEXT_KEY);
+        materialsEncryptionContextCopy.remove(ENCRYPTION_CONTEXT_ALGORITHM_KEY);
+        if (!materialsEncryptionContextCopy.equals(requestEncryptionContext)) {
+            throw new S3EncryptionClientException("Provided encryption context does not match information retrieved from S3");
+        }
+    }
+
+    /**
+     * @return whether the KMS key recorded with an encrypted data key may be the given one. Key ids and
+     * ARNs are compared by the key's id, so that a replica of a multi-Region key matches; an alias may
+     * name any key, so always matches.
+     */
+    static boolean mayBeSameKmsKey(String recordedKeyId, String wrappingKeyId) {
+        if (recordedKeyId == null || wrappingKeyId == null || recordedKeyId.equals(wrappingKeyId)) {
+            return true;
+        }
+        final String recordedId = kmsKeyId(recordedKeyId);
+        final String wrappingId = kmsKeyId(wrappingKeyId);
+        return recordedId == null || wrappingId == null || recordedId.equals(wrappingId);
+    }
+
+    /**
+     * @return the id of the key a key id or ARN names, or null for an alias
+     */
+    private static String kmsKeyId(String keyId) {
+        if (keyId.startsWith("alias/") || keyId.contains(":alias/")) {
+            return null;
+        }
+        final int keyResource = keyId.lastIndexOf(":key/");
+        return keyResource < 0 ? keyId : keyId.substring(keyResource + ":key/".length());
+    }
+
     public KmsKeyring(Builder builder) {
         super(builder);
 
         _kmsClient = builder._kmsClient;
         _wrappingKeyId = builder._wrappingKeyId;
+        _dataKeyPool = builder._dataKeyPool;
 
         decryptDataKeyStrategies.put(_kmsStrategy.keyProviderInfo(), _kmsStrategy);
         decryptDataKeyStrategies.put(_kmsContextStrategy.keyProviderInfo(), _kmsContextStrategy);
@@ -224,14 +281,25 @@ public class KmsKeyring extends S3Keyring {
         return _kmsContextStrategy;
     }
 
+    @Override
+    protected String wrappingKeyId() {
+        return _wrappingKeyId;
+    }
+
+    @Override
+    protected boolean mayDecrypt(EncryptedDataKey encryptedDataKey) {
+        return mayBeSameKmsKey(encryptedDataKey.wrappingKeyId(), _wrappingKeyId);
+    }
+
     @Override
     protected Map<String, DecryptDataKeyStrategy> decryptDataKeyStrategies() {
         return decryptDataKeyStrategies;
     }
 
     public static class Builder extends S3Keyring.Builder<KmsKeyring, Builder> {
-        private KmsClient _kmsClient = KmsClient.builder().build();
+        private KmsClient _kmsClient;
         private String _wrappingKeyId;
+        private KmsDataKeyPool _dataKeyPool;
 
         private Builder() {
             super();
@@ -257,7 +325,21 @@ public class KmsKeyring extends S3Keyring {
             return this;
         }
 
+        /**
+         * Specifies a pool of data keys generated ahead of time, so that encryption does not
+         * wait on a GenerateDataKey call while the pool has keys ready. Disabled by default.
+         * The pool may be shared between keyrings and must be closed by the caller.
+         */
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "The pool is shared by design")
+        public Builder dataKeyPool(KmsDataKeyPool dataKeyPool) {
+            _dataKeyPool = dataKeyPool;
+            return this;
+        }
+
         public KmsKeyring build() {
+            if (_kmsClient == null) {
+                _kmsClient = KmsClient.builder().build();
+            }
             return new KmsKeyring(this);
         }
     }
@@ -0,0 +1,111 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.materials;
+
+import software.amazon.encryption.s3.S3EncryptionClientException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A keyring which wraps each data key under several keyrings, so that an object can be decrypted
+ * by any one of them, e.g. with a KMS key in each region a bucket is replicated to.
+ * <p>
+ * On encrypt, the generator keyring generates the data key and wraps it, then each child keyring
+ * adds its own encrypted data key. On decrypt, the keyrings are tried in order (the generator first,
+ * then the children) until one of them decrypts one of the object's encrypted data keys, so readers
+ * should list the keyring which is cheapest for them to use first.
+ */
+public class MultiKeyring implements Keyring {
+
+    private final Keyring _generator;
+    private final List<Keyring> _childKeyrings;
+
+    private MultiKeyring(Builder builder) {
+        _generator = builder._generator;
+        _childKeyrings = Collections.unmodifiableList(new ArrayList<>(builder._childKeyrings));
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public EncryptionMaterials onEncrypt(EncryptionMaterials materials) {
+        if (_generator == null) {
+            throw new S3EncryptionClientException("A generator keyring is required to encrypt");
+        }
+        materials = _generator.onEncrypt(materials);
+        for (Keyring keyring : _childKeyrings) {
+            materials = keyring.onEncrypt(materials);
+        }
+        return materials;
+    }
+
+    @Override
+    public DecryptionMaterials onDecrypt(DecryptionMaterials materials, List<EncryptedDataKey> encryptedDataKeys) {
+        List<Keyring> keyrings = new ArrayList<>();
+        if (_generator != null) {
+            keyrings.add(_generator);
+        }
+        keyrings.addAll(_childKeyrings);
+        if (keyrings.size() == 1) {
+            return keyrings.get(0).onDecrypt(materials, encryptedDataKeys);
+        }
+
+        S3EncryptionClientException failure = null;
+        for (Keyring keyring : keyrings) {
+            try {
+                return keyring.onDecrypt(materials, encryptedDataKeys);
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = new S3EncryptionClientException("Unable to decrypt the data key with any of the "
+                            + keyrings.size() + " keyrings", e);
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        throw failure;
+    }
+
+    public static class Builder {
+        private Keyring _generator;
+        private List<Keyring> _childKeyrings = Collections.emptyList();
+
+        private Builder() {}
+
+        /**
+         * Specifies the keyring which generates the data key. Required to encrypt; a multi-keyring
+         * used only for decryption may omit it.
+         */
+        public Builder generator(Keyring generator) {
+            _generator = generator;
+            return this;
+        }
+
+        /**
+         * Specifies the keyrings which additionally wrap the data key, in the order they are tried on decrypt.
+         */
+        public Builder childKeyrings(List<Keyring> childKeyrings) {
+            _childKeyrings = childKeyrings == null ? Collections.emptyList() : childKeyrings;
+            return this;
+        }
+
+        public Builder childKeyrings(Keyring... childKeyrings) {
+            return childKeyrings(Arrays.asList(childKeyrings));
+        }
+
+        public MultiKeyring build() {
+            if (_generator == null && _childKeyrings.isEmpty()) {
+                throw new S3EncryptionClientException("At least one keyring must be provided");
+            }
+            if (_childKeyrings.contains(null)) {
+                throw new S3EncryptionClientException("Child keyrings cannot be null");
+            }
+            return new MultiKeyring(this);
+        }
+    }
+}
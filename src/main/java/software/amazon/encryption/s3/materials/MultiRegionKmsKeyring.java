@@ -0,0 +1,346 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.materials;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.encryption.s3.S3EncryptionClientException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A keyring for AWS KMS multi-Region keys, holding a {@link KmsClient} and replica key
+ * for each of several regions.
+ * <p>
+ * Data keys are generated and wrapped with the primary region's key. Data keys are unwrapped
+ * by whichever region currently has the lowest Decrypt latency (an exponentially weighted
+ * moving average of observed calls). If that region has not answered within the hedge delay,
+ * the next region is tried as well, and so on; the first successful response is used. A
+ * region which fails with a service or client error is failed over immediately.
+ * <p>
+ * Errors which do not come from AWS KMS (e.g. an encryption context mismatch) would fail the
+ * same way in every region, so they are surfaced without trying other regions.
+ */
+public class MultiRegionKmsKeyring implements Keyring, AutoCloseable {
+
+    // Weight of each new observation in the latency moving average
+    private static final double EWMA_ALPHA = 0.2;
+    // Failed calls are recorded as taking this multiple of the hedge delay,
+    // so that a region which fails quickly (e.g. throttling) is not preferred
+    private static final long FAILURE_PENALTY_HEDGE_DELAYS = 4;
+
+    private final RegionalKeyring _primary;
+    private final List<RegionalKeyring> _regions;
+    private final long _hedgeDelayNanos;
+    private final ExecutorService _executor;
+    private final boolean _ownsExecutor;
+
+    private MultiRegionKmsKeyring(Builder builder) {
+        List<RegionalKeyring> regions = new ArrayList<>();
+        RegionalKeyring primary = null;
+        for (Map.Entry<String, KmsKeyring> entry : builder._regionalKeyrings.entrySet()) {
+            RegionalKeyring regional = new RegionalKeyring(entry.getKey(), entry.getValue());
+            regions.add(regional);
+            if (entry.getKey().equals(builder._primaryRegion)) {
+                primary = regional;
+            }
+        }
+        _regions = Collections.unmodifiableList(regions);
+        _primary = primary;
+        _hedgeDelayNanos = builder._hedgeDelay.toNanos();
+        if (builder._executor != null) {
+            _executor = builder._executor;
+            _ownsExecutor = false;
+        } else {
+            _executor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "s3ec-multi-region-kms");
+                thread.setDaemon(true);
+                return thread;
+            });
+            _ownsExecutor = true;
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public EncryptionMaterials onEncrypt(EncryptionMaterials materials) {
+        return _primary._keyring.onEncrypt(materials);
+    }
+
+    @Override
+    public DecryptionMaterials onDecrypt(DecryptionMaterials materials, List<EncryptedDataKey> encryptedDataKeys) {
+        final List<RegionalKeyring> ordered = new ArrayList<>(_regions);
+        ordered.sort(Comparator.comparingLong(RegionalKeyring::latencyEwmaNanos));
+
+        final BlockingQueue<Outcome> outcomes = new LinkedBlockingQueue<>();
+        final AtomicBoolean decided = new AtomicBoolean(false);
+        int started = 0;
+        int finished = 0;
+        RuntimeException failure = null;
+
+        start(ordered.get(started++), materials, encryptedDataKeys, outcomes, decided);
+        try {
+            while (true) {
+                final Outcome outcome;
+                if (started < ordered.size()) {
+                    outcome = outcomes.poll(_hedgeDelayNanos, TimeUnit.NANOSECONDS);
+                    if (outcome == null) {
+                        // Hedge: the fastest candidates have not answered in time, also try the next region
+                        start(ordered.get(started++), materials, encryptedDataKeys, outcomes, decided);
+                        continue;
+                    }
+                } else {
+                    outcome = outcomes.take();
+                }
+                finished++;
+
+                if (outcome._materials != null) {
+                    return outcome._materials;
+                }
+                if (!isRegional(outcome._error)) {
+                    throw outcome._error;
+                }
+                if (failure == null) {
+                    failure = outcome._error;
+                } else {
+                    failure.addSuppressed(outcome._error);
+                }
+
+                if (started < ordered.size()) {
+                    start(ordered.get(started++), materials, encryptedDataKeys, outcomes, decided);
+                } else if (finished == started) {
+                    throw failure;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new S3EncryptionClientException("Interrupted while waiting for AWS KMS Decrypt", e);
+        } finally {
+            // Calls still in flight are abandoned; any data key they unwrap is zeroed
+            decided.set(true);
+            discardLateOutcomes(outcomes);
+        }
+    }
+
+    private void start(RegionalKeyring region, DecryptionMaterials materials, List<EncryptedDataKey> encryptedDataKeys,
+                       BlockingQueue<Outcome> outcomes, AtomicBoolean decided) {
+        _executor.execute(() -> {
+            final long start = System.nanoTime();
+            try {
+                DecryptionMaterials result = region._keyring.onDecrypt(materials, encryptedDataKeys);
+                region.recordLatency(System.nanoTime() - start);
+                outcomes.add(new Outcome(result, null));
+            } catch (RuntimeException e) {
+                if (isRegional(e)) {
+                    region.recordLatency(Math.max(System.nanoTime() - start, FAILURE_PENALTY_HEDGE_DELAYS * _hedgeDelayNanos));
+                }
+                outcomes.add(new Outcome(null, e));
+            }
+            // The outcome is either taken by onDecrypt, drained by it once decided, or drained here
+            if (decided.get()) {
+                discardLateOutcomes(outcomes);
+            }
+        });
+    }
+
+    private static void discardLateOutcomes(BlockingQueue<Outcome> outcomes) {
+        Outcome outcome;
+        while ((outcome = outcomes.poll()) != null) {
+            if (outcome._materials != null) {
+                outcome._materials.destroy();
+            }
+        }
+    }
+
+    /**
+     * Errors raised by the SDK (service errors, throttling, timeouts, connection failures)
+     * may not occur in another region. With several encrypted data keys, the keyring collects
+     * each key's failure into one S3EncryptionClientException, so its causes are checked too.
+     */
+    private static boolean isRegional(Throwable error) {
+        return isRegional(error, Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    private static boolean isRegional(Throwable error, Set<Throwable> seen) {
+        if (error == null || !seen.add(error)) {
+            return false;
+        }
+        if (error instanceof SdkException && !(error instanceof S3EncryptionClientException)) {
+            return true;
+        }
+        if (isRegional(error.getCause(), seen)) {
+            return true;
+        }
+        for (Throwable suppressed : error.getSuppressed()) {
+            if (isRegional(suppressed, seen)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the moving average of Decrypt latency per region, in nanoseconds.
+     * Regions which have not been called yet report zero.
+     */
+    public Map<String, Long> latencyEwmaNanos() {
+        Map<String, Long> latencies = new LinkedHashMap<>();
+        for (RegionalKeyring region : _regions) {
+            latencies.put(region._region, region.latencyEwmaNanos());
+        }
+        return latencies;
+    }
+
+    /**
+     * Shuts down the executor used for Decrypt calls, if it was created by this keyring.
+     * The regional KMS clients are not closed.
+     */
+    @Override
+    public void close() {
+        if (_ownsExecutor) {
+            _executor.shutdown();
+        }
+    }
+
+    private static final class Outcome {
+        private final DecryptionMaterials _materials;
+        private final RuntimeException _error;
+
+        private Outcome(DecryptionMaterials materials, RuntimeException error) {
+            _materials = materials;
+            _error = error;
+        }
+    }
+
+    private static final class RegionalKeyring {
+        private final String _region;
+        private final KmsKeyring _keyring;
+        // Stored as the raw bits of a double; zero until the first observation
+        private final AtomicLong _latencyEwmaNanos = new AtomicLong(0);
+
+        private RegionalKeyring(String region, KmsKeyring keyring) {
+            _region = region;
+            _keyring = keyring;
+        }
+
+        private long latencyEwmaNanos() {
+            return (long) Double.longBitsToDouble(_latencyEwmaNanos.get());
+        }
+
+        private void recordLatency(long latencyNanos) {
+            while (true) {
+                final long currentBits = _latencyEwmaNanos.get();
+                final double current = Double.longBitsToDouble(currentBits);
+                final double updated = current == 0.0
+                        ? latencyNanos
+                        : EWMA_ALPHA * latencyNanos + (1 - EWMA_ALPHA) * current;
+                if (_latencyEwmaNanos.compareAndSet(currentBits, Double.doubleToLongBits(updated))) {
+                    return;
+                }
+            }
+        }
+    }
+
+    public static class Builder {
+        private final Map<String, KmsClient> _kmsClients = new LinkedHashMap<>();
+        private final Map<String, String> _wrappingKeyIds = new LinkedHashMap<>();
+        private final Map<String, KmsKeyring> _regionalKeyrings = new LinkedHashMap<>();
+        private String _primaryRegion;
+        private Duration _hedgeDelay = Duration.ofMillis(100);
+        private boolean _enableLegacyWrappingAlgorithms = false;
+        private ExecutorService _executor;
+
+        private Builder() {}
+
+        /**
+         * Adds a region, with a KMS client for that region and the ARN of the multi-Region key
+         * replica in that region. The first region added is the primary unless
+         * {@link #primaryRegion(String)} is specified.
+         */
+        @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "Pass mutability into wrapping client")
+        public Builder addRegion(String region, KmsClient kmsClient, String wrappingKeyId) {
+            if (region == null || kmsClient == null || wrappingKeyId == null) {
+                throw new S3EncryptionClientException("Region, KmsClient and wrapping key id must all be provided");
+            }
+            if (_kmsClients.containsKey(region)) {
+                throw new S3EncryptionClientException("Region " + region + " has already been added");
+            }
+            _kmsClients.put(region, kmsClient);
+            _wrappingKeyIds.put(region, wrappingKeyId);
+            return this;
+        }
+
+        /**
+         * Specifies the region whose key is used to generate and wrap data keys.
+         */
+        public Builder primaryRegion(String primaryRegion) {
+            _primaryRegion = primaryRegion;
+            return this;
+        }
+
+        /**
+         * Specifies how long to wait for a Decrypt response before also trying the next region.
+         * Defaults to 100 milliseconds.
+         */
+        public Builder hedgeDelay(Duration hedgeDelay) {
+            if (hedgeDelay == null || hedgeDelay.isNegative()) {
+                throw new S3EncryptionClientException("Hedge delay cannot be negative");
+            }
+            _hedgeDelay = hedgeDelay;
+            return this;
+        }
+
+        public Builder enableLegacyWrappingAlgorithms(boolean shouldEnableLegacyWrappingAlgorithms) {
+            _enableLegacyWrappingAlgorithms = shouldEnableLegacyWrappingAlgorithms;
+            return this;
+        }
+
+        /**
+         * Specifies the executor which runs regional Decrypt calls. The keyring does not shut down
+         * an executor provided here. Defaults to a cached pool of daemon threads owned by the keyring.
+         */
+        public Builder executor(ExecutorService executor) {
+            _executor = executor;
+            return this;
+        }
+
+        public MultiRegionKmsKeyring build() {
+            if (_kmsClients.isEmpty()) {
+                throw new S3EncryptionClientException("At least one region must be provided");
+            }
+            _regionalKeyrings.clear();
+            for (Map.Entry<String, KmsClient> region : _kmsClients.entrySet()) {
+                _regionalKeyrings.put(region.getKey(), KmsKeyring.builder()
+                        .kmsClient(region.getValue())
+                        .wrappingKeyId(_wrappingKeyIds.get(region.getKey()))
+                        .enableLegacyWrappingAlgorithms(_enableLegacyWrappingAlgorithms)
+                        .build());
+            }
+            if (_primaryRegion == null) {
+                _primaryRegion = _kmsClients.keySet().iterator().next();
+            } else if (!_regionalKeyrings.containsKey(_primaryRegion)) {
+                throw new S3EncryptionClientException("Primary region " + _primaryRegion + " has not been added");
+            }
+            return new MultiRegionKmsKeyring(this);
+        }
+    }
+}
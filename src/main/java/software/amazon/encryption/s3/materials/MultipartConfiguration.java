@@ -3,6 +3,7 @@
 package software.amazon.encryption.s3.materials;
 
 import software.amazon.encryption.s3.internal.MultiFileOutputStream;
+import software.amazon.encryption.s3.internal.PartSpool;
 import software.amazon.encryption.s3.internal.UploadObjectObserver;
 
 import java.util.concurrent.ExecutorService;
@@ -45,6 +46,10 @@ public class MultipartConfiguration {
         return _outputStream;
     }
 
+    public PartSpool partSpool() {
+        return _outputStream == null ? null : _outputStream.getPartSpool();
+    }
+
     public UploadObjectObserver uploadObjectObserver() {
         return _observer;
     }
@@ -55,7 +60,9 @@ public class MultipartConfiguration {
 
     static public class Builder {
         private final long MIN_PART_SIZE = 5 << 20;
-        private MultiFileOutputStream _outputStream = new MultiFileOutputStream();
+        // If null, MultiFileOutputStream will be initialized in build() based on partSpool.
+        private MultiFileOutputStream _outputStream = null;
+        private PartSpool _partSpool = null;
         // Default Max Connections is 50
         private int _maxConnections = 50;
         // Set Min Allowed Part Size as Default
@@ -81,6 +88,10 @@ public class MultipartConfiguration {
             return this;
         }
 
+        /**
+         * The most bytes of encrypted parts held by the part spool at once, whether on disk or in
+         * memory. Encryption waits while the spool is full. Must be set for spools held in memory.
+         */
         public Builder diskLimit(long diskLimit) {
             _diskLimit = diskLimit;
             return this;
@@ -101,7 +112,24 @@ public class MultipartConfiguration {
             return this;
         }
 
+        /**
+         * The storage which holds each encrypted part until it has been uploaded, e.g. a
+         * {@link software.amazon.encryption.s3.internal.HeapPartSpool}. Defaults to temporary files
+         * under java.io.tmpdir. Cannot be set together with a MultiFileOutputStream.
+         */
+        public Builder partSpool(PartSpool partSpool) {
+            _partSpool = partSpool;
+            return this;
+        }
+
         public MultipartConfiguration build() {
+            if (_outputStream == null) {
+                _outputStream = _partSpool == null
+                        ? new MultiFileOutputStream()
+                        : new MultiFileOutputStream(_partSpool);
+            } else if (_partSpool != null) {
+                throw new IllegalArgumentException("Only one of partSpool and multiFileOutputStream may be set");
+            }
             if (_es == null) {
                 _es = Executors.newFixedThreadPool(_maxConnections);
             }
@@ -3,7 +3,7 @@
 package software.amazon.encryption.s3.materials;
 
 import software.amazon.encryption.s3.S3EncryptionClientException;
-import software.amazon.encryption.s3.internal.CryptoFactory;
+import software.amazon.encryption.s3.internal.CipherPool;
 
 import javax.crypto.Cipher;
 import javax.crypto.spec.OAEPParameterSpec;
@@ -22,9 +22,11 @@ import java.util.Map;
  * This keyring can wrap keys with the active keywrap algorithm and
  * unwrap with the active and legacy algorithms for RSA keys.
  */
-public class RsaKeyring extends S3Keyring {
+public class RsaKeyring extends S3Keyring implements AutoCloseable {
 
     private final PartialRsaKeyPair _partialRsaKeyPair;
+    // Holds ciphers initialized with the key pair, so it is scoped to this keyring
+    private final CipherPool _cipherPool = new CipherPool();
 
     // Used exclusively by v1's EncryptionOnly mode
     private final DecryptDataKeyStrategy _rsaStrategy = new DecryptDataKeyStrategy() {
@@ -43,10 +45,9 @@ public class RsaKeyring extends S3Keyring {
 
         @Override
         public byte[] decryptDataKey(DecryptionMaterials materials, byte[] encryptedDataKey) throws GeneralSecurityException {
-            final Cipher cipher = CryptoFactory.createCipher(CIPHER_ALGORITHM, materials.cryptoProvider());
-            cipher.init(Cipher.DECRYPT_MODE, _partialRsaKeyPair.getPrivateKey());
-
-            return cipher.doFinal(encryptedDataKey);
+            return _cipherPool.withCipher(CIPHER_ALGORITHM, materials.cryptoProvider(),
+                    Cipher.DECRYPT_MODE, _partialRsaKeyPair.getPrivateKey(), null, null,
+                    cipher -> cipher.doFinal(encryptedDataKey));
         }
     };
 
@@ -66,10 +67,9 @@ public class RsaKeyring extends S3Keyring {
 
         @Override
         public byte[] decryptDataKey(DecryptionMaterials materials, byte[] encryptedDataKey) throws GeneralSecurityException {
-            final Cipher cipher = CryptoFactory.createCipher(CIPHER_ALGORITHM, materials.cryptoProvider());
-            cipher.init(Cipher.UNWRAP_MODE, _partialRsaKeyPair.getPrivateKey());
-
-            Key plaintextKey = cipher.unwrap(encryptedDataKey, CIPHER_ALGORITHM, Cipher.SECRET_KEY);
+            Key plaintextKey = _cipherPool.withCipher(CIPHER_ALGORITHM, materials.cryptoProvider(),
+                    Cipher.UNWRAP_MODE, _partialRsaKeyPair.getPrivateKey(), null, null,
+                    cipher -> cipher.unwrap(encryptedDataKey, CIPHER_ALGORITHM, Cipher.SECRET_KEY));
 
             return plaintextKey.getEncoded();
         }
@@ -112,9 +112,6 @@ public class RsaKeyring extends S3Keyring {
         @Override
         public byte[] encryptDataKey(SecureRandom secureRandom,
                                      EncryptionMaterials materials) throws GeneralSecurityException {
-            final Cipher cipher = CryptoFactory.createCipher(CIPHER_ALGORITHM, materials.cryptoProvider());
-            cipher.init(Cipher.WRAP_MODE, _partialRsaKeyPair.getPublicKey(), OAEP_PARAMETER_SPEC, secureRandom);
-
             // Create a pseudo-data key with the content encryption appended to the data key
             byte[] dataKey = materials.plaintextDataKey();
             byte[] dataCipherName = materials.algorithmSuite().cipherName().getBytes(
@@ -125,17 +122,18 @@ public class RsaKeyring extends S3Keyring {
             System.arraycopy(dataKey, 0, pseudoDataKey, 1, dataKey.length);
             System.arraycopy(dataCipherName, 0, pseudoDataKey, 1 + dataKey.length, dataCipherName.length);
 
-            byte[] ciphertext = cipher.wrap(new SecretKeySpec(pseudoDataKey, materials.algorithmSuite().dataKeyAlgorithm()));
+            byte[] ciphertext = _cipherPool.withCipher(CIPHER_ALGORITHM, materials.cryptoProvider(),
+                    Cipher.WRAP_MODE, _partialRsaKeyPair.getPublicKey(), OAEP_PARAMETER_SPEC, secureRandom,
+                    cipher -> cipher.wrap(new SecretKeySpec(pseudoDataKey, materials.algorithmSuite().dataKeyAlgorithm())));
             return ciphertext;
         }
 
         @Override
         public byte[] decryptDataKey(DecryptionMaterials materials, byte[] encryptedDataKey) throws GeneralSecurityException {
-            final Cipher cipher = CryptoFactory.createCipher(CIPHER_ALGORITHM, materials.cryptoProvider());
-            cipher.init(Cipher.UNWRAP_MODE, _partialRsaKeyPair.getPrivateKey(), OAEP_PARAMETER_SPEC);
-
             String dataKeyAlgorithm = materials.algorithmSuite().dataKeyAlgorithm();
-            Key pseudoDataKey = cipher.unwrap(encryptedDataKey, dataKeyAlgorithm, Cipher.SECRET_KEY);
+            Key pseudoDataKey = _cipherPool.withCipher(CIPHER_ALGORITHM, materials.cryptoProvider(),
+                    Cipher.UNWRAP_MODE, _partialRsaKeyPair.getPrivateKey(), OAEP_PARAMETER_SPEC, null,
+                    cipher -> cipher.unwrap(encryptedDataKey, dataKeyAlgorithm, Cipher.SECRET_KEY));
 
             return parsePseudoDataKey(materials, pseudoDataKey.getEncoded());
         }
@@ -196,6 +194,15 @@ public class RsaKeyring extends S3Keyring {
         return decryptDataKeyStrategies;
     }
 
+    /**
+     * Discards the ciphers this keyring keeps for reuse, which hold its key pair. The keyring may
+     * still be used afterwards.
+     */
+    @Override
+    public void close() {
+        _cipherPool.clear();
+    }
+
     public static class Builder extends S3Keyring.Builder<S3Keyring, Builder> {
         private PartialRsaKeyPair _partialRsaKeyPair;
 
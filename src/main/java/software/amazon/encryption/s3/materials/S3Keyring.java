@@ -59,12 +59,13 @@ abstract public class S3Keyring implements Keyring {
         materials = encryptStrategy.modifyMaterials(materials);
 
         if (materials.plaintextDataKey() == null) {
+            final int encryptedDataKeyCount = materials.encryptedDataKeys().size();
             materials = generateDataKeyStrategy().generateDataKey(materials);
-        }
 
-        // Return materials if they already have an encrypted data key.
-        if (!materials.encryptedDataKeys().isEmpty()) {
-            return materials;
+            // Return materials if generating the data key also encrypted it, e.g. KMS GenerateDataKey
+            if (materials.encryptedDataKeys().size() > encryptedDataKeyCount) {
+                return materials;
+            }
         }
 
         try {
@@ -73,6 +74,7 @@ abstract public class S3Keyring implements Keyring {
                     .keyProviderId(S3Keyring.KEY_PROVIDER_ID)
                     .keyProviderInfo(encryptStrategy.keyProviderInfo().getBytes(StandardCharsets.UTF_8))
                     .encryptedDataKey(encryptedDataKeyCiphertext)
+                    .wrappingKeyId(wrappingKeyId())
                     .build();
 
             List<EncryptedDataKey> encryptedDataKeys = new ArrayList<>(materials.encryptedDataKeys());
@@ -90,17 +92,63 @@ abstract public class S3Keyring implements Keyring {
 
     abstract protected EncryptDataKeyStrategy encryptDataKeyStrategy();
 
+    /**
+     * @return the key this keyring wraps data keys with, recorded with each encrypted data key so that
+     * readers can skip those wrapped by other keys. By default, the type of keyring.
+     */
+    protected String wrappingKeyId() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * @return whether the encrypted data key may have been wrapped by this keyring's key, i.e. whether
+     * it is worth trying to decrypt
+     */
+    protected boolean mayDecrypt(EncryptedDataKey encryptedDataKey) {
+        return encryptedDataKey.wrappingKeyId() == null || encryptedDataKey.wrappingKeyId().equals(wrappingKeyId());
+    }
+
+    /**
+     * Decrypts the first of the encrypted data keys which this keyring is able to decrypt,
+     * trying them in order, and skipping those wrapped by other keys.
+     */
     @Override
-    public DecryptionMaterials onDecrypt(final DecryptionMaterials materials, List<EncryptedDataKey> encryptedDataKeys) {
+    public DecryptionMaterials onDecrypt(final DecryptionMaterials materials, List<EncryptedDataKey> allEncryptedDataKeys) {
         if (materials.plaintextDataKey() != null) {
             throw new S3EncryptionClientException("Decryption materials already contains a plaintext data key.");
         }
 
-        if (encryptedDataKeys.size() != 1) {
-            throw new S3EncryptionClientException("Only one encrypted data key is supported, found: " + encryptedDataKeys.size());
+        if (allEncryptedDataKeys.isEmpty()) {
+            throw new S3EncryptionClientException("No encrypted data keys found.");
         }
 
-        EncryptedDataKey encryptedDataKey = encryptedDataKeys.get(0);
+        final List<EncryptedDataKey> encryptedDataKeys = new ArrayList<>();
+        for (EncryptedDataKey encryptedDataKey : allEncryptedDataKeys) {
+            if (mayDecrypt(encryptedDataKey)) {
+                encryptedDataKeys.add(encryptedDataKey);
+            }
+        }
+        if (encryptedDataKeys.isEmpty()) {
+            throw new S3EncryptionClientException("None of the " + allEncryptedDataKeys.size()
+                    + " encrypted data keys were wrapped by the keyring's key: " + wrappingKeyId());
+        }
+
+        if (encryptedDataKeys.size() == 1) {
+            return decryptDataKey(materials, encryptedDataKeys.get(0));
+        }
+
+        S3EncryptionClientException failure = null;
+        for (EncryptedDataKey encryptedDataKey : encryptedDataKeys) {
+            try {
+                return decryptDataKey(materials, encryptedDataKey);
+            } catch (RuntimeException e) {
+                failure = addDecryptFailure(failure, e, encryptedDataKeys.size());
+            }
+        }
+        throw failure;
+    }
+
+    private DecryptionMaterials decryptDataKey(final DecryptionMaterials materials, EncryptedDataKey encryptedDataKey) {
         final String keyProviderId = encryptedDataKey.keyProviderId();
         if (!KEY_PROVIDER_ID.equals(keyProviderId)) {
             throw new S3EncryptionClientException("Unknown key provider: " + keyProviderId);
@@ -125,6 +173,19 @@ abstract public class S3Keyring implements Keyring {
         }
     }
 
+    /**
+     * Collects the failure to decrypt one of several encrypted data keys.
+     */
+    static S3EncryptionClientException addDecryptFailure(S3EncryptionClientException failure, Throwable next,
+                                                         int encryptedDataKeyCount) {
+        if (failure == null) {
+            return new S3EncryptionClientException("Unable to decrypt any of the "
+                    + encryptedDataKeyCount + " encrypted data keys", next);
+        }
+        failure.addSuppressed(next);
+        return failure;
+    }
+
     abstract protected Map<String, DecryptDataKeyStrategy> decryptDataKeyStrategies();
 
     /**
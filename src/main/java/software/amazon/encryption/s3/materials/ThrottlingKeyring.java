@@ -0,0 +1,404 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.materials;
+
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.encryption.s3.S3EncryptionClientException;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * A keyring which limits the number of concurrent calls to another keyring, e.g. a {@link KmsKeyring},
+ * and backs off when the calls are throttled.
+ * <p>
+ * The concurrency limit adapts using additive increase / multiplicative decrease: each successful
+ * call raises the limit by roughly one per limit's worth of calls, and a throttling error cuts it
+ * by the backoff ratio. Calls over the limit wait in a bounded queue, and are shed with an
+ * {@link S3EncryptionClientException} if the queue is full or they cannot start within the queue
+ * timeout.
+ * <p>
+ * After a number of consecutive throttling errors the circuit breaker opens and calls are rejected
+ * immediately, without reaching the wrapped keyring. Once the open duration has passed a single trial
+ * call is let through; the circuit closes if it is not throttled and opens again if it is.
+ */
+public class ThrottlingKeyring implements Keyring {
+
+    private enum CircuitState {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final Keyring _keyring;
+    private final int _minLimit;
+    private final int _maxLimit;
+    private final double _backoffRatio;
+    private final int _maxQueueSize;
+    private final long _queueTimeoutNanos;
+    private final int _circuitBreakerThreshold;
+    private final long _circuitBreakerOpenNanos;
+
+    // Fair, so that queued calls acquire permits in arrival order
+    private final ReentrantLock _lock = new ReentrantLock(true);
+    private final Condition _permitReleased = _lock.newCondition();
+
+    // All guarded by _lock
+    private double _limit;
+    private int _inFlight = 0;
+    private int _queued = 0;
+    // Incremented on each decrease, so that one burst of throttling only cuts the limit once
+    private long _limitEpoch = 0;
+    private CircuitState _circuitState = CircuitState.CLOSED;
+    private int _consecutiveThrottles = 0;
+    private long _circuitOpenedAtNanos = 0;
+    private boolean _trialInFlight = false;
+    private long _throttlingErrors = 0;
+    private long _shedRequests = 0;
+    private long _rejectedByCircuitBreaker = 0;
+
+    private ThrottlingKeyring(Builder builder) {
+        _keyring = builder._keyring;
+        _minLimit = builder._minLimit;
+        _maxLimit = builder._maxLimit;
+        _backoffRatio = builder._backoffRatio;
+        _maxQueueSize = builder._maxQueueSize;
+        _queueTimeoutNanos = builder._queueTimeout.toNanos();
+        _circuitBreakerThreshold = builder._circuitBreakerThreshold;
+        _circuitBreakerOpenNanos = builder._circuitBreakerOpenDuration.toNanos();
+        _limit = builder._initialLimit;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public EncryptionMaterials onEncrypt(EncryptionMaterials materials) {
+        return call(() -> _keyring.onEncrypt(materials));
+    }
+
+    @Override
+    public DecryptionMaterials onDecrypt(DecryptionMaterials materials, List<EncryptedDataKey> encryptedDataKeys) {
+        return call(() -> _keyring.onDecrypt(materials, encryptedDataKeys));
+    }
+
+    private <T> T call(Supplier<T> keyringCall) {
+        final Permit permit = acquire();
+        boolean throttled = false;
+        try {
+            return keyringCall.get();
+        } catch (RuntimeException e) {
+            throttled = isThrottlingException(e);
+            throw e;
+        } finally {
+            release(permit, throttled);
+        }
+    }
+
+    private Permit acquire() {
+        _lock.lock();
+        try {
+            if (_circuitState == CircuitState.OPEN) {
+                if (System.nanoTime() - _circuitOpenedAtNanos < _circuitBreakerOpenNanos) {
+                    _rejectedByCircuitBreaker++;
+                    throw new S3EncryptionClientException("Keyring circuit breaker is open due to throttling");
+                }
+                _circuitState = CircuitState.HALF_OPEN;
+            }
+            if (_circuitState == CircuitState.HALF_OPEN) {
+                if (_trialInFlight) {
+                    _rejectedByCircuitBreaker++;
+                    throw new S3EncryptionClientException("Keyring circuit breaker is open due to throttling");
+                }
+                // The trial call bypasses the limit and queue, it only probes whether throttling has stopped
+                _trialInFlight = true;
+                _inFlight++;
+                return new Permit(_limitEpoch, true);
+            }
+
+            if (_queued == 0 && _inFlight < currentLimitLocked()) {
+                _inFlight++;
+                return new Permit(_limitEpoch, false);
+            }
+            if (_queued >= _maxQueueSize) {
+                _shedRequests++;
+                throw new S3EncryptionClientException("Keyring call queue is full");
+            }
+
+            _queued++;
+            try {
+                long remainingNanos = _queueTimeoutNanos;
+                while (_inFlight >= currentLimitLocked() || _circuitState != CircuitState.CLOSED) {
+                    if (_circuitState != CircuitState.CLOSED) {
+                        _rejectedByCircuitBreaker++;
+                        throw new S3EncryptionClientException("Keyring circuit breaker is open due to throttling");
+                    }
+                    if (remainingNanos <= 0) {
+                        _shedRequests++;
+                        throw new S3EncryptionClientException("Timed out waiting to call keyring");
+                    }
+                    remainingNanos = _permitReleased.awaitNanos(remainingNanos);
+                }
+                _inFlight++;
+                return new Permit(_limitEpoch, false);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new S3EncryptionClientException("Interrupted while waiting to call keyring", e);
+            } finally {
+                _queued--;
+            }
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    private void release(Permit permit, boolean throttled) {
+        _lock.lock();
+        try {
+            _inFlight--;
+            if (permit._trial) {
+                _trialInFlight = false;
+            }
+
+            if (throttled) {
+                _throttlingErrors++;
+                _consecutiveThrottles++;
+                if (permit._limitEpoch == _limitEpoch) {
+                    _limit = Math.max(_minLimit, _limit * _backoffRatio);
+                    _limitEpoch++;
+                }
+                if (permit._trial || _consecutiveThrottles >= _circuitBreakerThreshold) {
+                    _circuitState = CircuitState.OPEN;
+                    _circuitOpenedAtNanos = System.nanoTime();
+                }
+            } else {
+                _consecutiveThrottles = 0;
+                _limit = Math.min(_maxLimit, _limit + 1.0 / _limit);
+                if (permit._trial) {
+                    _circuitState = CircuitState.CLOSED;
+                }
+            }
+            _permitReleased.signalAll();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    private int currentLimitLocked() {
+        return (int) _limit;
+    }
+
+    private static boolean isThrottlingException(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof AwsServiceException && ((AwsServiceException) cause).isThrottlingException()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the current concurrency limit
+     */
+    public int currentLimit() {
+        _lock.lock();
+        try {
+            return currentLimitLocked();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of calls currently running against the wrapped keyring
+     */
+    public int inFlight() {
+        _lock.lock();
+        try {
+            return _inFlight;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of calls waiting for the concurrency limit
+     */
+    public int queueDepth() {
+        _lock.lock();
+        try {
+            return _queued;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of calls to the wrapped keyring which failed with a throttling error
+     */
+    public long throttlingErrors() {
+        _lock.lock();
+        try {
+            return _throttlingErrors;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of calls rejected because the queue was full or their queue timeout passed
+     */
+    public long shedRequests() {
+        _lock.lock();
+        try {
+            return _shedRequests;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of calls rejected because the circuit breaker was open
+     */
+    public long rejectedByCircuitBreaker() {
+        _lock.lock();
+        try {
+            return _rejectedByCircuitBreaker;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * @return true if calls are currently being rejected by the circuit breaker
+     */
+    public boolean isCircuitOpen() {
+        _lock.lock();
+        try {
+            return _circuitState != CircuitState.CLOSED;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    private static final class Permit {
+        private final long _limitEpoch;
+        private final boolean _trial;
+
+        private Permit(long limitEpoch, boolean trial) {
+            _limitEpoch = limitEpoch;
+            _trial = trial;
+        }
+    }
+
+    public static class Builder {
+        private Keyring _keyring;
+        private int _initialLimit = 16;
+        private int _minLimit = 1;
+        private int _maxLimit = 256;
+        private double _backoffRatio = 0.5;
+        private int _maxQueueSize = 256;
+        private Duration _queueTimeout = Duration.ofSeconds(1);
+        private int _circuitBreakerThreshold = 10;
+        private Duration _circuitBreakerOpenDuration = Duration.ofSeconds(5);
+
+        private Builder() {}
+
+        public Builder keyring(Keyring keyring) {
+            _keyring = keyring;
+            return this;
+        }
+
+        /**
+         * Specifies the concurrency limit to start with. Defaults to 16.
+         */
+        public Builder initialLimit(int initialLimit) {
+            _initialLimit = initialLimit;
+            return this;
+        }
+
+        /**
+         * Specifies the lowest the concurrency limit can be cut to. Defaults to 1.
+         */
+        public Builder minLimit(int minLimit) {
+            _minLimit = minLimit;
+            return this;
+        }
+
+        /**
+         * Specifies the highest the concurrency limit can grow to. Defaults to 256.
+         */
+        public Builder maxLimit(int maxLimit) {
+            _maxLimit = maxLimit;
+            return this;
+        }
+
+        /**
+         * Specifies the factor the concurrency limit is multiplied by on throttling. Defaults to 0.5.
+         */
+        public Builder backoffRatio(double backoffRatio) {
+            _backoffRatio = backoffRatio;
+            return this;
+        }
+
+        /**
+         * Specifies the maximum number of calls which may wait for the concurrency limit. Defaults to 256.
+         */
+        public Builder maxQueueSize(int maxQueueSize) {
+            _maxQueueSize = maxQueueSize;
+            return this;
+        }
+
+        /**
+         * Specifies how long a call may wait for the concurrency limit before it is shed. Defaults to 1 second.
+         */
+        public Builder queueTimeout(Duration queueTimeout) {
+            _queueTimeout = queueTimeout;
+            return this;
+        }
+
+        /**
+         * Specifies the number of consecutive throttling errors which open the circuit breaker. Defaults to 10.
+         */
+        public Builder circuitBreakerThreshold(int circuitBreakerThreshold) {
+            _circuitBreakerThreshold = circuitBreakerThreshold;
+            return this;
+        }
+
+        /**
+         * Specifies how long the circuit breaker stays open before a trial call is let through.
+         * Defaults to 5 seconds.
+         */
+        public Builder circuitBreakerOpenDuration(Duration circuitBreakerOpenDuration) {
+            _circuitBreakerOpenDuration = circuitBreakerOpenDuration;
+            return this;
+        }
+
+        public ThrottlingKeyring build() {
+            if (_keyring == null) {
+                throw new S3EncryptionClientException("Keyring must be provided");
+            }
+            if (_minLimit < 1 || _maxLimit < _minLimit || _initialLimit < _minLimit || _initialLimit > _maxLimit) {
+                throw new S3EncryptionClientException("Limits must satisfy 1 <= minLimit <= initialLimit <= maxLimit");
+            }
+            if (_backoffRatio <= 0 || _backoffRatio >= 1) {
+                throw new S3EncryptionClientException("Backoff ratio must be between 0 and 1");
+            }
+            if (_maxQueueSize < 0) {
+                throw new S3EncryptionClientException("Max queue size cannot be negative");
+            }
+            if (_queueTimeout == null || _queueTimeout.isNegative()
+                    || _circuitBreakerOpenDuration == null || _circuitBreakerOpenDuration.isNegative()) {
+                throw new S3EncryptionClientException("Durations cannot be negative");
+            }
+            if (_circuitBreakerThreshold < 1) {
+                throw new S3EncryptionClientException("Circuit breaker threshold must be at least 1");
+            }
+            return new ThrottlingKeyring(this);
+        }
+    }
+}
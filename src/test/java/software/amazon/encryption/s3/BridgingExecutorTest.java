@@ -0,0 +1,100 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BridgingExecutorTest {
+
+    @Test
+    public void boundsThreadsAndQueuesTheRest() throws InterruptedException {
+        BridgingExecutor executor = BridgingExecutor.builder().maxThreads(2).build();
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(4);
+
+        for (int i = 0; i < 4; i++) {
+            executor.execute(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            });
+        }
+        awaitTrue(() -> executor.runningTasks() == 2);
+        assertEquals(2, executor.threads());
+        assertEquals(2, executor.queuedTasks());
+
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        awaitTrue(() -> executor.completedTasks() == 4);
+        assertEquals(0, executor.queuedTasks());
+        assertEquals(0, executor.runningTasks());
+        executor.shutdown();
+    }
+
+    @Test
+    public void idleThreadsExit() throws InterruptedException {
+        BridgingExecutor executor = BridgingExecutor.builder().keepAlive(Duration.ofMillis(50)).build();
+        AtomicReference<String> threadName = new AtomicReference<>();
+
+        executor.execute(() -> threadName.set(Thread.currentThread().getName()));
+        awaitTrue(() -> executor.completedTasks() == 1);
+        assertTrue(threadName.get().startsWith("s3-encryption-client-bridge-"), threadName.get());
+        awaitTrue(() -> executor.threads() == 0);
+        executor.shutdown();
+    }
+
+    @Test
+    public void usesVirtualThreadsWhereSupported() throws InterruptedException {
+        if (!BridgingExecutor.virtualThreadsSupported()) {
+            assertThrows(S3EncryptionClientException.class, () -> BridgingExecutor.builder().virtualThreads(true).build());
+            return;
+        }
+        BridgingExecutor executor = BridgingExecutor.builder().virtualThreads(true).build();
+        CountDownLatch done = new CountDownLatch(1);
+        executor.execute(done::countDown);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(executor.virtualThreads());
+        executor.shutdown();
+    }
+
+    @Test
+    public void rejectsTasksOnceShutDown() {
+        BridgingExecutor executor = BridgingExecutor.builder().build();
+        executor.shutdown();
+
+        assertTrue(executor.isShutdown());
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> { }));
+        assertEquals(0, executor.queuedTasks());
+    }
+
+    @Test
+    public void executorIsValidated() {
+        assertThrows(S3EncryptionClientException.class, () -> BridgingExecutor.builder().maxThreads(0).build());
+        assertThrows(S3EncryptionClientException.class, () -> BridgingExecutor.builder().keepAlive(Duration.ZERO).build());
+    }
+
+    private static void awaitTrue(Condition condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.isTrue()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+
+    private interface Condition {
+        boolean isTrue();
+    }
+}
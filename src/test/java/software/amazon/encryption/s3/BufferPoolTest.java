@@ -0,0 +1,79 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BufferPoolTest {
+
+    @Test
+    public void buffersAreReusedWithinTheirSizeClass() {
+        BufferPool pool = BufferPool.builder().build();
+
+        ByteBuffer buffer = pool.acquire(5000);
+        assertEquals(8192, buffer.capacity());
+        assertEquals(5000, buffer.limit());
+        assertEquals(8192, pool.outstandingBytes());
+        pool.release(buffer);
+        assertEquals(0, pool.outstandingBytes());
+        assertEquals(8192, pool.pooledBytes());
+
+        assertSame(buffer, pool.acquire(8000));
+        assertEquals(1, pool.hits());
+        assertEquals(1, pool.misses());
+        assertEquals(0, pool.pooledBytes());
+    }
+
+    @Test
+    public void releasedBuffersAreZeroed() {
+        BufferPool pool = BufferPool.builder().direct(true).build();
+
+        ByteBuffer buffer = pool.acquire(100);
+        assertTrue(buffer.isDirect());
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) 1);
+        }
+        pool.release(buffer);
+
+        ByteBuffer reused = pool.acquire(4096);
+        assertSame(buffer, reused);
+        while (reused.hasRemaining()) {
+            assertEquals(0, reused.get());
+        }
+    }
+
+    @Test
+    public void poolIsBounded() {
+        BufferPool pool = BufferPool.builder()
+                .maxBufferSize(8192)
+                .maxPooledBytes(4096)
+                .build();
+
+        ByteBuffer large = pool.acquire(10_000);
+        assertEquals(10_000, large.capacity());
+        pool.release(large);
+        assertEquals(0, pool.pooledBytes());
+
+        ByteBuffer first = pool.acquire(4096);
+        ByteBuffer second = pool.acquire(4096);
+        pool.release(first);
+        pool.release(second);
+        assertEquals(4096, pool.pooledBytes());
+        assertFalse(pool.acquire(8192) == first);
+    }
+
+    @Test
+    public void buildWithInvalidSizesFails() {
+        assertThrows(S3EncryptionClientException.class, () -> BufferPool.builder().minBufferSize(1000).build());
+        assertThrows(S3EncryptionClientException.class, () -> BufferPool.builder().maxBufferSize(1024).build());
+        assertThrows(S3EncryptionClientException.class, () -> BufferPool.builder().maxPooledBytes(-1).build());
+    }
+}
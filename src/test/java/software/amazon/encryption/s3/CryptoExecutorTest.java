@@ -0,0 +1,141 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CryptoExecutorTest {
+
+    @Test
+    public void tasksOfAStreamRunInOrderOneAtATime() throws InterruptedException {
+        CryptoExecutor cryptoExecutor = CryptoExecutor.builder().parallelism(4).build();
+        Executor stream = cryptoExecutor.newStream();
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(1000);
+
+        for (int i = 0; i < 1000; i++) {
+            final int task = i;
+            stream.execute(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                order.add(task);
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(1, maxRunning.get());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, order.get(i));
+        }
+    }
+
+    @Test
+    public void streamsTakeTurns() {
+        ManualExecutor executor = new ManualExecutor();
+        CryptoExecutor cryptoExecutor = CryptoExecutor.builder().executor(executor).parallelism(1).build();
+        Executor large = cryptoExecutor.newStream();
+        Executor small = cryptoExecutor.newStream();
+        List<String> order = new ArrayList<>();
+
+        large.execute(() -> order.add("large 1"));
+        large.execute(() -> order.add("large 2"));
+        large.execute(() -> order.add("large 3"));
+        small.execute(() -> order.add("small 1"));
+        executor.runAll();
+        assertEquals(Arrays.asList("large 1", "small 1", "large 2", "large 3"), order);
+    }
+
+    @Test
+    public void parallelismIsBounded() {
+        ManualExecutor executor = new ManualExecutor();
+        CryptoExecutor cryptoExecutor = CryptoExecutor.builder().executor(executor).parallelism(2).build();
+        List<String> order = new ArrayList<>();
+
+        for (int i = 0; i < 3; i++) {
+            final String task = "stream " + i;
+            cryptoExecutor.newStream().execute(() -> order.add(task));
+        }
+        assertEquals(2, executor._tasks.size());
+        executor.runAll();
+        assertEquals(Arrays.asList("stream 0", "stream 1", "stream 2"), order);
+
+        // Workers are started again once the others have finished
+        cryptoExecutor.newStream().execute(() -> order.add("stream 3"));
+        assertEquals(1, executor._tasks.size());
+    }
+
+    @Test
+    public void failingTasksDoNotStopTheStream() {
+        ManualExecutor executor = new ManualExecutor();
+        CryptoExecutor cryptoExecutor = CryptoExecutor.builder().executor(executor).parallelism(1).build();
+        Executor stream = cryptoExecutor.newStream();
+        List<String> order = new ArrayList<>();
+
+        stream.execute(() -> {
+            throw new IllegalStateException();
+        });
+        stream.execute(() -> order.add("after"));
+        executor.runAll();
+        assertEquals(Collections.singletonList("after"), order);
+    }
+
+    @Test
+    public void closingStopsOnlyTheThreadsItCreated() throws InterruptedException {
+        CryptoExecutor cryptoExecutor = CryptoExecutor.builder().parallelism(1).build();
+        CountDownLatch ran = new CountDownLatch(1);
+        cryptoExecutor.newStream().execute(ran::countDown);
+        assertTrue(ran.await(10, TimeUnit.SECONDS));
+        cryptoExecutor.close();
+        assertThrows(RejectedExecutionException.class, () -> cryptoExecutor.newStream().execute(() -> { }));
+
+        ManualExecutor executor = new ManualExecutor();
+        CryptoExecutor sharing = CryptoExecutor.builder().executor(executor).parallelism(1).build();
+        sharing.close();
+        List<String> order = new ArrayList<>();
+        sharing.newStream().execute(() -> order.add("after close"));
+        executor.runAll();
+        assertEquals(Collections.singletonList("after close"), order);
+    }
+
+    @Test
+    public void executorIsValidated() {
+        assertThrows(S3EncryptionClientException.class, () -> CryptoExecutor.builder().parallelism(0).build());
+        assertThrows(S3EncryptionClientException.class, () -> CryptoExecutor.builder().maxInFlightChunks(0).build());
+    }
+
+    /**
+     * Runs the tasks given to it only when asked to.
+     */
+    private static class ManualExecutor implements Executor {
+        private final ArrayDeque<Runnable> _tasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable command) {
+            _tasks.add(command);
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = _tasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+}
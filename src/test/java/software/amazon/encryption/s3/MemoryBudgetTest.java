@@ -0,0 +1,160 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MemoryBudgetTest {
+
+    @Test
+    public void reservationsFailFastByDefault() {
+        MemoryBudget budget = MemoryBudget.builder().maxBytes(100).build();
+
+        assertTrue(budget.reserve(60).isDone());
+        assertEquals(60, budget.reservedBytes());
+
+        CompletableFuture<Void> rejected = budget.reserve(50);
+        CompletionException exception = assertThrows(CompletionException.class, rejected::join);
+        assertInstanceOf(S3EncryptionClientException.class, exception.getCause());
+        assertEquals(1, budget.admissions());
+        assertEquals(1, budget.rejections());
+        assertEquals(60, budget.reservedBytes());
+
+        budget.release(60);
+        assertEquals(0, budget.reservedBytes());
+        budget.reserve(100).join();
+    }
+
+    @Test
+    public void reservationsLargerThanTheBudgetAreRejected() {
+        MemoryBudget budget = MemoryBudget.builder().maxBytes(100).maxWait(Duration.ofMinutes(1)).build();
+
+        assertTrue(budget.reserve(101).isCompletedExceptionally());
+        assertEquals(0, budget.waitingReservations());
+        assertEquals(1, budget.rejections());
+    }
+
+    @Test
+    public void waitingReservationsAreMadeInOrderAsBytesAreReleased() {
+        MemoryBudget budget = MemoryBudget.builder().maxBytes(100).maxWait(Duration.ofMinutes(1)).build();
+
+        budget.reserve(100).join();
+        CompletableFuture<Void> first = budget.reserve(80);
+        CompletableFuture<Void> second = budget.reserve(10);
+        assertFalse(first.isDone());
+        // Does not jump ahead of the waiting reservations, though it would fit once they are made
+        assertFalse(second.isDone());
+        assertFalse(budget.tryReserve(1));
+        assertEquals(2, budget.waitingReservations());
+
+        budget.release(50);
+        assertFalse(first.isDone());
+        budget.release(50);
+        first.join();
+        second.join();
+        assertEquals(90, budget.reservedBytes());
+        assertEquals(0, budget.waitingReservations());
+        assertEquals(3, budget.admissions());
+        assertEquals(0, budget.rejections());
+    }
+
+    @Test
+    public void admittedReservationsDoNotRunOnTheReleasingThread() throws Exception {
+        MemoryBudget budget = MemoryBudget.builder().maxBytes(100).maxWait(Duration.ofMinutes(1)).build();
+        Object lock = new Object();
+
+        budget.reserve(100).join();
+        CompletableFuture<Boolean> heldLock = budget.reserve(100).thenApply(ignored -> Thread.holdsLock(lock));
+        synchronized (lock) {
+            budget.release(100);
+        }
+        assertFalse(heldLock.get(10, TimeUnit.SECONDS));
+        budget.close();
+    }
+
+    @Test
+    public void closingFailsWaitingReservations() {
+        MemoryBudget budget = MemoryBudget.builder().maxBytes(100).maxWait(Duration.ofMinutes(1)).build();
+
+        budget.reserve(100).join();
+        CompletableFuture<Void> waiting = budget.reserve(1);
+        budget.close();
+        CompletionException exception = assertThrows(CompletionException.class, waiting::join);
+        assertInstanceOf(S3EncryptionClientException.class, exception.getCause());
+        assertEquals(0, budget.waitingReservations());
+
+        // Reservations no longer wait, but bytes may still be released
+        assertTrue(budget.reserve(1).isCompletedExceptionally());
+        budget.release(100);
+        budget.reserve(100).join();
+    }
+
+    @Test
+    public void waitingReservationsTimeOut() {
+        MemoryBudget budget = MemoryBudget.builder().maxBytes(100).maxWait(Duration.ofMillis(50)).build();
+
+        budget.reserve(100).join();
+        CompletableFuture<Void> waiting = budget.reserve(1);
+        CompletionException exception = assertThrows(CompletionException.class, waiting::join);
+        assertInstanceOf(S3EncryptionClientException.class, exception.getCause());
+        assertEquals(0, budget.waitingReservations());
+        assertEquals(1, budget.rejections());
+        assertTrue(budget.totalWaitTime().toMillis() >= 50);
+
+        // The timed out reservation is not made once bytes are released
+        budget.release(100);
+        assertEquals(0, budget.reservedBytes());
+    }
+
+    @Test
+    public void reservationsBehindATimedOutReservationAreMadeIfTheyFit() {
+        MemoryBudget budget = MemoryBudget.builder().maxBytes(100).maxWait(Duration.ofMillis(200)).build();
+
+        budget.reserve(50).join();
+        CompletableFuture<Void> large = budget.reserve(80);
+        // Fits, but waits behind the larger reservation
+        CompletableFuture<Void> small = budget.reserve(40);
+        assertFalse(small.isDone());
+
+        assertThrows(CompletionException.class, large::join);
+        small.join();
+        assertEquals(90, budget.reservedBytes());
+        assertEquals(0, budget.waitingReservations());
+        assertEquals(2, budget.admissions());
+        assertEquals(1, budget.rejections());
+    }
+
+    @Test
+    public void tryReserveDoesNotCountRejections() {
+        MemoryBudget budget = MemoryBudget.builder().maxBytes(100).build();
+
+        assertTrue(budget.tryReserve(100));
+        assertFalse(budget.tryReserve(1));
+        assertEquals(1, budget.admissions());
+        assertEquals(0, budget.rejections());
+    }
+
+    @Test
+    public void budgetIsValidated() {
+        assertThrows(S3EncryptionClientException.class, () -> MemoryBudget.builder().build());
+        assertThrows(S3EncryptionClientException.class, () -> MemoryBudget.builder()
+                .maxBytes(1)
+                .maxWait(Duration.ofSeconds(-1))
+                .build());
+        assertThrows(S3EncryptionClientException.class, () -> MemoryBudget.builder()
+                .maxBytes(1)
+                .build()
+                .reserve(-1));
+    }
+}
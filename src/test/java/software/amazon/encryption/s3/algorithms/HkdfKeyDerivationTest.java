@@ -0,0 +1,99 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.algorithms;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.utils.BinaryUtils;
+import software.amazon.encryption.s3.S3EncryptionClientException;
+import software.amazon.encryption.s3.materials.DecryptionMaterials;
+import software.amazon.encryption.s3.materials.EncryptionMaterials;
+
+import javax.crypto.Cipher;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class HkdfKeyDerivationTest {
+
+    private static final AlgorithmSuite SUITE = AlgorithmSuite.ALG_AES_256_GCM_HKDF_SHA512;
+
+    @Test
+    public void rfc5869TestCase1() {
+        byte[] ikm = BinaryUtils.fromHex("0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b");
+        byte[] salt = BinaryUtils.fromHex("000102030405060708090a0b0c");
+        byte[] info = BinaryUtils.fromHex("f0f1f2f3f4f5f6f7f8f9");
+
+        byte[] okm = HkdfKeyDerivation.hkdf("HmacSHA256", ikm, salt, info, 42, null);
+
+        assertEquals("3cb25f25faacd57a90434f64d0362f2a2d2d0a90cf1a5a4c5db02d56ecc4c5bf34007208d5b887185865",
+                BinaryUtils.toHex(okm));
+    }
+
+    @Test
+    public void contentKeyDependsOnSalt() {
+        byte[] dataKey = new byte[32];
+        byte[] salt = new byte[SUITE.kdfSaltLengthBytes()];
+        byte[] otherSalt = new byte[SUITE.kdfSaltLengthBytes()];
+        otherSalt[0] = 1;
+
+        byte[] contentKey = HkdfKeyDerivation.deriveContentKey(SUITE, dataKey, salt, null).getEncoded();
+
+        assertEquals(32, contentKey.length);
+        assertArrayEquals(contentKey, HkdfKeyDerivation.deriveContentKey(SUITE, dataKey, salt, null).getEncoded());
+        assertFalse(Arrays.equals(contentKey,
+                HkdfKeyDerivation.deriveContentKey(SUITE, dataKey, otherSalt, null).getEncoded()));
+        assertFalse(Arrays.equals(dataKey, contentKey));
+    }
+
+    @Test
+    public void missingSaltFails() {
+        assertThrows(S3EncryptionClientException.class,
+                () -> HkdfKeyDerivation.deriveContentKey(SUITE, new byte[32], null, null));
+        assertThrows(S3EncryptionClientException.class,
+                () -> HkdfKeyDerivation.deriveContentKey(AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF,
+                        new byte[32], new byte[32], null));
+    }
+
+    @Test
+    public void materialsRoundTripWithDerivedKey() throws Exception {
+        SecureRandom secureRandom = new SecureRandom();
+        byte[] dataKey = new byte[32];
+        byte[] salt = new byte[SUITE.kdfSaltLengthBytes()];
+        byte[] iv = new byte[SUITE.iVLengthBytes()];
+        secureRandom.nextBytes(dataKey);
+        secureRandom.nextBytes(salt);
+        secureRandom.nextBytes(iv);
+        byte[] plaintext = "plaintext".getBytes(StandardCharsets.UTF_8);
+
+        EncryptionMaterials encryptionMaterials = EncryptionMaterials.builder()
+                .s3Request(PutObjectRequest.builder().bucket("bucket").key("key").build())
+                .algorithmSuite(SUITE)
+                .plaintextDataKey(dataKey)
+                .kdfSalt(salt)
+                .build();
+        byte[] ciphertext = encryptionMaterials.getCipher(iv).doFinal(plaintext);
+
+        DecryptionMaterials decryptionMaterials = DecryptionMaterials.builder()
+                .s3Request(GetObjectRequest.builder().bucket("bucket").key("key").build())
+                .algorithmSuite(SUITE)
+                .plaintextDataKey(dataKey)
+                .kdfSalt(salt)
+                .build();
+        assertArrayEquals(plaintext, decryptionMaterials.getCipher(iv).doFinal(ciphertext));
+
+        // The data key alone cannot decrypt the content
+        DecryptionMaterials underivedMaterials = DecryptionMaterials.builder()
+                .algorithmSuite(AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF)
+                .plaintextDataKey(dataKey)
+                .build();
+        Cipher cipher = underivedMaterials.getCipher(iv);
+        assertThrows(Exception.class, () -> cipher.doFinal(ciphertext));
+    }
+}
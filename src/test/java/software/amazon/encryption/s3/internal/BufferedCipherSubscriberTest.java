@@ -0,0 +1,408 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.core.async.SdkPublisher;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.encryption.s3.BufferPool;
+import software.amazon.encryption.s3.MemoryBudget;
+import software.amazon.encryption.s3.S3EncryptionClientException;
+import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
+import software.amazon.encryption.s3.materials.DecryptionMaterials;
+import software.amazon.encryption.s3.materials.EncryptionMaterials;
+import software.amazon.encryption.s3.utils.CollectingSubscriber;
+import software.amazon.encryption.s3.utils.RecordingDownstream;
+import software.amazon.encryption.s3.utils.RecordingUpstream;
+
+import javax.crypto.AEADBadTagException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BufferedCipherSubscriberTest {
+
+    private static final AlgorithmSuite SUITE = AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF;
+
+    private final byte[] _dataKey = new byte[32];
+    private final byte[] _iv = new byte[SUITE.iVLengthBytes()];
+
+    @Test
+    public void decryptsWithPooledCiphertextBuffer() throws Exception {
+        byte[] plaintext = new byte[10_000];
+        new SecureRandom().nextBytes(plaintext);
+        byte[] ciphertext = encrypt(plaintext);
+        BufferPool pool = BufferPool.builder().build();
+
+        CollectingSubscriber collector = new CollectingSubscriber();
+        BufferedCipherSubscriber subscriber = BufferedCipherSubscriber.builder()
+                .wrappedSubscriber(collector)
+                .contentLength((long) ciphertext.length)
+                .materials(decryptionMaterials())
+                .iv(_iv)
+                .bufferPool(pool)
+                .build();
+        subscriber.onSubscribe(collector);
+        for (int offset = 0; offset < ciphertext.length; offset += 1000) {
+            int length = Math.min(1000, ciphertext.length - offset);
+            subscriber.onNext(ByteBuffer.wrap(ciphertext, offset, length));
+        }
+        subscriber.onComplete();
+
+        assertArrayEquals(plaintext, collector.bytes());
+        assertEquals(1, collector.completions());
+        assertEquals(0, pool.outstandingBytes());
+        assertEquals(16384, pool.pooledBytes());
+    }
+
+    @Test
+    public void releasesPooledBufferWhenAuthenticationFails() throws Exception {
+        byte[] ciphertext = encrypt(new byte[100]);
+        ciphertext[0] ^= 1;
+        BufferPool pool = BufferPool.builder().build();
+
+        List<Throwable> errors = new ArrayList<>();
+        CollectingSubscriber collector = new CollectingSubscriber() {
+            @Override
+            public void onError(Throwable t) {
+                errors.add(t);
+            }
+        };
+        BufferedCipherSubscriber subscriber = BufferedCipherSubscriber.builder()
+                .wrappedSubscriber(collector)
+                .contentLength((long) ciphertext.length)
+                .materials(decryptionMaterials())
+                .iv(_iv)
+                .bufferPool(pool)
+                .build();
+        subscriber.onSubscribe(collector);
+        subscriber.onNext(ByteBuffer.wrap(ciphertext));
+        assertEquals(1, errors.size());
+        assertInstanceOf(AEADBadTagException.class, errors.get(0));
+        assertEquals(0, collector.bytes().length);
+        assertEquals(0, pool.outstandingBytes());
+    }
+
+    @Test
+    public void holdsMemoryBudgetUntilPlaintextIsPassedOn() throws Exception {
+        byte[] ciphertext = encrypt(new byte[3 * 1024 * 1024]);
+        MemoryBudget budget = MemoryBudget.builder().maxBytes(10 * 1024 * 1024).build();
+        long required = BufferedCipherSubscriber.memoryRequired(ciphertext.length);
+        assertTrue(budget.tryReserve(required));
+
+        RecordingDownstream downstream = new RecordingDownstream(1);
+        BufferedCipherSubscriber subscriber = BufferedCipherSubscriber.builder()
+                .wrappedSubscriber(downstream)
+                .contentLength((long) ciphertext.length)
+                .materials(decryptionMaterials())
+                .iv(_iv)
+                .memoryBudget(budget)
+                .build();
+        subscriber.onSubscribe(new RecordingUpstream());
+        subscriber.onNext(ByteBuffer.wrap(ciphertext));
+        assertEquals(1, downstream.signals().size());
+        assertEquals(required, budget.reservedBytes());
+
+        downstream.subscription().request(Long.MAX_VALUE);
+        assertEquals("complete", downstream.signals().get(downstream.signals().size() - 1));
+        assertEquals(0, budget.reservedBytes());
+    }
+
+    @Test
+    public void publisherRejectsObjectsBeyondTheMemoryBudget() throws Exception {
+        byte[] ciphertext = encrypt(new byte[100]);
+        MemoryBudget budget = MemoryBudget.builder().maxBytes(ciphertext.length).build();
+        RecordingUpstream upstream = new RecordingUpstream();
+        RecordingDownstream downstream = new RecordingDownstream(Long.MAX_VALUE);
+
+        BufferedCipherPublisher.builder()
+                .wrappedPublisher(SdkPublisher.adapt(subscriber -> subscriber.onSubscribe(upstream)))
+                .contentLength((long) ciphertext.length)
+                .cipherTagLengthBits(SUITE.cipherTagLengthBits())
+                .materials(decryptionMaterials())
+                .iv(_iv)
+                .memoryBudget(budget)
+                .build().subscribe(downstream);
+        assertTrue(upstream.isCancelled());
+        assertEquals(1, downstream.signals().size());
+        assertInstanceOf(S3EncryptionClientException.class, downstream.signals().get(0));
+        assertEquals(1, budget.rejections());
+    }
+
+    @Test
+    public void publisherSpillsObjectsBeyondTheRemainingMemoryBudget(@TempDir Path spillDirectory) throws Exception {
+        byte[] plaintext = new byte[100];
+        new SecureRandom().nextBytes(plaintext);
+        byte[] ciphertext = encrypt(plaintext);
+        MemoryBudget budget = MemoryBudget.builder().maxBytes(1024).build();
+        assertTrue(budget.tryReserve(1000));
+        RecordingDownstream downstream = new RecordingDownstream(Long.MAX_VALUE);
+
+        BufferedCipherPublisher.builder()
+                .wrappedPublisher(SdkPublisher.adapt(subscriber -> {
+                    subscriber.onSubscribe(new RecordingUpstream());
+                    subscriber.onNext(ByteBuffer.wrap(ciphertext));
+                }))
+                .contentLength((long) ciphertext.length)
+                .cipherTagLengthBits(SUITE.cipherTagLengthBits())
+                .materials(decryptionMaterials())
+                .iv(_iv)
+                .spillThreshold(64L * 1024 * 1024)
+                .spillDirectory(spillDirectory)
+                .memoryBudget(budget)
+                .build().subscribe(downstream);
+        assertArrayEquals(plaintext, downstream.bytes());
+        assertEquals(0, budget.rejections());
+        assertEquals(1000, budget.reservedBytes());
+    }
+
+    // The tests below follow the Reactive Streams TCK's subscriber and subscription rules
+
+    @Test
+    public void requestsUpstreamInBatchesWithoutDownstreamDemand() throws Exception {
+        byte[] ciphertext = encrypt(new byte[100 * 1000]);
+        RecordingUpstream upstream = new RecordingUpstream();
+        RecordingDownstream downstream = new RecordingDownstream(0);
+        BufferedCipherSubscriber subscriber = BufferedCipherSubscriber.builder()
+                .wrappedSubscriber(downstream)
+                .contentLength((long) ciphertext.length)
+                .materials(decryptionMaterials())
+                .iv(_iv)
+                .build();
+        subscriber.onSubscribe(upstream);
+        assertEquals(AbstractBufferedCipherSubscriber.UPSTREAM_BATCH_SIZE, upstream.requested());
+
+        int sent = 0;
+        for (int offset = 0; offset < ciphertext.length - 1000; offset += 1000) {
+            subscriber.onNext(ByteBuffer.wrap(ciphertext, offset, 1000));
+            sent++;
+            // Demand is replenished before it runs out, and never grows beyond a batch and a half
+            long outstanding = upstream.requested() - sent;
+            assertTrue(outstanding > 0 && outstanding <= AbstractBufferedCipherSubscriber.UPSTREAM_BATCH_SIZE * 3 / 2,
+                    "outstanding " + outstanding);
+        }
+        // No empty buffers are sent downstream to keep it requesting
+        assertEquals(0, downstream.signals().size());
+    }
+
+    @Test
+    public void releasesNothingUntilAuthenticatedThenRespectsDemand() throws Exception {
+        byte[] plaintext = new byte[3 * 1024 * 1024 + 5];
+        new SecureRandom().nextBytes(plaintext);
+        byte[] ciphertext = encrypt(plaintext);
+        RecordingUpstream upstream = new RecordingUpstream();
+        RecordingDownstream downstream = new RecordingDownstream(0);
+        BufferedCipherSubscriber subscriber = BufferedCipherSubscriber.builder()
+                .wrappedSubscriber(downstream)
+                .contentLength((long) ciphertext.length)
+                .materials(decryptionMaterials())
+                .iv(_iv)
+                .build();
+        subscriber.onSubscribe(upstream);
+        downstream.subscription().request(1);
+        subscriber.onNext(ByteBuffer.wrap(ciphertext, 0, ciphertext.length - 1));
+        assertEquals(0, downstream.signals().size());
+
+        subscriber.onNext(ByteBuffer.wrap(ciphertext, ciphertext.length - 1, 1));
+        // The one buffer requested early is sent once authenticated
+        assertEquals(1, downstream.signals().size());
+        downstream.subscription().request(2);
+        assertEquals(3, downstream.signals().size());
+        downstream.subscription().request(Long.MAX_VALUE);
+        assertEquals("complete", downstream.signals().get(downstream.signals().size() - 1));
+        assertArrayEquals(plaintext, downstream.bytes());
+
+        // Signals after completion are ignored
+        subscriber.onComplete();
+        subscriber.onError(new RuntimeException());
+        assertEquals(1, downstream.signals().stream().filter(signal -> signal instanceof String).count());
+    }
+
+    @Test
+    public void completesEmptyPlaintextWithoutDemand() throws Exception {
+        byte[] ciphertext = encrypt(new byte[0]);
+        RecordingDownstream downstream = new RecordingDownstream(0);
+        BufferedCipherSubscriber subscriber = BufferedCipherSubscriber.builder()
+                .wrappedSubscriber(downstream)
+                .contentLength((long) ciphertext.length)
+                .materials(decryptionMaterials())
+                .iv(_iv)
+                .build();
+        subscriber.onSubscribe(new RecordingUpstream());
+        subscriber.onNext(ByteBuffer.wrap(ciphertext));
+        assertEquals(1, downstream.signals().size());
+        assertEquals("complete", downstream.signals().get(0));
+    }
+
+    @Test
+    public void rejectsNonPositiveRequests() throws Exception {
+        byte[] ciphertext = encrypt(new byte[100]);
+        BufferPool pool = BufferPool.builder().build();
+        RecordingUpstream upstream = new RecordingUpstream();
+        RecordingDownstream downstream = new RecordingDownstream(0);
+        BufferedCipherSubscriber subscriber = BufferedCipherSubscriber.builder()
+                .wrappedSubscriber(downstream)
+                .contentLength((long) ciphertext.length)
+                .materials(decryptionMaterials())
+                .iv(_iv)
+                .bufferPool(pool)
+                .build();
+        subscriber.onSubscribe(upstream);
+        subscriber.onNext(ByteBuffer.wrap(ciphertext, 0, 50));
+        downstream.subscription().request(0);
+
+        assertEquals(1, downstream.signals().size());
+        assertInstanceOf(IllegalArgumentException.class, downstream.signals().get(0));
+        assertTrue(upstream.isCancelled());
+        assertEquals(0, pool.outstandingBytes());
+    }
+
+    @Test
+    public void cancellingStopsSignalsAndReleasesTheBuffer() throws Exception {
+        byte[] ciphertext = encrypt(new byte[100]);
+        BufferPool pool = BufferPool.builder().build();
+        RecordingUpstream upstream = new RecordingUpstream();
+        RecordingDownstream downstream = new RecordingDownstream(Long.MAX_VALUE);
+        BufferedCipherSubscriber subscriber = BufferedCipherSubscriber.builder()
+                .wrappedSubscriber(downstream)
+                .contentLength((long) ciphertext.length)
+                .materials(decryptionMaterials())
+                .iv(_iv)
+                .bufferPool(pool)
+                .build();
+        subscriber.onSubscribe(upstream);
+        subscriber.onNext(ByteBuffer.wrap(ciphertext, 0, 50));
+        downstream.subscription().cancel();
+        assertTrue(upstream.isCancelled());
+        assertEquals(0, pool.outstandingBytes());
+
+        // Signals in flight when cancelled are dropped
+        subscriber.onNext(ByteBuffer.wrap(ciphertext, 50, ciphertext.length - 50));
+        subscriber.onComplete();
+        subscriber.onError(new RuntimeException());
+        assertEquals(0, downstream.signals().size());
+    }
+
+    @Test
+    public void cancellingWhileReleasingPlaintextStopsIt() throws Exception {
+        byte[] ciphertext = encrypt(new byte[3 * 1024 * 1024]);
+        RecordingDownstream downstream = new RecordingDownstream(1) {
+            @Override
+            public void onNext(ByteBuffer byteBuffer) {
+                super.onNext(byteBuffer);
+                subscription().cancel();
+            }
+        };
+        BufferedCipherSubscriber subscriber = BufferedCipherSubscriber.builder()
+                .wrappedSubscriber(downstream)
+                .contentLength((long) ciphertext.length)
+                .materials(decryptionMaterials())
+                .iv(_iv)
+                .build();
+        subscriber.onSubscribe(new RecordingUpstream());
+        subscriber.onNext(ByteBuffer.wrap(ciphertext));
+        downstream.subscription().request(10);
+        assertEquals(1, downstream.signals().size());
+    }
+
+    @Test
+    public void requestingFromOnNextDoesNotRecurse() throws Exception {
+        byte[] plaintext = new byte[5 * 1024 * 1024];
+        byte[] ciphertext = encrypt(plaintext);
+        int[] depth = new int[2];
+        RecordingDownstream downstream = new RecordingDownstream(1) {
+            @Override
+            public void onNext(ByteBuffer byteBuffer) {
+                depth[1] = Math.max(depth[1], ++depth[0]);
+                super.onNext(byteBuffer);
+                subscription().request(1);
+                depth[0]--;
+            }
+        };
+        BufferedCipherSubscriber subscriber = BufferedCipherSubscriber.builder()
+                .wrappedSubscriber(downstream)
+                .contentLength((long) ciphertext.length)
+                .materials(decryptionMaterials())
+                .iv(_iv)
+                .build();
+        subscriber.onSubscribe(new RecordingUpstream());
+        subscriber.onNext(ByteBuffer.wrap(ciphertext));
+
+        assertArrayEquals(plaintext, downstream.bytes());
+        assertEquals("complete", downstream.signals().get(downstream.signals().size() - 1));
+        assertEquals(1, depth[1]);
+    }
+
+    @Test
+    public void passesOnUpstreamErrorsOnce() throws Exception {
+        byte[] ciphertext = encrypt(new byte[100]);
+        BufferPool pool = BufferPool.builder().build();
+        RecordingDownstream downstream = new RecordingDownstream(Long.MAX_VALUE);
+        BufferedCipherSubscriber subscriber = BufferedCipherSubscriber.builder()
+                .wrappedSubscriber(downstream)
+                .contentLength((long) ciphertext.length)
+                .materials(decryptionMaterials())
+                .iv(_iv)
+                .bufferPool(pool)
+                .build();
+        subscriber.onSubscribe(new RecordingUpstream());
+        subscriber.onNext(ByteBuffer.wrap(ciphertext, 0, 50));
+        RuntimeException failure = new RuntimeException();
+        subscriber.onError(failure);
+        subscriber.onError(new RuntimeException());
+        subscriber.onComplete();
+
+        assertEquals(1, downstream.signals().size());
+        assertEquals(failure, downstream.signals().get(0));
+        assertEquals(0, pool.outstandingBytes());
+    }
+
+    @Test
+    public void cancelsASecondSubscription() throws Exception {
+        byte[] ciphertext = encrypt(new byte[100]);
+        BufferedCipherSubscriber subscriber = BufferedCipherSubscriber.builder()
+                .wrappedSubscriber(new RecordingDownstream(0))
+                .contentLength((long) ciphertext.length)
+                .materials(decryptionMaterials())
+                .iv(_iv)
+                .build();
+        RecordingUpstream first = new RecordingUpstream();
+        RecordingUpstream second = new RecordingUpstream();
+        subscriber.onSubscribe(first);
+        subscriber.onSubscribe(second);
+        assertFalse(first.isCancelled());
+        assertTrue(second.isCancelled());
+        assertEquals(0, second.requested());
+    }
+
+    private byte[] encrypt(byte[] plaintext) throws Exception {
+        SecureRandom secureRandom = new SecureRandom();
+        secureRandom.nextBytes(_dataKey);
+        secureRandom.nextBytes(_iv);
+        return EncryptionMaterials.builder()
+                .s3Request(PutObjectRequest.builder().bucket("bucket").key("key").build())
+                .algorithmSuite(SUITE)
+                .plaintextDataKey(_dataKey)
+                .build()
+                .getCipher(_iv)
+                .doFinal(plaintext);
+    }
+
+    private DecryptionMaterials decryptionMaterials() {
+        return DecryptionMaterials.builder()
+                .s3Request(GetObjectRequest.builder().bucket("bucket").key("key").build())
+                .algorithmSuite(SUITE)
+                .plaintextDataKey(_dataKey)
+                .build();
+    }
+}
@@ -0,0 +1,50 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.utils.IoUtils;
+import software.amazon.encryption.s3.BufferPool;
+import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
+import software.amazon.encryption.s3.materials.EncryptionMaterials;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.security.SecureRandom;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CipherInputStreamTest {
+
+    @Test
+    public void encryptsWithPooledBuffers() throws Exception {
+        SecureRandom secureRandom = new SecureRandom();
+        byte[] dataKey = new byte[32];
+        byte[] iv = new byte[12];
+        byte[] plaintext = new byte[5000];
+        secureRandom.nextBytes(dataKey);
+        secureRandom.nextBytes(iv);
+        secureRandom.nextBytes(plaintext);
+        EncryptionMaterials materials = EncryptionMaterials.builder()
+                .s3Request(PutObjectRequest.builder().bucket("bucket").key("key").build())
+                .algorithmSuite(AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF)
+                .plaintextDataKey(dataKey)
+                .build();
+        BufferPool pool = BufferPool.builder().build();
+
+        InputStream cipherInputStream = new AuthenticatedCipherInputStream(new ByteArrayInputStream(plaintext),
+                materials.getCipher(iv), false, false, pool);
+        assertTrue(pool.outstandingBytes() > 0);
+        byte[] ciphertext = IoUtils.toByteArray(cipherInputStream);
+
+        assertArrayEquals(materials.getCipher(iv).doFinal(plaintext), ciphertext);
+        // The buffers are released once the stream is read to the end
+        assertEquals(0, pool.outstandingBytes());
+        cipherInputStream.close();
+        assertEquals(0, pool.outstandingBytes());
+        assertEquals(-1, cipherInputStream.read());
+    }
+}
@@ -0,0 +1,209 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.CipherSpi;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.AlgorithmParameters;
+import java.security.Key;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class CipherPoolTest {
+
+    private static final String GCM = "AES/GCM/NoPadding";
+
+    @Test
+    public void pooledCipherIsReusedOnceReleased() throws Exception {
+        CipherPool pool = new CipherPool();
+        SecretKey key = new SecretKeySpec(new byte[32], "AES");
+        Cipher first = pool.withCipher(GCM, null, Cipher.ENCRYPT_MODE, key,
+                new GCMParameterSpec(128, iv()), null, cipher -> cipher);
+        Cipher second = pool.withCipher(GCM, null, Cipher.ENCRYPT_MODE, key,
+                new GCMParameterSpec(128, iv()), null, cipher -> cipher);
+        assertSame(first, second);
+
+        // A cipher in use is not handed out again
+        Cipher nested = pool.withCipher(GCM, null, Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(128, iv()), null,
+                outer -> pool.withCipher(GCM, null, Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(128, iv()), null,
+                        inner -> {
+                            assertNotSame(outer, inner);
+                            return inner;
+                        }));
+        assertEquals(2, pool.idleCount(GCM, null));
+        assertNotSame(first, nested);
+    }
+
+    @Test
+    public void poolIsBoundedAndCleared() throws Exception {
+        CipherPool pool = new CipherPool(2);
+        SecretKey key = new SecretKeySpec(new byte[32], "AES");
+        List<Cipher> inUse = new ArrayList<>();
+        borrow(pool, key, inUse, 3);
+        assertEquals(3, inUse.size());
+        assertEquals(2, pool.idleCount(GCM, null));
+
+        pool.clear();
+        assertEquals(0, pool.idleCount(GCM, null));
+    }
+
+    @Test
+    public void pooledCipherIsReinitializedForEachUse() throws Exception {
+        CipherPool pool = new CipherPool();
+        SecretKey key = new SecretKeySpec(new byte[32], "AES");
+        byte[] plaintext = "plaintext".getBytes(StandardCharsets.UTF_8);
+        byte[] iv = iv();
+
+        byte[] ciphertext = pool.withCipher(GCM, null, Cipher.ENCRYPT_MODE, key,
+                new GCMParameterSpec(128, iv), new SecureRandom(), cipher -> cipher.doFinal(plaintext));
+
+        byte[] tampered = ciphertext.clone();
+        tampered[0] ^= 1;
+        assertThrows(AEADBadTagException.class, () -> pool.withCipher(GCM, null, Cipher.DECRYPT_MODE, key,
+                new GCMParameterSpec(128, iv), null, cipher -> cipher.doFinal(tampered)));
+
+        // A failed decrypt does not affect the next use of the pool
+        assertArrayEquals(plaintext, pool.withCipher(GCM, null, Cipher.DECRYPT_MODE, key,
+                new GCMParameterSpec(128, iv), null, cipher -> cipher.doFinal(ciphertext)));
+    }
+
+    @Test
+    public void fallsBackWhenCipherCannotBeReinitialized() throws Exception {
+        CipherPool pool = new CipherPool();
+        Provider provider = new SingleUseCipherProvider();
+        Key key = new SecretKeySpec(new byte[16], "AES");
+
+        Cipher first = pool.withCipher("SingleUse", provider, Cipher.ENCRYPT_MODE, key, null, null, cipher -> cipher);
+        Cipher second = pool.withCipher("SingleUse", provider, Cipher.ENCRYPT_MODE, key, null, null, cipher -> cipher);
+        Cipher third = pool.withCipher("SingleUse", provider, Cipher.ENCRYPT_MODE, key, null, null, cipher -> cipher);
+
+        assertNotSame(first, second);
+        assertNotSame(second, third);
+        assertEquals(0, pool.idleCount("SingleUse", provider));
+    }
+
+    /**
+     * Borrows the given number of ciphers at once, recording each.
+     */
+    private static void borrow(CipherPool pool, Key key, List<Cipher> inUse, int count) throws Exception {
+        if (count == 0) {
+            return;
+        }
+        pool.withCipher(GCM, null, Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(128, iv()), null, cipher -> {
+            inUse.add(cipher);
+            try {
+                borrow(pool, key, inUse, count - 1);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            return cipher;
+        });
+    }
+
+    private static byte[] iv() {
+        byte[] iv = new byte[12];
+        new SecureRandom().nextBytes(iv);
+        return iv;
+    }
+
+    private static class SingleUseCipherProvider extends Provider {
+        @SuppressWarnings("deprecation")
+        SingleUseCipherProvider() {
+            super("SingleUseCipherProvider", 1.0, "Ciphers which can only be initialized once");
+            put("Cipher.SingleUse", SingleUseCipherSpi.class.getName());
+        }
+    }
+
+    /**
+     * A cipher which throws if it is initialized more than once.
+     */
+    public static class SingleUseCipherSpi extends CipherSpi {
+        private boolean _initialized;
+
+        private void init() {
+            if (_initialized) {
+                throw new IllegalStateException("Cipher cannot be re-initialized");
+            }
+            _initialized = true;
+        }
+
+        @Override
+        protected void engineSetMode(String mode) {
+        }
+
+        @Override
+        protected void engineSetPadding(String padding) {
+        }
+
+        @Override
+        protected int engineGetBlockSize() {
+            return 16;
+        }
+
+        @Override
+        protected int engineGetOutputSize(int inputLen) {
+            return inputLen;
+        }
+
+        @Override
+        protected byte[] engineGetIV() {
+            return null;
+        }
+
+        @Override
+        protected AlgorithmParameters engineGetParameters() {
+            return null;
+        }
+
+        @Override
+        protected void engineInit(int opmode, Key key, SecureRandom random) {
+            init();
+        }
+
+        @Override
+        protected void engineInit(int opmode, Key key, AlgorithmParameterSpec params, SecureRandom random) {
+            init();
+        }
+
+        @Override
+        protected void engineInit(int opmode, Key key, AlgorithmParameters params, SecureRandom random) {
+            init();
+        }
+
+        @Override
+        protected byte[] engineUpdate(byte[] input, int inputOffset, int inputLen) {
+            return new byte[0];
+        }
+
+        @Override
+        protected int engineUpdate(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset) {
+            return 0;
+        }
+
+        @Override
+        protected byte[] engineDoFinal(byte[] input, int inputOffset, int inputLen) {
+            return new byte[0];
+        }
+
+        @Override
+        protected int engineDoFinal(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset) {
+            return 0;
+        }
+    }
+}
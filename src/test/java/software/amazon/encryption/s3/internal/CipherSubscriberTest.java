@@ -0,0 +1,99 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
+import software.amazon.encryption.s3.materials.CryptographicMaterials;
+import software.amazon.encryption.s3.materials.DecryptionMaterials;
+import software.amazon.encryption.s3.materials.EncryptionMaterials;
+import software.amazon.encryption.s3.utils.CollectingSubscriber;
+
+import javax.crypto.Cipher;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class CipherSubscriberTest {
+
+    private static final AlgorithmSuite SUITE = AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF;
+
+    @Test
+    public void encryptsAndDecryptsDirectBuffers() throws Exception {
+        SecureRandom secureRandom = new SecureRandom();
+        byte[] dataKey = new byte[32];
+        byte[] iv = new byte[SUITE.iVLengthBytes()];
+        byte[] plaintext = new byte[10_000];
+        secureRandom.nextBytes(dataKey);
+        secureRandom.nextBytes(iv);
+        secureRandom.nextBytes(plaintext);
+
+        EncryptionMaterials encryptionMaterials = EncryptionMaterials.builder()
+                .s3Request(PutObjectRequest.builder().bucket("bucket").key("key").build())
+                .algorithmSuite(SUITE)
+                .plaintextDataKey(dataKey)
+                .build();
+        byte[] expectedCiphertext = encryptionMaterials.getCipher(iv).doFinal(plaintext);
+
+        byte[] ciphertext = process(encryptionMaterials, iv, plaintext, true);
+        assertArrayEquals(expectedCiphertext, ciphertext);
+
+        DecryptionMaterials decryptionMaterials = DecryptionMaterials.builder()
+                .s3Request(GetObjectRequest.builder().bucket("bucket").key("key").build())
+                .algorithmSuite(SUITE)
+                .plaintextDataKey(dataKey)
+                .build();
+        assertArrayEquals(plaintext, process(decryptionMaterials, iv, ciphertext, false));
+    }
+
+    @Test
+    public void readsFromTheBufferPosition() throws Exception {
+        byte[] dataKey = new byte[32];
+        byte[] iv = new byte[SUITE.iVLengthBytes()];
+        new SecureRandom().nextBytes(iv);
+        byte[] plaintext = "plaintext".getBytes();
+        EncryptionMaterials materials = EncryptionMaterials.builder()
+                .s3Request(PutObjectRequest.builder().bucket("bucket").key("key").build())
+                .algorithmSuite(SUITE)
+                .plaintextDataKey(dataKey)
+                .build();
+        Cipher cipher = materials.getCipher(iv);
+
+        ByteBuffer input = ByteBuffer.allocate(plaintext.length + 4);
+        input.position(4);
+        input.put(plaintext);
+        input.position(4);
+
+        CollectingSubscriber collector = new CollectingSubscriber();
+        CipherSubscriber subscriber = new CipherSubscriber(collector, (long) plaintext.length, materials, iv);
+        subscriber.onSubscribe(collector);
+        subscriber.onNext(input);
+        subscriber.onComplete();
+
+        assertArrayEquals(cipher.doFinal(plaintext), collector.bytes());
+        assertEquals(4, input.position());
+        assertEquals(1, collector.completions());
+    }
+
+    private static byte[] process(CryptographicMaterials materials, byte[] iv, byte[] input, boolean direct) {
+        CollectingSubscriber collector = new CollectingSubscriber();
+        CipherSubscriber subscriber = new CipherSubscriber(collector, (long) input.length, materials, iv);
+        subscriber.onSubscribe(collector);
+        // Uneven chunks, so the cipher holds back partial blocks between updates
+        int chunkSize = 999;
+        for (int offset = 0; offset < input.length; offset += chunkSize) {
+            int length = Math.min(chunkSize, input.length - offset);
+            ByteBuffer chunk = direct ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+            chunk.put(input, offset, length);
+            chunk.flip();
+            subscriber.onNext(chunk);
+        }
+        subscriber.onComplete();
+        assertEquals(1, collector.completions());
+        return collector.bytes();
+    }
+}
@@ -0,0 +1,209 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.encryption.s3.utils.RecordingUpstream;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CoalescingSubscriberTest {
+
+    @Test
+    public void gathersSmallBuffersAndFlushesOnComplete() {
+        RecordingSubscriber downstream = new RecordingSubscriber();
+        RecordingUpstream upstream = new RecordingUpstream();
+        CoalescingSubscriber subscriber = new CoalescingSubscriber(downstream, 16);
+        subscriber.onSubscribe(upstream);
+
+        downstream.request(Long.MAX_VALUE);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < 10; i++) {
+            byte[] chunk = new byte[5];
+            for (int j = 0; j < chunk.length; j++) {
+                chunk[j] = (byte) (i * 5 + j);
+            }
+            expected.write(chunk, 0, chunk.length);
+            subscriber.onNext(ByteBuffer.wrap(chunk));
+        }
+        // Chunks are requested a batch at a time, topped up once half of the batch has been received
+        assertEquals(2 * AbstractBufferedCipherSubscriber.UPSTREAM_BATCH_SIZE, upstream.requested());
+        assertEquals(3, downstream._buffers.size());
+
+        subscriber.onComplete();
+        assertEquals(4, downstream._buffers.size());
+        assertEquals(2, downstream._buffers.get(3).length);
+        assertEquals(1, downstream._completions);
+        assertArrayEquals(expected.toByteArray(), downstream.bytes());
+    }
+
+    @Test
+    public void honoursDownstreamDemand() {
+        RecordingSubscriber downstream = new RecordingSubscriber();
+        RecordingUpstream upstream = new RecordingUpstream();
+        CoalescingSubscriber subscriber = new CoalescingSubscriber(downstream, 8);
+        subscriber.onSubscribe(upstream);
+
+        // Nothing is requested upstream until there is demand downstream, then a batch is
+        assertEquals(0, upstream.requested());
+        downstream.request(1);
+        assertEquals(AbstractBufferedCipherSubscriber.UPSTREAM_BATCH_SIZE, upstream.requested());
+
+        subscriber.onNext(ByteBuffer.wrap(new byte[6]));
+        subscriber.onNext(ByteBuffer.wrap(new byte[6]));
+        assertEquals(1, downstream._buffers.size());
+        // The demand is satisfied, so no more is requested
+        assertEquals(AbstractBufferedCipherSubscriber.UPSTREAM_BATCH_SIZE, upstream.requested());
+
+        subscriber.onComplete();
+        // The remaining bytes wait for demand, as does completion
+        assertEquals(1, downstream._buffers.size());
+        assertEquals(0, downstream._completions);
+
+        downstream.request(1);
+        assertEquals(2, downstream._buffers.size());
+        assertEquals(4, downstream._buffers.get(1).length);
+        assertEquals(1, downstream._completions);
+        assertEquals(AbstractBufferedCipherSubscriber.UPSTREAM_BATCH_SIZE, upstream.requested());
+    }
+
+    @Test
+    public void receivesAtMostABatchAheadOfDemand() {
+        RecordingSubscriber downstream = new RecordingSubscriber();
+        RecordingUpstream upstream = new RecordingUpstream();
+        CoalescingSubscriber subscriber = new CoalescingSubscriber(downstream, 8);
+        subscriber.onSubscribe(upstream);
+        downstream.request(1);
+
+        for (int i = 0; i < AbstractBufferedCipherSubscriber.UPSTREAM_BATCH_SIZE; i++) {
+            subscriber.onNext(ByteBuffer.wrap(new byte[8]));
+        }
+        // The rest of the batch waits for demand, without more being requested
+        assertEquals(1, downstream._buffers.size());
+        assertEquals(AbstractBufferedCipherSubscriber.UPSTREAM_BATCH_SIZE, upstream.requested());
+
+        downstream.request(Long.MAX_VALUE);
+        assertEquals(AbstractBufferedCipherSubscriber.UPSTREAM_BATCH_SIZE, downstream._buffers.size());
+        assertEquals(2 * AbstractBufferedCipherSubscriber.UPSTREAM_BATCH_SIZE, upstream.requested());
+    }
+
+    @Test
+    public void passesLargeBuffersOnWithoutCopying() {
+        RecordingSubscriber downstream = new RecordingSubscriber();
+        downstream._retainBuffers = true;
+        RecordingUpstream upstream = new RecordingUpstream();
+        CoalescingSubscriber subscriber = new CoalescingSubscriber(downstream, 8);
+        subscriber.onSubscribe(upstream);
+        downstream.request(Long.MAX_VALUE);
+
+        ByteBuffer large = ByteBuffer.wrap(new byte[32]);
+        subscriber.onNext(large);
+        assertSame(large, downstream._retained.get(0));
+
+        // A large buffer after a partial one completes it, then is passed on from where it was read up to
+        subscriber.onNext(ByteBuffer.wrap(new byte[3]));
+        byte[] bytes = new byte[20];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        subscriber.onNext(ByteBuffer.wrap(bytes));
+        assertEquals(3, downstream._buffers.size());
+        assertEquals(8, downstream._buffers.get(1).length);
+        assertEquals(15, downstream._buffers.get(2).length);
+        assertEquals(5, downstream._buffers.get(2)[0]);
+    }
+
+    @Test
+    public void disabledWhenTargetSizeIsZero() {
+        RecordingSubscriber downstream = new RecordingSubscriber();
+        assertSame(downstream, CoalescingSubscriber.coalesce(downstream, 0));
+        assertTrue(CoalescingSubscriber.coalesce(downstream, 1) instanceof CoalescingSubscriber);
+    }
+
+    @Test
+    public void errorsAreNotDelayedByGatheredBytes() {
+        RecordingSubscriber downstream = new RecordingSubscriber();
+        RecordingUpstream upstream = new RecordingUpstream();
+        CoalescingSubscriber subscriber = new CoalescingSubscriber(downstream, 8);
+        subscriber.onSubscribe(upstream);
+        downstream.request(1);
+
+        subscriber.onNext(ByteBuffer.wrap(new byte[4]));
+        RuntimeException failure = new RuntimeException("failed");
+        subscriber.onError(failure);
+        assertSame(failure, downstream._error);
+        assertEquals(0, downstream._buffers.size());
+        assertEquals(0, downstream._completions);
+    }
+
+    @Test
+    public void cancelIsPassedUpstream() {
+        RecordingSubscriber downstream = new RecordingSubscriber();
+        RecordingUpstream upstream = new RecordingUpstream();
+        CoalescingSubscriber subscriber = new CoalescingSubscriber(downstream, 8);
+        subscriber.onSubscribe(upstream);
+        downstream.request(1);
+
+        subscriber.onNext(ByteBuffer.wrap(new byte[16]));
+        assertFalse(upstream.isCancelled());
+        downstream._subscription.cancel();
+        assertTrue(upstream.isCancelled());
+    }
+
+    private static class RecordingSubscriber implements Subscriber<ByteBuffer> {
+        final List<byte[]> _buffers = new ArrayList<>();
+        final List<ByteBuffer> _retained = new ArrayList<>();
+        boolean _retainBuffers;
+        Subscription _subscription;
+        Throwable _error;
+        int _completions;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            _subscription = subscription;
+        }
+
+        void request(long n) {
+            _subscription.request(n);
+        }
+
+        @Override
+        public void onNext(ByteBuffer byteBuffer) {
+            if (_retainBuffers) {
+                _retained.add(byteBuffer);
+            }
+            byte[] bytes = new byte[byteBuffer.remaining()];
+            byteBuffer.duplicate().get(bytes);
+            _buffers.add(bytes);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            _error = t;
+        }
+
+        @Override
+        public void onComplete() {
+            _completions++;
+        }
+
+        byte[] bytes() {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            for (byte[] buffer : _buffers) {
+                output.write(buffer, 0, buffer.length);
+            }
+            return output.toByteArray();
+        }
+    }
+}
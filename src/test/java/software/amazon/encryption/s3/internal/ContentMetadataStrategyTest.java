@@ -7,13 +7,24 @@ import org.junit.jupiter.api.Test;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.encryption.s3.S3EncryptionClientException;
 import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
+import software.amazon.encryption.s3.materials.EncryptedDataKey;
+import software.amazon.encryption.s3.materials.EncryptionMaterials;
+import software.amazon.encryption.s3.materials.S3Keyring;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.mock;
 
 public class ContentMetadataStrategyTest {
@@ -58,4 +69,96 @@ public class ContentMetadataStrategyTest {
         String expectedContentIv = Arrays.toString(expectedContentMetadata.contentIv());
         assertEquals(expectedContentIv, actualContentIv);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void encodeAndDecodeWithKdfSalt() {
+        byte[] iv = new byte[12];
+        Arrays.fill(iv, (byte) 1);
+        byte[] salt = new byte[AlgorithmSuite.ALG_AES_256_GCM_HKDF_SHA512.kdfSaltLengthBytes()];
+        Arrays.fill(salt, (byte) 2);
+        EncryptionMaterials materials = EncryptionMaterials.builder()
+                .s3Request(PutObjectRequest.builder().bucket("TestBucket").key("TestKey").build())
+                .algorithmSuite(AlgorithmSuite.ALG_AES_256_GCM_HKDF_SHA512)
+                .encryptedDataKeys(Collections.singletonList(EncryptedDataKey.builder()
+                        .keyProviderId(S3Keyring.KEY_PROVIDER_ID)
+                        .keyProviderInfo("kms+context".getBytes(StandardCharsets.UTF_8))
+                        .encryptedDataKey(new byte[]{1, 2, 3})
+                        .build()))
+                .kdfSalt(salt)
+                .build();
+
+        Map<String, String> encoded = ContentMetadataStrategy.OBJECT_METADATA.encodeMetadata(materials, iv, new HashMap<>());
+        assertEquals("AES/GCM/NoPadding/HKDF-SHA512", encoded.get(MetadataKeyConstants.CONTENT_CIPHER));
+
+        ContentMetadata contentMetadata = ContentMetadataStrategy.decode(getObjectRequest,
+                GetObjectResponse.builder().metadata(encoded).build());
+        assertEquals(AlgorithmSuite.ALG_AES_256_GCM_HKDF_SHA512, contentMetadata.algorithmSuite());
+        assertArrayEquals(salt, contentMetadata.contentKdfSalt());
+        assertArrayEquals(iv, contentMetadata.contentIv());
+    }
+
+    @Test
+    public void encodeAndDecodeWithMultipleEncryptedDataKeys() {
+        byte[] iv = new byte[12];
+        EncryptedDataKey primary = EncryptedDataKey.builder()
+                .keyProviderId(S3Keyring.KEY_PROVIDER_ID)
+                .keyProviderInfo("kms+context".getBytes(StandardCharsets.UTF_8))
+                .encryptedDataKey(new byte[]{1, 2, 3})
+                .build();
+        EncryptedDataKey additional = EncryptedDataKey.builder()
+                .keyProviderId(S3Keyring.KEY_PROVIDER_ID)
+                .keyProviderInfo("AES/GCM".getBytes(StandardCharsets.UTF_8))
+                .encryptedDataKey(new byte[]{4, 5, 6})
+                .wrappingKeyId("AesKeyring")
+                .build();
+        EncryptionMaterials materials = EncryptionMaterials.builder()
+                .s3Request(PutObjectRequest.builder().bucket("TestBucket").key("TestKey").build())
+                .algorithmSuite(AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF)
+                .encryptedDataKeys(Arrays.asList(primary, additional))
+                .build();
+
+        Map<String, String> encoded = ContentMetadataStrategy.OBJECT_METADATA.encodeMetadata(materials, iv, new HashMap<>());
+        assertEquals("kms+context", encoded.get(MetadataKeyConstants.ENCRYPTED_DATA_KEY_ALGORITHM));
+
+        ContentMetadata contentMetadata = ContentMetadataStrategy.decode(getObjectRequest,
+                GetObjectResponse.builder().metadata(encoded).build());
+        assertEquals(2, contentMetadata.encryptedDataKeys().size());
+        assertArrayEquals(primary.encryptedDatakey(), contentMetadata.encryptedDataKey().encryptedDatakey());
+        EncryptedDataKey decoded = contentMetadata.encryptedDataKeys().get(1);
+        assertArrayEquals(additional.encryptedDatakey(), decoded.encryptedDatakey());
+        assertArrayEquals(additional.keyProviderInfo(), decoded.keyProviderInfo());
+        assertEquals(S3Keyring.KEY_PROVIDER_ID, decoded.keyProviderId());
+        assertEquals("AesKeyring", decoded.wrappingKeyId());
+        // The first key's wrapping key is not recorded, as existing readers do not expect it
+        assertNull(contentMetadata.encryptedDataKey().wrappingKeyId());
+    }
+
+    @Test
+    public void encodeFailsWhenMetadataExceedsTheS3Limit() {
+        EncryptedDataKey edk = EncryptedDataKey.builder()
+                .keyProviderId(S3Keyring.KEY_PROVIDER_ID)
+                .keyProviderInfo("kms+context".getBytes(StandardCharsets.UTF_8))
+                .encryptedDataKey(new byte[200])
+                .wrappingKeyId("arn:aws:kms:us-east-1:111122223333:key/key-1")
+                .build();
+        EncryptionMaterials materials = EncryptionMaterials.builder()
+                .s3Request(PutObjectRequest.builder().bucket("TestBucket").key("TestKey").build())
+                .algorithmSuite(AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF)
+                .encryptedDataKeys(Collections.nCopies(10, edk))
+                .build();
+
+        S3EncryptionClientException exception = assertThrows(S3EncryptionClientException.class,
+                () -> ContentMetadataStrategy.OBJECT_METADATA.encodeMetadata(materials, new byte[12], new HashMap<>()));
+        assertTrue(exception.getMessage().contains("Wrap the data key with fewer keyrings"));
+    }
+
+    @Test
+    public void decodeKdfSuiteWithoutSaltFails() {
+        metadata.put(MetadataKeyConstants.CONTENT_CIPHER, AlgorithmSuite.ALG_AES_256_GCM_HKDF_SHA512.contentCipherMetadataName());
+        getObjectResponse = GetObjectResponse.builder()
+                .metadata(metadata)
+                .build();
+
+        assertThrows(S3EncryptionClientException.class, () -> ContentMetadataStrategy.decode(getObjectRequest, getObjectResponse));
+    }
+}
@@ -0,0 +1,60 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.s3.model.ChecksumAlgorithm;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.ObjectCannedACL;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.ServerSideEncryption;
+import software.amazon.awssdk.services.s3.model.StorageClass;
+
+import java.time.Instant;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class ConvertSDKRequestsTest {
+
+    @Test
+    public void copiesTheFieldsBothRequestsShare() {
+        Instant expires = Instant.now();
+        PutObjectRequest request = PutObjectRequest.builder()
+                .overrideConfiguration(ApiNameVersion.API_NAME_INTERCEPTOR)
+                .bucket("bucket")
+                .key("key")
+                .metadata(Collections.singletonMap("name", "value"))
+                .acl(ObjectCannedACL.BUCKET_OWNER_FULL_CONTROL)
+                .contentType("text/plain")
+                .expires(expires)
+                .serverSideEncryption(ServerSideEncryption.AWS_KMS)
+                .ssekmsKeyId("kms-key")
+                .bucketKeyEnabled(true)
+                .storageClass(StorageClass.STANDARD_IA)
+                .tagging("tag=value")
+                .expectedBucketOwner("owner")
+                .contentLength(100L)
+                .checksumAlgorithm(ChecksumAlgorithm.CRC32)
+                .build();
+
+        CreateMultipartUploadRequest converted = ConvertSDKRequests.convertRequest(request);
+
+        assertEquals(request.overrideConfiguration(), converted.overrideConfiguration());
+        assertEquals("bucket", converted.bucket());
+        assertEquals("key", converted.key());
+        assertEquals(Collections.singletonMap("name", "value"), converted.metadata());
+        assertEquals(ObjectCannedACL.BUCKET_OWNER_FULL_CONTROL, converted.acl());
+        assertEquals("text/plain", converted.contentType());
+        assertEquals(expires, converted.expires());
+        assertEquals(ServerSideEncryption.AWS_KMS, converted.serverSideEncryption());
+        assertEquals("kms-key", converted.ssekmsKeyId());
+        assertEquals(true, converted.bucketKeyEnabled());
+        assertEquals(StorageClass.STANDARD_IA, converted.storageClass());
+        assertEquals("tag=value", converted.tagging());
+        assertEquals("owner", converted.expectedBucketOwner());
+        // The checksum of the plaintext does not describe the ciphertext
+        assertNull(converted.checksumAlgorithm());
+    }
+}
@@ -0,0 +1,38 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.KeyGenerator;
+import java.security.Provider;
+import java.security.Security;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class CryptoFactoryTest {
+
+    @Test
+    public void keyGeneratorIsReusedByTheSameThread() throws Exception {
+        KeyGenerator generator = CryptoFactory.generateKey("AES", null);
+        assertSame(generator, CryptoFactory.generateKey("AES", null));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertNotSame(generator, executor.submit(() -> CryptoFactory.generateKey("AES", null)).get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void keyGeneratorForAGivenProviderIsNotCached() {
+        Provider provider = Security.getProviders("KeyGenerator.AES")[0];
+        KeyGenerator generator = CryptoFactory.generateKey("AES", provider);
+        assertSame(provider, generator.getProvider());
+        assertNotSame(generator, CryptoFactory.generateKey("AES", provider));
+    }
+}
@@ -0,0 +1,311 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+import software.amazon.encryption.s3.CryptoExecutor;
+import software.amazon.encryption.s3.materials.AesKeyring;
+import software.amazon.encryption.s3.materials.AsyncCryptographicMaterialsManager;
+import software.amazon.encryption.s3.materials.DefaultCryptoMaterialsManager;
+import software.amazon.encryption.s3.utils.ChunkPublisher;
+import software.amazon.encryption.s3.utils.CollectingSubscriber;
+
+import javax.crypto.KeyGenerator;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MultipartPutEncryptedObjectPipelineTest {
+
+    private static final int PART_SIZE = 5 * 1024 * 1024;
+
+    private final SecureRandom _secureRandom = new SecureRandom();
+    private final AsyncCryptographicMaterialsManager _cryptoMaterialsManager;
+
+    public MultipartPutEncryptedObjectPipelineTest() throws Exception {
+        KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+        keyGenerator.init(256);
+        _cryptoMaterialsManager = new CryptoMaterialsManagerAdapter(DefaultCryptoMaterialsManager.builder()
+                .keyring(AesKeyring.builder()
+                        .wrappingKey(keyGenerator.generateKey())
+                        .secureRandom(_secureRandom)
+                        .build())
+                .build());
+    }
+
+    @Test
+    public void encryptsPartsAsOneObjectOfKnownOrUnknownLength() throws Exception {
+        byte[] plaintext = new byte[2 * PART_SIZE + 5];
+        _secureRandom.nextBytes(plaintext);
+
+        for (boolean knownLength : new boolean[]{true, false}) {
+            InMemoryS3AsyncClient s3 = new InMemoryS3AsyncClient();
+            Publisher<ByteBuffer> chunks = new ChunkPublisher(plaintext, 100_000);
+            AsyncRequestBody requestBody = knownLength
+                    ? new KnownLengthRequestBody(chunks, plaintext.length)
+                    : AsyncRequestBody.fromPublisher(chunks);
+
+            pipeline(s3, 2).putObject(request(), requestBody).get(10, TimeUnit.SECONDS);
+
+            assertEquals(3, s3._parts.size());
+            assertEquals(PART_SIZE, s3._parts.get(1).length);
+            assertEquals(PART_SIZE, s3._parts.get(2).length);
+            // The last part holds the tag
+            assertEquals(5 + 16, s3._parts.get(3).length);
+            assertTrue(s3._completed);
+            assertArrayEquals(plaintext, getObject(s3));
+        }
+    }
+
+    @Test
+    public void encryptsPartsInParallelOnTheCryptoExecutor() throws Exception {
+        byte[] plaintext = new byte[2 * PART_SIZE + 5];
+        _secureRandom.nextBytes(plaintext);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            InMemoryS3AsyncClient s3 = new InMemoryS3AsyncClient();
+            MultipartPutEncryptedObjectPipeline pipeline = MultipartPutEncryptedObjectPipeline.builder()
+                    .s3AsyncClient(s3)
+                    .asyncCryptoMaterialsManager(_cryptoMaterialsManager)
+                    .secureRandom(_secureRandom)
+                    .partSize(PART_SIZE)
+                    .maxInFlightParts(2)
+                    .parallelCryptoPool(pool)
+                    .cryptoExecutor(CryptoExecutor.builder().build())
+                    .build();
+
+            pipeline.putObject(request(), AsyncRequestBody.fromPublisher(new ChunkPublisher(plaintext, 100_000)))
+                    .get(10, TimeUnit.SECONDS);
+
+            assertEquals(3, s3._parts.size());
+            assertEquals(5 + 16, s3._parts.get(3).length);
+            assertArrayEquals(plaintext, getObject(s3));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void encryptsEmptyObjects() throws Exception {
+        InMemoryS3AsyncClient s3 = new InMemoryS3AsyncClient();
+
+        pipeline(s3, 2).putObject(request(), AsyncRequestBody.fromBytes(new byte[0])).get(10, TimeUnit.SECONDS);
+
+        assertEquals(1, s3._parts.size());
+        assertArrayEquals(new byte[0], getObject(s3));
+    }
+
+    @Test
+    public void boundsThePartsInFlight() throws Exception {
+        byte[] plaintext = new byte[6 * PART_SIZE];
+        _secureRandom.nextBytes(plaintext);
+        InMemoryS3AsyncClient s3 = new InMemoryS3AsyncClient();
+        s3._holdParts = true;
+
+        CompletableFuture<PutObjectResponse> response = pipeline(s3, 2)
+                .putObject(request(), AsyncRequestBody.fromPublisher(new ChunkPublisher(plaintext, 100_000)));
+
+        while (!response.isDone()) {
+            List<CompletableFuture<UploadPartResponse>> held;
+            synchronized (s3) {
+                assertTrue(s3._heldParts.size() <= 2, "parts in flight: " + s3._heldParts.size());
+                held = new ArrayList<>(s3._heldParts);
+                s3._heldParts.clear();
+            }
+            for (CompletableFuture<UploadPartResponse> part : held) {
+                part.complete(UploadPartResponse.builder().eTag("etag").build());
+            }
+            Thread.sleep(10);
+        }
+        response.get();
+        // A full part is only encrypted once more plaintext follows, so the tag is never a part of its own
+        assertEquals(6, s3._parts.size());
+        assertEquals(PART_SIZE + 16, s3._parts.get(6).length);
+        assertArrayEquals(plaintext, getObject(s3));
+    }
+
+    @Test
+    public void abortsWhenAPartFails() {
+        byte[] plaintext = new byte[3 * PART_SIZE];
+        InMemoryS3AsyncClient s3 = new InMemoryS3AsyncClient();
+        s3._failingPart = 2;
+
+        CompletableFuture<PutObjectResponse> response = pipeline(s3, 1)
+                .putObject(request(), AsyncRequestBody.fromPublisher(new ChunkPublisher(plaintext, 100_000)));
+
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> response.get(10, TimeUnit.SECONDS));
+        assertTrue(exception.getCause() instanceof IllegalStateException, exception.toString());
+        assertTrue(s3._aborted);
+        assertFalse(s3._completed);
+        // The body is cancelled rather than encrypted to the end
+        assertTrue(s3._parts.size() < 4);
+    }
+
+    @Test
+    public void raisesThePartSizeOfLargeObjects() {
+        MultipartPutEncryptedObjectPipeline pipeline = pipeline(new InMemoryS3AsyncClient(), 1);
+        assertEquals(PART_SIZE, pipeline.partSize(-1));
+        assertEquals(PART_SIZE, pipeline.partSize(10_000L * PART_SIZE));
+        assertEquals(PART_SIZE + 1, pipeline.partSize(10_000L * PART_SIZE + 1));
+    }
+
+    private MultipartPutEncryptedObjectPipeline pipeline(S3AsyncClient s3, int maxInFlightParts) {
+        return MultipartPutEncryptedObjectPipeline.builder()
+                .s3AsyncClient(s3)
+                .asyncCryptoMaterialsManager(_cryptoMaterialsManager)
+                .secureRandom(_secureRandom)
+                .partSize(PART_SIZE)
+                .maxInFlightParts(maxInFlightParts)
+                .build();
+    }
+
+    private static PutObjectRequest request() {
+        return PutObjectRequest.builder().bucket("bucket").key("key").build();
+    }
+
+    private byte[] getObject(S3AsyncClient s3) throws Exception {
+        ResponseBytes<GetObjectResponse> response = GetEncryptedObjectPipeline.builder()
+                .s3AsyncClient(s3)
+                .asyncCryptoMaterialsManager(_cryptoMaterialsManager)
+                .build()
+                .getObject(GetObjectRequest.builder().bucket("bucket").key("key").build(),
+                        AsyncResponseTransformer.toBytes())
+                .get(10, TimeUnit.SECONDS);
+        return response.asByteArray();
+    }
+
+    /**
+     * Holds a multipart upload in memory, and serves the object it completes.
+     */
+    static class InMemoryS3AsyncClient implements S3AsyncClient {
+        final Map<Integer, byte[]> _parts = new ConcurrentSkipListMap<>();
+        final List<CompletableFuture<UploadPartResponse>> _heldParts = new ArrayList<>();
+        volatile Map<String, String> _metadata;
+        volatile boolean _holdParts;
+        volatile int _failingPart;
+        volatile boolean _completed;
+        volatile boolean _aborted;
+
+        @Override
+        public CompletableFuture<CreateMultipartUploadResponse> createMultipartUpload(CreateMultipartUploadRequest request) {
+            _metadata = request.metadata();
+            return CompletableFuture.completedFuture(CreateMultipartUploadResponse.builder().uploadId("upload").build());
+        }
+
+        @Override
+        public CompletableFuture<UploadPartResponse> uploadPart(UploadPartRequest request, AsyncRequestBody requestBody) {
+            if (request.partNumber() == _failingPart) {
+                CompletableFuture<UploadPartResponse> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new IllegalStateException("part failed"));
+                return failed;
+            }
+            CollectingSubscriber collector = new CollectingSubscriber();
+            requestBody.subscribe(collector);
+            assertEquals(request.contentLength(), (long) collector.bytes().length);
+            _parts.put(request.partNumber(), collector.bytes());
+            synchronized (this) {
+                if (_holdParts) {
+                    CompletableFuture<UploadPartResponse> held = new CompletableFuture<>();
+                    _heldParts.add(held);
+                    return held;
+                }
+            }
+            return CompletableFuture.completedFuture(UploadPartResponse.builder().eTag("etag").build());
+        }
+
+        @Override
+        public CompletableFuture<CompleteMultipartUploadResponse> completeMultipartUpload(CompleteMultipartUploadRequest request) {
+            List<CompletedPart> parts = request.multipartUpload().parts();
+            for (int i = 0; i < parts.size(); i++) {
+                assertEquals(i + 1, parts.get(i).partNumber());
+            }
+            _completed = true;
+            return CompletableFuture.completedFuture(CompleteMultipartUploadResponse.builder().eTag("etag").build());
+        }
+
+        @Override
+        public CompletableFuture<AbortMultipartUploadResponse> abortMultipartUpload(AbortMultipartUploadRequest request) {
+            _aborted = true;
+            return CompletableFuture.completedFuture(AbortMultipartUploadResponse.builder().build());
+        }
+
+        @Override
+        public <T> CompletableFuture<T> getObject(GetObjectRequest request,
+                                                  AsyncResponseTransformer<GetObjectResponse, T> transformer) {
+            ByteArrayOutputStream object = new ByteArrayOutputStream();
+            for (byte[] part : _parts.values()) {
+                object.write(part, 0, part.length);
+            }
+            CompletableFuture<T> result = transformer.prepare();
+            transformer.onResponse(GetObjectResponse.builder()
+                    .metadata(_metadata)
+                    .contentLength((long) object.size())
+                    .build());
+            transformer.onStream(AsyncRequestBody.fromBytes(object.toByteArray()));
+            return result;
+        }
+
+        @Override
+        public String serviceName() {
+            return "s3";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class KnownLengthRequestBody implements AsyncRequestBody {
+        private final Publisher<ByteBuffer> _publisher;
+        private final long _contentLength;
+
+        private KnownLengthRequestBody(Publisher<ByteBuffer> publisher, long contentLength) {
+            _publisher = publisher;
+            _contentLength = contentLength;
+        }
+
+        @Override
+        public Optional<Long> contentLength() {
+            return Optional.of(_contentLength);
+        }
+
+        @Override
+        public void subscribe(Subscriber<? super ByteBuffer> subscriber) {
+            _publisher.subscribe(subscriber);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.SdkPartType;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+import software.amazon.encryption.s3.S3EncryptionClientException;
+import software.amazon.encryption.s3.internal.MultipartPutEncryptedObjectPipelineTest.InMemoryS3AsyncClient;
+import software.amazon.encryption.s3.materials.AesKeyring;
+import software.amazon.encryption.s3.materials.AsyncCryptographicMaterialsManager;
+import software.amazon.encryption.s3.materials.DefaultCryptoMaterialsManager;
+
+import javax.crypto.KeyGenerator;
+import java.io.ByteArrayOutputStream;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MultipartUploadObjectPipelineTest {
+
+    private static final int PART_SIZE = 5 * 1024 * 1024;
+
+    private final SecureRandom _secureRandom = new SecureRandom();
+    private final AsyncCryptographicMaterialsManager _cryptoMaterialsManager;
+
+    public MultipartUploadObjectPipelineTest() throws Exception {
+        KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+        keyGenerator.init(256);
+        _cryptoMaterialsManager = new CryptoMaterialsManagerAdapter(DefaultCryptoMaterialsManager.builder()
+                .keyring(AesKeyring.builder()
+                        .wrappingKey(keyGenerator.generateKey())
+                        .secureRandom(_secureRandom)
+                        .build())
+                .build());
+    }
+
+    @Test
+    public void uploadsAsyncPartsWithoutBlocking() throws Exception {
+        byte[] firstPart = new byte[PART_SIZE];
+        byte[] lastPart = new byte[7];
+        _secureRandom.nextBytes(firstPart);
+        _secureRandom.nextBytes(lastPart);
+        InMemoryS3AsyncClient s3 = new InMemoryS3AsyncClient();
+        MultipartUploadObjectPipeline pipeline = pipeline(s3);
+
+        pipeline.createMultipartUpload(CreateMultipartUploadRequest.builder().bucket("bucket").key("key").build())
+                .thenCompose(upload -> pipeline.uploadPart(partRequest(upload.uploadId(), 1, SdkPartType.DEFAULT),
+                                AsyncRequestBody.fromBytes(firstPart))
+                        .thenCompose(response -> pipeline.uploadPart(partRequest(upload.uploadId(), 2, SdkPartType.LAST),
+                                AsyncRequestBody.fromBytes(lastPart)))
+                        .thenCompose(response -> pipeline.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                                .bucket("bucket")
+                                .key("key")
+                                .uploadId(upload.uploadId())
+                                .multipartUpload(parts -> parts.parts(
+                                        CompletedPart.builder().partNumber(1).eTag("etag").build(),
+                                        CompletedPart.builder().partNumber(2).eTag("etag").build()))
+                                .build())))
+                .get(10, TimeUnit.SECONDS);
+
+        assertTrue(s3._completed);
+        ByteArrayOutputStream plaintext = new ByteArrayOutputStream();
+        plaintext.write(firstPart);
+        plaintext.write(lastPart);
+        assertArrayEquals(plaintext.toByteArray(), getObject(s3));
+    }
+
+    @Test
+    public void partsMayNotOverlap() throws Exception {
+        InMemoryS3AsyncClient s3 = new InMemoryS3AsyncClient();
+        s3._holdParts = true;
+        MultipartUploadObjectPipeline pipeline = pipeline(s3);
+        String uploadId = pipeline.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                .bucket("bucket")
+                .key("key")
+                .build()).get().uploadId();
+
+        CompletableFuture<UploadPartResponse> first = pipeline.uploadPart(partRequest(uploadId, 1, SdkPartType.DEFAULT),
+                AsyncRequestBody.fromBytes(new byte[PART_SIZE]));
+        assertThrows(S3EncryptionClientException.class, () -> pipeline.uploadPart(
+                partRequest(uploadId, 2, SdkPartType.LAST), AsyncRequestBody.fromBytes(new byte[7])));
+
+        s3._heldParts.get(0).complete(UploadPartResponse.builder().eTag("etag").build());
+        assertTrue(first.isDone());
+        assertFalse(pipeline.uploadPart(partRequest(uploadId, 2, SdkPartType.LAST),
+                AsyncRequestBody.fromBytes(new byte[7])).isDone());
+    }
+
+    @Test
+    public void stagedPartsUploadConcurrently() throws Exception {
+        byte[] plaintext = new byte[3 * PART_SIZE + 7];
+        _secureRandom.nextBytes(plaintext);
+        InMemoryS3AsyncClient s3 = new InMemoryS3AsyncClient();
+        s3._holdParts = true;
+        MultipartUploadObjectPipeline pipeline = pipeline(s3, 2);
+        String uploadId = pipeline.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                .bucket("bucket")
+                .key("key")
+                .build()).get().uploadId();
+
+        List<CompletableFuture<UploadPartResponse>> responses = new ArrayList<>();
+        for (int part = 0; part < 4; part++) {
+            int offset = part * PART_SIZE;
+            boolean isLastPart = part == 3;
+            responses.add(pipeline.uploadPart(partRequest(uploadId, part + 1, isLastPart ? SdkPartType.LAST : SdkPartType.DEFAULT),
+                    AsyncRequestBody.fromBytes(Arrays.copyOfRange(plaintext, offset, isLastPart ? plaintext.length : offset + PART_SIZE))));
+        }
+        // The first two parts are uploading at once, and the rest wait for them
+        assertEquals(2, s3._heldParts.size());
+        assertEquals(2, s3._parts.size());
+
+        while (!CompletableFuture.allOf(responses.toArray(new CompletableFuture[0])).isDone()) {
+            List<CompletableFuture<UploadPartResponse>> held;
+            synchronized (s3) {
+                assertTrue(s3._heldParts.size() <= 2, "parts in flight: " + s3._heldParts.size());
+                held = new ArrayList<>(s3._heldParts);
+                s3._heldParts.clear();
+            }
+            for (CompletableFuture<UploadPartResponse> part : held) {
+                part.complete(UploadPartResponse.builder().eTag("etag").build());
+            }
+            Thread.sleep(10);
+        }
+        pipeline.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                .bucket("bucket")
+                .key("key")
+                .uploadId(uploadId)
+                .multipartUpload(parts -> parts.parts(
+                        CompletedPart.builder().partNumber(1).eTag("etag").build(),
+                        CompletedPart.builder().partNumber(2).eTag("etag").build(),
+                        CompletedPart.builder().partNumber(3).eTag("etag").build(),
+                        CompletedPart.builder().partNumber(4).eTag("etag").build()))
+                .build()).get(10, TimeUnit.SECONDS);
+
+        assertTrue(s3._completed);
+        assertEquals(PART_SIZE, s3._parts.get(1).length);
+        assertEquals(7 + 16, s3._parts.get(4).length);
+        assertArrayEquals(plaintext, getObject(s3));
+    }
+
+    @Test
+    public void stagedPartsMustBeSubmittedInOrder() throws Exception {
+        InMemoryS3AsyncClient s3 = new InMemoryS3AsyncClient();
+        s3._holdParts = true;
+        MultipartUploadObjectPipeline pipeline = pipeline(s3, 2);
+        String uploadId = pipeline.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                .bucket("bucket")
+                .key("key")
+                .build()).get().uploadId();
+
+        assertThrows(S3EncryptionClientException.class, () -> pipeline.uploadPart(
+                partRequest(uploadId, 2, SdkPartType.DEFAULT), AsyncRequestBody.fromBytes(new byte[PART_SIZE])));
+        pipeline.uploadPart(partRequest(uploadId, 1, SdkPartType.DEFAULT), AsyncRequestBody.fromBytes(new byte[PART_SIZE]));
+        // The cipher has moved past part 1, so it cannot be encrypted again
+        assertThrows(S3EncryptionClientException.class, () -> pipeline.uploadPart(
+                partRequest(uploadId, 1, SdkPartType.DEFAULT), AsyncRequestBody.fromBytes(new byte[PART_SIZE])));
+    }
+
+    @Test
+    public void partsMustHaveAContentLength() throws Exception {
+        MultipartUploadObjectPipeline pipeline = pipeline(new InMemoryS3AsyncClient());
+        String uploadId = pipeline.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                .bucket("bucket")
+                .key("key")
+                .build()).get().uploadId();
+
+        assertThrows(S3EncryptionClientException.class, () -> pipeline.uploadPart(
+                partRequest(uploadId, 1, SdkPartType.LAST),
+                AsyncRequestBody.fromPublisher(AsyncRequestBody.fromBytes(new byte[7]))));
+    }
+
+    private MultipartUploadObjectPipeline pipeline(InMemoryS3AsyncClient s3) {
+        return pipeline(s3, 0);
+    }
+
+    private MultipartUploadObjectPipeline pipeline(InMemoryS3AsyncClient s3, int maxStagedParts) {
+        return MultipartUploadObjectPipeline.builder()
+                .s3AsyncClient(s3)
+                .asyncCryptoMaterialsManager(_cryptoMaterialsManager)
+                .secureRandom(_secureRandom)
+                .maxStagedParts(maxStagedParts)
+                .build();
+    }
+
+    private static UploadPartRequest partRequest(String uploadId, int partNumber, SdkPartType partType) {
+        return UploadPartRequest.builder()
+                .bucket("bucket")
+                .key("key")
+                .uploadId(uploadId)
+                .partNumber(partNumber)
+                .sdkPartType(partType)
+                .build();
+    }
+
+    private byte[] getObject(InMemoryS3AsyncClient s3) throws Exception {
+        return GetEncryptedObjectPipeline.builder()
+                .s3AsyncClient(s3)
+                .asyncCryptoMaterialsManager(_cryptoMaterialsManager)
+                .build()
+                .getObject(GetObjectRequest.builder().bucket("bucket").key("key").build(),
+                        AsyncResponseTransformer.toBytes())
+                .get(10, TimeUnit.SECONDS)
+                .asByteArray();
+    }
+}
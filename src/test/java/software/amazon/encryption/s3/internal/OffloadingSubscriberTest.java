@@ -0,0 +1,138 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.encryption.s3.CryptoExecutor;
+import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
+import software.amazon.encryption.s3.materials.EncryptionMaterials;
+import software.amazon.encryption.s3.utils.ChunkPublisher;
+import software.amazon.encryption.s3.utils.CollectingSubscriber;
+import software.amazon.encryption.s3.utils.RecordingDownstream;
+import software.amazon.encryption.s3.utils.RecordingUpstream;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OffloadingSubscriberTest {
+
+    private static final AlgorithmSuite SUITE = AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF;
+
+    @Test
+    public void prefetchesBoundedChunksAndRespectsDemand() {
+        CryptoExecutor cryptoExecutor = CryptoExecutor.builder()
+                .executor(Runnable::run)
+                .parallelism(1)
+                .maxInFlightChunks(4)
+                .build();
+        RecordingUpstream upstream = new RecordingUpstream();
+        RecordingDownstream downstream = new RecordingDownstream();
+        OffloadingSubscriber subscriber = new OffloadingSubscriber(downstream, cryptoExecutor);
+
+        subscriber.onSubscribe(upstream);
+        assertEquals(4, upstream.requested());
+        for (int i = 0; i < 4; i++) {
+            subscriber.onNext(ByteBuffer.allocate(1));
+        }
+        assertEquals(0, downstream.signals().size());
+
+        downstream.subscription().request(1);
+        assertEquals(1, downstream.signals().size());
+        assertEquals(4, upstream.requested());
+        downstream.subscription().request(1);
+        // Half of the chunks have been passed on, so as many more are requested
+        assertEquals(6, upstream.requested());
+
+        downstream.subscription().request(Long.MAX_VALUE);
+        subscriber.onComplete();
+        assertEquals(5, downstream.signals().size());
+        assertEquals("complete", downstream.signals().get(4));
+    }
+
+    @Test
+    public void passesOnErrorsAtOnce() {
+        CryptoExecutor cryptoExecutor = CryptoExecutor.builder().executor(Runnable::run).parallelism(1).build();
+        RecordingDownstream downstream = new RecordingDownstream();
+        OffloadingSubscriber subscriber = new OffloadingSubscriber(downstream, cryptoExecutor);
+
+        subscriber.onSubscribe(new RecordingUpstream());
+        subscriber.onNext(ByteBuffer.allocate(1));
+        subscriber.onError(new IllegalStateException());
+        assertEquals(1, downstream.signals().size());
+        assertInstanceOf(IllegalStateException.class, downstream.signals().get(0));
+
+        downstream.subscription().request(1);
+        assertEquals(1, downstream.signals().size());
+    }
+
+    @Test
+    public void cancellingStopsSignals() {
+        CryptoExecutor cryptoExecutor = CryptoExecutor.builder().executor(Runnable::run).parallelism(1).build();
+        RecordingUpstream upstream = new RecordingUpstream();
+        RecordingDownstream downstream = new RecordingDownstream();
+        OffloadingSubscriber subscriber = new OffloadingSubscriber(downstream, cryptoExecutor);
+
+        subscriber.onSubscribe(upstream);
+        subscriber.onNext(ByteBuffer.allocate(1));
+        downstream.subscription().cancel();
+        assertTrue(upstream.isCancelled());
+
+        downstream.subscription().request(1);
+        subscriber.onComplete();
+        assertEquals(0, downstream.signals().size());
+    }
+
+    @Test
+    public void encryptsOnTheExecutor() throws Exception {
+        SecureRandom secureRandom = new SecureRandom();
+        byte[] plaintext = new byte[1024 * 1024 + 7];
+        secureRandom.nextBytes(plaintext);
+        byte[] iv = new byte[SUITE.iVLengthBytes()];
+        secureRandom.nextBytes(iv);
+        EncryptionMaterials materials = EncryptionMaterials.builder()
+                .s3Request(PutObjectRequest.builder().bucket("bucket").key("key").build())
+                .algorithmSuite(SUITE)
+                .plaintextDataKey(new byte[32])
+                .build();
+        byte[] expected = materials.getCipher(iv).doFinal(plaintext);
+        CryptoExecutor cryptoExecutor = CryptoExecutor.builder().parallelism(2).maxInFlightChunks(4).build();
+
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        CountDownLatch completed = new CountDownLatch(1);
+        CollectingSubscriber collector = new CollectingSubscriber() {
+            @Override
+            public void onNext(ByteBuffer byteBuffer) {
+                threads.add(Thread.currentThread().getName());
+                super.onNext(byteBuffer);
+            }
+
+            @Override
+            public void onComplete() {
+                super.onComplete();
+                completed.countDown();
+            }
+        };
+        new CipherAsyncRequestBody(AsyncRequestBody.fromPublisher(new ChunkPublisher(plaintext, 8192)),
+                (long) expected.length, materials, iv, true, 64 * 1024, null,
+                cryptoExecutor).subscribe(collector);
+
+        assertTrue(completed.await(10, TimeUnit.SECONDS));
+        assertArrayEquals(expected, collector.bytes());
+        assertFalse(threads.isEmpty());
+        for (String thread : threads) {
+            assertTrue(thread.startsWith("s3-encryption-client-crypto-"), thread);
+        }
+    }
+}
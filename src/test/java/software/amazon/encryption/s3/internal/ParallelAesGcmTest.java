@@ -0,0 +1,253 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.encryption.s3.S3EncryptionClientException;
+import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
+import software.amazon.encryption.s3.materials.DecryptionMaterials;
+import software.amazon.encryption.s3.materials.EncryptionMaterials;
+import software.amazon.encryption.s3.utils.CollectingSubscriber;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ParallelAesGcmTest {
+
+    private static final int TAG_LENGTH_BITS = 128;
+    private static final int TAG_LENGTH = TAG_LENGTH_BITS / 8;
+
+    private static ForkJoinPool _pool;
+
+    private final SecureRandom _secureRandom = new SecureRandom();
+
+    @BeforeAll
+    public static void setUp() {
+        _pool = new ForkJoinPool(4);
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        _pool.shutdown();
+    }
+
+    @Test
+    public void matchesJceEncryptionAndDecryption() throws Exception {
+        Random random = new Random(42);
+        int[] lengths = {0, 17, 2 * ParallelAesGcm.SEGMENT_SIZE, 3 * ParallelAesGcm.SEGMENT_SIZE + 5,
+                5 * ParallelAesGcm.SEGMENT_SIZE - 3};
+        for (int length : lengths) {
+            SecretKey key = key();
+            byte[] iv = iv();
+            byte[] plaintext = new byte[length];
+            _secureRandom.nextBytes(plaintext);
+            byte[] expected = encrypt(key, iv, plaintext);
+
+            // Unaligned updates leave the segments of later updates off block boundaries
+            for (int firstUpdate : new int[]{length, Math.min(length, 7), Math.min(length, 100_003)}) {
+                ParallelAesGcm encryptor = new ParallelAesGcm(key, iv, TAG_LENGTH_BITS, true, null, _pool);
+                byte[] ciphertext = new byte[length + TAG_LENGTH];
+                ByteBuffer output = ByteBuffer.wrap(ciphertext);
+                update(encryptor, plaintext, firstUpdate, random, output);
+                output.put(encryptor.tag());
+                assertArrayEquals(expected, ciphertext, "length " + length + ", first update " + firstUpdate);
+
+                ParallelAesGcm decryptor = new ParallelAesGcm(key, iv, TAG_LENGTH_BITS, false, null, _pool);
+                byte[] decrypted = new byte[length];
+                update(decryptor, Arrays.copyOf(expected, length), firstUpdate, random, ByteBuffer.wrap(decrypted));
+                assertArrayEquals(plaintext, decrypted);
+                assertArrayEquals(Arrays.copyOfRange(expected, length, expected.length), decryptor.tag());
+            }
+        }
+    }
+
+    @Test
+    public void detectsTamperingInAnySegment() throws Exception {
+        SecretKey key = key();
+        byte[] iv = iv();
+        byte[] plaintext = new byte[4 * ParallelAesGcm.SEGMENT_SIZE];
+        byte[] ciphertext = encrypt(key, iv, plaintext);
+        byte[] tag = Arrays.copyOfRange(ciphertext, plaintext.length, ciphertext.length);
+
+        for (int segment = 0; segment < 4; segment++) {
+            byte[] tampered = Arrays.copyOf(ciphertext, plaintext.length);
+            tampered[segment * ParallelAesGcm.SEGMENT_SIZE + 1] ^= 1;
+            ParallelAesGcm decryptor = new ParallelAesGcm(key, iv, TAG_LENGTH_BITS, false, null, _pool);
+            decryptor.update(ByteBuffer.wrap(tampered), ByteBuffer.allocate(tampered.length));
+            assertFalse(Arrays.equals(tag, decryptor.tag()), "segment " + segment);
+        }
+    }
+
+    @Test
+    public void refusesContentBeyondTheMaximumLength() {
+        SecretKey key = key();
+        byte[] iv = iv();
+        ParallelAesGcm encryptor = new ParallelAesGcm(key, iv, TAG_LENGTH_BITS, true, null, _pool, 100);
+        encryptor.update(ByteBuffer.allocate(60), ByteBuffer.allocate(60));
+        encryptor.update(ByteBuffer.allocate(40), ByteBuffer.allocate(40));
+        assertThrows(S3EncryptionClientException.class,
+                () -> encryptor.update(ByteBuffer.allocate(1), ByteBuffer.allocate(1)));
+
+        ParallelAesGcm decryptor = new ParallelAesGcm(key, iv, TAG_LENGTH_BITS, false, null, _pool, 100);
+        decryptor.authenticate(ByteBuffer.allocate(60));
+        assertThrows(S3EncryptionClientException.class, () -> decryptor.authenticate(ByteBuffer.allocate(41)));
+    }
+
+    @Test
+    public void gathersUpdatesToWholeSegmentsPerThread() {
+        assertEquals(1024, ParallelAesGcm.chunkSize(1024, null));
+        assertEquals(0, ParallelAesGcm.chunkSize(0, _pool));
+        assertEquals(4 * ParallelAesGcm.SEGMENT_SIZE, ParallelAesGcm.chunkSize(1024, _pool));
+    }
+
+    @Test
+    public void ghashSegmentsCombineToTheWholeHash() {
+        byte[] h = new byte[16];
+        _secureRandom.nextBytes(h);
+        byte[] input = new byte[16 * 100];
+        _secureRandom.nextBytes(input);
+
+        GHash whole = new GHash(h);
+        whole.update(input, 0, input.length);
+
+        GHash combined = new GHash(h);
+        combined.update(input, 0, 16 * 30);
+        GHash segment = combined.newSegment();
+        segment.update(input, 16 * 30, 16 * 70);
+        combined.append(segment, combined.power(70));
+
+        assertArrayEquals(whole.doFinal(0, input.length * 8L), combined.doFinal(0, input.length * 8L));
+    }
+
+    @Test
+    public void cipherSubscriberEncryptsInParallel() throws Exception {
+        SecretKey key = key();
+        byte[] iv = iv();
+        byte[] plaintext = new byte[3 * ParallelAesGcm.SEGMENT_SIZE + 11];
+        _secureRandom.nextBytes(plaintext);
+
+        EncryptionMaterials materials = EncryptionMaterials.builder()
+                .s3Request(PutObjectRequest.builder().bucket("bucket").key("key").build())
+                .algorithmSuite(AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF)
+                .plaintextDataKey(key.getEncoded())
+                .build();
+        CollectingSubscriber collector = new CollectingSubscriber();
+        CipherSubscriber subscriber = new CipherSubscriber(collector, (long) plaintext.length, materials, iv,
+                true, false, _pool);
+        subscriber.onSubscribe(collector);
+        subscriber.onNext(ByteBuffer.wrap(plaintext, 0, 1000));
+        subscriber.onNext(ByteBuffer.wrap(plaintext, 1000, plaintext.length - 1000));
+        subscriber.onComplete();
+
+        assertArrayEquals(encrypt(key, iv, plaintext), collector.bytes());
+        assertEquals(1, collector.completions());
+    }
+
+    @Test
+    public void bufferedCipherSubscriberDecryptsInParallel() throws Exception {
+        SecretKey key = key();
+        byte[] iv = iv();
+        byte[] plaintext = new byte[3 * ParallelAesGcm.SEGMENT_SIZE + 11];
+        _secureRandom.nextBytes(plaintext);
+        byte[] ciphertext = encrypt(key, iv, plaintext);
+
+        CollectingSubscriber collector = new CollectingSubscriber();
+        BufferedCipherSubscriber subscriber = BufferedCipherSubscriber.builder()
+                .wrappedSubscriber(collector)
+                .contentLength((long) ciphertext.length)
+                .materials(materials(key))
+                .iv(iv)
+                .parallelCryptoPool(_pool)
+                .build();
+        subscriber.onSubscribe(collector);
+        subscriber.onNext(ByteBuffer.wrap(ciphertext, 0, 1000));
+        subscriber.onNext(ByteBuffer.wrap(ciphertext, 1000, ciphertext.length - 1000));
+        subscriber.onComplete();
+
+        assertArrayEquals(plaintext, collector.bytes());
+        assertEquals(1, collector.completions());
+    }
+
+    @Test
+    public void bufferedCipherSubscriberReleasesNothingOnTagMismatch() throws Exception {
+        SecretKey key = key();
+        byte[] iv = iv();
+        byte[] ciphertext = encrypt(key, iv, new byte[2 * ParallelAesGcm.SEGMENT_SIZE]);
+        ciphertext[ciphertext.length - 1] ^= 1;
+
+        List<Throwable> errors = new ArrayList<>();
+        CollectingSubscriber collector = new CollectingSubscriber() {
+            @Override
+            public void onError(Throwable t) {
+                errors.add(t);
+            }
+        };
+        BufferedCipherSubscriber subscriber = BufferedCipherSubscriber.builder()
+                .wrappedSubscriber(collector)
+                .contentLength((long) ciphertext.length)
+                .materials(materials(key))
+                .iv(iv)
+                .parallelCryptoPool(_pool)
+                .build();
+        subscriber.onSubscribe(collector);
+        subscriber.onNext(ByteBuffer.wrap(ciphertext));
+        assertEquals(0, collector.bytes().length);
+        assertEquals(1, errors.size());
+        assertInstanceOf(AEADBadTagException.class, errors.get(0));
+    }
+
+    private static void update(ParallelAesGcm gcm, byte[] input, int firstUpdate, Random random, ByteBuffer output) {
+        gcm.update(ByteBuffer.wrap(input, 0, firstUpdate), output);
+        for (int offset = firstUpdate; offset < input.length; ) {
+            int chunk = Math.min(1 + random.nextInt(3 * ParallelAesGcm.SEGMENT_SIZE), input.length - offset);
+            gcm.update(ByteBuffer.wrap(input, offset, chunk), output);
+            offset += chunk;
+        }
+    }
+
+    private static DecryptionMaterials materials(SecretKey key) {
+        return DecryptionMaterials.builder()
+                .s3Request(GetObjectRequest.builder().bucket("bucket").key("key").build())
+                .algorithmSuite(AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF)
+                .plaintextDataKey(key.getEncoded())
+                .build();
+    }
+
+    private SecretKey key() {
+        byte[] key = new byte[32];
+        _secureRandom.nextBytes(key);
+        return new SecretKeySpec(key, "AES");
+    }
+
+    private byte[] iv() {
+        byte[] iv = new byte[12];
+        _secureRandom.nextBytes(iv);
+        return iv;
+    }
+
+    private static byte[] encrypt(SecretKey key, byte[] iv, byte[] plaintext) throws Exception {
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+        return cipher.doFinal(plaintext);
+    }
+}
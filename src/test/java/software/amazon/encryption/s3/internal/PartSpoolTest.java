@@ -0,0 +1,165 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.encryption.s3.utils.CollectingSubscriber;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PartSpoolTest {
+
+    private static final int PART_SIZE = 1024;
+
+    @Test
+    public void everySpoolSplitsTheStreamIntoExactParts() throws IOException {
+        byte[] content = new byte[3 * PART_SIZE + 100];
+        new SecureRandom().nextBytes(content);
+
+        for (PartSpool spool : new PartSpool[]{new DiskPartSpool(), new HeapPartSpool(), new DirectPartSpool(), new MappedPartSpool()}) {
+            RecordingObserver observer = new RecordingObserver(true);
+            MultiFileOutputStream outputStream = new MultiFileOutputStream(spool).init(observer, PART_SIZE, 2 * PART_SIZE);
+            // Writes which straddle the part boundaries
+            for (int offset = 0; offset < content.length; offset += 700) {
+                outputStream.write(content, offset, Math.min(700, content.length - offset));
+            }
+            outputStream.close();
+            outputStream.cleanup();
+
+            String name = spool.getClass().getSimpleName();
+            assertEquals(4, observer._parts.size(), name);
+            ByteArrayOutputStream uploaded = new ByteArrayOutputStream();
+            for (int i = 0; i < 4; i++) {
+                assertEquals(i == 3 ? 100 : PART_SIZE, observer._parts.get(i).length, name);
+                uploaded.write(observer._parts.get(i));
+            }
+            assertArrayEquals(content, uploaded.toByteArray(), name);
+            assertTrue(observer._lastPartSeen, name);
+            assertEquals(spool instanceof DiskPartSpool, observer._files.get(0) != null, name);
+        }
+    }
+
+    @Test
+    public void diskPartsAreDeletedOnceUploaded() throws IOException {
+        DiskPartSpool spool = new DiskPartSpool();
+        RecordingObserver observer = new RecordingObserver(true);
+        MultiFileOutputStream outputStream = new MultiFileOutputStream(spool).init(observer, PART_SIZE, Long.MAX_VALUE);
+        outputStream.write(new byte[2 * PART_SIZE + 1]);
+        outputStream.close();
+
+        assertEquals(3, observer._files.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(spool.getFile(i + 1), observer._files.get(i));
+            assertFalse(observer._files.get(i).exists());
+        }
+        assertNotNull(outputStream.getRoot());
+    }
+
+    @Test
+    public void ringReusesReleasedBuffers() throws IOException {
+        HeapPartSpool spool = new HeapPartSpool();
+        MultiFileOutputStream outputStream = new MultiFileOutputStream(spool)
+                .init(new RecordingObserver(true), PART_SIZE, 3 * PART_SIZE);
+        outputStream.write(new byte[10 * PART_SIZE]);
+        outputStream.close();
+
+        // Each part is released as soon as it is created, so the one buffer is reused for every part
+        assertEquals(1, spool.allocatedBuffers());
+        assertNull(outputStream.getFile(1));
+    }
+
+    @Test
+    public void waitsForAPartToBeReleasedOnceTheLimitIsReached() throws Exception {
+        HeapPartSpool spool = new HeapPartSpool();
+        RecordingObserver observer = new RecordingObserver(false);
+        MultiFileOutputStream outputStream = new MultiFileOutputStream(spool).init(observer, PART_SIZE, 2 * PART_SIZE);
+        CountDownLatch written = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread writer = new Thread(() -> {
+            try {
+                outputStream.write(new byte[3 * PART_SIZE]);
+                outputStream.close();
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+            written.countDown();
+        });
+        writer.start();
+
+        // The third part waits for one of the first two to be uploaded
+        assertFalse(written.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(2, spool.allocatedBuffers());
+        observer.releaseFirst();
+        assertTrue(written.await(10, TimeUnit.SECONDS));
+        assertNull(failure.get());
+        assertEquals(2, spool.allocatedBuffers());
+    }
+
+    @Test
+    public void memorySpoolsRequireALimit() {
+        assertThrows(IllegalArgumentException.class, () -> new HeapPartSpool().init(PART_SIZE, Long.MAX_VALUE));
+        assertThrows(IllegalArgumentException.class, () -> new DirectPartSpool().init(PART_SIZE, Long.MAX_VALUE));
+        assertThrows(IllegalArgumentException.class, () -> new HeapPartSpool().init(1L << 32, Long.MAX_VALUE - 1));
+    }
+
+    /**
+     * Reads each part as it is created and, if asked to, releases it as an upload would.
+     */
+    private static class RecordingObserver extends UploadObjectObserver {
+        private final boolean _releaseParts;
+        private final List<byte[]> _parts = new ArrayList<>();
+        private final List<File> _files = new ArrayList<>();
+        private final List<PartCreationEvent> _held = new ArrayList<>();
+        private boolean _lastPartSeen;
+
+        private RecordingObserver(boolean releaseParts) {
+            _releaseParts = releaseParts;
+        }
+
+        @Override
+        public synchronized void onPartCreate(PartCreationEvent event) {
+            CollectingSubscriber collector = new CollectingSubscriber();
+            event.getSpooledPart().requestBody().subscribe(collector);
+            // Files are read asynchronously
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (collector.completions() == 0) {
+                assertTrue(System.nanoTime() < deadline, "timed out");
+                Thread.yield();
+            }
+            _parts.add(collector.bytes());
+            _files.add(event.getPart());
+            _lastPartSeen = event.isLastPart();
+            if (_releaseParts) {
+                release(event);
+            } else {
+                _held.add(event);
+            }
+        }
+
+        synchronized void releaseFirst() {
+            release(_held.remove(0));
+        }
+
+        private static void release(PartCreationEvent event) {
+            event.getSpooledPart().release();
+            event.getFileDeleteObserver().onFileDelete(null);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.core.async.SdkPublisher;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.encryption.s3.MemoryBudget;
+import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
+import software.amazon.encryption.s3.materials.DecryptionMaterials;
+import software.amazon.encryption.s3.materials.EncryptionMaterials;
+import software.amazon.encryption.s3.utils.RecordingDownstream;
+
+import javax.crypto.AEADBadTagException;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SmallObjectCipherSubscriberTest {
+
+    private static final AlgorithmSuite SUITE = AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF;
+
+    private final byte[] _dataKey = new byte[32];
+    private final byte[] _iv = new byte[SUITE.iVLengthBytes()];
+
+    @Test
+    public void decryptsIntoOneExactSizeBuffer() throws Exception {
+        byte[] plaintext = new byte[100_000];
+        new SecureRandom().nextBytes(plaintext);
+        byte[] ciphertext = encrypt(plaintext);
+
+        RecordingDownstream downstream = new RecordingDownstream();
+        SmallObjectCipherSubscriber subscriber = new SmallObjectCipherSubscriber(downstream, ciphertext.length,
+                decryptionMaterials(), _iv, null);
+        subscriber.onSubscribe(new NoOpSubscription());
+        for (int offset = 0; offset < ciphertext.length; offset += 8192) {
+            subscriber.onNext(ByteBuffer.wrap(ciphertext, offset, Math.min(8192, ciphertext.length - offset)));
+        }
+        downstream.subscription().request(Long.MAX_VALUE);
+
+        assertEquals(2, downstream.signals().size());
+        ByteBuffer decrypted = (ByteBuffer) downstream.signals().get(0);
+        assertEquals(plaintext.length, decrypted.remaining());
+        // Decrypted in place, in the array the ciphertext was collected into
+        assertEquals(ciphertext.length, decrypted.array().length);
+        byte[] bytes = new byte[decrypted.remaining()];
+        decrypted.get(bytes);
+        assertArrayEquals(plaintext, bytes);
+        assertEquals("complete", downstream.signals().get(1));
+    }
+
+    @Test
+    public void allocatesNothingUntilCiphertextArrives() throws Exception {
+        encrypt(new byte[0]);
+        // An array this long cannot be allocated at all
+        RecordingDownstream downstream = new RecordingDownstream();
+        SmallObjectCipherSubscriber subscriber = new SmallObjectCipherSubscriber(downstream, Integer.MAX_VALUE,
+                decryptionMaterials(), _iv, null);
+        subscriber.onSubscribe(new NoOpSubscription());
+        downstream.subscription().cancel();
+    }
+
+    @Test
+    public void releasesNoPlaintextWhenAuthenticationFails() throws Exception {
+        byte[] ciphertext = encrypt(new byte[100]);
+        ciphertext[0] ^= 1;
+        MemoryBudget budget = MemoryBudget.builder().maxBytes(1024).build();
+        assertTrue(budget.tryReserve(SmallObjectCipherSubscriber.memoryRequired(ciphertext.length)));
+
+        RecordingDownstream downstream = new RecordingDownstream();
+        SmallObjectCipherSubscriber subscriber = new SmallObjectCipherSubscriber(downstream, ciphertext.length,
+                decryptionMaterials(), _iv, budget);
+        subscriber.onSubscribe(new NoOpSubscription());
+        downstream.subscription().request(1);
+        subscriber.onNext(ByteBuffer.wrap(ciphertext));
+
+        assertEquals(1, downstream.signals().size());
+        assertInstanceOf(AEADBadTagException.class, downstream.signals().get(0));
+        assertEquals(0, budget.reservedBytes());
+    }
+
+    @Test
+    public void publisherDecryptsSmallObjectsInOneBuffer() throws Exception {
+        byte[] plaintext = new byte[3 * 1024 * 1024];
+        new SecureRandom().nextBytes(plaintext);
+        byte[] ciphertext = encrypt(plaintext);
+        RecordingDownstream downstream = new RecordingDownstream();
+
+        BufferedCipherPublisher.builder()
+                .wrappedPublisher(SdkPublisher.adapt(subscriber -> {
+                    subscriber.onSubscribe(new NoOpSubscription());
+                    subscriber.onNext(ByteBuffer.wrap(ciphertext));
+                }))
+                .contentLength((long) ciphertext.length)
+                .cipherTagLengthBits(SUITE.cipherTagLengthBits())
+                .materials(decryptionMaterials())
+                .iv(_iv)
+                .smallObjectThreshold(BufferedCipherPublisher.DEFAULT_SMALL_OBJECT_THRESHOLD)
+                .build()
+                .subscribe(downstream);
+        downstream.subscription().request(Long.MAX_VALUE);
+
+        // BufferedCipherSubscriber would pass on 1MiB at a time
+        assertEquals(2, downstream.signals().size());
+        assertEquals(plaintext.length, ((ByteBuffer) downstream.signals().get(0)).remaining());
+    }
+
+    @Test
+    public void smallObjectsAreWithinBothThresholds() {
+        assertTrue(BufferedCipherPublisher.isSmallObject(100L, 100, -1));
+        assertFalse(BufferedCipherPublisher.isSmallObject(101L, 100, -1));
+        assertFalse(BufferedCipherPublisher.isSmallObject(100L, 100, 99));
+        assertFalse(BufferedCipherPublisher.isSmallObject(null, 100, -1));
+        assertFalse(BufferedCipherPublisher.isSmallObject(100L, -1, -1));
+    }
+
+    private byte[] encrypt(byte[] plaintext) throws Exception {
+        SecureRandom secureRandom = new SecureRandom();
+        secureRandom.nextBytes(_dataKey);
+        secureRandom.nextBytes(_iv);
+        return EncryptionMaterials.builder()
+                .s3Request(PutObjectRequest.builder().bucket("bucket").key("key").build())
+                .algorithmSuite(SUITE)
+                .plaintextDataKey(_dataKey)
+                .build()
+                .getCipher(_iv)
+                .doFinal(plaintext);
+    }
+
+    private DecryptionMaterials decryptionMaterials() {
+        return DecryptionMaterials.builder()
+                .s3Request(GetObjectRequest.builder().bucket("bucket").key("key").build())
+                .algorithmSuite(SUITE)
+                .plaintextDataKey(_dataKey)
+                .build();
+    }
+
+    private static class NoOpSubscription implements Subscription {
+        @Override
+        public void request(long n) {
+        }
+
+        @Override
+        public void cancel() {
+        }
+    }
+}
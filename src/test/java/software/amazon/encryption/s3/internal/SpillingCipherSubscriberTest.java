@@ -0,0 +1,215 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
+import software.amazon.encryption.s3.materials.DecryptionMaterials;
+import software.amazon.encryption.s3.utils.CollectingSubscriber;
+import software.amazon.encryption.s3.utils.RecordingDownstream;
+import software.amazon.encryption.s3.utils.RecordingUpstream;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+
+public class SpillingCipherSubscriberTest {
+
+    private static final AlgorithmSuite SUITE = AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF;
+
+    private final SecureRandom _secureRandom = new SecureRandom();
+    private final byte[] _dataKey = new byte[32];
+    private final byte[] _iv = new byte[12];
+
+    @TempDir
+    Path _spillDirectory;
+
+    public SpillingCipherSubscriberTest() {
+        _secureRandom.nextBytes(_dataKey);
+        _secureRandom.nextBytes(_iv);
+    }
+
+    @Test
+    public void decryptsThroughAFileAndDeletesIt() throws Exception {
+        for (int length : new int[]{0, 1, 5000, 3 * 1024 * 1024 + 7}) {
+            byte[] plaintext = new byte[length];
+            _secureRandom.nextBytes(plaintext);
+            byte[] ciphertext = encrypt(plaintext);
+
+            CollectingSubscriber collector = new CollectingSubscriber();
+            SpillingCipherSubscriber subscriber = new SpillingCipherSubscriber(collector, (long) ciphertext.length,
+                    decryptionMaterials(), _iv, _spillDirectory);
+            subscriber.onSubscribe(collector);
+            for (int offset = 0; offset < ciphertext.length; offset += 8191) {
+                subscriber.onNext(ByteBuffer.wrap(ciphertext, offset, Math.min(8191, ciphertext.length - offset)));
+                if (offset + 8191 < ciphertext.length) {
+                    // No plaintext is released before the tag is verified
+                    assertEquals(0, collector.bytes().length);
+                }
+            }
+            subscriber.onComplete();
+
+            assertArrayEquals(plaintext, collector.bytes(), "length " + length);
+            assertEquals(1, collector.completions());
+            assertEquals(0, spilledFiles());
+        }
+    }
+
+    @Test
+    public void releasesNothingOnTagMismatch() throws Exception {
+        byte[] ciphertext = encrypt(new byte[100_000]);
+        ciphertext[50_000] ^= 1;
+
+        List<Throwable> errors = new ArrayList<>();
+        CollectingSubscriber collector = new CollectingSubscriber() {
+            @Override
+            public void onError(Throwable t) {
+                errors.add(t);
+            }
+        };
+        SpillingCipherSubscriber subscriber = new SpillingCipherSubscriber(collector, (long) ciphertext.length,
+                decryptionMaterials(), _iv, _spillDirectory);
+        subscriber.onSubscribe(collector);
+        subscriber.onNext(ByteBuffer.wrap(ciphertext));
+
+        assertEquals(0, collector.bytes().length);
+        assertEquals(1, errors.size());
+        assertInstanceOf(AEADBadTagException.class, errors.get(0));
+        assertEquals(0, spilledFiles());
+    }
+
+    @Test
+    public void releasesNothingFromAFileModifiedAfterAuthentication() throws Exception {
+        byte[] plaintext = new byte[3 * 1024 * 1024];
+        _secureRandom.nextBytes(plaintext);
+        byte[] ciphertext = encrypt(plaintext);
+
+        RecordingDownstream downstream = new RecordingDownstream(1);
+        SpillingCipherSubscriber subscriber = new SpillingCipherSubscriber(downstream, (long) ciphertext.length,
+                decryptionMaterials(), _iv, _spillDirectory);
+        subscriber.onSubscribe(new RecordingUpstream());
+        subscriber.onNext(ByteBuffer.wrap(ciphertext));
+        // The tag is verified, and the first chunk released
+        assertEquals(1, downstream.signals().size());
+
+        // Flip a bit of the second chunk in the file, which may already be unlinked, through the open channel
+        Field spillFile = SpillingCipherSubscriber.class.getDeclaredField("spillFile");
+        spillFile.setAccessible(true);
+        FileChannel file = (FileChannel) spillFile.get(subscriber);
+        ByteBuffer modified = ByteBuffer.allocate(1);
+        file.read(modified, 1024 * 1024 + 10);
+        modified.put(0, (byte) (modified.get(0) ^ 1));
+        modified.rewind();
+        file.write(modified, 1024 * 1024 + 10);
+        downstream.subscription().request(Long.MAX_VALUE);
+
+        assertEquals(2, downstream.signals().size());
+        assertInstanceOf(AEADBadTagException.class, downstream.signals().get(1));
+        assertArrayEquals(Arrays.copyOf(plaintext, 1024 * 1024), downstream.bytes());
+        assertEquals(0, spilledFiles());
+    }
+
+    @Test
+    public void deletesTheFileWhenCancelled() throws Exception {
+        byte[] ciphertext = encrypt(new byte[100_000]);
+
+        List<Subscription> subscriptions = new ArrayList<>();
+        CollectingSubscriber collector = new CollectingSubscriber() {
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                subscriptions.add(subscription);
+                subscription.request(Long.MAX_VALUE);
+            }
+        };
+        SpillingCipherSubscriber subscriber = new SpillingCipherSubscriber(collector, (long) ciphertext.length,
+                decryptionMaterials(), _iv, _spillDirectory);
+        subscriber.onSubscribe(collector);
+        subscriber.onNext(ByteBuffer.wrap(ciphertext, 0, 1000));
+        subscriptions.get(0).cancel();
+        assertEquals(0, spilledFiles());
+
+        // Data which was already in flight is dropped
+        subscriber.onNext(ByteBuffer.wrap(ciphertext, 1000, ciphertext.length - 1000));
+        assertEquals(0, collector.bytes().length);
+        assertEquals(0, collector.completions());
+    }
+
+    @Test
+    public void publisherSpillsOnlyAboveTheThreshold() throws Exception {
+        byte[] plaintext = new byte[2000];
+        _secureRandom.nextBytes(plaintext);
+        byte[] ciphertext = encrypt(plaintext);
+
+        // A file cannot be created in a missing directory, so spilling fails
+        Path missingDirectory = _spillDirectory.resolve("missing");
+        for (long threshold : new long[]{-1, ciphertext.length, ciphertext.length - 1}) {
+            List<Throwable> errors = new ArrayList<>();
+            CollectingSubscriber collector = new CollectingSubscriber() {
+                @Override
+                public void onError(Throwable t) {
+                    errors.add(t);
+                }
+            };
+            BufferedCipherPublisher publisher = BufferedCipherPublisher.builder()
+                    .wrappedPublisher(subscriber -> {
+                        subscriber.onSubscribe(collector);
+                        subscriber.onNext(ByteBuffer.wrap(ciphertext));
+                        subscriber.onComplete();
+                    })
+                    .contentLength((long) ciphertext.length)
+                    .cipherTagLengthBits(SUITE.cipherTagLengthBits())
+                    .materials(decryptionMaterials())
+                    .iv(_iv)
+                    .spillThreshold(threshold)
+                    .spillDirectory(missingDirectory)
+                    .build();
+            publisher.subscribe(collector);
+
+            boolean spilled = threshold == ciphertext.length - 1;
+            assertEquals(spilled ? 1 : 0, errors.size(), "threshold " + threshold);
+            assertArrayEquals(spilled ? new byte[0] : plaintext, collector.bytes());
+        }
+    }
+
+    private long spilledFiles() {
+        try (Stream<Path> files = Files.list(_spillDirectory)) {
+            return files.count();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private DecryptionMaterials decryptionMaterials() {
+        return DecryptionMaterials.builder()
+                .s3Request(GetObjectRequest.builder().bucket("bucket").key("key").build())
+                .algorithmSuite(SUITE)
+                .plaintextDataKey(_dataKey)
+                .build();
+    }
+
+    private byte[] encrypt(byte[] plaintext) throws Exception {
+        Cipher cipher = Cipher.getInstance(SUITE.cipherName());
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(_dataKey, "AES"),
+                new GCMParameterSpec(SUITE.cipherTagLengthBits(), _iv));
+        return cipher.doFinal(plaintext);
+    }
+}
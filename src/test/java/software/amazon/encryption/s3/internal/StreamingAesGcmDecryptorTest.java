@@ -0,0 +1,172 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.internal;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.encryption.s3.S3EncryptionClientException;
+import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
+import software.amazon.encryption.s3.materials.DecryptionMaterials;
+import software.amazon.encryption.s3.utils.CollectingSubscriber;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class StreamingAesGcmDecryptorTest {
+
+    private static final int TAG_LENGTH_BITS = 128;
+
+    private final SecureRandom _secureRandom = new SecureRandom();
+
+    @Test
+    public void matchesJceDecryptionForAnyChunking() throws Exception {
+        Random random = new Random(42);
+        int[] lengths = {0, 1, 15, 16, 17, 31, 32, 100, 4096, 100_003};
+        for (int length : lengths) {
+            SecretKey key = key();
+            byte[] iv = iv();
+            byte[] plaintext = new byte[length];
+            _secureRandom.nextBytes(plaintext);
+            byte[] ciphertext = encrypt(key, iv, plaintext);
+
+            for (int maxChunk : new int[]{1, 7, 16, 1000, ciphertext.length}) {
+                StreamingAesGcmDecryptor decryptor = new StreamingAesGcmDecryptor(key, iv, TAG_LENGTH_BITS, null);
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                for (int offset = 0; offset < ciphertext.length; ) {
+                    int chunk = Math.min(1 + random.nextInt(Math.max(1, maxChunk)), ciphertext.length - offset);
+                    write(output, decryptor.update(ByteBuffer.wrap(ciphertext, offset, chunk)));
+                    offset += chunk;
+                }
+                output.write(decryptor.doFinal());
+                assertArrayEquals(plaintext, output.toByteArray(), "length " + length + ", chunks of up to " + maxChunk);
+            }
+        }
+    }
+
+    @Test
+    public void releasesPlaintextBeforeTheTag() throws Exception {
+        SecretKey key = key();
+        byte[] iv = iv();
+        byte[] plaintext = new byte[1024 * 1024];
+        _secureRandom.nextBytes(plaintext);
+        byte[] ciphertext = encrypt(key, iv, plaintext);
+
+        StreamingAesGcmDecryptor decryptor = new StreamingAesGcmDecryptor(key, iv, TAG_LENGTH_BITS, null);
+        // All of the plaintext is released once the bytes after it arrive, held back only until it is known
+        // they are not the tag
+        ByteBuffer released = decryptor.update(ByteBuffer.wrap(ciphertext, 0, plaintext.length + 1));
+        assertEquals(plaintext.length - (TAG_LENGTH_BITS / 8 - 1), released.remaining());
+        ByteBuffer rest = decryptor.update(ByteBuffer.wrap(ciphertext, plaintext.length + 1,
+                ciphertext.length - plaintext.length - 1));
+        assertEquals(TAG_LENGTH_BITS / 8 - 1, rest.remaining());
+        assertEquals(0, decryptor.doFinal().length);
+    }
+
+    @Test
+    public void decryptsDirectBuffers() throws Exception {
+        SecretKey key = key();
+        byte[] iv = iv();
+        byte[] plaintext = new byte[5000];
+        _secureRandom.nextBytes(plaintext);
+        byte[] ciphertext = encrypt(key, iv, plaintext);
+
+        StreamingAesGcmDecryptor decryptor = new StreamingAesGcmDecryptor(key, iv, TAG_LENGTH_BITS, null);
+        ByteBuffer direct = ByteBuffer.allocateDirect(ciphertext.length);
+        direct.put(ciphertext).flip();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        write(output, decryptor.update(direct));
+        output.write(decryptor.doFinal());
+        assertArrayEquals(plaintext, output.toByteArray());
+        // The input buffer is read in place, not consumed
+        assertEquals(0, direct.position());
+    }
+
+    @Test
+    public void rejectsTamperedCiphertextAndTags() throws Exception {
+        SecretKey key = key();
+        byte[] iv = iv();
+        byte[] plaintext = new byte[100];
+        byte[] ciphertext = encrypt(key, iv, plaintext);
+
+        for (int index : new int[]{0, 50, ciphertext.length - 1}) {
+            byte[] tampered = ciphertext.clone();
+            tampered[index] ^= 1;
+            StreamingAesGcmDecryptor decryptor = new StreamingAesGcmDecryptor(key, iv, TAG_LENGTH_BITS, null);
+            decryptor.update(ByteBuffer.wrap(tampered));
+            assertThrows(AEADBadTagException.class, decryptor::doFinal);
+        }
+
+        StreamingAesGcmDecryptor truncated = new StreamingAesGcmDecryptor(key, iv, TAG_LENGTH_BITS, null);
+        truncated.update(ByteBuffer.wrap(ciphertext, 0, 10));
+        assertThrows(AEADBadTagException.class, truncated::doFinal);
+    }
+
+    @Test
+    public void rejectsIvsOtherThan96Bits() {
+        assertThrows(S3EncryptionClientException.class,
+                () -> new StreamingAesGcmDecryptor(key(), new byte[16], TAG_LENGTH_BITS, null));
+    }
+
+    @Test
+    public void cipherSubscriberStreamsGcmInDelayedAuthenticationMode() throws Exception {
+        AlgorithmSuite suite = AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF;
+        SecretKey key = key();
+        byte[] iv = iv();
+        byte[] plaintext = new byte[10_000];
+        _secureRandom.nextBytes(plaintext);
+        byte[] ciphertext = encrypt(key, iv, plaintext);
+
+        DecryptionMaterials materials = DecryptionMaterials.builder()
+                .s3Request(GetObjectRequest.builder().bucket("bucket").key("key").build())
+                .algorithmSuite(suite)
+                .plaintextDataKey(key.getEncoded())
+                .build();
+        CollectingSubscriber collector = new CollectingSubscriber();
+        CipherSubscriber subscriber = new CipherSubscriber(collector, (long) ciphertext.length, materials, iv,
+                true, true, null);
+        subscriber.onSubscribe(collector);
+        subscriber.onNext(ByteBuffer.wrap(ciphertext, 0, plaintext.length + 16 - 100));
+        // The plaintext is released as it is decrypted, before the tag is received
+        assertEquals(plaintext.length - 100, collector.bytes().length);
+        subscriber.onNext(ByteBuffer.wrap(ciphertext, plaintext.length + 16 - 100, 100));
+        subscriber.onComplete();
+
+        assertArrayEquals(plaintext, collector.bytes());
+        assertEquals(1, collector.completions());
+    }
+
+    private SecretKey key() {
+        byte[] key = new byte[32];
+        _secureRandom.nextBytes(key);
+        return new SecretKeySpec(key, "AES");
+    }
+
+    private byte[] iv() {
+        byte[] iv = new byte[12];
+        _secureRandom.nextBytes(iv);
+        return iv;
+    }
+
+    private static byte[] encrypt(SecretKey key, byte[] iv, byte[] plaintext) throws Exception {
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+        return cipher.doFinal(plaintext);
+    }
+
+    private static void write(ByteArrayOutputStream output, ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        output.write(bytes, 0, bytes.length);
+    }
+}
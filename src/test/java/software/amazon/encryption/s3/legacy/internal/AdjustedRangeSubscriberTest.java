@@ -0,0 +1,60 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.legacy.internal;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.encryption.s3.utils.CollectingSubscriber;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class AdjustedRangeSubscriberTest {
+
+    @Test
+    public void slicesRangeFromDirectBuffers() throws Exception {
+        byte[] content = new byte[100];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        // A range starting in the second block skips the first block and the offset into the second
+        CollectingSubscriber collector = new CollectingSubscriber();
+        AdjustedRangeSubscriber subscriber = new AdjustedRangeSubscriber(collector, 20L, 49L);
+        subscriber.onNext(direct(content, 0, 10));
+        subscriber.onNext(direct(content, 10, 40));
+        subscriber.onNext(direct(content, 50, 50));
+        subscriber.onComplete();
+
+        // 16 + 4 bytes are skipped, then the 30 bytes of the range are read
+        assertArrayEquals(Arrays.copyOfRange(content, 20, 50), collector.bytes());
+        assertEquals(1, collector.completions());
+    }
+
+    @Test
+    public void respectsBufferPosition() throws Exception {
+        byte[] content = new byte[40];
+        Arrays.fill(content, (byte) 1);
+        Arrays.fill(content, 0, 8, (byte) 0);
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        buffer.position(8);
+
+        CollectingSubscriber collector = new CollectingSubscriber();
+        AdjustedRangeSubscriber subscriber = new AdjustedRangeSubscriber(collector, 2L, 11L);
+        subscriber.onNext(buffer);
+
+        byte[] expected = new byte[10];
+        Arrays.fill(expected, (byte) 1);
+        assertArrayEquals(expected, collector.bytes());
+        assertEquals(8, buffer.position());
+        assertEquals(1, collector.completions());
+    }
+
+    private static ByteBuffer direct(byte[] content, int offset, int length) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(length);
+        buffer.put(content, offset, length);
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,273 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.materials;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.encryption.s3.S3EncryptionClientException;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class CachingCryptoMaterialsManagerTest {
+
+    private CountingCryptoMaterialsManager _underlyingCmm;
+
+    @BeforeEach
+    public void setUp() throws NoSuchAlgorithmException {
+        KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+        keyGen.init(256);
+        SecretKey wrappingKey = keyGen.generateKey();
+        _underlyingCmm = new CountingCryptoMaterialsManager(DefaultCryptoMaterialsManager.builder()
+                .keyring(AesKeyring.builder()
+                        .wrappingKey(wrappingKey)
+                        .secureRandom(new SecureRandom())
+                        .build())
+                .build());
+    }
+
+    @Test
+    public void buildWithoutMaxAgeFails() {
+        assertThrows(S3EncryptionClientException.class, () -> CachingCryptoMaterialsManager.builder()
+                .cryptoMaterialsManager(_underlyingCmm)
+                .build());
+    }
+
+    @Test
+    public void buildWithTooManyMessagesFails() {
+        assertThrows(S3EncryptionClientException.class, () -> CachingCryptoMaterialsManager.builder()
+                .maxMessagesEncrypted((1L << 32) + 1));
+    }
+
+    @Test
+    public void reusesDataKeyWithinLimits() {
+        CachingCryptoMaterialsManager cmm = CachingCryptoMaterialsManager.builder()
+                .cryptoMaterialsManager(_underlyingCmm)
+                .maxAge(Duration.ofMinutes(5))
+                .build();
+
+        EncryptionMaterials first = cmm.getEncryptionMaterials(request("first", 10));
+        EncryptionMaterials second = cmm.getEncryptionMaterials(request("second", 20));
+
+        assertEquals(1, _underlyingCmm.calls());
+        assertArrayEquals(first.plaintextDataKey(), second.plaintextDataKey());
+        assertEquals(first.encryptedDataKeys(), second.encryptedDataKeys());
+        assertEquals("second", ((PutObjectRequest) second.s3Request()).key());
+        assertEquals(20, second.getPlaintextLength());
+        assertEquals(1, cmm.encryptionCacheHits());
+        assertEquals(1, cmm.encryptionCacheMisses());
+    }
+
+    @Test
+    public void retiresDataKeyAfterMaxMessages() {
+        CachingCryptoMaterialsManager cmm = CachingCryptoMaterialsManager.builder()
+                .cryptoMaterialsManager(_underlyingCmm)
+                .maxAge(Duration.ofMinutes(5))
+                .maxMessagesEncrypted(2)
+                .build();
+
+        EncryptionMaterials first = cmm.getEncryptionMaterials(request("a", 1));
+        cmm.getEncryptionMaterials(request("b", 1));
+        EncryptionMaterials third = cmm.getEncryptionMaterials(request("c", 1));
+
+        assertEquals(2, _underlyingCmm.calls());
+        assertFalse(Arrays.equals(first.plaintextDataKey(), third.plaintextDataKey()));
+    }
+
+    @Test
+    public void retiresDataKeyAfterMaxBytes() {
+        CachingCryptoMaterialsManager cmm = CachingCryptoMaterialsManager.builder()
+                .cryptoMaterialsManager(_underlyingCmm)
+                .maxAge(Duration.ofMinutes(5))
+                .maxBytesEncrypted(100)
+                .build();
+
+        cmm.getEncryptionMaterials(request("a", 60));
+        cmm.getEncryptionMaterials(request("b", 60));
+        assertEquals(2, _underlyingCmm.calls());
+
+        // A single object larger than the limit is never cached
+        cmm.getEncryptionMaterials(request("c", 101));
+        cmm.getEncryptionMaterials(request("d", 101));
+        assertEquals(4, _underlyingCmm.calls());
+    }
+
+    @Test
+    public void retiresDataKeyAfterMaxAge() throws InterruptedException {
+        CachingCryptoMaterialsManager cmm = CachingCryptoMaterialsManager.builder()
+                .cryptoMaterialsManager(_underlyingCmm)
+                .maxAge(Duration.ofMillis(1))
+                .build();
+
+        cmm.getEncryptionMaterials(request("a", 1));
+        Thread.sleep(5);
+        cmm.getEncryptionMaterials(request("b", 1));
+
+        assertEquals(2, _underlyingCmm.calls());
+    }
+
+    @Test
+    public void partitionsByEncryptionContext() {
+        CachingCryptoMaterialsManager cmm = CachingCryptoMaterialsManager.builder()
+                .cryptoMaterialsManager(_underlyingCmm)
+                .maxAge(Duration.ofMinutes(5))
+                .build();
+
+        cmm.getEncryptionMaterials(request("a", 1));
+        cmm.getEncryptionMaterials(EncryptionMaterialsRequest.builder()
+                .s3Request(PutObjectRequest.builder().bucket("bucket").key("b").build())
+                .encryptionContext(Collections.singletonMap("user", "value"))
+                .plaintextLength(1)
+                .build());
+
+        assertEquals(2, _underlyingCmm.calls());
+        assertEquals(0, cmm.encryptionCacheHits());
+    }
+
+    @Test
+    public void bypassesCacheForUnknownLength() {
+        CachingCryptoMaterialsManager cmm = CachingCryptoMaterialsManager.builder()
+                .cryptoMaterialsManager(_underlyingCmm)
+                .maxAge(Duration.ofMinutes(5))
+                .build();
+
+        cmm.getEncryptionMaterials(request("a", -1));
+        cmm.getEncryptionMaterials(request("b", -1));
+
+        assertEquals(2, _underlyingCmm.calls());
+        assertEquals(0, cmm.encryptionCacheHits());
+    }
+
+    @Test
+    public void cachesDecryptionMaterials() {
+        CachingCryptoMaterialsManager cmm = CachingCryptoMaterialsManager.builder()
+                .cryptoMaterialsManager(_underlyingCmm)
+                .maxAge(Duration.ofMinutes(5))
+                .build();
+        EncryptionMaterials encryptionMaterials = _underlyingCmm.getEncryptionMaterials(request("a", 1));
+
+        DecryptionMaterials first = cmm.decryptMaterials(decryptRequest(encryptionMaterials, "a"));
+        DecryptionMaterials second = cmm.decryptMaterials(decryptRequest(encryptionMaterials, "b"));
+
+        assertEquals(1, _underlyingCmm.decryptCalls());
+        assertArrayEquals(encryptionMaterials.plaintextDataKey(), first.plaintextDataKey());
+        assertArrayEquals(encryptionMaterials.plaintextDataKey(), second.plaintextDataKey());
+        assertEquals("b", second.s3Request().key());
+        assertEquals(1, cmm.decryptionCacheHits());
+        assertEquals(1, cmm.decryptionCacheMisses());
+        assertEquals(0.5, cmm.decryptionCacheHitRate());
+    }
+
+    @Test
+    public void decryptionCacheMissesOnDifferentEncryptionContext() {
+        CachingCryptoMaterialsManager cmm = CachingCryptoMaterialsManager.builder()
+                .cryptoMaterialsManager(_underlyingCmm)
+                .maxAge(Duration.ofMinutes(5))
+                .build();
+        EncryptionMaterials encryptionMaterials = _underlyingCmm.getEncryptionMaterials(request("a", 1));
+
+        cmm.decryptMaterials(decryptRequest(encryptionMaterials, "a"));
+        cmm.decryptMaterials(DecryptMaterialsRequest.builder()
+                .s3Request(GetObjectRequest.builder().bucket("bucket").key("a").build())
+                .algorithmSuite(encryptionMaterials.algorithmSuite())
+                .encryptedDataKeys(encryptionMaterials.encryptedDataKeys())
+                .encryptionContext(Collections.singletonMap("other", "value"))
+                .build());
+
+        assertEquals(2, _underlyingCmm.decryptCalls());
+        assertEquals(0, cmm.decryptionCacheHits());
+    }
+
+    @Test
+    public void decryptionCacheEvictsLeastRecentlyUsed() {
+        CachingCryptoMaterialsManager cmm = CachingCryptoMaterialsManager.builder()
+                .cryptoMaterialsManager(_underlyingCmm)
+                .maxAge(Duration.ofMinutes(5))
+                .maxCacheEntries(1)
+                .build();
+        EncryptionMaterials first = _underlyingCmm.getEncryptionMaterials(request("a", 1));
+        EncryptionMaterials second = _underlyingCmm.getEncryptionMaterials(request("b", 1));
+
+        cmm.decryptMaterials(decryptRequest(first, "a"));
+        cmm.decryptMaterials(decryptRequest(second, "b"));
+        DecryptionMaterials decryptedAgain = cmm.decryptMaterials(decryptRequest(first, "a"));
+
+        assertEquals(3, _underlyingCmm.decryptCalls());
+        assertArrayEquals(first.plaintextDataKey(), decryptedAgain.plaintextDataKey());
+    }
+
+    @Test
+    public void decryptionCacheExpiresEntries() throws InterruptedException {
+        CachingCryptoMaterialsManager cmm = CachingCryptoMaterialsManager.builder()
+                .cryptoMaterialsManager(_underlyingCmm)
+                .maxAge(Duration.ofMillis(1))
+                .build();
+        EncryptionMaterials encryptionMaterials = _underlyingCmm.getEncryptionMaterials(request("a", 1));
+
+        cmm.decryptMaterials(decryptRequest(encryptionMaterials, "a"));
+        Thread.sleep(5);
+        DecryptionMaterials materials = cmm.decryptMaterials(decryptRequest(encryptionMaterials, "a"));
+
+        assertEquals(2, _underlyingCmm.decryptCalls());
+        assertArrayEquals(encryptionMaterials.plaintextDataKey(), materials.plaintextDataKey());
+    }
+
+    private static DecryptMaterialsRequest decryptRequest(EncryptionMaterials encryptionMaterials, String key) {
+        return DecryptMaterialsRequest.builder()
+                .s3Request(GetObjectRequest.builder().bucket("bucket").key(key).build())
+                .algorithmSuite(encryptionMaterials.algorithmSuite())
+                .encryptedDataKeys(encryptionMaterials.encryptedDataKeys())
+                .encryptionContext(encryptionMaterials.encryptionContext())
+                .build();
+    }
+
+    private static EncryptionMaterialsRequest request(String key, long plaintextLength) {
+        return EncryptionMaterialsRequest.builder()
+                .s3Request(PutObjectRequest.builder().bucket("bucket").key(key).build())
+                .plaintextLength(plaintextLength)
+                .build();
+    }
+
+    private static class CountingCryptoMaterialsManager implements CryptographicMaterialsManager {
+        private final CryptographicMaterialsManager _delegate;
+        private final AtomicInteger _calls = new AtomicInteger(0);
+        private final AtomicInteger _decryptCalls = new AtomicInteger(0);
+
+        CountingCryptoMaterialsManager(CryptographicMaterialsManager delegate) {
+            _delegate = delegate;
+        }
+
+        int calls() {
+            return _calls.get();
+        }
+
+        int decryptCalls() {
+            return _decryptCalls.get();
+        }
+
+        @Override
+        public EncryptionMaterials getEncryptionMaterials(EncryptionMaterialsRequest request) {
+            _calls.incrementAndGet();
+            return _delegate.getEncryptionMaterials(request);
+        }
+
+        @Override
+        public DecryptionMaterials decryptMaterials(DecryptMaterialsRequest request) {
+            _decryptCalls.incrementAndGet();
+            return _delegate.decryptMaterials(request);
+        }
+    }
+}
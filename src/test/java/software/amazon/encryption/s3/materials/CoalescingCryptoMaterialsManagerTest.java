@@ -0,0 +1,181 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.materials;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.encryption.s3.S3EncryptionClientException;
+import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class CoalescingCryptoMaterialsManagerTest {
+
+    private static final byte[] PLAINTEXT_DATA_KEY = new byte[]{1, 2, 3, 4};
+
+    @Test
+    public void concurrentDecryptsShareOneUnderlyingCall() throws Exception {
+        final int concurrency = 8;
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger(0);
+        CryptographicMaterialsManager underlying = new CryptographicMaterialsManager() {
+            @Override
+            public EncryptionMaterials getEncryptionMaterials(EncryptionMaterialsRequest request) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public DecryptionMaterials decryptMaterials(DecryptMaterialsRequest request) {
+                calls.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return materials(request);
+            }
+        };
+        CoalescingCryptoMaterialsManager cmm = CoalescingCryptoMaterialsManager.builder()
+                .cryptoMaterialsManager(underlying)
+                .build();
+
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            List<Future<DecryptionMaterials>> results = new ArrayList<>();
+            for (int i = 0; i < concurrency; i++) {
+                final String key = "key-" + i;
+                results.add(executor.submit(() -> cmm.decryptMaterials(request(key))));
+            }
+            while (cmm.coalescedRequests() < concurrency - 1) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            for (int i = 0; i < concurrency; i++) {
+                DecryptionMaterials materials = results.get(i).get();
+                assertArrayEquals(PLAINTEXT_DATA_KEY, materials.plaintextDataKey());
+                assertEquals("key-" + i, materials.s3Request().key());
+            }
+            assertEquals(1, calls.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void sequentialDecryptsAreNotCoalesced() {
+        AtomicInteger calls = new AtomicInteger(0);
+        CoalescingCryptoMaterialsManager cmm = CoalescingCryptoMaterialsManager.builder()
+                .cryptoMaterialsManager(new CryptographicMaterialsManager() {
+                    @Override
+                    public EncryptionMaterials getEncryptionMaterials(EncryptionMaterialsRequest request) {
+                        throw new UnsupportedOperationException();
+                    }
+
+                    @Override
+                    public DecryptionMaterials decryptMaterials(DecryptMaterialsRequest request) {
+                        calls.incrementAndGet();
+                        throw new S3EncryptionClientException("failed");
+                    }
+                })
+                .build();
+
+        assertThrows(S3EncryptionClientException.class, () -> cmm.decryptMaterials(request("a")));
+        assertThrows(S3EncryptionClientException.class, () -> cmm.decryptMaterials(request("a")));
+        assertEquals(2, calls.get());
+        assertEquals(0, cmm.coalescedRequests());
+    }
+
+    @Test
+    public void asyncConcurrentDecryptsShareOneUnderlyingCall() {
+        AtomicInteger calls = new AtomicInteger(0);
+        CompletableFuture<DecryptionMaterials> pending = new CompletableFuture<>();
+        CoalescingAsyncCryptoMaterialsManager cmm = CoalescingAsyncCryptoMaterialsManager.builder()
+                .cryptoMaterialsManager(new AsyncCryptographicMaterialsManager() {
+                    @Override
+                    public CompletableFuture<EncryptionMaterials> getEncryptionMaterials(EncryptionMaterialsRequest request) {
+                        throw new UnsupportedOperationException();
+                    }
+
+                    @Override
+                    public CompletableFuture<DecryptionMaterials> decryptMaterials(DecryptMaterialsRequest request) {
+                        calls.incrementAndGet();
+                        return pending;
+                    }
+                })
+                .build();
+
+        CompletableFuture<DecryptionMaterials> first = cmm.decryptMaterials(request("a"));
+        CompletableFuture<DecryptionMaterials> second = cmm.decryptMaterials(request("b"));
+        pending.complete(materials(request("a")));
+
+        assertEquals(1, calls.get());
+        assertEquals(1, cmm.coalescedRequests());
+        assertEquals("a", first.join().s3Request().key());
+        assertEquals("b", second.join().s3Request().key());
+        assertArrayEquals(PLAINTEXT_DATA_KEY, second.join().plaintextDataKey());
+
+        // Once complete, a new request starts a new call
+        cmm.decryptMaterials(request("c"));
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void asyncFailureIsSharedByAllWaiters() {
+        CompletableFuture<DecryptionMaterials> pending = new CompletableFuture<>();
+        CoalescingAsyncCryptoMaterialsManager cmm = CoalescingAsyncCryptoMaterialsManager.builder()
+                .cryptoMaterialsManager(new AsyncCryptographicMaterialsManager() {
+                    @Override
+                    public CompletableFuture<EncryptionMaterials> getEncryptionMaterials(EncryptionMaterialsRequest request) {
+                        throw new UnsupportedOperationException();
+                    }
+
+                    @Override
+                    public CompletableFuture<DecryptionMaterials> decryptMaterials(DecryptMaterialsRequest request) {
+                        return pending;
+                    }
+                })
+                .build();
+
+        CompletableFuture<DecryptionMaterials> first = cmm.decryptMaterials(request("a"));
+        CompletableFuture<DecryptionMaterials> second = cmm.decryptMaterials(request("a"));
+        pending.completeExceptionally(new S3EncryptionClientException("failed"));
+
+        assertThrows(CompletionException.class, first::join);
+        assertThrows(CompletionException.class, second::join);
+    }
+
+    private static DecryptMaterialsRequest request(String key) {
+        return DecryptMaterialsRequest.builder()
+                .s3Request(GetObjectRequest.builder().bucket("bucket").key(key).build())
+                .algorithmSuite(AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF)
+                .encryptedDataKeys(Collections.singletonList(EncryptedDataKey.builder()
+                        .keyProviderId(S3Keyring.KEY_PROVIDER_ID)
+                        .keyProviderInfo("kms+context".getBytes(StandardCharsets.UTF_8))
+                        .encryptedDataKey(new byte[]{9, 9, 9})
+                        .build()))
+                .build();
+    }
+
+    private static DecryptionMaterials materials(DecryptMaterialsRequest request) {
+        return DecryptionMaterials.builder()
+                .s3Request(request.s3Request())
+                .algorithmSuite(request.algorithmSuite())
+                .plaintextDataKey(PLAINTEXT_DATA_KEY)
+                .build();
+    }
+}
@@ -7,10 +7,13 @@ import org.junit.jupiter.api.Test;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
 
+import java.security.SecureRandom;
 import java.util.*;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
 class EncryptionMaterialsTest {
 
@@ -69,4 +72,19 @@ class EncryptionMaterialsTest {
         assertEquals(encryptedDataKeys, actualToBuilder.encryptedDataKeys());
         assertEquals(Arrays.toString(plaintextDataKey), Arrays.toString(actualToBuilder.plaintextDataKey()));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testWithNewKdfSalt() {
+        assertSame(actualEncryptionMaterials, actualEncryptionMaterials.withNewKdfSalt(new SecureRandom()));
+
+        EncryptionMaterials kdfMaterials = actualEncryptionMaterials.toBuilder()
+                .algorithmSuite(AlgorithmSuite.ALG_AES_256_GCM_HKDF_SHA512)
+                .build();
+        EncryptionMaterials salted = kdfMaterials.withNewKdfSalt(new SecureRandom());
+        EncryptionMaterials resalted = kdfMaterials.withNewKdfSalt(new SecureRandom());
+        assertEquals(AlgorithmSuite.ALG_AES_256_GCM_HKDF_SHA512.kdfSaltLengthBytes(), salted.kdfSalt().length);
+        assertFalse(Arrays.equals(salted.kdfSalt(), resalted.kdfSalt()));
+        assertEquals(Arrays.toString(plaintextDataKey), Arrays.toString(salted.plaintextDataKey()));
+        assertEquals(encryptedDataKeys, salted.encryptedDataKeys());
+    }
+}
@@ -0,0 +1,154 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.materials;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.kms.KmsAsyncClient;
+import software.amazon.awssdk.services.kms.model.DecryptRequest;
+import software.amazon.awssdk.services.kms.model.DecryptResponse;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyRequest;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.encryption.s3.S3EncryptionClient;
+import software.amazon.encryption.s3.S3EncryptionClientException;
+import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class KmsAsyncKeyringTest {
+
+    private static final byte[] PLAINTEXT_DATA_KEY = new byte[32];
+    private static final byte[] ENCRYPTED_DATA_KEY = "encrypted".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void onEncryptGeneratesDataKey() {
+        KmsAsyncClient kmsClient = mock(KmsAsyncClient.class);
+        when(kmsClient.generateDataKey(any(GenerateDataKeyRequest.class))).thenReturn(CompletableFuture.completedFuture(
+                GenerateDataKeyResponse.builder()
+                        .plaintext(SdkBytes.fromByteArray(PLAINTEXT_DATA_KEY))
+                        .ciphertextBlob(SdkBytes.fromByteArray(ENCRYPTED_DATA_KEY))
+                        .build()));
+        KmsAsyncKeyring keyring = KmsAsyncKeyring.builder()
+                .kmsClient(kmsClient)
+                .wrappingKeyId("key-id")
+                .build();
+
+        EncryptionMaterials materials = keyring.onEncrypt(EncryptionMaterials.builder()
+                .s3Request(PutObjectRequest.builder().bucket("bucket").key("key").build())
+                .algorithmSuite(AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF)
+                .build()).join();
+
+        assertArrayEquals(PLAINTEXT_DATA_KEY, materials.plaintextDataKey());
+        assertEquals(1, materials.encryptedDataKeys().size());
+        EncryptedDataKey encryptedDataKey = materials.encryptedDataKeys().get(0);
+        assertEquals("kms+context", new String(encryptedDataKey.keyProviderInfo(), StandardCharsets.UTF_8));
+        assertArrayEquals(ENCRYPTED_DATA_KEY, encryptedDataKey.encryptedDatakey());
+        assertEquals(AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF.cipherName(),
+                materials.encryptionContext().get("aws:x-amz-cek-alg"));
+    }
+
+    @Test
+    public void onEncryptWithReservedKeyFails() {
+        KmsAsyncClient kmsClient = mock(KmsAsyncClient.class);
+        KmsAsyncKeyring keyring = KmsAsyncKeyring.builder()
+                .kmsClient(kmsClient)
+                .wrappingKeyId("key-id")
+                .build();
+
+        CompletableFuture<EncryptionMaterials> future = keyring.onEncrypt(EncryptionMaterials.builder()
+                .s3Request(PutObjectRequest.builder().bucket("bucket").key("key").build())
+                .encryptionContext(Collections.singletonMap("aws:x-amz-cek-alg", "value"))
+                .build());
+
+        CompletionException exception = assertThrows(CompletionException.class, future::join);
+        assertInstanceOf(S3EncryptionClientException.class, exception.getCause());
+        verify(kmsClient, never()).generateDataKey(any(GenerateDataKeyRequest.class));
+    }
+
+    @Test
+    public void onDecryptDecryptsDataKey() {
+        KmsAsyncClient kmsClient = mock(KmsAsyncClient.class);
+        when(kmsClient.decrypt(any(DecryptRequest.class))).thenReturn(CompletableFuture.completedFuture(
+                DecryptResponse.builder()
+                        .plaintext(SdkBytes.fromByteArray(PLAINTEXT_DATA_KEY))
+                        .build()));
+        KmsAsyncKeyring keyring = KmsAsyncKeyring.builder()
+                .kmsClient(kmsClient)
+                .wrappingKeyId("key-id")
+                .build();
+
+        DecryptionMaterials materials = keyring.onDecrypt(decryptionMaterials(GetObjectRequest.builder().build()),
+                Collections.singletonList(encryptedDataKey("kms+context"))).join();
+
+        assertArrayEquals(PLAINTEXT_DATA_KEY, materials.plaintextDataKey());
+    }
+
+    @Test
+    public void onDecryptWithMismatchedEncryptionContextFails() {
+        KmsAsyncClient kmsClient = mock(KmsAsyncClient.class);
+        KmsAsyncKeyring keyring = KmsAsyncKeyring.builder()
+                .kmsClient(kmsClient)
+                .wrappingKeyId("key-id")
+                .build();
+        GetObjectRequest request = GetObjectRequest.builder()
+                .overrideConfiguration(builder -> builder.putExecutionAttribute(S3EncryptionClient.ENCRYPTION_CONTEXT,
+                        Collections.singletonMap("user", "other")))
+                .build();
+
+        CompletableFuture<DecryptionMaterials> future = keyring.onDecrypt(decryptionMaterials(request),
+                Collections.singletonList(encryptedDataKey("kms+context")));
+
+        CompletionException exception = assertThrows(CompletionException.class, future::join);
+        assertInstanceOf(S3EncryptionClientException.class, exception.getCause());
+        verify(kmsClient, never()).decrypt(any(DecryptRequest.class));
+    }
+
+    @Test
+    public void onDecryptLegacyWithoutLegacyEnabledFails() {
+        KmsAsyncKeyring keyring = KmsAsyncKeyring.builder()
+                .kmsClient(mock(KmsAsyncClient.class))
+                .wrappingKeyId("key-id")
+                .build();
+
+        CompletableFuture<DecryptionMaterials> future = keyring.onDecrypt(decryptionMaterials(GetObjectRequest.builder().build()),
+                Collections.singletonList(encryptedDataKey("kms")));
+
+        CompletionException exception = assertThrows(CompletionException.class, future::join);
+        assertInstanceOf(S3EncryptionClientException.class, exception.getCause());
+    }
+
+    private static DecryptionMaterials decryptionMaterials(GetObjectRequest request) {
+        Map<String, String> encryptionContext = new HashMap<>();
+        encryptionContext.put("aws:x-amz-cek-alg", AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF.cipherName());
+        return DecryptionMaterials.builder()
+                .s3Request(request)
+                .algorithmSuite(AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF)
+                .encryptionContext(encryptionContext)
+                .build();
+    }
+
+    private static EncryptedDataKey encryptedDataKey(String keyProviderInfo) {
+        return EncryptedDataKey.builder()
+                .keyProviderId(S3Keyring.KEY_PROVIDER_ID)
+                .keyProviderInfo(keyProviderInfo.getBytes(StandardCharsets.UTF_8))
+                .encryptedDataKey(ENCRYPTED_DATA_KEY)
+                .build();
+    }
+}
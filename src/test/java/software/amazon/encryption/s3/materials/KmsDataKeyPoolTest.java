@@ -0,0 +1,232 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.materials;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.DataKeySpec;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyRequest;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.encryption.s3.S3EncryptionClientException;
+import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class KmsDataKeyPoolTest {
+
+    private final KmsClient _kmsClient = mock(KmsClient.class);
+
+    @Test
+    public void buildWithInvalidWatermarksFails() {
+        assertThrows(S3EncryptionClientException.class, () -> KmsDataKeyPool.builder()
+                .lowWatermark(10)
+                .highWatermark(5)
+                .build());
+    }
+
+    @Test
+    public void refillsInBackgroundAndHandsOutEachKeyOnce() {
+        AtomicInteger generated = new AtomicInteger(0);
+        Supplier<KmsDataKeyPool.PooledDataKey> generator = () -> {
+            int id = generated.incrementAndGet();
+            return new KmsDataKeyPool.PooledDataKey(new byte[]{(byte) id}, new byte[]{(byte) id});
+        };
+        KmsDataKeyPool pool = KmsDataKeyPool.builder()
+                .lowWatermark(2)
+                .highWatermark(4)
+                .executor(new DirectExecutorService())
+                .build();
+
+        // The first key is generated on the request path, which triggers a refill to the high watermark
+        pool.take(_kmsClient, "key-id", Collections.emptyMap(), DataKeySpec.AES_256, generator);
+        assertEquals(1, pool.keysGeneratedOnRequestPath());
+        assertEquals(4, pool.queueDepth());
+
+        Set<Byte> seen = new HashSet<>();
+        for (int i = 0; i < 10; i++) {
+            KmsDataKeyPool.PooledDataKey dataKey = pool.take(_kmsClient, "key-id", Collections.emptyMap(), DataKeySpec.AES_256, generator);
+            assertTrue(seen.add(dataKey.encryptedDataKey()[0]), "data key handed out more than once");
+        }
+        assertEquals(10, pool.pooledKeysTaken());
+        assertEquals(1, pool.keysGeneratedOnRequestPath());
+        assertTrue(pool.refillCount() >= 10);
+        pool.close();
+    }
+
+    @Test
+    public void partitionsByEncryptionContext() {
+        AtomicInteger generated = new AtomicInteger(0);
+        Supplier<KmsDataKeyPool.PooledDataKey> generator = () -> {
+            generated.incrementAndGet();
+            return new KmsDataKeyPool.PooledDataKey(new byte[1], new byte[1]);
+        };
+        KmsDataKeyPool pool = KmsDataKeyPool.builder()
+                .lowWatermark(1)
+                .highWatermark(2)
+                .maxPartitions(1)
+                .executor(new DirectExecutorService())
+                .build();
+
+        pool.take(_kmsClient, "key-id", Collections.emptyMap(), DataKeySpec.AES_256, generator);
+        assertEquals(2, pool.queueDepth());
+
+        // A second partition exceeds maxPartitions and is not pooled
+        pool.take(_kmsClient, "key-id", Collections.singletonMap("a", "b"), DataKeySpec.AES_256, generator);
+        assertEquals(2, pool.queueDepth());
+        assertEquals(2, pool.keysGeneratedOnRequestPath());
+        pool.close();
+    }
+
+    @Test
+    public void closeZeroesUnusedKeys() {
+        byte[] plaintext = new byte[]{1, 2, 3};
+        KmsDataKeyPool pool = KmsDataKeyPool.builder()
+                .lowWatermark(1)
+                .highWatermark(1)
+                .executor(new DirectExecutorService())
+                .build();
+        AtomicInteger calls = new AtomicInteger(0);
+        // The refill runs before the request path generates its own key, so the first key is pooled
+        pool.take(_kmsClient, "key-id", Collections.emptyMap(), DataKeySpec.AES_256, () -> calls.getAndIncrement() == 0
+                ? new KmsDataKeyPool.PooledDataKey(plaintext, new byte[1])
+                : new KmsDataKeyPool.PooledDataKey(new byte[3], new byte[1]));
+        assertEquals(1, pool.queueDepth());
+
+        pool.close();
+
+        assertArrayEquals(new byte[3], plaintext);
+        assertEquals(0, pool.queueDepth());
+    }
+
+    @Test
+    public void kmsKeyringUsesPooledDataKeys() {
+        KmsClient kmsClient = mock(KmsClient.class);
+        AtomicInteger generated = new AtomicInteger(0);
+        when(kmsClient.generateDataKey(any(GenerateDataKeyRequest.class))).thenAnswer(invocation -> {
+            byte[] plaintext = ByteBuffer.allocate(32).putInt(generated.incrementAndGet()).array();
+            return GenerateDataKeyResponse.builder()
+                    .plaintext(SdkBytes.fromByteArray(plaintext))
+                    .ciphertextBlob(SdkBytes.fromByteArray(plaintext))
+                    .build();
+        });
+        KmsDataKeyPool pool = KmsDataKeyPool.builder()
+                .lowWatermark(1)
+                .highWatermark(3)
+                .executor(new DirectExecutorService())
+                .build();
+        KmsKeyring keyring = KmsKeyring.builder()
+                .kmsClient(kmsClient)
+                .wrappingKeyId("key-id")
+                .dataKeyPool(pool)
+                .build();
+
+        EncryptionMaterials first = keyring.onEncrypt(materials());
+        EncryptionMaterials second = keyring.onEncrypt(materials());
+
+        assertEquals(1, pool.pooledKeysTaken());
+        assertFalse(Arrays.equals(first.plaintextDataKey(), second.plaintextDataKey()));
+        assertArrayEquals(second.plaintextDataKey(), second.encryptedDataKeys().get(0).encryptedDatakey());
+        pool.close();
+    }
+
+    @Test
+    public void keyringsWithDifferentClientsDoNotShareKeys() {
+        KmsDataKeyPool pool = KmsDataKeyPool.builder()
+                .lowWatermark(1)
+                .highWatermark(3)
+                .executor(new DirectExecutorService())
+                .build();
+        KmsKeyring first = KmsKeyring.builder()
+                .kmsClient(clientReturning((byte) 1))
+                .wrappingKeyId("alias/same-key")
+                .dataKeyPool(pool)
+                .build();
+        KmsKeyring second = KmsKeyring.builder()
+                .kmsClient(clientReturning((byte) 2))
+                .wrappingKeyId("alias/same-key")
+                .dataKeyPool(pool)
+                .build();
+
+        first.onEncrypt(materials());
+        for (int i = 0; i < 3; i++) {
+            // Every key the second keyring uses was wrapped by its own client
+            assertEquals(2, second.onEncrypt(materials()).encryptedDataKeys().get(0).encryptedDatakey()[0]);
+        }
+        pool.close();
+    }
+
+    private static KmsClient clientReturning(byte encryptedDataKey) {
+        KmsClient kmsClient = mock(KmsClient.class);
+        when(kmsClient.generateDataKey(any(GenerateDataKeyRequest.class))).thenAnswer(invocation ->
+                GenerateDataKeyResponse.builder()
+                        .plaintext(SdkBytes.fromByteArray(new byte[32]))
+                        .ciphertextBlob(SdkBytes.fromByteArray(new byte[]{encryptedDataKey}))
+                        .build());
+        return kmsClient;
+    }
+
+    private static EncryptionMaterials materials() {
+        return EncryptionMaterials.builder()
+                .s3Request(PutObjectRequest.builder().bucket("bucket").key("key").build())
+                .algorithmSuite(AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF)
+                .build();
+    }
+
+    /**
+     * Runs refills on the calling thread so that tests are deterministic.
+     */
+    private static class DirectExecutorService extends AbstractExecutorService {
+        private boolean _shutdown = false;
+
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+
+        @Override
+        public void shutdown() {
+            _shutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            _shutdown = true;
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return _shutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return _shutdown;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.materials;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.DecryptRequest;
+import software.amazon.awssdk.services.kms.model.DecryptResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.encryption.s3.S3EncryptionClientException;
+import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MultiKeyringTest {
+
+    @Test
+    public void eachKeyringCanDecryptTheDataKey() throws Exception {
+        AesKeyring first = aesKeyring(aesKey());
+        AesKeyring second = aesKeyring(aesKey());
+        MultiKeyring multiKeyring = MultiKeyring.builder()
+                .generator(first)
+                .childKeyrings(second)
+                .build();
+
+        EncryptionMaterials encryptionMaterials = multiKeyring.onEncrypt(encryptionMaterials());
+        assertEquals(2, encryptionMaterials.encryptedDataKeys().size());
+
+        DecryptionMaterials withFirst = first.onDecrypt(decryptionMaterials(), encryptionMaterials.encryptedDataKeys());
+        assertArrayEquals(encryptionMaterials.plaintextDataKey(), withFirst.plaintextDataKey());
+
+        // The second keyring cannot decrypt the first data key, so falls back to its own
+        DecryptionMaterials withSecond = second.onDecrypt(decryptionMaterials(), encryptionMaterials.encryptedDataKeys());
+        assertArrayEquals(encryptionMaterials.plaintextDataKey(), withSecond.plaintextDataKey());
+    }
+
+    @Test
+    public void decryptFallsBackToLaterKeyrings() throws Exception {
+        SecretKey wrappingKey = aesKey();
+        EncryptionMaterials encryptionMaterials = aesKeyring(wrappingKey).onEncrypt(encryptionMaterials());
+
+        MultiKeyring multiKeyring = MultiKeyring.builder()
+                .childKeyrings(aesKeyring(aesKey()), aesKeyring(wrappingKey))
+                .build();
+
+        DecryptionMaterials decryptionMaterials = multiKeyring.onDecrypt(decryptionMaterials(),
+                encryptionMaterials.encryptedDataKeys());
+        assertArrayEquals(encryptionMaterials.plaintextDataKey(), decryptionMaterials.plaintextDataKey());
+    }
+
+    @Test
+    public void decryptFailsWhenNoKeyringCanDecrypt() throws Exception {
+        EncryptionMaterials encryptionMaterials = aesKeyring(aesKey()).onEncrypt(encryptionMaterials());
+        MultiKeyring multiKeyring = MultiKeyring.builder()
+                .childKeyrings(aesKeyring(aesKey()), aesKeyring(aesKey()))
+                .build();
+
+        S3EncryptionClientException exception = assertThrows(S3EncryptionClientException.class,
+                () -> multiKeyring.onDecrypt(decryptionMaterials(), encryptionMaterials.encryptedDataKeys()));
+        assertEquals(1, exception.getSuppressed().length);
+    }
+
+    @Test
+    public void kmsKeyringSkipsDataKeysWrappedByOtherKeys() {
+        KmsClient kmsClient = mock(KmsClient.class);
+        when(kmsClient.decrypt(any(DecryptRequest.class))).thenReturn(DecryptResponse.builder()
+                .plaintext(SdkBytes.fromByteArray(new byte[32]))
+                .build());
+        KmsKeyring keyring = KmsKeyring.builder()
+                .kmsClient(kmsClient)
+                .wrappingKeyId("arn:aws:kms:us-east-1:111122223333:key/mrk-1")
+                .build();
+
+        // A replica of the keyring's multi-Region key matches, another key does not
+        List<EncryptedDataKey> encryptedDataKeys = Arrays.asList(
+                kmsEncryptedDataKey(new byte[]{1}, "arn:aws:kms:us-east-1:111122223333:key/other"),
+                kmsEncryptedDataKey(new byte[]{2}, "arn:aws:kms:us-west-2:111122223333:key/mrk-1"));
+        keyring.onDecrypt(kmsDecryptionMaterials(), encryptedDataKeys);
+
+        ArgumentCaptor<DecryptRequest> request = ArgumentCaptor.forClass(DecryptRequest.class);
+        verify(kmsClient, times(1)).decrypt(request.capture());
+        assertArrayEquals(new byte[]{2}, request.getValue().ciphertextBlob().asByteArray());
+
+        S3EncryptionClientException exception = assertThrows(S3EncryptionClientException.class,
+                () -> keyring.onDecrypt(kmsDecryptionMaterials(), encryptedDataKeys.subList(0, 1)));
+        assertTrue(exception.getMessage().startsWith("None of the 1 encrypted data keys"));
+        verify(kmsClient, times(1)).decrypt(any(DecryptRequest.class));
+    }
+
+    @Test
+    public void kmsKeyIdsMatchByTheKeysId() {
+        assertTrue(KmsKeyring.mayBeSameKmsKey(null, "key-1"));
+        assertTrue(KmsKeyring.mayBeSameKmsKey("arn:aws:kms:us-east-1:111122223333:key/key-1", "key-1"));
+        assertTrue(KmsKeyring.mayBeSameKmsKey("arn:aws:kms:us-east-1:111122223333:key/key-1", "alias/name"));
+        assertFalse(KmsKeyring.mayBeSameKmsKey("arn:aws:kms:us-east-1:111122223333:key/key-1", "key-2"));
+        assertFalse(KmsKeyring.mayBeSameKmsKey("AesKeyring", "key-1"));
+    }
+
+    @Test
+    public void encryptWithoutGeneratorFails() throws Exception {
+        MultiKeyring multiKeyring = MultiKeyring.builder()
+                .childKeyrings(aesKeyring(aesKey()))
+                .build();
+
+        assertThrows(S3EncryptionClientException.class, () -> multiKeyring.onEncrypt(encryptionMaterials()));
+    }
+
+    @Test
+    public void buildWithoutKeyringsFails() {
+        assertThrows(S3EncryptionClientException.class, () -> MultiKeyring.builder().build());
+        assertThrows(S3EncryptionClientException.class, () -> MultiKeyring.builder()
+                .childKeyrings((Keyring) null)
+                .build());
+    }
+
+    private static SecretKey aesKey() throws Exception {
+        KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+        keyGenerator.init(256);
+        return keyGenerator.generateKey();
+    }
+
+    private static AesKeyring aesKeyring(SecretKey wrappingKey) {
+        return AesKeyring.builder()
+                .wrappingKey(wrappingKey)
+                .secureRandom(new SecureRandom())
+                .build();
+    }
+
+    private static EncryptionMaterials encryptionMaterials() {
+        return EncryptionMaterials.builder()
+                .s3Request(PutObjectRequest.builder().bucket("bucket").key("key").build())
+                .algorithmSuite(AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF)
+                .build();
+    }
+
+    private static EncryptedDataKey kmsEncryptedDataKey(byte[] ciphertext, String wrappingKeyId) {
+        return EncryptedDataKey.builder()
+                .keyProviderId(S3Keyring.KEY_PROVIDER_ID)
+                .keyProviderInfo(KmsKeyring.KMS_CONTEXT_KEY_PROVIDER_INFO.getBytes(StandardCharsets.UTF_8))
+                .encryptedDataKey(ciphertext)
+                .wrappingKeyId(wrappingKeyId)
+                .build();
+    }
+
+    private static DecryptionMaterials kmsDecryptionMaterials() {
+        return DecryptionMaterials.builder()
+                .s3Request(GetObjectRequest.builder().bucket("bucket").key("key").build())
+                .algorithmSuite(AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF)
+                .encryptionContext(Collections.singletonMap("aws:x-amz-cek-alg",
+                        AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF.cipherName()))
+                .build();
+    }
+
+    private static DecryptionMaterials decryptionMaterials() {
+        return DecryptionMaterials.builder()
+                .s3Request(GetObjectRequest.builder().bucket("bucket").key("key").build())
+                .algorithmSuite(AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF)
+                .build();
+    }
+}
@@ -0,0 +1,207 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.materials;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.DecryptRequest;
+import software.amazon.awssdk.services.kms.model.DecryptResponse;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyRequest;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyResponse;
+import software.amazon.awssdk.services.kms.model.KmsException;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.encryption.s3.S3EncryptionClient;
+import software.amazon.encryption.s3.S3EncryptionClientException;
+import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MultiRegionKmsKeyringTest {
+
+    private static final byte[] PLAINTEXT_DATA_KEY = new byte[32];
+    private static final byte[] ENCRYPTED_DATA_KEY = "encrypted".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void onEncryptUsesPrimaryRegion() {
+        KmsClient primary = mock(KmsClient.class);
+        KmsClient replica = mock(KmsClient.class);
+        when(primary.generateDataKey(any(GenerateDataKeyRequest.class))).thenReturn(GenerateDataKeyResponse.builder()
+                .plaintext(SdkBytes.fromByteArray(PLAINTEXT_DATA_KEY))
+                .ciphertextBlob(SdkBytes.fromByteArray(ENCRYPTED_DATA_KEY))
+                .build());
+        MultiRegionKmsKeyring keyring = MultiRegionKmsKeyring.builder()
+                .addRegion("us-west-2", replica, "replica-key")
+                .addRegion("us-east-1", primary, "primary-key")
+                .primaryRegion("us-east-1")
+                .build();
+
+        EncryptionMaterials materials = keyring.onEncrypt(EncryptionMaterials.builder()
+                .s3Request(PutObjectRequest.builder().bucket("bucket").key("key").build())
+                .algorithmSuite(AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF)
+                .build());
+
+        assertArrayEquals(ENCRYPTED_DATA_KEY, materials.encryptedDataKeys().get(0).encryptedDatakey());
+        verify(replica, never()).generateDataKey(any(GenerateDataKeyRequest.class));
+        keyring.close();
+    }
+
+    @Test
+    public void slowRegionIsHedged() {
+        CountDownLatch release = new CountDownLatch(1);
+        KmsClient slow = mock(KmsClient.class);
+        when(slow.decrypt(any(DecryptRequest.class))).thenAnswer(invocation -> {
+            release.await(10, TimeUnit.SECONDS);
+            return decryptResponse();
+        });
+        KmsClient fast = mock(KmsClient.class);
+        when(fast.decrypt(any(DecryptRequest.class))).thenReturn(decryptResponse());
+        MultiRegionKmsKeyring keyring = MultiRegionKmsKeyring.builder()
+                .addRegion("us-east-1", slow, "key-1")
+                .addRegion("us-west-2", fast, "key-2")
+                .hedgeDelay(Duration.ofMillis(10))
+                .build();
+
+        try {
+            DecryptionMaterials materials = keyring.onDecrypt(decryptionMaterials(GetObjectRequest.builder().build()),
+                    encryptedDataKeys());
+            assertArrayEquals(PLAINTEXT_DATA_KEY, materials.plaintextDataKey());
+            assertTrue(keyring.latencyEwmaNanos().get("us-west-2") > 0);
+        } finally {
+            release.countDown();
+            keyring.close();
+        }
+    }
+
+    @Test
+    public void failedRegionFailsOverAndIsDeprioritized() {
+        KmsClient failing = mock(KmsClient.class);
+        when(failing.decrypt(any(DecryptRequest.class))).thenThrow(KmsException.builder().message("throttled").build());
+        KmsClient healthy = mock(KmsClient.class);
+        when(healthy.decrypt(any(DecryptRequest.class))).thenReturn(decryptResponse());
+        MultiRegionKmsKeyring keyring = MultiRegionKmsKeyring.builder()
+                .addRegion("us-east-1", failing, "key-1")
+                .addRegion("us-west-2", healthy, "key-2")
+                .hedgeDelay(Duration.ofSeconds(10))
+                .build();
+
+        DecryptionMaterials materials = keyring.onDecrypt(decryptionMaterials(GetObjectRequest.builder().build()),
+                encryptedDataKeys());
+
+        assertArrayEquals(PLAINTEXT_DATA_KEY, materials.plaintextDataKey());
+        Map<String, Long> latencies = keyring.latencyEwmaNanos();
+        assertTrue(latencies.get("us-east-1") > latencies.get("us-west-2"));
+        keyring.close();
+    }
+
+    @Test
+    public void failsOverWithSeveralEncryptedDataKeys() {
+        KmsClient failing = mock(KmsClient.class);
+        when(failing.decrypt(any(DecryptRequest.class))).thenThrow(KmsException.builder().message("throttled").build());
+        KmsClient healthy = mock(KmsClient.class);
+        when(healthy.decrypt(any(DecryptRequest.class))).thenReturn(decryptResponse());
+        MultiRegionKmsKeyring keyring = MultiRegionKmsKeyring.builder()
+                .addRegion("us-east-1", failing, "key-1")
+                .addRegion("us-west-2", healthy, "key-2")
+                .primaryRegion("us-east-1")
+                .hedgeDelay(Duration.ofSeconds(10))
+                .build();
+        List<EncryptedDataKey> encryptedDataKeys = new ArrayList<>(encryptedDataKeys());
+        encryptedDataKeys.addAll(encryptedDataKeys());
+
+        // The regional keyring collects both KMS failures into one S3EncryptionClientException
+        DecryptionMaterials materials = keyring.onDecrypt(decryptionMaterials(GetObjectRequest.builder().build()),
+                encryptedDataKeys);
+
+        assertArrayEquals(PLAINTEXT_DATA_KEY, materials.plaintextDataKey());
+        keyring.close();
+    }
+
+    @Test
+    public void allRegionsFailing() {
+        KmsClient first = mock(KmsClient.class);
+        when(first.decrypt(any(DecryptRequest.class))).thenThrow(KmsException.builder().message("first").build());
+        KmsClient second = mock(KmsClient.class);
+        when(second.decrypt(any(DecryptRequest.class))).thenThrow(KmsException.builder().message("second").build());
+        MultiRegionKmsKeyring keyring = MultiRegionKmsKeyring.builder()
+                .addRegion("us-east-1", first, "key-1")
+                .addRegion("us-west-2", second, "key-2")
+                .build();
+
+        KmsException exception = assertThrows(KmsException.class, () -> keyring.onDecrypt(
+                decryptionMaterials(GetObjectRequest.builder().build()), encryptedDataKeys()));
+        assertEquals(1, exception.getSuppressed().length);
+        keyring.close();
+    }
+
+    @Test
+    public void encryptionContextMismatchIsNotRetried() {
+        KmsClient first = mock(KmsClient.class);
+        KmsClient second = mock(KmsClient.class);
+        MultiRegionKmsKeyring keyring = MultiRegionKmsKeyring.builder()
+                .addRegion("us-east-1", first, "key-1")
+                .addRegion("us-west-2", second, "key-2")
+                .build();
+        GetObjectRequest request = GetObjectRequest.builder()
+                .overrideConfiguration(builder -> builder.putExecutionAttribute(S3EncryptionClient.ENCRYPTION_CONTEXT,
+                        Collections.singletonMap("user", "other")))
+                .build();
+
+        assertThrows(S3EncryptionClientException.class, () -> keyring.onDecrypt(decryptionMaterials(request),
+                encryptedDataKeys()));
+        verify(first, never()).decrypt(any(DecryptRequest.class));
+        verify(second, never()).decrypt(any(DecryptRequest.class));
+        keyring.close();
+    }
+
+    @Test
+    public void buildWithUnknownPrimaryRegionFails() {
+        assertThrows(S3EncryptionClientException.class, () -> MultiRegionKmsKeyring.builder()
+                .addRegion("us-east-1", mock(KmsClient.class), "key-1")
+                .primaryRegion("eu-west-1")
+                .build());
+    }
+
+    private static DecryptResponse decryptResponse() {
+        return DecryptResponse.builder()
+                .plaintext(SdkBytes.fromByteArray(PLAINTEXT_DATA_KEY))
+                .build();
+    }
+
+    private static DecryptionMaterials decryptionMaterials(GetObjectRequest request) {
+        Map<String, String> encryptionContext = new HashMap<>();
+        encryptionContext.put("aws:x-amz-cek-alg", AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF.cipherName());
+        return DecryptionMaterials.builder()
+                .s3Request(request)
+                .algorithmSuite(AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF)
+                .encryptionContext(encryptionContext)
+                .build();
+    }
+
+    private static List<EncryptedDataKey> encryptedDataKeys() {
+        return Collections.singletonList(EncryptedDataKey.builder()
+                .keyProviderId(S3Keyring.KEY_PROVIDER_ID)
+                .keyProviderInfo("kms+context".getBytes(StandardCharsets.UTF_8))
+                .encryptedDataKey(ENCRYPTED_DATA_KEY)
+                .build());
+    }
+}
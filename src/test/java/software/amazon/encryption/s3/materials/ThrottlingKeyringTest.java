@@ -0,0 +1,150 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.materials;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.kms.model.KmsException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.encryption.s3.S3EncryptionClientException;
+import software.amazon.encryption.s3.algorithms.AlgorithmSuite;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ThrottlingKeyringTest {
+
+    @Test
+    public void throttlingCutsLimitAndSuccessRaisesIt() {
+        AtomicInteger throttlesRemaining = new AtomicInteger(1);
+        ThrottlingKeyring keyring = ThrottlingKeyring.builder()
+                .keyring(keyring(() -> throttlesRemaining.getAndDecrement() > 0))
+                .initialLimit(8)
+                .build();
+
+        assertThrows(KmsException.class, () -> keyring.onEncrypt(materials()));
+        assertEquals(4, keyring.currentLimit());
+        assertEquals(1, keyring.throttlingErrors());
+
+        for (int i = 0; i < 5; i++) {
+            keyring.onEncrypt(materials());
+        }
+        assertEquals(5, keyring.currentLimit());
+        assertFalse(keyring.isCircuitOpen());
+    }
+
+    @Test
+    public void circuitOpensAfterConsecutiveThrottles() {
+        AtomicInteger calls = new AtomicInteger(0);
+        ThrottlingKeyring keyring = ThrottlingKeyring.builder()
+                .keyring(keyring(() -> calls.incrementAndGet() > 0))
+                .circuitBreakerThreshold(2)
+                .circuitBreakerOpenDuration(Duration.ofHours(1))
+                .build();
+
+        assertThrows(KmsException.class, () -> keyring.onEncrypt(materials()));
+        assertThrows(KmsException.class, () -> keyring.onEncrypt(materials()));
+        assertTrue(keyring.isCircuitOpen());
+
+        assertThrows(S3EncryptionClientException.class, () -> keyring.onEncrypt(materials()));
+        assertEquals(2, calls.get());
+        assertEquals(1, keyring.rejectedByCircuitBreaker());
+    }
+
+    @Test
+    public void successfulTrialClosesCircuit() {
+        AtomicInteger throttlesRemaining = new AtomicInteger(1);
+        ThrottlingKeyring keyring = ThrottlingKeyring.builder()
+                .keyring(keyring(() -> throttlesRemaining.getAndDecrement() > 0))
+                .circuitBreakerThreshold(1)
+                .circuitBreakerOpenDuration(Duration.ZERO)
+                .build();
+
+        assertThrows(KmsException.class, () -> keyring.onEncrypt(materials()));
+        assertTrue(keyring.isCircuitOpen());
+
+        keyring.onEncrypt(materials());
+        assertFalse(keyring.isCircuitOpen());
+    }
+
+    @Test
+    public void callsOverLimitAreShed() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ThrottlingKeyring keyring = ThrottlingKeyring.builder()
+                .keyring(keyring(() -> {
+                    started.countDown();
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    return false;
+                }))
+                .initialLimit(1)
+                .maxLimit(1)
+                .maxQueueSize(1)
+                .queueTimeout(Duration.ofMillis(10))
+                .build();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<EncryptionMaterials> running = executor.submit(() -> keyring.onEncrypt(materials()));
+            started.await();
+            assertEquals(1, keyring.inFlight());
+
+            assertThrows(S3EncryptionClientException.class, () -> keyring.onEncrypt(materials()));
+            assertEquals(1, keyring.shedRequests());
+            assertEquals(0, keyring.queueDepth());
+
+            release.countDown();
+            running.get();
+            keyring.onEncrypt(materials());
+            assertEquals(0, keyring.inFlight());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A keyring which throws a KMS throttling error whenever the supplier returns true.
+     */
+    private static Keyring keyring(Supplier<Boolean> throttle) {
+        return new Keyring() {
+            @Override
+            public EncryptionMaterials onEncrypt(EncryptionMaterials materials) {
+                if (throttle.get()) {
+                    throw KmsException.builder()
+                            .awsErrorDetails(AwsErrorDetails.builder().errorCode("ThrottlingException").build())
+                            .statusCode(400)
+                            .build();
+                }
+                return materials;
+            }
+
+            @Override
+            public DecryptionMaterials onDecrypt(DecryptionMaterials materials, List<EncryptedDataKey> encryptedDataKeys) {
+                return materials;
+            }
+        };
+    }
+
+    private static EncryptionMaterials materials() {
+        return EncryptionMaterials.builder()
+                .s3Request(PutObjectRequest.builder().bucket("bucket").key("key").build())
+                .algorithmSuite(AlgorithmSuite.ALG_AES_256_GCM_IV12_TAG16_NO_KDF)
+                .build();
+    }
+}
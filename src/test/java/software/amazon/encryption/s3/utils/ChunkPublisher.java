@@ -0,0 +1,59 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.utils;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Test utility class.
+ * Publishes a byte array in chunks of a given size, as they are requested, on the requesting thread.
+ * Nothing more is published once the subscription is cancelled.
+ */
+public class ChunkPublisher implements Publisher<ByteBuffer> {
+    private final byte[] _bytes;
+    private final int _chunkSize;
+
+    public ChunkPublisher(byte[] bytes, int chunkSize) {
+        _bytes = bytes;
+        _chunkSize = chunkSize;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super ByteBuffer> subscriber) {
+        subscriber.onSubscribe(new Subscription() {
+            private long _requested;
+            private int _offset;
+            private boolean _emitting;
+            private boolean _done;
+
+            @Override
+            public synchronized void request(long n) {
+                _requested = _requested + n < 0 ? Long.MAX_VALUE : _requested + n;
+                if (_emitting) {
+                    return;
+                }
+                _emitting = true;
+                while (_requested > 0 && _offset < _bytes.length && !_done) {
+                    int length = Math.min(_chunkSize, _bytes.length - _offset);
+                    _requested--;
+                    _offset += length;
+                    subscriber.onNext(ByteBuffer.wrap(_bytes, _offset - length, length));
+                }
+                if (_offset == _bytes.length && !_done) {
+                    _done = true;
+                    subscriber.onComplete();
+                }
+                _emitting = false;
+            }
+
+            @Override
+            public synchronized void cancel() {
+                _done = true;
+            }
+        });
+    }
+}
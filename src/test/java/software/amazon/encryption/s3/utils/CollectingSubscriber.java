@@ -0,0 +1,59 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.utils;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Test utility class.
+ * Collects every byte it receives, requesting them all as soon as it is subscribed. Any error fails
+ * the test. It is also a Subscription which ignores its signals, for subscribers under test which
+ * are subscribed to directly.
+ */
+public class CollectingSubscriber implements Subscriber<ByteBuffer>, Subscription {
+    private final ByteArrayOutputStream _output = new ByteArrayOutputStream();
+    private volatile int _completions;
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+        // For subscribers which respect demand
+        subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onNext(ByteBuffer byteBuffer) {
+        while (byteBuffer.hasRemaining()) {
+            _output.write(byteBuffer.get());
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        throw new AssertionError(t);
+    }
+
+    @Override
+    public void onComplete() {
+        _completions++;
+    }
+
+    @Override
+    public void request(long n) {
+    }
+
+    @Override
+    public void cancel() {
+    }
+
+    public byte[] bytes() {
+        return _output.toByteArray();
+    }
+
+    public int completions() {
+        return _completions;
+    }
+}
@@ -0,0 +1,77 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.utils;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test utility class.
+ * Records each buffer, error, and "complete" in the order they are received. It requests the
+ * given initial demand when subscribed, if any, and nothing more itself.
+ */
+public class RecordingDownstream implements Subscriber<ByteBuffer> {
+    private final long _initialDemand;
+    private final List<Object> _signals = new ArrayList<>();
+    private Subscription _subscription;
+
+    public RecordingDownstream() {
+        this(0);
+    }
+
+    public RecordingDownstream(long initialDemand) {
+        _initialDemand = initialDemand;
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+        _subscription = subscription;
+        if (_initialDemand > 0) {
+            subscription.request(_initialDemand);
+        }
+    }
+
+    @Override
+    public void onNext(ByteBuffer byteBuffer) {
+        _signals.add(byteBuffer);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        _signals.add(t);
+    }
+
+    @Override
+    public void onComplete() {
+        _signals.add("complete");
+    }
+
+    public List<Object> signals() {
+        return _signals;
+    }
+
+    public Subscription subscription() {
+        return _subscription;
+    }
+
+    /**
+     * @return the bytes of every buffer received, in order
+     */
+    public byte[] bytes() {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (Object signal : _signals) {
+            if (signal instanceof ByteBuffer) {
+                ByteBuffer buffer = ((ByteBuffer) signal).duplicate();
+                byte[] bytes = new byte[buffer.remaining()];
+                buffer.get(bytes);
+                output.write(bytes, 0, bytes.length);
+            }
+        }
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,33 @@
+// Copyright Amazon.com Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+package software.amazon.encryption.s3.utils;
+
+import org.reactivestreams.Subscription;
+
+/**
+ * Test utility class.
+ * A subscription which publishes nothing, and records the demand signalled to it and whether
+ * it was cancelled.
+ */
+public class RecordingUpstream implements Subscription {
+    private long _requested;
+    private boolean _cancelled;
+
+    @Override
+    public void request(long n) {
+        _requested += n;
+    }
+
+    @Override
+    public void cancel() {
+        _cancelled = true;
+    }
+
+    public long requested() {
+        return _requested;
+    }
+
+    public boolean isCancelled() {
+        return _cancelled;
+    }
+}